@@ -0,0 +1,468 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg;
+
+import au.gov.aims.layers2svg.graphics.PackedPath;
+import au.gov.aims.sld.PropertyValue;
+import au.gov.aims.sld.geom.GeoShape;
+import au.gov.aims.sld.geom.GeoShapeGroup;
+
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of parsed layers (GeoJSONShape, CSVShape, etc), shared by the whole application.
+ *
+ * A long running render service loads the same layer files for every request.
+ * The cache keeps the parsed shapes in memory, as long as the file doesn't change
+ * (the key contains the canonical path of the file, its last modified date and its size).
+ *
+ * The cache is limited by the estimated heap size of the parsed shapes.
+ * When the budget is exceeded, the least recently used layers are evicted.
+ * A layer larger than the whole budget is returned without being cached.
+ * Evicted layers can optionally be kept as soft references; the garbage collector
+ * reclaims them only when the memory is needed.
+ *
+ * The cached GeoShapeGroup are shared between callers; they must not be modified.
+ *
+ * Example:
+ *   GeoShapeGroup mainland = LayerCache.getInstance().get(LayerSource.geoJson(mainlandFile, "Mainland"));
+ */
+public class LayerCache {
+	private static final Logger LOGGER = Logger.getLogger(LayerCache.class.getSimpleName());
+
+	public static final long DEFAULT_MAX_WEIGHT = 256L * 1024 * 1024;
+
+	// Rough estimations of the heap used by the parsed objects, in bytes (64 bits JVM, compressed pointers)
+	private static final long SHAPE_OVERHEAD = 64;
+	private static final long POINT_OVERHEAD = 32;
+	private static final long COORDINATE_SIZE = 8;
+	private static final long SEGMENT_TYPE_SIZE = 4;
+	private static final long PROPERTY_OVERHEAD = 48;
+	private static final long STRING_OVERHEAD = 40;
+
+	private static LayerCache instance = null;
+
+	private long maxWeight;
+	private boolean softReferencesEnabled;
+
+	// Access ordered: the first entry is the least recently used
+	private final LinkedHashMap<CacheKey, CacheEntry> entries;
+	private long weight;
+
+	// Evicted entries, reclaimed by the garbage collector when the memory is needed
+	private final Map<CacheKey, SoftEntry> softEntries;
+	private final ReferenceQueue<GeoShapeGroup> softQueue;
+
+	public LayerCache(long maxWeight) {
+		if (maxWeight < 0) {
+			throw new IllegalArgumentException("Invalid maximum weight: " + maxWeight);
+		}
+		this.maxWeight = maxWeight;
+		this.softReferencesEnabled = false;
+		this.entries = new LinkedHashMap<CacheKey, CacheEntry>(16, 0.75f, true);
+		this.weight = 0;
+		this.softEntries = new HashMap<CacheKey, SoftEntry>();
+		this.softQueue = new ReferenceQueue<GeoShapeGroup>();
+	}
+
+	/**
+	 * @return The cache shared by the whole application, limited to DEFAULT_MAX_WEIGHT.
+	 */
+	public static synchronized LayerCache getInstance() {
+		if (instance == null) {
+			instance = new LayerCache(DEFAULT_MAX_WEIGHT);
+		}
+		return instance;
+	}
+
+	/**
+	 * @param maxWeight The maximum estimated heap size of the cached layers, in bytes.
+	 */
+	public synchronized void setMaxWeight(long maxWeight) {
+		if (maxWeight < 0) {
+			throw new IllegalArgumentException("Invalid maximum weight: " + maxWeight);
+		}
+		this.maxWeight = maxWeight;
+		this.evict();
+	}
+
+	public synchronized long getMaxWeight() {
+		return this.maxWeight;
+	}
+
+	/**
+	 * Keep the evicted layers as soft references, instead of dropping them.
+	 */
+	public synchronized void setSoftReferencesEnabled(boolean softReferencesEnabled) {
+		this.softReferencesEnabled = softReferencesEnabled;
+		if (!softReferencesEnabled) {
+			this.softEntries.clear();
+		}
+	}
+
+	public synchronized boolean isSoftReferencesEnabled() {
+		return this.softReferencesEnabled;
+	}
+
+	/**
+	 * @return The estimated heap size of the layers in the cache, in bytes.
+	 *   Layers kept as soft references are not counted.
+	 */
+	public synchronized long getWeight() {
+		return this.weight;
+	}
+
+	/**
+	 * @return The number of layers in the cache, without the layers kept as soft references.
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Return the parsed layer from the cache, or parse the file and add it to the cache.
+	 * The file is parsed outside of the cache lock; layers can be loaded concurrently.
+	 */
+	public GeoShapeGroup get(LayerSource source) throws IOException {
+		CacheKey key = new CacheKey(source);
+
+		GeoShapeGroup group = this.getCached(key);
+		if (group != null) {
+			return group;
+		}
+
+		group = source.parse();
+		return this.put(key, group);
+	}
+
+	/**
+	 * Remove all versions of the file from the cache.
+	 */
+	public synchronized void invalidate(File file) throws IOException {
+		String path = file.getCanonicalPath();
+		this.removePath(path);
+	}
+
+	public synchronized void clear() {
+		this.entries.clear();
+		this.softEntries.clear();
+		this.weight = 0;
+	}
+
+	private synchronized GeoShapeGroup getCached(CacheKey key) {
+		CacheEntry entry = this.entries.get(key);
+		if (entry != null) {
+			return entry.group;
+		}
+
+		this.purgeSoftEntries();
+		SoftEntry softEntry = this.softEntries.remove(key);
+		if (softEntry != null) {
+			GeoShapeGroup group = softEntry.get();
+			if (group != null && softEntry.weight > this.maxWeight) {
+				// Too large for the cache, it would evict every other layer
+				this.softEntries.put(key, softEntry);
+				return group;
+			}
+			if (group != null) {
+				// Back to the LRU list
+				this.entries.put(key, new CacheEntry(group, softEntry.weight));
+				this.weight += softEntry.weight;
+				this.evict();
+				return group;
+			}
+		}
+
+		return null;
+	}
+
+	private synchronized GeoShapeGroup put(CacheKey key, GeoShapeGroup group) {
+		// The layer may have been loaded by an other thread in the meantime
+		CacheEntry existing = this.entries.get(key);
+		if (existing != null) {
+			return existing.group;
+		}
+
+		// Previous versions of the file are useless.
+		// The layers parsed from the current version, with other options, are kept.
+		this.removeOtherVersions(key);
+
+		long groupWeight = LayerCache.estimateWeight(group);
+		if (groupWeight > this.maxWeight) {
+			// Adding the layer would evict every other layer, then the layer itself
+			LOGGER.log(Level.FINE, String.format("Layer %s is too large to be cached", key.path));
+			if (this.softReferencesEnabled) {
+				this.softEntries.put(key, new SoftEntry(key, group, groupWeight, this.softQueue));
+			}
+			return group;
+		}
+		this.entries.put(key, new CacheEntry(group, groupWeight));
+		this.weight += groupWeight;
+		this.evict();
+
+		return group;
+	}
+
+	/**
+	 * Remove the entries of the file of the key which have a different modification date or size.
+	 */
+	private void removeOtherVersions(CacheKey key) {
+		Iterator<Map.Entry<CacheKey, CacheEntry>> entryIterator = this.entries.entrySet().iterator();
+		while (entryIterator.hasNext()) {
+			Map.Entry<CacheKey, CacheEntry> entry = entryIterator.next();
+			if (entry.getKey().isOtherVersion(key)) {
+				this.weight -= entry.getValue().weight;
+				entryIterator.remove();
+			}
+		}
+
+		Iterator<CacheKey> softKeyIterator = this.softEntries.keySet().iterator();
+		while (softKeyIterator.hasNext()) {
+			if (softKeyIterator.next().isOtherVersion(key)) {
+				softKeyIterator.remove();
+			}
+		}
+	}
+
+	private void removePath(String path) {
+		Iterator<Map.Entry<CacheKey, CacheEntry>> entryIterator = this.entries.entrySet().iterator();
+		while (entryIterator.hasNext()) {
+			Map.Entry<CacheKey, CacheEntry> entry = entryIterator.next();
+			if (entry.getKey().path.equals(path)) {
+				this.weight -= entry.getValue().weight;
+				entryIterator.remove();
+			}
+		}
+
+		Iterator<CacheKey> softKeyIterator = this.softEntries.keySet().iterator();
+		while (softKeyIterator.hasNext()) {
+			if (softKeyIterator.next().path.equals(path)) {
+				softKeyIterator.remove();
+			}
+		}
+	}
+
+	// Evict the least recently used layers until the cache is within its budget
+	private void evict() {
+		Iterator<Map.Entry<CacheKey, CacheEntry>> entryIterator = this.entries.entrySet().iterator();
+		while (this.weight > this.maxWeight && entryIterator.hasNext()) {
+			Map.Entry<CacheKey, CacheEntry> entry = entryIterator.next();
+			CacheKey key = entry.getKey();
+			CacheEntry cacheEntry = entry.getValue();
+			entryIterator.remove();
+			this.weight -= cacheEntry.weight;
+
+			if (this.softReferencesEnabled) {
+				this.softEntries.put(key, new SoftEntry(key, cacheEntry.group, cacheEntry.weight, this.softQueue));
+			}
+			LOGGER.log(Level.FINE, String.format("Layer %s evicted from the cache", key.path));
+		}
+	}
+
+	private void purgeSoftEntries() {
+		SoftEntry cleared;
+		while ((cleared = (SoftEntry)this.softQueue.poll()) != null) {
+			// Do not remove a newer soft entry with the same key
+			if (this.softEntries.get(cleared.key) == cleared) {
+				this.softEntries.remove(cleared.key);
+			}
+		}
+	}
+
+	/**
+	 * Estimate the heap size used by a parsed layer:
+	 *   vertex count x coordinate size, plus the size of the properties.
+	 * Strings shared between features (property names, interned values) are counted for each feature;
+	 * the estimation is an upper bound.
+	 * @return The estimated size, in bytes.
+	 */
+	public static long estimateWeight(GeoShapeGroup group) {
+		if (group == null) {
+			return 0;
+		}
+
+		long groupWeight = SHAPE_OVERHEAD;
+
+		List<GeoShape> geoShapes = group.getGeoShapes();
+		if (geoShapes != null) {
+			double[] coords = new double[6];
+			for (GeoShape geoShape : geoShapes) {
+				groupWeight += SHAPE_OVERHEAD + LayerCache.estimateShapeWeight(geoShape.getShape(), coords);
+				groupWeight += LayerCache.estimatePropertiesWeight(geoShape.getProperties());
+			}
+		}
+
+		List<GeoShapeGroup> subGroups = group.getGeoShapeGroups();
+		if (subGroups != null) {
+			for (GeoShapeGroup subGroup : subGroups) {
+				groupWeight += LayerCache.estimateWeight(subGroup);
+			}
+		}
+
+		return groupWeight;
+	}
+
+	private static long estimateShapeWeight(Object shape, double[] coords) {
+		if (shape instanceof Point2D) {
+			return POINT_OVERHEAD;
+		}
+		if (shape instanceof PackedPath) {
+			PackedPath packedPath = (PackedPath)shape;
+			return packedPath.getPointCount() * 2 * COORDINATE_SIZE + (packedPath.getRingCount() + 1) * SEGMENT_TYPE_SIZE;
+		}
+		if (shape instanceof Shape) {
+			long shapeWeight = 0;
+			PathIterator pathIterator = ((Shape)shape).getPathIterator(null);
+			while (!pathIterator.isDone()) {
+				int type = pathIterator.currentSegment(coords);
+				shapeWeight += SEGMENT_TYPE_SIZE;
+				switch (type) {
+					case PathIterator.SEG_MOVETO:
+					case PathIterator.SEG_LINETO:
+						shapeWeight += 2 * COORDINATE_SIZE;
+						break;
+					case PathIterator.SEG_QUADTO:
+						shapeWeight += 4 * COORDINATE_SIZE;
+						break;
+					case PathIterator.SEG_CUBICTO:
+						shapeWeight += 6 * COORDINATE_SIZE;
+						break;
+				}
+				pathIterator.next();
+			}
+			return shapeWeight;
+		}
+		return 0;
+	}
+
+	private static long estimatePropertiesWeight(Map<String, PropertyValue> properties) {
+		if (properties == null) {
+			return 0;
+		}
+		long propertiesWeight = SHAPE_OVERHEAD;
+		for (Map.Entry<String, PropertyValue> property : properties.entrySet()) {
+			propertiesWeight += PROPERTY_OVERHEAD + LayerCache.estimateStringWeight(property.getKey());
+			PropertyValue value = property.getValue();
+			if (value != null) {
+				propertiesWeight += LayerCache.estimateStringWeight(value.getStringValue());
+			}
+		}
+		return propertiesWeight;
+	}
+
+	private static long estimateStringWeight(String str) {
+		return str == null ? 0 : STRING_OVERHEAD + 2L * str.length();
+	}
+
+	private static class CacheKey {
+		private final String path;
+		private final long lastModified;
+		private final long length;
+		// The parse options which change the parsed layer
+		private final String options;
+
+		public CacheKey(LayerSource source) throws IOException {
+			File file = source.getFile();
+			this.path = file.getCanonicalPath();
+			this.lastModified = file.lastModified();
+			this.length = file.length();
+
+			List<Object> optionList = new ArrayList<Object>();
+			optionList.add(source.getFormat());
+			optionList.add(source.getName());
+			optionList.add(source.getLongitudeColumnName());
+			optionList.add(source.getLatitudeColumnName());
+			Set<String> propertyNames = source.getPropertyNames();
+			optionList.add(propertyNames == null ? null : new TreeSet<String>(propertyNames));
+			Rectangle2D queryWindow = source.getQueryWindow();
+			optionList.add(queryWindow == null ? null : queryWindow.getBounds2D());
+			this.options = optionList.toString();
+		}
+
+		/**
+		 * @return True if the key is for the same file, with a different modification date or size.
+		 */
+		public boolean isOtherVersion(CacheKey other) {
+			return this.path.equals(other.path) &&
+					(this.lastModified != other.lastModified || this.length != other.length);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (o == null || this.getClass() != o.getClass()) {
+				return false;
+			}
+			CacheKey other = (CacheKey)o;
+			return this.lastModified == other.lastModified &&
+					this.length == other.length &&
+					this.path.equals(other.path) &&
+					this.options.equals(other.options);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = this.path.hashCode();
+			result = 31 * result + (int)(this.lastModified ^ (this.lastModified >>> 32));
+			result = 31 * result + (int)(this.length ^ (this.length >>> 32));
+			result = 31 * result + this.options.hashCode();
+			return result;
+		}
+	}
+
+	private static class CacheEntry {
+		private final GeoShapeGroup group;
+		private final long weight;
+
+		public CacheEntry(GeoShapeGroup group, long weight) {
+			this.group = group;
+			this.weight = weight;
+		}
+	}
+
+	private static class SoftEntry extends SoftReference<GeoShapeGroup> {
+		private final CacheKey key;
+		private final long weight;
+
+		public SoftEntry(CacheKey key, GeoShapeGroup group, long weight, ReferenceQueue<GeoShapeGroup> queue) {
+			super(group, queue);
+			this.key = key;
+			this.weight = weight;
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg;
+
+import au.gov.aims.sld.geom.Layer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parse layer files concurrently.
+ *
+ * Loading a map used to parse each layer one after the other
+ * (mainland, reefs, catchments, bounds, cities, etc). The loader parses
+ * them in parallel, so the map is ready as soon as the slowest layer is parsed.
+ * The layers are always returned in the same order as the sources.
+ *
+ * Example:
+ *   LayerLoader loader = new LayerLoader(4);
+ *   List<Layer> layers = loader.load(Arrays.asList(
+ *       LayerSource.geoJson(mainlandFile, "Mainland"),
+ *       LayerSource.csv(citiesFile, "Cities", "LONGITUDE", "LATITUDE")));
+ *   ...
+ *   loader.shutdown();
+ */
+public class LayerLoader {
+	private static final AtomicInteger LOADER_COUNT = new AtomicInteger(0);
+
+	private final ExecutorService executor;
+	// The executor is shutdown with the loader only when it was created by the loader
+	private final boolean ownExecutor;
+
+	private LayerCache layerCache;
+
+	/**
+	 * Loader with its own pool of threads. Call shutdown() when the loader is no longer needed.
+	 * @param threads The maximum number of layers parsed at the same time.
+	 */
+	public LayerLoader(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Invalid number of threads: " + threads);
+		}
+		this.executor = Executors.newFixedThreadPool(threads, new LoaderThreadFactory());
+		this.ownExecutor = true;
+		this.layerCache = null;
+	}
+
+	/**
+	 * Loader using an executor shared with the rest of the application.
+	 * The executor is not shutdown by the loader.
+	 */
+	public LayerLoader(ExecutorService executor) {
+		if (executor == null) {
+			throw new IllegalArgumentException("Executor can not be null");
+		}
+		this.executor = executor;
+		this.ownExecutor = false;
+		this.layerCache = null;
+	}
+
+	/**
+	 * Get the parsed layers from the cache, when available.
+	 * Example: loader.setLayerCache(LayerCache.getInstance());
+	 * @param layerCache The cache, or null to always parse the files.
+	 */
+	public void setLayerCache(LayerCache layerCache) {
+		this.layerCache = layerCache;
+	}
+
+	public LayerCache getLayerCache() {
+		return this.layerCache;
+	}
+
+	public Future<Layer> submit(final LayerSource source) {
+		return this.executor.submit(new Callable<Layer>() {
+			@Override
+			public Layer call() throws Exception {
+				return LayerLoader.this.loadLayer(source);
+			}
+		});
+	}
+
+	/**
+	 * Start parsing the layers, without waiting for them.
+	 * @return The futures, in the same order as the sources.
+	 */
+	public List<Future<Layer>> submit(List<LayerSource> sources) {
+		List<Future<Layer>> futures = new ArrayList<Future<Layer>>(sources.size());
+		for (LayerSource source : sources) {
+			futures.add(this.submit(source));
+		}
+		return futures;
+	}
+
+	/**
+	 * Parse the layers and wait for all of them.
+	 * If a layer can not be loaded, the layers which are not loaded yet are cancelled.
+	 * @return The layers, in the same order as the sources.
+	 * @throws IOException If one of the layer can not be loaded. It's the exception of the first failed source.
+	 */
+	public List<Layer> load(List<LayerSource> sources) throws IOException {
+		List<Future<Layer>> futures = this.submit(sources);
+		List<Layer> layers = new ArrayList<Layer>(futures.size());
+
+		for (int i=0; i<futures.size(); i++) {
+			try {
+				layers.add(futures.get(i).get());
+			} catch (InterruptedException ex) {
+				this.cancel(futures);
+				Thread.currentThread().interrupt();
+				InterruptedIOException ioException = new InterruptedIOException(
+						String.format("Interrupted while loading the layer %s", sources.get(i)));
+				ioException.initCause(ex);
+				throw ioException;
+			} catch (ExecutionException ex) {
+				this.cancel(futures);
+				Throwable cause = ex.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException)cause;
+				}
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException)cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error)cause;
+				}
+				throw new IOException(String.format("Can not load the layer %s", sources.get(i)), cause);
+			}
+		}
+
+		return layers;
+	}
+
+	/**
+	 * Shutdown the thread pool, if it was created by the loader.
+	 * The layers which are already submitted are still loaded.
+	 */
+	public void shutdown() {
+		if (this.ownExecutor) {
+			this.executor.shutdown();
+		}
+	}
+
+	private Layer loadLayer(LayerSource source) throws IOException {
+		LayerCache cache = this.layerCache;
+		if (cache == null) {
+			return source.load();
+		}
+
+		// The Layer is cheap to create; only the parsed shapes are cached
+		Layer layer = new Layer(source.getName());
+		layer.add(cache.get(source));
+		return layer;
+	}
+
+	private void cancel(List<Future<Layer>> futures) {
+		for (Future<Layer> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	/**
+	 * Daemon threads, to not prevent the JVM from exiting if the loader is not shutdown.
+	 */
+	private static class LoaderThreadFactory implements ThreadFactory {
+		private final int loaderNumber;
+		private final AtomicInteger threadCount;
+
+		public LoaderThreadFactory() {
+			this.loaderNumber = LOADER_COUNT.incrementAndGet();
+			this.threadCount = new AtomicInteger(0);
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "layer-loader-" + this.loaderNumber + "-" + this.threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg;
+
+import au.gov.aims.layers2svg.graphics.CSVShape;
+import au.gov.aims.layers2svg.graphics.GeoJSONShape;
+import au.gov.aims.sld.geom.GeoShapeGroup;
+import au.gov.aims.sld.geom.Layer;
+
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Description of a layer file to load with the LayerLoader.
+ *
+ * Example:
+ *   LayerSource mainland = LayerSource.geoJson(new File("Mainland_300m.geojson"), "Mainland");
+ *   LayerSource cities = LayerSource.csv(new File("cities.csv"), "Cities", "LONGITUDE", "LATITUDE");
+ */
+public class LayerSource {
+	public enum Format {
+		GEOJSON,
+		GEOJSON_SEQUENCE,
+		CSV
+	}
+
+	private final Format format;
+	private final File file;
+	private final String name;
+
+	// CSV only
+	private final String longitudeColumnName;
+	private final String latitudeColumnName;
+
+	private boolean cacheEnabled;
+	private Set<String> propertyNames;
+
+	// GeoJSON only
+	private Rectangle2D queryWindow;
+
+	private LayerSource(Format format, File file, String name, String longitudeColumnName, String latitudeColumnName) {
+		if (file == null) {
+			throw new IllegalArgumentException("File can not be null");
+		}
+		this.format = format;
+		this.file = file;
+		this.name = name;
+		this.longitudeColumnName = longitudeColumnName;
+		this.latitudeColumnName = latitudeColumnName;
+		this.cacheEnabled = false;
+		this.propertyNames = null;
+		this.queryWindow = null;
+	}
+
+	public static LayerSource geoJson(File geoJsonFile, String name) {
+		return new LayerSource(Format.GEOJSON, geoJsonFile, name, null, null);
+	}
+
+	/**
+	 * GeoJSON text sequence (RFC 8142) or newline delimited GeoJSON.
+	 */
+	public static LayerSource geoJsonSequence(File geoJsonSeqFile, String name) {
+		return new LayerSource(Format.GEOJSON_SEQUENCE, geoJsonSeqFile, name, null, null);
+	}
+
+	public static LayerSource csv(File csvFile, String name, String longitudeColumnName, String latitudeColumnName) {
+		return new LayerSource(Format.CSV, csvFile, name, longitudeColumnName, latitudeColumnName);
+	}
+
+	public Format getFormat() {
+		return this.format;
+	}
+
+	public File getFile() {
+		return this.file;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public String getLongitudeColumnName() {
+		return this.longitudeColumnName;
+	}
+
+	public String getLatitudeColumnName() {
+		return this.latitudeColumnName;
+	}
+
+	/**
+	 * See GeoJSONShape.setCacheEnabled and CSVShape.setCacheEnabled
+	 */
+	public void setCacheEnabled(boolean cacheEnabled) {
+		this.cacheEnabled = cacheEnabled;
+	}
+
+	public boolean isCacheEnabled() {
+		return this.cacheEnabled;
+	}
+
+	/**
+	 * See GeoJSONShape.setPropertyNames and CSVShape.setPropertyNames
+	 */
+	public void setPropertyNames(Set<String> propertyNames) {
+		this.propertyNames = propertyNames;
+	}
+
+	public Set<String> getPropertyNames() {
+		return this.propertyNames;
+	}
+
+	/**
+	 * Only load the features which intersect the query window.
+	 */
+	public void setQueryWindow(Rectangle2D queryWindow) {
+		this.queryWindow = queryWindow;
+	}
+
+	public Rectangle2D getQueryWindow() {
+		return this.queryWindow;
+	}
+
+	/**
+	 * Parse the file into a GeoJSONShape or a CSVShape.
+	 * This method is called by the LayerLoader threads; it can be called directly
+	 * to load a layer in the current thread.
+	 */
+	public GeoShapeGroup parse() throws IOException {
+		switch (this.format) {
+			case GEOJSON:
+				GeoJSONShape geoJsonShape = new GeoJSONShape(this.name);
+				geoJsonShape.setCacheEnabled(this.cacheEnabled);
+				geoJsonShape.setPropertyNames(this.propertyNames);
+				geoJsonShape.parse(this.file, this.queryWindow);
+				return geoJsonShape;
+
+			case GEOJSON_SEQUENCE:
+				GeoJSONShape geoJsonSeqShape = new GeoJSONShape(this.name);
+				geoJsonSeqShape.setCacheEnabled(this.cacheEnabled);
+				geoJsonSeqShape.setPropertyNames(this.propertyNames);
+				geoJsonSeqShape.parseSequence(this.file, this.queryWindow);
+				return geoJsonSeqShape;
+
+			case CSV:
+				CSVShape csvShape = new CSVShape(this.file, this.name, this.longitudeColumnName, this.latitudeColumnName);
+				csvShape.setCacheEnabled(this.cacheEnabled);
+				csvShape.setPropertyNames(this.propertyNames);
+				csvShape.parse(this.queryWindow);
+				return csvShape;
+
+			default:
+				throw new IllegalStateException("Unsupported layer format: " + this.format);
+		}
+	}
+
+	/**
+	 * Parse the file and wrap the shapes in a Layer, ready to be styled.
+	 */
+	public Layer load() throws IOException {
+		Layer layer = new Layer(this.name);
+		layer.add(this.parse());
+		return layer;
+	}
+
+	@Override
+	public String toString() {
+		return this.format + " layer \"" + this.name + "\": " + this.file;
+	}
+}
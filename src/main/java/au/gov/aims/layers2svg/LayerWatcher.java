@@ -0,0 +1,361 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg;
+
+import au.gov.aims.sld.geom.GeoShapeGroup;
+import au.gov.aims.sld.geom.Layer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watch a directory of layer files and reload the layers when their file change,
+ * without restarting the application.
+ *
+ * Only the modified file is parsed again, in a background thread. The new shapes
+ * replace the old ones atomically: a render which already got the shapes of a layer
+ * keeps using them until it's done. If the new file can not be parsed
+ * (for example, if it's still being copied), the old shapes are kept.
+ *
+ * Example:
+ *   LayerWatcher watcher = new LayerWatcher(new File("/data/layers"));
+ *   LayerWatcher.WatchedLayer mainland = watcher.watch(LayerSource.geoJson(new File("/data/layers/mainland.geojson"), "Mainland"));
+ *   watcher.start();
+ *   ...
+ *   // For each render
+ *   Layer mainlandLayer = mainland.getLayer();
+ *   ...
+ *   watcher.close();
+ */
+public class LayerWatcher implements Closeable {
+	private static final Logger LOGGER = Logger.getLogger(LayerWatcher.class.getSimpleName());
+
+	// Files are usually written in many chunks, which trigger many events.
+	// Wait for the file to be quiet before parsing it.
+	public static final long DEFAULT_DEBOUNCE_DELAY = 500;
+
+	private final Path directory;
+	private final WatchService watchService;
+	private final ScheduledExecutorService reloadExecutor;
+
+	// Key: absolute path of the layer file
+	private final ConcurrentHashMap<Path, List<WatchedLayer>> watchedLayers;
+	private final ConcurrentHashMap<Path, ReloadTask> pendingReloads;
+
+	private LayerCache layerCache;
+	private long debounceDelay;
+	private Thread watchThread;
+
+	public LayerWatcher(File directory) throws IOException {
+		if (directory == null || !directory.isDirectory()) {
+			throw new IOException(String.format("Invalid layer directory: %s", directory));
+		}
+		this.directory = directory.toPath().toAbsolutePath().normalize();
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.directory.register(this.watchService,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY,
+				StandardWatchEventKinds.ENTRY_DELETE);
+
+		this.reloadExecutor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("layer-watcher-reload"));
+		this.watchedLayers = new ConcurrentHashMap<Path, List<WatchedLayer>>();
+		this.pendingReloads = new ConcurrentHashMap<Path, ReloadTask>();
+		this.layerCache = null;
+		this.debounceDelay = DEFAULT_DEBOUNCE_DELAY;
+		this.watchThread = null;
+	}
+
+	/**
+	 * Parse the layers with the cache, when available.
+	 * @param layerCache The cache, or null to always parse the files.
+	 */
+	public void setLayerCache(LayerCache layerCache) {
+		this.layerCache = layerCache;
+	}
+
+	public LayerCache getLayerCache() {
+		return this.layerCache;
+	}
+
+	/**
+	 * @param debounceDelay Time to wait after the last change of a file before parsing it, in milliseconds.
+	 */
+	public void setDebounceDelay(long debounceDelay) {
+		if (debounceDelay < 0) {
+			throw new IllegalArgumentException("Invalid debounce delay: " + debounceDelay);
+		}
+		this.debounceDelay = debounceDelay;
+	}
+
+	public long getDebounceDelay() {
+		return this.debounceDelay;
+	}
+
+	/**
+	 * Parse the layer and reload it every time its file change.
+	 * The layer is parsed in the current thread.
+	 * @param source The layer, which file must be in the watched directory.
+	 */
+	public WatchedLayer watch(LayerSource source) throws IOException {
+		Path path = source.getFile().toPath().toAbsolutePath().normalize();
+		if (!this.directory.equals(path.getParent())) {
+			throw new IOException(String.format("The layer file %s is not in the watched directory %s",
+					path, this.directory));
+		}
+
+		WatchedLayer watchedLayer = new WatchedLayer(source, this.parse(source));
+
+		List<WatchedLayer> layers = this.watchedLayers.get(path);
+		if (layers == null) {
+			layers = new CopyOnWriteArrayList<WatchedLayer>();
+			List<WatchedLayer> existingLayers = this.watchedLayers.putIfAbsent(path, layers);
+			if (existingLayers != null) {
+				layers = existingLayers;
+			}
+		}
+		layers.add(watchedLayer);
+
+		return watchedLayer;
+	}
+
+	/**
+	 * Start watching the directory, in a background thread.
+	 */
+	public synchronized void start() {
+		if (this.watchThread != null) {
+			return;
+		}
+		this.watchThread = new DaemonThreadFactory("layer-watcher").newThread(new Runnable() {
+			@Override
+			public void run() {
+				LayerWatcher.this.watchLoop();
+			}
+		});
+		this.watchThread.start();
+	}
+
+	/**
+	 * Stop watching the directory. The layers keep their last shapes.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		this.reloadExecutor.shutdownNow();
+		this.watchService.close();
+		if (this.watchThread != null) {
+			this.watchThread.interrupt();
+			this.watchThread = null;
+		}
+	}
+
+	private void watchLoop() {
+		try {
+			while (true) {
+				WatchKey key = this.watchService.take();
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						// Some events were lost, reload everything
+						for (Path path : this.watchedLayers.keySet()) {
+							this.scheduleReload(path);
+						}
+					} else {
+						Path path = this.directory.resolve((Path)event.context());
+						if (this.watchedLayers.containsKey(path)) {
+							this.scheduleReload(path);
+						}
+					}
+				}
+				if (!key.reset()) {
+					LOGGER.log(Level.WARNING, String.format("The layer directory %s is no longer accessible", this.directory));
+					return;
+				}
+			}
+		} catch (InterruptedException ex) {
+			// The watcher is closed
+		} catch (ClosedWatchServiceException ex) {
+			// The watcher is closed
+		}
+	}
+
+	// Reload the file once it stopped changing for debounceDelay ms
+	private void scheduleReload(Path path) {
+		ReloadTask reloadTask = new ReloadTask(path);
+		ReloadTask pendingReload = this.pendingReloads.put(path, reloadTask);
+		if (pendingReload != null) {
+			pendingReload.cancel();
+		}
+
+		try {
+			reloadTask.future = this.reloadExecutor.schedule(reloadTask, this.debounceDelay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException ex) {
+			// The watcher is closed
+			this.pendingReloads.remove(path, reloadTask);
+		}
+	}
+
+	private void reload(Path path) {
+		if (!path.toFile().isFile()) {
+			LOGGER.log(Level.WARNING, String.format("The layer file %s was deleted. Keeping the last loaded shapes.", path));
+			return;
+		}
+
+		List<WatchedLayer> layers = this.watchedLayers.get(path);
+		if (layers != null) {
+			for (WatchedLayer layer : layers) {
+				try {
+					layer.setGroup(this.parse(layer.getSource()));
+				} catch (Exception ex) {
+					LOGGER.log(Level.WARNING, String.format("Can not reload the layer %s. Keeping the last loaded shapes.",
+							layer.getSource()), ex);
+				} finally {
+					layer.reloadAttempts.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	private GeoShapeGroup parse(LayerSource source) throws IOException {
+		LayerCache cache = this.layerCache;
+		if (cache == null) {
+			return source.parse();
+		}
+		return cache.get(source);
+	}
+
+	/**
+	 * A layer which shapes are replaced every time its file change.
+	 */
+	public static class WatchedLayer {
+		private final LayerSource source;
+		private final AtomicReference<GeoShapeGroup> group;
+		private final AtomicLong version;
+		private final AtomicLong reloadAttempts;
+
+		private WatchedLayer(LayerSource source, GeoShapeGroup group) {
+			this.source = source;
+			this.group = new AtomicReference<GeoShapeGroup>(group);
+			this.version = new AtomicLong(0);
+			this.reloadAttempts = new AtomicLong(0);
+		}
+
+		public LayerSource getSource() {
+			return this.source;
+		}
+
+		/**
+		 * @return The last loaded shapes. Call this method once per render,
+		 *   to use the same shapes for the whole render.
+		 */
+		public GeoShapeGroup getGroup() {
+			return this.group.get();
+		}
+
+		/**
+		 * @return A Layer containing the last loaded shapes.
+		 */
+		public Layer getLayer() {
+			Layer layer = new Layer(this.source.getName());
+			layer.add(this.getGroup());
+			return layer;
+		}
+
+		/**
+		 * @return The number of times the layer was reloaded.
+		 */
+		public long getVersion() {
+			return this.version.get();
+		}
+
+		/**
+		 * @return The number of times the file was parsed again,
+		 *   including the attempts which failed and kept the last loaded shapes.
+		 */
+		public long getReloadAttempts() {
+			return this.reloadAttempts.get();
+		}
+
+		private void setGroup(GeoShapeGroup group) {
+			this.group.set(group);
+			this.version.incrementAndGet();
+		}
+	}
+
+	// A scheduled reload of a file. Only the last scheduled task of a file
+	// is in pendingReloads; the older ones are cancelled.
+	private class ReloadTask implements Runnable {
+		private final Path path;
+		private volatile ScheduledFuture<?> future;
+
+		public ReloadTask(Path path) {
+			this.path = path;
+			this.future = null;
+		}
+
+		public void cancel() {
+			ScheduledFuture<?> scheduledFuture = this.future;
+			if (scheduledFuture != null) {
+				scheduledFuture.cancel(false);
+			}
+		}
+
+		@Override
+		public void run() {
+			// Only remove this task; a new event may have already scheduled a newer one.
+			// If this task was replaced, the newer task will reload the file.
+			if (LayerWatcher.this.pendingReloads.remove(this.path, this)) {
+				LayerWatcher.this.reload(this.path);
+			}
+		}
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final String name;
+
+		public DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, this.name);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
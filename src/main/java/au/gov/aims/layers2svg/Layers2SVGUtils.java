@@ -18,6 +18,15 @@
  */
 package au.gov.aims.layers2svg;
 
+import au.gov.aims.layers2svg.graphics.PackedPath;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import java.awt.Shape;
 import java.awt.geom.Path2D;
 import java.awt.geom.PathIterator;
@@ -31,8 +40,13 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
 
 public class Layers2SVGUtils {
+	// Maximum distance between a curve and its flattened lines, in device pixels. See cropOpenShape
+	private static final double CROP_FLATNESS = 0.1;
+
 	/**
 	 * Read a UTF-8 file into a String.
 	 * @param file
@@ -109,10 +123,58 @@ public class Layers2SVGUtils {
 		return sb.toString();
 	}
 
+	/**
+	 * Find the name of all the properties used in a SLD file
+	 * (filters, labels, etc), to only load those properties.
+	 * See GeoJSONShape.setPropertyNames and CSVShape.setPropertyNames.
+	 * @param sldInputStream
+	 * @return The content of every "ogc:PropertyName" elements.
+	 * @throws IOException
+	 */
+	public static Set<String> getSLDPropertyNames(InputStream sldInputStream) throws IOException {
+		Document document;
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			// The SLD may come from a request; do not resolve DOCTYPEs or external entities (XXE)
+			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+			factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+			factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+			factory.setXIncludeAware(false);
+			factory.setExpandEntityReferences(false);
+			DocumentBuilder builder = factory.newDocumentBuilder();
+			document = builder.parse(sldInputStream);
+		} catch(ParserConfigurationException | SAXException ex) {
+			throw new IOException("Invalid SLD document", ex);
+		}
+
+		Set<String> propertyNames = new HashSet<String>();
+		NodeList propertyNameElements = document.getElementsByTagNameNS("*", "PropertyName");
+		for (int i=0; i<propertyNameElements.getLength(); i++) {
+			String propertyName = propertyNameElements.item(i).getTextContent();
+			if (propertyName != null) {
+				propertyName = propertyName.trim();
+				if (!propertyName.isEmpty()) {
+					propertyNames.add(propertyName);
+				}
+			}
+		}
+		return propertyNames;
+	}
+
+	/**
+	 * @return True if at least one of the rings of the shape is closed.
+	 *   See ShapeMetadata, which is cached for the shapes of the layers.
+	 */
 	public static boolean isClosed(Shape shape) {
+		if (shape instanceof PackedPath) {
+			return ((PackedPath)shape).getMetadata().isClosed();
+		}
+
 		PathIterator iterator = shape.getPathIterator(null);
+		double[] coords = new double[6];
 		while (!iterator.isDone()) {
-			double[] coords = new double[6];
 			int type = iterator.currentSegment(coords);
 			if (type == PathIterator.SEG_CLOSE) {
 				return true;
@@ -126,8 +188,8 @@ public class Layers2SVGUtils {
 		Path2D openShape = new Path2D.Double();
 
 		PathIterator iterator = shape.getPathIterator(null);
+		double[] coords = new double[6];
 		while (!iterator.isDone()) {
-			double[] coords = new double[6];
 			int type = iterator.currentSegment(coords);
 
 			switch (type) {
@@ -156,9 +218,125 @@ public class Layers2SVGUtils {
 		return openShape;
 	}
 
+	/**
+	 * Crop the lines of an open path (rivers, coastlines, etc) to the cropping area.
+	 * Each segment is clipped to the area (Liang-Barsky); the parts of the lines
+	 * which are inside the area are returned as separate lines (visible runs).
+	 * The curves are flattened to lines, with a precision of CROP_FLATNESS.
+	 * NOTE: Use an Area to crop closed shapes (polygons).
+	 * @return The visible lines, or null if the shape is completely outside the cropping area.
+	 */
 	public static Shape cropOpenShape(Shape shape, Rectangle2D croppingArea) {
-		// TODO Implement this!
-		return shape;
+		double minX = croppingArea.getMinX(), maxX = croppingArea.getMaxX();
+		double minY = croppingArea.getMinY(), maxY = croppingArea.getMaxY();
+
+		PackedPath.Builder builder = new PackedPath.Builder();
+		// Parameters of the visible part of the segment [ t0, t1 ]
+		double[] clip = new double[2];
+		double[] coords = new double[6];
+
+		// Start of the current ring and current point
+		double startX = 0, startY = 0;
+		double x0 = 0, y0 = 0;
+		// True when the current point is the last point of the builder
+		boolean drawing = false;
+
+		PathIterator iterator = shape.getPathIterator(null, CROP_FLATNESS);
+		while (!iterator.isDone()) {
+			int type = iterator.currentSegment(coords);
+			double x1, y1;
+			if (type == PathIterator.SEG_MOVETO) {
+				startX = x0 = coords[0];
+				startY = y0 = coords[1];
+				drawing = false;
+				iterator.next();
+				continue;
+			} else if (type == PathIterator.SEG_CLOSE) {
+				x1 = startX;
+				y1 = startY;
+			} else {
+				// SEG_LINETO; the flattening iterator do not return curves
+				x1 = coords[0];
+				y1 = coords[1];
+			}
+
+			// Segments which only touch a corner of the cropping area are ignored
+			if (Layers2SVGUtils.clipSegment(x0, y0, x1, y1, minX, minY, maxX, maxY, clip) &&
+					(drawing || clip[0] < clip[1])) {
+				double dx = x1 - x0, dy = y1 - y0;
+				if (!drawing || clip[0] > 0) {
+					// The line enters the cropping area: start a new line
+					builder.moveTo(
+							clip[0] > 0 ? x0 + clip[0] * dx : x0,
+							clip[0] > 0 ? y0 + clip[0] * dy : y0);
+				}
+				if (clip[1] < 1) {
+					// The line leaves the cropping area
+					builder.lineTo(x0 + clip[1] * dx, y0 + clip[1] * dy);
+					drawing = false;
+				} else {
+					builder.lineTo(x1, y1);
+					drawing = true;
+				}
+			} else {
+				drawing = false;
+			}
+
+			x0 = x1;
+			y0 = y1;
+			iterator.next();
+		}
+
+		if (builder.isEmpty()) {
+			return null;
+		}
+		return builder.build(iterator.getWindingRule(), false);
+	}
+
+	/**
+	 * Liang-Barsky line clipping.
+	 * @param clip Output: the parameters [ t0, t1 ] of the visible part of the segment,
+	 *   from 0 (x0, y0) to 1 (x1, y1).
+	 * @return False if the segment is completely outside the rectangle.
+	 */
+	private static boolean clipSegment(double x0, double y0, double x1, double y1,
+			double minX, double minY, double maxX, double maxY, double[] clip) {
+		double dx = x1 - x0, dy = y1 - y0;
+		if (Double.isNaN(dx) || Double.isNaN(dy)) {
+			return false;
+		}
+		clip[0] = 0;
+		clip[1] = 1;
+		return Layers2SVGUtils.clipEdge(-dx, x0 - minX, clip) &&
+				Layers2SVGUtils.clipEdge(dx, maxX - x0, clip) &&
+				Layers2SVGUtils.clipEdge(-dy, y0 - minY, clip) &&
+				Layers2SVGUtils.clipEdge(dy, maxY - y0, clip);
+	}
+
+	private static boolean clipEdge(double p, double q, double[] clip) {
+		if (p == 0) {
+			// Parallel to the edge: visible if it's on the inner side
+			return q >= 0;
+		}
+		double t = q / p;
+		if (p < 0) {
+			// Entering
+			if (t > clip[1]) {
+				return false;
+			}
+			if (t > clip[0]) {
+				clip[0] = t;
+			}
+		} else {
+			// Leaving
+			if (t < clip[0]) {
+				return false;
+			}
+			if (t < clip[1]) {
+				clip[1] = t;
+			}
+		}
+		return true;
 	}
 
 	public static BufferedImage removeAlphaChannel(BufferedImage rgbaImage) {
@@ -0,0 +1,586 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import au.gov.aims.sld.PropertyValue;
+import au.gov.aims.sld.geom.GeoShape;
+import au.gov.aims.sld.geom.GeoShapeGroup;
+import org.json.JSONObject;
+
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Binary copy of the shapes parsed from a file, saved next to the file
+ * (see getCacheFile). Each set of parsing parameters has its own cache file,
+ * so two layers parsed from the same file (different CSV columns, for example)
+ * do not overwrite each other's cache. Loading the binary file is a lot faster than parsing
+ * the source file again: the file is memory mapped, the coordinates are
+ * copied in bulk into PackedPath and the property values are already typed.
+ *
+ * The cache is invalid when the source file size is different. When only the
+ * modification date is different (file copied, touched, etc), the content
+ * hash of the source file is checked, and the new date is saved in the cache file
+ * so the file is not hashed again on the next load.
+ *
+ * File format (big endian), version 2:
+ *   int     magic number "L2SC"
+ *   int     version
+ *   long    source file size
+ *   long    source file last modified
+ *   byte[]  SHA-256 of the source file (32 bytes)
+ *   string  parameters used to parse the source file (CSV columns, etc)
+ *   int     number of shapes
+ *   int     number of property keys, followed by the keys (string)
+ *   int     number of strings, followed by the strings (string table)
+ *   shapes  for each shape:
+ *             byte kind: 0 = point, 1 = path
+ *             point: double x, double y
+ *             path:  byte winding rule, byte closed,
+ *                    int ring count, int[] ring offsets,
+ *                    int point count, double[] coordinates
+ *   columns for each property key:
+ *             byte[] value type of each shape
+ *             long[] value of each shape (string table index, integer, double bits, etc)
+ *
+ * Strings are written as an int length followed by the UTF-8 bytes.
+ */
+public class BinaryShapeCache {
+	private static final Logger LOGGER = Logger.getLogger(BinaryShapeCache.class.getSimpleName());
+
+	public static final String CACHE_FILE_EXTENSION = ".l2sc";
+
+	private static final int MAGIC = 0x4C325343; // "L2SC"
+	private static final int VERSION = 2;
+	private static final int HASH_LENGTH = 32;
+	// Position of the source file last modified in the header
+	private static final int SOURCE_LAST_MODIFIED_OFFSET = 16;
+
+	private static final byte SHAPE_POINT = 0;
+	private static final byte SHAPE_PATH = 1;
+
+	private static final byte VALUE_ABSENT = 0;
+	private static final byte VALUE_NULL = 1;
+	private static final byte VALUE_STRING = 2;
+	private static final byte VALUE_INTEGER = 3;
+	private static final byte VALUE_LONG = 4;
+	private static final byte VALUE_DOUBLE = 5;
+	private static final byte VALUE_FALSE = 6;
+	private static final byte VALUE_TRUE = 7;
+	private static final byte VALUE_JSON_NULL = 8;
+
+	private BinaryShapeCache() {}
+
+	/**
+	 * @param parameters Parameters used to parse the source file. Their hash is part of the file name.
+	 */
+	public static File getCacheFile(File sourceFile, String parameters) {
+		int parametersHash = parameters == null ? 0 : parameters.hashCode();
+		return new File(String.format("%s.%08x%s", sourceFile.getPath(), parametersHash, CACHE_FILE_EXTENSION));
+	}
+
+	/**
+	 * Load the shapes from the cache file of the source file, if it's valid.
+	 * @param parameters Parameters used to parse the source file. The cache is invalid if they are different.
+	 * @return true if the shapes were loaded. false if there is no valid cache file.
+	 */
+	public static boolean load(File sourceFile, String parameters, GeoShapeGroup group) {
+		File cacheFile = getCacheFile(sourceFile, parameters);
+		if (!cacheFile.isFile() || !sourceFile.isFile()) {
+			return false;
+		}
+
+		// Taken before the source file is hashed, see updateSourceLastModified
+		long sourceLastModified = sourceFile.lastModified();
+		boolean sameDate;
+		try {
+			FileInputStream inputStream = new FileInputStream(cacheFile);
+			try {
+				FileChannel channel = inputStream.getChannel();
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if (!isValid(buffer, sourceFile, sourceLastModified, parameters)) {
+					return false;
+				}
+				sameDate = buffer.getLong(SOURCE_LAST_MODIFIED_OFFSET) == sourceLastModified;
+				read(buffer, group);
+			} finally {
+				inputStream.close();
+			}
+		} catch(IOException | BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException ex) {
+			// The shapes are only added to the group once the whole file is read
+			LOGGER.log(Level.WARNING, "Invalid cache file: " + cacheFile, ex);
+			return false;
+		}
+
+		if (!sameDate) {
+			updateSourceLastModified(cacheFile, sourceFile, sourceLastModified);
+		}
+		return true;
+	}
+
+	/**
+	 * The content of the source file matched its hash, but not its date.
+	 * Save the new date, so the next loads do not hash the whole file again.
+	 */
+	private static void updateSourceLastModified(File cacheFile, File sourceFile, long sourceLastModified) {
+		// The source file was modified while it was hashed
+		if (sourceFile.lastModified() != sourceLastModified) {
+			return;
+		}
+
+		try {
+			RandomAccessFile randomAccessFile = new RandomAccessFile(cacheFile, "rw");
+			try {
+				ByteBuffer buffer = ByteBuffer.allocate(8);
+				buffer.putLong(0, sourceLastModified);
+				randomAccessFile.getChannel().write(buffer, SOURCE_LAST_MODIFIED_OFFSET);
+			} finally {
+				randomAccessFile.close();
+			}
+		} catch(IOException ex) {
+			LOGGER.log(Level.WARNING, "Can not update the cache file: " + cacheFile, ex);
+		}
+	}
+
+	/**
+	 * Save the shapes of the group in the cache file of the source file.
+	 * The cache file is written to a new temporary file first, so a cache file
+	 * is never partially written, even when the same source file is cached by
+	 * many threads at once.
+	 * @param sourceStamp The stamp of the source file, taken before it was parsed (see SourceStamp.of).
+	 *   The cache is not written if the source file was modified since.
+	 * @return false if the shapes can not be saved in a cache file (curves, sub groups, source file modified, etc).
+	 */
+	public static boolean write(File sourceFile, SourceStamp sourceStamp, String parameters, GeoShapeGroup group) throws IOException {
+		// The source file changed while it was parsed; the shapes may not match any version of the file
+		if (!sourceStamp.isSameSizeAndDate(sourceFile)) {
+			return false;
+		}
+
+		List<GeoShapeGroup> subGroups = group.getGeoShapeGroups();
+		if (subGroups != null && !subGroups.isEmpty()) {
+			return false;
+		}
+		List<GeoShape> geoShapes = group.getGeoShapes();
+		if (geoShapes == null) {
+			geoShapes = new ArrayList<GeoShape>();
+		}
+
+		// Convert the shapes first, to know if they can be saved
+		List<Object> shapes = new ArrayList<Object>(geoShapes.size());
+		for (GeoShape geoShape : geoShapes) {
+			Object shape = geoShape.getShape();
+			if (shape instanceof Point2D) {
+				shapes.add(shape);
+			} else {
+				PackedPath path = toPackedPath(shape);
+				if (path == null) {
+					return false;
+				}
+				shapes.add(path);
+			}
+		}
+
+		// Columnar property table
+		Map<String, Integer> keys = new LinkedHashMap<String, Integer>();
+		for (GeoShape geoShape : geoShapes) {
+			Map<String, PropertyValue> properties = geoShape.getProperties();
+			if (properties != null) {
+				for (String key : properties.keySet()) {
+					if (!keys.containsKey(key)) {
+						keys.put(key, keys.size());
+					}
+				}
+			}
+		}
+		int shapeCount = geoShapes.size();
+		byte[][] types = new byte[keys.size()][shapeCount];
+		long[][] values = new long[keys.size()][shapeCount];
+		Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+		for (int i=0; i<shapeCount; i++) {
+			Map<String, PropertyValue> properties = geoShapes.get(i).getProperties();
+			if (properties != null) {
+				for (Map.Entry<String, PropertyValue> property : properties.entrySet()) {
+					int column = keys.get(property.getKey());
+					encodeValue(property.getValue(), strings, types[column], values[column], i);
+				}
+			}
+		}
+
+		File cacheFile = getCacheFile(sourceFile, parameters);
+		Path tmpPath = Files.createTempFile(cacheFile.getAbsoluteFile().getParentFile().toPath(), cacheFile.getName(), ".tmp");
+		boolean moved = false;
+		try {
+			writeCacheFile(tmpPath.toFile(), sourceStamp, parameters, shapes, keys, strings, types, values);
+
+			try {
+				Files.move(tmpPath, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException ex) {
+				Files.move(tmpPath, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			moved = true;
+		} finally {
+			if (!moved) {
+				Files.deleteIfExists(tmpPath);
+			}
+		}
+		return true;
+	}
+
+	private static void writeCacheFile(File file, SourceStamp sourceStamp, String parameters, List<Object> shapes,
+			Map<String, Integer> keys, Map<String, Integer> strings, byte[][] types, long[][] values) throws IOException {
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(sourceStamp.size);
+			out.writeLong(sourceStamp.lastModified);
+			out.write(sourceStamp.hash);
+			writeString(out, parameters);
+			out.writeInt(shapes.size());
+
+			out.writeInt(keys.size());
+			for (String key : keys.keySet()) {
+				writeString(out, key);
+			}
+			out.writeInt(strings.size());
+			for (String string : strings.keySet()) {
+				writeString(out, string);
+			}
+
+			for (Object shape : shapes) {
+				if (shape instanceof Point2D) {
+					Point2D point = (Point2D)shape;
+					out.writeByte(SHAPE_POINT);
+					out.writeDouble(point.getX());
+					out.writeDouble(point.getY());
+				} else {
+					PackedPath path = (PackedPath)shape;
+					out.writeByte(SHAPE_PATH);
+					out.writeByte(path.getWindingRule());
+					out.writeByte(path.isClosed() ? 1 : 0);
+					out.writeInt(path.getRingCount());
+					for (int ring=0; ring<path.getRingCount(); ring++) {
+						out.writeInt(path.getRingStart(ring));
+					}
+					out.writeInt(path.getPointCount());
+					for (int point=0; point<path.getPointCount(); point++) {
+						out.writeDouble(path.getX(point));
+						out.writeDouble(path.getY(point));
+					}
+				}
+			}
+
+			for (int column=0; column<types.length; column++) {
+				out.write(types[column]);
+				for (long value : values[column]) {
+					out.writeLong(value);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static boolean isValid(ByteBuffer buffer, File sourceFile, long sourceFileLastModified, String parameters) throws IOException {
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			return false;
+		}
+		long sourceSize = buffer.getLong();
+		long sourceLastModified = buffer.getLong();
+		byte[] sourceHash = new byte[HASH_LENGTH];
+		buffer.get(sourceHash);
+		String cacheParameters = readString(buffer);
+
+		if (sourceSize != sourceFile.length()) {
+			return false;
+		}
+		if (parameters == null ? cacheParameters.length() > 0 : !parameters.equals(cacheParameters)) {
+			return false;
+		}
+		if (sourceLastModified == sourceFileLastModified) {
+			return true;
+		}
+		// Same size, different date: check the content
+		return Arrays.equals(sourceHash, hash(sourceFile));
+	}
+
+	private static void read(ByteBuffer buffer, GeoShapeGroup group) throws IOException {
+		int shapeCount = buffer.getInt();
+
+		int keyCount = buffer.getInt();
+		List<String> keys = new ArrayList<String>(keyCount);
+		for (int i=0; i<keyCount; i++) {
+			keys.add(readString(buffer));
+		}
+		int stringCount = buffer.getInt();
+		String[] strings = new String[stringCount];
+		for (int i=0; i<stringCount; i++) {
+			strings[i] = readString(buffer);
+		}
+
+		Object[] shapes = new Object[shapeCount];
+		for (int i=0; i<shapeCount; i++) {
+			byte kind = buffer.get();
+			if (kind == SHAPE_POINT) {
+				shapes[i] = new Point2D.Double(buffer.getDouble(), buffer.getDouble());
+			} else if (kind == SHAPE_PATH) {
+				int windingRule = buffer.get();
+				boolean closed = buffer.get() != 0;
+				int[] ringOffsets = new int[buffer.getInt()];
+				buffer.asIntBuffer().get(ringOffsets);
+				buffer.position(buffer.position() + ringOffsets.length * 4);
+				double[] coordinates = new double[buffer.getInt() * 2];
+				buffer.asDoubleBuffer().get(coordinates);
+				buffer.position(buffer.position() + coordinates.length * 8);
+				shapes[i] = new PackedPath(coordinates, ringOffsets, windingRule, closed);
+			} else {
+				throw new IOException("Invalid shape kind " + kind);
+			}
+		}
+
+		// Properties: all the maps share the same schema, absent values are left null
+		PropertyInterner propertyInterner = new PropertyInterner();
+		SchemaPropertyMap.Schema schema = propertyInterner.getSchema(keys);
+		if (schema == null) {
+			throw new IOException("Duplicate property keys");
+		}
+		PropertyValue[][] rows = new PropertyValue[shapeCount][keyCount];
+		byte[] types = new byte[shapeCount];
+		for (int column=0; column<keyCount; column++) {
+			buffer.get(types);
+			for (int i=0; i<shapeCount; i++) {
+				rows[i][column] = decodeValue(types[i], buffer.getLong(), strings, propertyInterner);
+			}
+		}
+
+		for (int i=0; i<shapeCount; i++) {
+			Map<String, PropertyValue> properties = new SchemaPropertyMap(schema, rows[i]);
+			if (shapes[i] instanceof Point2D) {
+				group.add((Point2D)shapes[i], properties);
+			} else {
+				group.add((Shape)shapes[i], properties);
+			}
+		}
+	}
+
+	/**
+	 * Values are stored with their type (String, Integer, Long, Double, Boolean,
+	 * null and JSONObject.NULL). Values of other types are stored as strings.
+	 */
+	private static void encodeValue(PropertyValue propertyValue, Map<String, Integer> strings, byte[] types, long[] values, int index) {
+		Object value = propertyValue == null ? null : propertyValue.getValue();
+		if (value == null) {
+			types[index] = VALUE_NULL;
+			return;
+		}
+		if (value == JSONObject.NULL) {
+			types[index] = VALUE_JSON_NULL;
+			return;
+		}
+		if (value instanceof Boolean) {
+			types[index] = (Boolean)value ? VALUE_TRUE : VALUE_FALSE;
+			return;
+		}
+		if (value instanceof Integer) {
+			types[index] = VALUE_INTEGER;
+			values[index] = (Integer)value;
+			return;
+		}
+		if (value instanceof Long) {
+			types[index] = VALUE_LONG;
+			values[index] = (Long)value;
+			return;
+		}
+		if (value instanceof Double) {
+			types[index] = VALUE_DOUBLE;
+			values[index] = Double.doubleToRawLongBits((Double)value);
+			return;
+		}
+
+		String stringValue = value instanceof String ? (String)value : propertyValue.getStringValue();
+		Integer stringIndex = strings.get(stringValue);
+		if (stringIndex == null) {
+			stringIndex = strings.size();
+			strings.put(stringValue, stringIndex);
+		}
+		types[index] = VALUE_STRING;
+		values[index] = stringIndex;
+	}
+
+	private static PropertyValue decodeValue(byte type, long value, String[] strings, PropertyInterner propertyInterner) throws IOException {
+		switch (type) {
+			case VALUE_ABSENT:
+				return null;
+			case VALUE_NULL:
+				return propertyInterner.internValue((Object)null);
+			case VALUE_STRING:
+				return propertyInterner.internValue((Object)strings[(int)value]);
+			case VALUE_INTEGER:
+				return propertyInterner.internValue((Object)Integer.valueOf((int)value));
+			case VALUE_LONG:
+				return propertyInterner.internValue((Object)Long.valueOf(value));
+			case VALUE_DOUBLE:
+				return propertyInterner.internValue((Object)Double.valueOf(Double.longBitsToDouble(value)));
+			case VALUE_FALSE:
+				return propertyInterner.internValue((Object)Boolean.FALSE);
+			case VALUE_TRUE:
+				return propertyInterner.internValue((Object)Boolean.TRUE);
+			case VALUE_JSON_NULL:
+				return propertyInterner.internValue(JSONObject.NULL);
+			default:
+				throw new IOException("Invalid property value type " + type);
+		}
+	}
+
+	/**
+	 * Convert a shape made of straight lines into a PackedPath.
+	 * @return null if the shape contains curves, or if some of its rings are closed and others are not.
+	 */
+	private static PackedPath toPackedPath(Object shape) {
+		if (shape instanceof PackedPath) {
+			return (PackedPath)shape;
+		}
+		if (!(shape instanceof Shape)) {
+			return null;
+		}
+
+		PathIterator iterator = ((Shape)shape).getPathIterator(null);
+		PackedPath.Builder builder = new PackedPath.Builder();
+		int closedRings = 0;
+		double[] coords = new double[6];
+		while (!iterator.isDone()) {
+			switch (iterator.currentSegment(coords)) {
+				case PathIterator.SEG_MOVETO:
+					builder.moveTo(coords[0], coords[1]);
+					break;
+				case PathIterator.SEG_LINETO:
+					if (builder.isEmpty()) {
+						return null;
+					}
+					builder.lineTo(coords[0], coords[1]);
+					break;
+				case PathIterator.SEG_CLOSE:
+					closedRings++;
+					break;
+				default:
+					return null;
+			}
+			iterator.next();
+		}
+
+		PackedPath path = builder.build(iterator.getWindingRule(), closedRings > 0);
+		if (closedRings > 0 && closedRings != path.getRingCount()) {
+			return null;
+		}
+		return path;
+	}
+
+	/**
+	 * Size, modification date and content hash of a source file.
+	 * Taken before the file is parsed, so the cache is never saved with the
+	 * stamp of a newer version of the file than the one which was parsed.
+	 */
+	public static class SourceStamp {
+		private final long size;
+		private final long lastModified;
+		private final byte[] hash;
+
+		private SourceStamp(long size, long lastModified, byte[] hash) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+
+		public static SourceStamp of(File sourceFile) throws IOException {
+			long size = sourceFile.length();
+			long lastModified = sourceFile.lastModified();
+			return new SourceStamp(size, lastModified, hash(sourceFile));
+		}
+
+		private boolean isSameSizeAndDate(File sourceFile) {
+			return this.size == sourceFile.length() && this.lastModified == sourceFile.lastModified();
+		}
+	}
+
+	private static byte[] hash(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException ex) {
+			throw new IOException("SHA-256 is not available", ex);
+		}
+
+		InputStream inputStream = new FileInputStream(file);
+		try {
+			byte[] bytes = new byte[65536];
+			int read;
+			while ((read = inputStream.read(bytes)) > 0) {
+				digest.update(bytes, 0, read);
+			}
+		} finally {
+			inputStream.close();
+		}
+		return digest.digest();
+	}
+
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		byte[] bytes = (str == null ? "" : str).getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) throws IOException {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IOException("Invalid string length " + length);
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
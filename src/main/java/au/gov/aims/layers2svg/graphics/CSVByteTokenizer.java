@@ -0,0 +1,361 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import org.apache.commons.csv.CSVStrategy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Split the records of a CSV file into values, directly from the bytes
+ * of the file (usually a MappedByteBuffer).
+ *
+ * The CSVParser creates an array and a String for each value of each line,
+ * including the values which are never used. The tokenizer only records
+ * the position and length of the values of the current record, in arrays which are
+ * reused for every record. The values are then parsed as needed: numbers
+ * are parsed from the bytes, Strings are only created for the values which are kept.
+ *
+ * The bytes must be encoded with a charset compatible with ASCII
+ * (UTF-8, ISO-8859-1, etc): the delimiter, the quotes and the line feeds are single bytes.
+ * The rules are the same as the CSVParser with the CSVStrategy, without comments,
+ * escape character and unicode escapes (not used by CSVShape).
+ */
+class CSVByteTokenizer {
+	private static final int INITIAL_CAPACITY = 32;
+
+	// Returned by parseInteger when the value is not an integer
+	public static final long NOT_AN_INTEGER = Long.MIN_VALUE;
+	// Larger numbers may not fit in a long
+	private static final int MAX_INTEGER_DIGITS = 18;
+
+	private final ByteBuffer buffer;
+	private final int end;
+	private final Charset charset;
+
+	private final byte delimiter;
+	private final byte encapsulator;
+	private final boolean ignoreLeadingWhitespaces;
+	private final boolean ignoreTrailingWhitespaces;
+	private final boolean ignoreEmptyLines;
+
+	private int pos;
+	// False when the values at the end of the current record have not been read yet
+	private boolean endOfRecord;
+
+	// Values of the current record
+	private int valueCount;
+	private int[] valueOffsets;
+	private int[] valueLengths;
+	// True when the quoted value contains escaped quotes ("")
+	private boolean[] valueEscaped;
+
+	/**
+	 * The buffer is not modified, it can be shared by many tokenizers.
+	 * @param start The position of the first record.
+	 * @param end The position after the last record.
+	 */
+	public CSVByteTokenizer(ByteBuffer buffer, int start, int end, Charset charset, CSVStrategy csvStrategy) {
+		this.buffer = buffer;
+		this.pos = start;
+		this.end = end;
+		this.charset = charset;
+		this.endOfRecord = true;
+
+		this.delimiter = (byte)csvStrategy.getDelimiter();
+		this.encapsulator = (byte)csvStrategy.getEncapsulator();
+		this.ignoreLeadingWhitespaces = csvStrategy.getIgnoreLeadingWhitespaces();
+		this.ignoreTrailingWhitespaces = csvStrategy.getIgnoreTrailingWhitespaces();
+		this.ignoreEmptyLines = csvStrategy.getIgnoreEmptyLines();
+
+		this.valueCount = 0;
+		this.valueOffsets = new int[INITIAL_CAPACITY];
+		this.valueLengths = new int[INITIAL_CAPACITY];
+		this.valueEscaped = new boolean[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Move to the next record.
+	 * @return False when there is no more record.
+	 * @throws IOException If a quoted value is not properly closed.
+	 */
+	public boolean nextRecord() throws IOException {
+		return this.nextRecord(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Move to the next record, and only read its first values.
+	 * The other values are read by readRecord, or skipped by the next call to nextRecord.
+	 * Used to check a few values (the coordinates, etc) before reading the whole record.
+	 * @param maxValues The number of values to read.
+	 * @return False when there is no more record.
+	 * @throws IOException If a quoted value is not properly closed.
+	 */
+	public boolean nextRecord(int maxValues) throws IOException {
+		// Skip what's left of the current record
+		this.readValues(Integer.MAX_VALUE);
+		this.valueCount = 0;
+
+		if (this.ignoreEmptyLines) {
+			while (this.pos < this.end && this.isEndOfLine(this.buffer.get(this.pos))) {
+				this.pos++;
+			}
+		}
+		if (this.pos >= this.end) {
+			return false;
+		}
+
+		this.endOfRecord = false;
+		this.readValues(maxValues);
+		return true;
+	}
+
+	/**
+	 * Read the values of the current record which were not read by nextRecord(maxValues).
+	 * @throws IOException If a quoted value is not properly closed.
+	 */
+	public void readRecord() throws IOException {
+		this.readValues(Integer.MAX_VALUE);
+	}
+
+	public int getValueCount() {
+		return this.valueCount;
+	}
+
+	/**
+	 * @return True if the value is missing (short line, or not read yet) or empty.
+	 */
+	public boolean isEmpty(int index) {
+		return index >= this.valueCount || this.valueLengths[index] == 0;
+	}
+
+	public boolean startsWith(int index, byte prefix) {
+		return !this.isEmpty(index) && this.buffer.get(this.valueOffsets[index]) == prefix;
+	}
+
+	/**
+	 * @return The value, or null if the value is missing (short line).
+	 */
+	public String getString(int index) {
+		if (index >= this.valueCount) {
+			return null;
+		}
+		int length = this.valueLengths[index];
+		if (length == 0) {
+			return "";
+		}
+
+		byte[] bytes = new byte[length];
+		int offset = this.valueOffsets[index];
+		for (int i=0; i<length; i++) {
+			bytes[i] = this.buffer.get(offset + i);
+		}
+		String value = new String(bytes, this.charset);
+		if (this.valueEscaped[index]) {
+			String quote = String.valueOf((char)this.encapsulator);
+			value = value.replace(quote + quote, quote);
+		}
+		return value;
+	}
+
+	/**
+	 * Same as Double.parseDouble(getString(index))
+	 * @throws NumberFormatException if the value is not a number.
+	 */
+	public double parseDouble(int index) {
+		if (index >= this.valueCount) {
+			throw new NumberFormatException("Missing value " + index);
+		}
+		return FastDoubleParser.parseDouble(this.buffer, this.valueOffsets[index], this.valueLengths[index]);
+	}
+
+	/**
+	 * @return The value, or NaN if the value is not a plain decimal number (see FastDoubleParser.parseDecimal).
+	 */
+	public double parseDecimal(int index) {
+		if (index >= this.valueCount) {
+			return Double.NaN;
+		}
+		return FastDoubleParser.parseDecimal(this.buffer, this.valueOffsets[index], this.valueLengths[index]);
+	}
+
+	/**
+	 * Parse a plain integer number: [+-] digits
+	 * @return The number, or NOT_AN_INTEGER if the value is not a plain integer number,
+	 *   if it's too large or if it's a negative zero (-0 is parsed as -0.0 by Double.parseDouble).
+	 */
+	public long parseInteger(int index) {
+		if (index >= this.valueCount) {
+			return NOT_AN_INTEGER;
+		}
+		int pos = this.valueOffsets[index];
+		int valueEnd = pos + this.valueLengths[index];
+
+		boolean negative = false;
+		if (pos < valueEnd) {
+			byte sign = this.buffer.get(pos);
+			if (sign == '-' || sign == '+') {
+				negative = sign == '-';
+				pos++;
+			}
+		}
+		int digits = valueEnd - pos;
+		if (digits <= 0 || digits > MAX_INTEGER_DIGITS) {
+			return NOT_AN_INTEGER;
+		}
+
+		long value = 0;
+		for (; pos<valueEnd; pos++) {
+			int digit = this.buffer.get(pos) - '0';
+			if (digit < 0 || digit > 9) {
+				return NOT_AN_INTEGER;
+			}
+			value = value * 10 + digit;
+		}
+		if (negative) {
+			return value == 0 ? NOT_AN_INTEGER : -value;
+		}
+		return value;
+	}
+
+	/**
+	 * Quick check, to avoid parsing values which can't be numbers.
+	 * @return False if the value can not be parsed by Double.parseDouble.
+	 *   True if the value start like a number (digit, sign, point, NaN, Infinity, white space).
+	 */
+	public boolean mayBeNumber(int index) {
+		if (this.isEmpty(index)) {
+			return false;
+		}
+		byte b = this.buffer.get(this.valueOffsets[index]);
+		return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' ||
+				b == 'N' || b == 'I' || (b >= 0 && b <= ' ');
+	}
+
+	private void readValues(int maxValues) throws IOException {
+		while (!this.endOfRecord && this.valueCount < maxValues) {
+			this.nextValue();
+
+			if (this.pos >= this.end) {
+				this.endOfRecord = true;
+				return;
+			}
+			byte b = this.buffer.get(this.pos++);
+			if (b == '\r' && this.pos < this.end && this.buffer.get(this.pos) == '\n') {
+				this.pos++;
+			}
+			if (b != this.delimiter) {
+				// End of line
+				this.endOfRecord = true;
+			}
+		}
+	}
+
+	private void nextValue() throws IOException {
+		if (this.ignoreLeadingWhitespaces) {
+			while (this.pos < this.end && this.isWhitespace(this.buffer.get(this.pos))) {
+				this.pos++;
+			}
+		}
+
+		if (this.pos < this.end && this.buffer.get(this.pos) == this.encapsulator) {
+			this.nextQuotedValue();
+			return;
+		}
+
+		int offset = this.pos;
+		while (this.pos < this.end) {
+			byte b = this.buffer.get(this.pos);
+			if (b == this.delimiter || this.isEndOfLine(b)) {
+				break;
+			}
+			this.pos++;
+		}
+		int valueEnd = this.pos;
+		if (this.ignoreTrailingWhitespaces) {
+			while (valueEnd > offset && this.isWhitespace(this.buffer.get(valueEnd - 1))) {
+				valueEnd--;
+			}
+		}
+		this.addValue(offset, valueEnd - offset, false);
+	}
+
+	private void nextQuotedValue() throws IOException {
+		int quotePos = this.pos;
+		// Skip the opening quote
+		this.pos++;
+		int offset = this.pos;
+		boolean escaped = false;
+		while (true) {
+			if (this.pos >= this.end) {
+				throw new IOException(String.format("End of file reached before the end of the quoted value starting at byte %d", quotePos));
+			}
+			if (this.buffer.get(this.pos) == this.encapsulator) {
+				if (this.pos + 1 < this.end && this.buffer.get(this.pos + 1) == this.encapsulator) {
+					escaped = true;
+					this.pos += 2;
+				} else {
+					break;
+				}
+			} else {
+				this.pos++;
+			}
+		}
+		this.addValue(offset, this.pos - offset, escaped);
+		// Skip the closing quote
+		this.pos++;
+
+		// Only white spaces are allowed between the closing quote and the delimiter
+		while (this.pos < this.end) {
+			byte b = this.buffer.get(this.pos);
+			if (b == this.delimiter || this.isEndOfLine(b)) {
+				break;
+			}
+			if (!this.isWhitespace(b)) {
+				throw new IOException(String.format("Invalid character between the closing quote and the delimiter at byte %d", this.pos));
+			}
+			this.pos++;
+		}
+	}
+
+	private void addValue(int offset, int length, boolean escaped) {
+		if (this.valueCount == this.valueOffsets.length) {
+			int capacity = this.valueCount * 2;
+			this.valueOffsets = Arrays.copyOf(this.valueOffsets, capacity);
+			this.valueLengths = Arrays.copyOf(this.valueLengths, capacity);
+			this.valueEscaped = Arrays.copyOf(this.valueEscaped, capacity);
+		}
+		this.valueOffsets[this.valueCount] = offset;
+		this.valueLengths[this.valueCount] = length;
+		this.valueEscaped[this.valueCount] = escaped;
+		this.valueCount++;
+	}
+
+	private boolean isEndOfLine(byte b) {
+		return b == '\n' || b == '\r';
+	}
+
+	// The delimiter is never a white space (tab separated values)
+	private boolean isWhitespace(byte b) {
+		return (b == ' ' || b == '\t') && b != this.delimiter;
+	}
+}
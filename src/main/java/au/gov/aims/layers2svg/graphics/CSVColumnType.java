@@ -0,0 +1,103 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import au.gov.aims.sld.SldUtils;
+
+import java.io.IOException;
+
+/**
+ * Type of the values of a CSV column, inferred from the first records of the file.
+ *
+ * The type chooses how the values of the column are decoded (see CSVShape.ValueDecoder).
+ * It's only a hint: when a value do not match the type of its column, the column
+ * is promoted to a more general type (INTEGER to NUMERIC, NUMERIC to MIXED) and the value
+ * is decoded like any other value. The decoded values are always the same as with MIXED.
+ * Empty and missing values are not numbers in any column; they are ignored by the inference
+ * and they do not promote the columns.
+ */
+enum CSVColumnType {
+	// Integer numbers. Parsed without the floating point arithmetic.
+	INTEGER,
+	// Decimal numbers
+	NUMERIC,
+	// Values which are not numbers. Only the values starting
+	// like a number are checked (see CSVByteTokenizer.mayBeNumber).
+	STRING,
+	// Numbers and strings: each value is checked.
+	MIXED;
+
+	// Number of records used to infer the type of the columns
+	public static final int SAMPLE_RECORDS = 1000;
+
+	/**
+	 * Infer the type of the columns from the first records of the tokenizer.
+	 * @param columns The index of the CSV columns.
+	 * @return The type of each column. Columns without (non empty) value are MIXED.
+	 */
+	public static CSVColumnType[] infer(CSVByteTokenizer tokenizer, int[] columns) throws IOException {
+		int columnCount = columns.length;
+		boolean[] found = new boolean[columnCount];
+		boolean[] integers = new boolean[columnCount];
+		boolean[] numbers = new boolean[columnCount];
+		boolean[] strings = new boolean[columnCount];
+		for (int i=0; i<columnCount; i++) {
+			integers[i] = true;
+			numbers[i] = true;
+			strings[i] = true;
+		}
+
+		int records = 0;
+		while (records < SAMPLE_RECORDS && tokenizer.nextRecord()) {
+			records++;
+			for (int i=0; i<columnCount; i++) {
+				int column = columns[i];
+				if (tokenizer.isEmpty(column)) {
+					continue;
+				}
+				found[i] = true;
+				if (tokenizer.parseInteger(column) != CSVByteTokenizer.NOT_AN_INTEGER) {
+					strings[i] = false;
+				} else if (!Double.isNaN(tokenizer.parseDecimal(column)) || SldUtils.isNumeric(tokenizer.getString(column))) {
+					integers[i] = false;
+					strings[i] = false;
+				} else {
+					integers[i] = false;
+					numbers[i] = false;
+				}
+			}
+		}
+
+		CSVColumnType[] types = new CSVColumnType[columnCount];
+		for (int i=0; i<columnCount; i++) {
+			if (!found[i]) {
+				types[i] = MIXED;
+			} else if (integers[i]) {
+				types[i] = INTEGER;
+			} else if (numbers[i]) {
+				types[i] = NUMERIC;
+			} else if (strings[i]) {
+				types[i] = STRING;
+			} else {
+				types[i] = MIXED;
+			}
+		}
+		return types;
+	}
+}
@@ -0,0 +1,518 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import au.gov.aims.sld.PropertyValue;
+import au.gov.aims.sld.geom.GeoShape;
+
+import java.awt.geom.Point2D;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Points of a CSV file, stored by column instead of by row (see CSVShape.setColumnarStorage).
+ *
+ * The coordinates are stored in arrays of double, and each property in its own
+ * column: an array of int for integer columns, an array of double for numeric columns,
+ * an array of (shared) PropertyValue for the other columns. The initial type of
+ * the columns is inferred from the first records of the file (see CSVColumnType);
+ * a column is converted to a more general type when a value do not fit in it.
+ * Empty and missing values do not change the type of the numeric columns.
+ *
+ * The GeoShape returned by getRow are light weight views of a row, created on demand:
+ * the Point2D and the properties map read their values from the columns.
+ * The views are read only, and they are not kept by the columns; the style
+ * set on a view is lost.
+ */
+class CSVColumns {
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final SchemaPropertyMap.Schema schema;
+	private double[] longitudes;
+	private double[] latitudes;
+	private Column[] columns;
+	private int size;
+
+	// Used while the rows are added; released by trimToSize
+	private PropertyInterner propertyInterner;
+
+	/**
+	 * @param columnTypes The type of each schema key, used to choose the initial type of the columns.
+	 */
+	public CSVColumns(SchemaPropertyMap.Schema schema, CSVColumnType[] columnTypes, PropertyInterner propertyInterner) {
+		this.schema = schema;
+		this.propertyInterner = propertyInterner;
+		this.longitudes = new double[INITIAL_CAPACITY];
+		this.latitudes = new double[INITIAL_CAPACITY];
+		this.columns = new Column[schema.size()];
+		for (int i=0; i<this.columns.length; i++) {
+			switch (columnTypes[i]) {
+				case INTEGER:
+					this.columns[i] = new IntColumn(INITIAL_CAPACITY);
+					break;
+				case NUMERIC:
+					this.columns[i] = new NumberColumn(INITIAL_CAPACITY);
+					break;
+				default:
+					this.columns[i] = new ValueColumn(null, 0, INITIAL_CAPACITY);
+					break;
+			}
+		}
+		this.size = 0;
+	}
+
+	public SchemaPropertyMap.Schema getSchema() {
+		return this.schema;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Add a row. Its values must then be set with setNumber or setValue.
+	 * @return The index of the new row.
+	 */
+	public int addRow(double longitude, double latitude) {
+		int row = this.size;
+		if (row == this.longitudes.length) {
+			this.grow();
+		}
+		this.longitudes[row] = longitude;
+		this.latitudes[row] = latitude;
+		this.size++;
+		return row;
+	}
+
+	public void setNumber(int row, int column, double value) {
+		Column rowColumn = this.columns[column];
+		if (rowColumn instanceof IntColumn) {
+			if (((IntColumn)rowColumn).setNumber(row, value)) {
+				return;
+			}
+			// Not an int
+			rowColumn = new NumberColumn((IntColumn)rowColumn, row, this.longitudes.length);
+			this.columns[column] = rowColumn;
+		}
+
+		if (rowColumn instanceof NumberColumn) {
+			((NumberColumn)rowColumn).setNumber(row, value);
+		} else {
+			((ValueColumn)rowColumn).setValue(row, this.propertyInterner.internValue(value));
+		}
+	}
+
+	/**
+	 * Set a value which is not a number.
+	 * @param value The value, an empty string or null for a missing value (short line).
+	 */
+	public void setString(int row, int column, String value) {
+		Column rowColumn = this.columns[column];
+		if ((value == null || value.isEmpty()) && rowColumn instanceof NumericColumn) {
+			((NumericColumn)rowColumn).setBlank(row, this.propertyInterner.internValue(value));
+			return;
+		}
+		if (!(rowColumn instanceof ValueColumn)) {
+			// Not a number
+			rowColumn = new ValueColumn(rowColumn, row, this.longitudes.length);
+			this.columns[column] = rowColumn;
+		}
+		((ValueColumn)rowColumn).setValue(row, this.propertyInterner.internValue(value));
+	}
+
+	/**
+	 * Set a value read from the CSV file: a number, or a string if it's not a number.
+	 */
+	public void setValue(int row, int column, String valueStr) {
+		PropertyValue propertyValue = CSVShape.parseValue(this.propertyInterner, valueStr);
+		Object value = propertyValue.getValue();
+		if (value instanceof Double) {
+			this.setNumber(row, column, (Double)value);
+		} else {
+			this.setString(row, column, valueStr);
+		}
+	}
+
+	public double getLongitude(int row) {
+		return this.longitudes[row];
+	}
+
+	public double getLatitude(int row) {
+		return this.latitudes[row];
+	}
+
+	public PropertyValue getValue(int row, int column) {
+		return this.columns[column].get(row);
+	}
+
+	public GeoShape getRow(int row) {
+		if (row < 0 || row >= this.size) {
+			throw new IndexOutOfBoundsException("Row: " + row + ", size: " + this.size);
+		}
+		return new GeoShape(new RowPoint(this, row), new RowProperties(this, row));
+	}
+
+	/**
+	 * Release the unused capacity, once all the rows are added.
+	 */
+	public void trimToSize() {
+		if (this.size < this.longitudes.length) {
+			this.resize(this.size);
+		}
+		this.propertyInterner = null;
+	}
+
+	private void grow() {
+		this.resize(this.longitudes.length + (this.longitudes.length >> 1));
+	}
+
+	private void resize(int capacity) {
+		this.longitudes = Arrays.copyOf(this.longitudes, capacity);
+		this.latitudes = Arrays.copyOf(this.latitudes, capacity);
+		for (Column column : this.columns) {
+			column.resize(capacity);
+		}
+	}
+
+	/**
+	 * List of GeoShape views of the rows of the column blocks, followed by the other shapes.
+	 */
+	public static List<GeoShape> createRowList(final List<CSVColumns> blocks, final List<GeoShape> otherShapes) {
+		return new AbstractList<GeoShape>() {
+			@Override
+			public GeoShape get(int index) {
+				int blockIndex = index;
+				for (CSVColumns block : blocks) {
+					if (blockIndex < block.size()) {
+						return block.getRow(blockIndex);
+					}
+					blockIndex -= block.size();
+				}
+				if (otherShapes == null) {
+					throw new IndexOutOfBoundsException("Index: " + index + ", size: " + this.size());
+				}
+				return otherShapes.get(blockIndex);
+			}
+
+			@Override
+			public int size() {
+				int size = otherShapes == null ? 0 : otherShapes.size();
+				for (CSVColumns block : blocks) {
+					size += block.size();
+				}
+				return size;
+			}
+
+			// Sequential access without looking for the block of each row
+			@Override
+			public Iterator<GeoShape> iterator() {
+				return new Iterator<GeoShape>() {
+					private final Iterator<CSVColumns> blockIterator = blocks.iterator();
+					private CSVColumns block = null;
+					private int row = 0;
+					private Iterator<GeoShape> otherIterator = null;
+
+					@Override
+					public boolean hasNext() {
+						while (this.block == null || this.row >= this.block.size()) {
+							if (!this.blockIterator.hasNext()) {
+								if (this.otherIterator == null) {
+									this.otherIterator = otherShapes == null ?
+											Collections.<GeoShape>emptyIterator() : otherShapes.iterator();
+								}
+								return this.otherIterator.hasNext();
+							}
+							this.block = this.blockIterator.next();
+							this.row = 0;
+						}
+						return true;
+					}
+
+					@Override
+					public GeoShape next() {
+						if (!this.hasNext()) {
+							throw new NoSuchElementException();
+						}
+						if (this.otherIterator != null) {
+							return this.otherIterator.next();
+						}
+						return this.block.getRow(this.row++);
+					}
+				};
+			}
+		};
+	}
+
+	private abstract static class Column {
+		public abstract PropertyValue get(int row);
+
+		public abstract void resize(int capacity);
+	}
+
+	/**
+	 * Column of numbers, which may also contain empty and missing values.
+	 */
+	private abstract static class NumericColumn extends Column {
+		// Rows with an empty value ("") and rows with a missing value (null)
+		private BitSet emptyRows;
+		private BitSet missingRows;
+		private PropertyValue emptyValue;
+
+		public NumericColumn() {
+			this.emptyRows = new BitSet();
+			this.missingRows = new BitSet();
+			this.emptyValue = null;
+		}
+
+		/**
+		 * Keep the empty and missing values of the column.
+		 */
+		public NumericColumn(NumericColumn column) {
+			this.emptyRows = column.emptyRows;
+			this.missingRows = column.missingRows;
+			this.emptyValue = column.emptyValue;
+		}
+
+		/**
+		 * @param value The (shared) empty value, or a null value.
+		 */
+		public void setBlank(int row, PropertyValue value) {
+			if (value.getValue() == null) {
+				this.missingRows.set(row);
+			} else {
+				this.emptyRows.set(row);
+				this.emptyValue = value;
+			}
+		}
+
+		@Override
+		public PropertyValue get(int row) {
+			if (this.emptyRows.get(row)) {
+				return this.emptyValue;
+			}
+			if (this.missingRows.get(row)) {
+				return new PropertyValue(null);
+			}
+			return this.getNumber(row);
+		}
+
+		protected abstract PropertyValue getNumber(int row);
+	}
+
+	/**
+	 * Integer numbers which fit in an int.
+	 */
+	private static class IntColumn extends NumericColumn {
+		private int[] values;
+
+		public IntColumn(int capacity) {
+			this.values = new int[capacity];
+		}
+
+		/**
+		 * @return False if the value is not an int.
+		 */
+		public boolean setNumber(int row, double value) {
+			int intValue = (int)value;
+			// Negative zero is not an int: its string value is "-0.0"
+			if (intValue != value || (intValue == 0 && Double.doubleToRawLongBits(value) != 0)) {
+				return false;
+			}
+			this.values[row] = intValue;
+			return true;
+		}
+
+		@Override
+		protected PropertyValue getNumber(int row) {
+			return new PropertyValue((double)this.values[row]);
+		}
+
+		@Override
+		public void resize(int capacity) {
+			this.values = Arrays.copyOf(this.values, capacity);
+		}
+	}
+
+	private static class NumberColumn extends NumericColumn {
+		private double[] values;
+
+		public NumberColumn(int capacity) {
+			this.values = new double[capacity];
+		}
+
+		/**
+		 * Convert the first rows of an int column into a number column.
+		 */
+		public NumberColumn(IntColumn column, int rows, int capacity) {
+			super(column);
+			this.values = new double[capacity];
+			for (int row=0; row<rows; row++) {
+				this.values[row] = column.values[row];
+			}
+		}
+
+		public void setNumber(int row, double value) {
+			this.values[row] = value;
+		}
+
+		@Override
+		protected PropertyValue getNumber(int row) {
+			return new PropertyValue(this.values[row]);
+		}
+
+		@Override
+		public void resize(int capacity) {
+			this.values = Arrays.copyOf(this.values, capacity);
+		}
+	}
+
+	private static class ValueColumn extends Column {
+		private PropertyValue[] values;
+
+		/**
+		 * Convert the first rows of a column into a value column.
+		 * @param column The column to convert, or null for an empty column.
+		 */
+		public ValueColumn(Column column, int rows, int capacity) {
+			this.values = new PropertyValue[capacity];
+			for (int row=0; row<rows; row++) {
+				this.values[row] = column.get(row);
+			}
+		}
+
+		public void setValue(int row, PropertyValue value) {
+			this.values[row] = value;
+		}
+
+		@Override
+		public PropertyValue get(int row) {
+			return this.values[row];
+		}
+
+		@Override
+		public void resize(int capacity) {
+			this.values = Arrays.copyOf(this.values, capacity);
+		}
+	}
+
+	/**
+	 * Point view of a row. Setting the location changes the coordinates in the columns.
+	 */
+	private static class RowPoint extends Point2D {
+		private final CSVColumns columns;
+		private final int row;
+
+		public RowPoint(CSVColumns columns, int row) {
+			this.columns = columns;
+			this.row = row;
+		}
+
+		@Override
+		public double getX() {
+			return this.columns.longitudes[this.row];
+		}
+
+		@Override
+		public double getY() {
+			return this.columns.latitudes[this.row];
+		}
+
+		@Override
+		public void setLocation(double x, double y) {
+			this.columns.longitudes[this.row] = x;
+			this.columns.latitudes[this.row] = y;
+		}
+
+		@Override
+		public String toString() {
+			return "Point2D[" + this.getX() + ", " + this.getY() + "]";
+		}
+	}
+
+	/**
+	 * Read only properties view of a row.
+	 */
+	private static class RowProperties extends AbstractMap<String, PropertyValue> {
+		private final CSVColumns columns;
+		private final int row;
+
+		public RowProperties(CSVColumns columns, int row) {
+			this.columns = columns;
+			this.row = row;
+		}
+
+		@Override
+		public int size() {
+			return this.columns.schema.size();
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return this.columns.schema.indexOf(key) >= 0;
+		}
+
+		@Override
+		public PropertyValue get(Object key) {
+			int index = this.columns.schema.indexOf(key);
+			return index < 0 ? null : this.columns.getValue(this.row, index);
+		}
+
+		@Override
+		public Set<Map.Entry<String, PropertyValue>> entrySet() {
+			return new AbstractSet<Map.Entry<String, PropertyValue>>() {
+				@Override
+				public Iterator<Map.Entry<String, PropertyValue>> iterator() {
+					return new Iterator<Map.Entry<String, PropertyValue>>() {
+						private int index = 0;
+
+						@Override
+						public boolean hasNext() {
+							return this.index < RowProperties.this.columns.schema.size();
+						}
+
+						@Override
+						public Map.Entry<String, PropertyValue> next() {
+							if (!this.hasNext()) {
+								throw new NoSuchElementException();
+							}
+							int column = this.index++;
+							return new AbstractMap.SimpleImmutableEntry<String, PropertyValue>(
+									RowProperties.this.columns.schema.getKey(column),
+									RowProperties.this.columns.getValue(RowProperties.this.row, column));
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return RowProperties.this.size();
+				}
+			};
+		}
+	}
+}
@@ -20,19 +20,33 @@ package au.gov.aims.layers2svg.graphics;
 
 import au.gov.aims.sld.PropertyValue;
 import au.gov.aims.sld.SldUtils;
+import au.gov.aims.sld.geom.GeoShape;
 import au.gov.aims.sld.geom.GeoShapeGroup;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVStrategy;
 
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.Reader;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -49,6 +63,14 @@ public class CSVShape extends GeoShapeGroup {
 	private static final Logger LOGGER = Logger.getLogger(CSVShape.class.getSimpleName());
 
 	private static final String CSV_COMMENT_PREFIX = "#";
+	private static final byte CSV_COMMENT_PREFIX_BYTE = '#';
+	private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// Number of characters used to choose the CSV Strategy
+	private static final int SAMPLE_SIZE = 16 * 1024;
+	// Minimum number of bytes parsed by a thread
+	private static final int MIN_CHUNK_SIZE = 256 * 1024;
 
 	private static final CSVStrategy EXCEL_STRATEGY = new CSVStrategy(
 			',', '"', CSVStrategy.COMMENTS_DISABLED, CSVStrategy.ESCAPE_DISABLED,
@@ -70,6 +92,13 @@ public class CSVShape extends GeoShapeGroup {
 	private File csvFile;
 	private String longitudeColumnName;
 	private String latitudeColumnName;
+	private boolean cacheEnabled;
+	private Set<String> propertyNames;
+	private Charset charset;
+	private boolean columnarStorage;
+	private ForkJoinPool forkJoinPool;
+	// Points parsed with the columnar storage, in file order
+	private List<CSVColumns> columnBlocks;
 
 	/**
 	 * geoJson = {
@@ -82,9 +111,114 @@ public class CSVShape extends GeoShapeGroup {
 		this.csvFile = csvFile;
 		this.longitudeColumnName = longitudeColumnName;
 		this.latitudeColumnName = latitudeColumnName;
+		this.cacheEnabled = false;
+		this.propertyNames = null;
+		this.charset = null;
+		this.columnarStorage = false;
+		this.forkJoinPool = null;
+		this.columnBlocks = new ArrayList<CSVColumns>();
+	}
+
+	/**
+	 * Save the parsed points in a binary file next to the CSV file,
+	 * and load that binary file instead of the CSV file, as long as it doesn't change.
+	 * See BinaryShapeCache.
+	 */
+	public void setCacheEnabled(boolean cacheEnabled) {
+		this.cacheEnabled = cacheEnabled;
+	}
+
+	public boolean isCacheEnabled() {
+		return this.cacheEnabled;
+	}
+
+	/**
+	 * Only load those columns as properties. The values of the other columns are ignored.
+	 * The longitude / latitude columns are always used for the point coordinates.
+	 * Set to null to load all the columns (default).
+	 * See Layers2SVGUtils.getSLDPropertyNames
+	 * The cache is not used when the properties are filtered.
+	 */
+	public void setPropertyNames(Set<String> propertyNames) {
+		this.propertyNames = propertyNames;
+	}
+
+	public Set<String> getPropertyNames() {
+		return this.propertyNames;
+	}
+
+	/**
+	 * Character encoding of the CSV file.
+	 * Set to null to use the platform default encoding (default).
+	 */
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+	}
+
+	public Charset getCharset() {
+		return this.charset;
+	}
+
+	/**
+	 * Store the points in columns (arrays of primitives) instead of one
+	 * GeoShape, Point2D and properties map per row. Used for large CSV files
+	 * which do not fit in memory otherwise.
+	 * getGeoShapes returns read only views of the rows, created on demand (see CSVColumns).
+	 * The cache is not used with the columnar storage.
+	 */
+	public void setColumnarStorage(boolean columnarStorage) {
+		this.columnarStorage = columnarStorage;
+	}
+
+	public boolean isColumnarStorage() {
+		return this.columnarStorage;
+	}
+
+	/**
+	 * Split the file in chunks of lines, parsed concurrently using the pool.
+	 * The points are added in the same order as they appear in the file.
+	 * Set to null to parse the file sequentially (default).
+	 * Files larger than 2 GB, and files which encoding is not
+	 * compatible with ASCII (UTF-16, etc) are always parsed sequentially.
+	 */
+	public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	public ForkJoinPool getForkJoinPool() {
+		return this.forkJoinPool;
+	}
+
+	@Override
+	public List<GeoShape> getGeoShapes() {
+		if (this.columnBlocks.isEmpty()) {
+			return super.getGeoShapes();
+		}
+		return CSVColumns.createRowList(this.columnBlocks, super.getGeoShapes());
+	}
+
+	@Override
+	public boolean isEmpty() {
+		for (CSVColumns columnBlock : this.columnBlocks) {
+			if (columnBlock.size() > 0) {
+				return false;
+			}
+		}
+		return super.isEmpty();
 	}
 
 	public void parse() throws IOException {
+		this.parse(null);
+	}
+
+	/**
+	 * Only load the points which are inside the query window.
+	 * The coordinates of each record are parsed first; the other values
+	 * of the records outside the window are not decoded.
+	 * The cache is not used with a query window.
+	 * @param queryWindow Window in CSV coordinates (longitude / latitude), or null to load all the points.
+	 */
+	public void parse(Rectangle2D queryWindow) throws IOException {
 		if (this.csvFile == null) {
 			LOGGER.log(Level.SEVERE, "CSV file is null");
 			return;
@@ -98,70 +232,180 @@ public class CSVShape extends GeoShapeGroup {
 		String lonColName = this.longitudeColumnName;
 		String latColName = this.latitudeColumnName;
 
-		Reader reader = null;
+		// The cache can only be used when the group contains nothing but the points of the file
+		boolean useCache = this.cacheEnabled && !this.columnarStorage && queryWindow == null &&
+				this.propertyNames == null && this.isEmpty();
+		String cacheParameters = "CSV\n" + lonColName + "\n" + latColName;
+		if (this.charset != null) {
+			cacheParameters += "\n" + this.charset.name();
+		}
+		if (useCache && BinaryShapeCache.load(this.csvFile, cacheParameters, this)) {
+			return;
+		}
+		// Taken before parsing, see BinaryShapeCache.write
+		BinaryShapeCache.SourceStamp sourceStamp = useCache ? BinaryShapeCache.SourceStamp.of(this.csvFile) : null;
+
+		Charset charset = this.charset == null ? Charset.defaultCharset() : this.charset;
+		if (CSVShape.isMappable(this.csvFile, charset)) {
+			this.parseMapped(charset, lonColName, latColName, queryWindow);
+		} else {
+			this.parseStream(charset, lonColName, latColName, queryWindow);
+		}
+
+		if (useCache) {
+			try {
+				BinaryShapeCache.write(this.csvFile, sourceStamp, cacheParameters, this);
+			} catch(IOException ex) {
+				LOGGER.log(Level.WARNING, "Can not write the cache file for " + this.csvFile, ex);
+			}
+		}
+	}
 
+	/**
+	 * Parse the memory mapped file with the CSVByteTokenizer.
+	 * When a ForkJoinPool is set, the records are split in chunks, parsed concurrently,
+	 * then the points are added in the same order as they appear in the file.
+	 */
+	private void parseMapped(Charset charset, String lonColName, String latColName, Rectangle2D queryWindow) throws IOException {
+		FileInputStream inputStream = new FileInputStream(this.csvFile);
 		try {
-			CSVParser csvParser = null;
-			Map<String, Integer> header = null;
-			// Verify if we can read the file header using one of the CSV Strategy
+			FileChannel channel = inputStream.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			// Ignore the byte order mark (added by MS Notepad), it would be part of the first column label
+			int start = CSVShape.getByteOrderMarkLength(buffer, charset);
+
+			// Find the CSV Strategy using the beginning of the file
 			// (the CSV file can use different characters for separator / string delimiter)
-			for (CSVStrategy csvStrategy : CSV_STRATEGIES) {
-				reader = new FileReader(this.csvFile);
-				csvParser = new CSVParser(reader, csvStrategy);
-
-				String[] headerArr = csvParser.getLine();
-				header = new HashMap<String, Integer>();
-				if (headerArr != null) {
-					for (int i=0; i<headerArr.length; i++) {
-						String label = headerArr[i];
-						if (label != null) {
-							label = label.trim();
-							if (!label.isEmpty()) {
-								// Fix for messed-up CSV file (MS Notepad add invisible chars that confuse the parser)
-								String stringDelimiter = "" + csvStrategy.getEncapsulator();
-								if (label.contains(stringDelimiter)) {
-									String quotedStringDelimiter = Pattern.quote(stringDelimiter);
-									label = label.replaceAll("^.*" + quotedStringDelimiter +"(.+)" + quotedStringDelimiter + ".*$", "$1");
-								}
-								header.put(label, i);
-							}
-						}
-					}
-				}
+			// The sample is extended until it contains the whole header line.
+			String sample;
+			boolean truncated;
+			int sampleSize = SAMPLE_SIZE;
+			do {
+				ByteBuffer sampleBuffer = buffer.duplicate();
+				sampleBuffer.position(start);
+				sampleBuffer.limit((int)Math.min(buffer.limit(), (long)start + sampleSize));
+				truncated = sampleBuffer.limit() < buffer.limit();
+				sample = charset.decode(sampleBuffer).toString();
+				sampleSize *= 2;
+			} while (truncated && !CSVShape.containsLineBreak(sample));
+			CSVStrategy csvStrategy = CSVShape.sniffStrategy(sample, truncated, lonColName, latColName);
+			if (csvStrategy == null) {
+				throw new IOException("Invalid CSV file");
+			}
 
-				if (!header.containsKey(lonColName) || !header.containsKey(latColName)) {
-					// The CSV Strategy is no good, try an other one...
-					try {
-						reader.close();
-						reader = null;
-					} catch(Exception ex) {
-						LOGGER.log(Level.WARNING, "Can not close the CSV file reader", ex);
-					}
-				} else {
-					// The CSV Strategy is good, let's parse that file!
-					break;
+			RecordScanner scanner = new RecordScanner(buffer, csvStrategy);
+			int headerStart = scanner.skipEmptyLines(start);
+			int dataStart = scanner.findRecordEnd(headerStart, headerStart);
+
+			String[] headerArr = null;
+			CSVByteTokenizer headerTokenizer = new CSVByteTokenizer(buffer, headerStart, dataStart, charset, csvStrategy);
+			if (headerTokenizer.nextRecord()) {
+				headerArr = new String[headerTokenizer.getValueCount()];
+				for (int i=0; i<headerArr.length; i++) {
+					headerArr[i] = headerTokenizer.getString(i);
 				}
 			}
+			PropertyInterner propertyInterner = new PropertyInterner();
+			RowFormat rowFormat = this.createRowFormat(propertyInterner,
+					CSVShape.parseHeader(headerArr, csvStrategy), lonColName, latColName, queryWindow);
+			rowFormat.columnTypes = CSVColumnType.infer(
+					new CSVByteTokenizer(buffer, dataStart, buffer.limit(), charset, csvStrategy), rowFormat.propertyColumns);
 
-			if (header == null || !header.containsKey(lonColName) || !header.containsKey(latColName)) {
-				throw new IOException("Invalid CSV file");
+			List<Chunk> chunks = new ArrayList<Chunk>();
+			if (this.forkJoinPool == null) {
+				if (dataStart < buffer.limit()) {
+					chunks.add(new Chunk(dataStart, buffer.limit()));
+				}
 			} else {
-				// Read each line of the CSV, one by one
-				String[] line;
-				int lonIndex = header.get(lonColName);
-				int latIndex = header.get(latColName);
-				while ((line = csvParser.getLine()) != null) {
-					// Ignore commented lines and line that do not have a filename
-					String longitudeStr = line[lonIndex];
-					String latitudeStr = line[latIndex];
-					if (!line[0].startsWith(CSV_COMMENT_PREFIX) &&
-							longitudeStr != null && !longitudeStr.isEmpty() &&
-							latitudeStr != null && !latitudeStr.isEmpty()) {
-
-						this.parsePoint(header, line, lonIndex, latIndex);
+				// Smaller chunks give the pool a chance to balance the load between its threads
+				int dataLength = buffer.limit() - dataStart;
+				int chunkSize = Math.max(MIN_CHUNK_SIZE, dataLength / (this.forkJoinPool.getParallelism() * 8));
+				int chunkStart = dataStart;
+				while (chunkStart < buffer.limit()) {
+					int chunkEnd = scanner.findRecordEnd(chunkStart, chunkStart + chunkSize);
+					chunks.add(new Chunk(chunkStart, chunkEnd));
+					chunkStart = chunkEnd;
+				}
+			}
+
+			CSVChunkTask chunkTask = new CSVChunkTask(buffer, charset, csvStrategy, propertyInterner, rowFormat,
+					this.columnarStorage, chunks, 0, chunks.size());
+			if (this.forkJoinPool == null) {
+				chunkTask.parseChunks();
+			} else if (!chunks.isEmpty()) {
+				try {
+					this.forkJoinPool.invoke(chunkTask);
+				} catch(UncheckedIOException ex) {
+					throw ex.getCause();
+				}
+			}
+
+			for (Chunk chunk : chunks) {
+				if (chunk.columnBlock != null) {
+					this.columnBlocks.add(chunk.columnBlock);
+				} else if (chunk.group != null) {
+					for (GeoShape geoShape : chunk.group.getGeoShapes()) {
+						this.add(geoShape);
 					}
 				}
 			}
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Parse the file with the CSVParser.
+	 * Used for files which can not be memory mapped (see isMappable).
+	 */
+	private void parseStream(Charset charset, String lonColName, String latColName, Rectangle2D queryWindow) throws IOException {
+		BufferedReader reader = null;
+
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.csvFile), charset), BUFFER_SIZE);
+
+			// Ignore the byte order mark (added by MS Notepad), it would be part of the first column label
+			reader.mark(1);
+			if (reader.read() != BYTE_ORDER_MARK) {
+				reader.reset();
+			}
+
+			// Find the CSV Strategy using the beginning of the file
+			// The sample is extended until it contains the whole header line.
+			String sample;
+			boolean truncated;
+			int sampleSize = SAMPLE_SIZE;
+			do {
+				reader.mark(sampleSize);
+				char[] sampleChars = new char[sampleSize];
+				int sampleLength = 0;
+				int read;
+				while (sampleLength < sampleSize && (read = reader.read(sampleChars, sampleLength, sampleSize - sampleLength)) != -1) {
+					sampleLength += read;
+				}
+				reader.reset();
+				truncated = sampleLength == sampleSize;
+				sample = new String(sampleChars, 0, sampleLength);
+				sampleSize *= 2;
+			} while (truncated && !CSVShape.containsLineBreak(sample));
+			CSVStrategy csvStrategy = CSVShape.sniffStrategy(sample, truncated, lonColName, latColName);
+			if (csvStrategy == null) {
+				throw new IOException("Invalid CSV file");
+			}
+
+			CSVParser csvParser = new CSVParser(reader, csvStrategy);
+			PropertyInterner propertyInterner = new PropertyInterner();
+			RowFormat rowFormat = this.createRowFormat(propertyInterner,
+					CSVShape.parseHeader(csvParser.getLine(), csvStrategy), lonColName, latColName, queryWindow);
+
+			CSVColumns columnBlock = this.columnarStorage ?
+					new CSVColumns(rowFormat.schema, rowFormat.columnTypes, propertyInterner) : null;
+			CSVShape.parseLines(csvParser, propertyInterner, rowFormat, this, columnBlock);
+			if (columnBlock != null) {
+				columnBlock.trimToSize();
+				this.columnBlocks.add(columnBlock);
+			}
 
 		} finally {
 			if (reader != null) {
@@ -174,30 +418,548 @@ public class CSVShape extends GeoShapeGroup {
 		}
 	}
 
-	private void parsePoint(Map<String, Integer> header, String[] line, int lonIndex, int latIndex) {
-		String longitudeStr = line[lonIndex];
-		String latitudeStr = line[latIndex];
+	/**
+	 * The file can be memory mapped and split at the line feed bytes if it's smaller than 2 GB
+	 * and if the line feed, the separators and the string delimiters are encoded in a single byte.
+	 */
+	private static boolean isMappable(File csvFile, Charset charset) {
+		if (csvFile.length() > Integer.MAX_VALUE) {
+			return false;
+		}
+		if (!CSVShape.isSingleByte(charset, '\n') || !CSVShape.isSingleByte(charset, '\r')) {
+			return false;
+		}
+		for (CSVStrategy csvStrategy : CSV_STRATEGIES) {
+			if (!CSVShape.isSingleByte(charset, csvStrategy.getDelimiter()) ||
+					!CSVShape.isSingleByte(charset, csvStrategy.getEncapsulator())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isSingleByte(Charset charset, char c) {
+		byte[] bytes = String.valueOf(c).getBytes(charset);
+		return bytes.length == 1 && bytes[0] == c;
+	}
+
+	private static int getByteOrderMarkLength(ByteBuffer buffer, Charset charset) {
+		if (!charset.newEncoder().canEncode(BYTE_ORDER_MARK)) {
+			return 0;
+		}
+		byte[] byteOrderMark = String.valueOf(BYTE_ORDER_MARK).getBytes(charset);
+		if (buffer.limit() < byteOrderMark.length) {
+			return 0;
+		}
+		for (int i=0; i<byteOrderMark.length; i++) {
+			if (buffer.get(i) != byteOrderMark[i]) {
+				return 0;
+			}
+		}
+		return byteOrderMark.length;
+	}
+
+	private static boolean containsLineBreak(String sample) {
+		return sample.indexOf('\n') >= 0 || sample.indexOf('\r') >= 0;
+	}
+
+	/**
+	 * Choose the CSV Strategy by parsing a sample of the file with each of them,
+	 * instead of opening the file for each strategy.
+	 * The header of the sample must contain the longitude / latitude columns.
+	 * The strategy which gives the most lines with as many values as the header wins;
+	 * on a tie, the first strategy of CSV_STRATEGIES is used.
+	 * @param truncated True if the sample is the beginning of a larger file;
+	 *   its last line is probably truncated.
+	 * @return The CSV Strategy, or null if none of them can find the longitude / latitude columns.
+	 */
+	private static CSVStrategy sniffStrategy(String sample, boolean truncated, String lonColName, String latColName) {
+		// Ignore the last line of the sample, which is probably truncated
+		if (truncated) {
+			int lastLine = sample.lastIndexOf('\n');
+			if (lastLine > 0) {
+				sample = sample.substring(0, lastLine + 1);
+			}
+		}
+
+		CSVStrategy bestStrategy = null;
+		int bestScore = -1;
+		for (CSVStrategy csvStrategy : CSV_STRATEGIES) {
+			int score = CSVShape.scoreStrategy(sample, csvStrategy, lonColName, latColName);
+			if (score > bestScore) {
+				bestStrategy = csvStrategy;
+				bestScore = score;
+			}
+		}
+
+		return bestStrategy;
+	}
+
+	/**
+	 * @return The number of lines of the sample which have as many values as the header,
+	 *   or -1 if the header do not contain the longitude / latitude columns.
+	 */
+	private static int scoreStrategy(String sample, CSVStrategy csvStrategy, String lonColName, String latColName) {
+		CSVParser csvParser = new CSVParser(new StringReader(sample), csvStrategy);
+		int score = -1;
+		try {
+			String[] headerArr = csvParser.getLine();
+			Map<String, Integer> header = CSVShape.parseHeader(headerArr, csvStrategy);
+			if (!header.containsKey(lonColName) || !header.containsKey(latColName)) {
+				// The CSV Strategy is no good
+				return -1;
+			}
+
+			score = 0;
+			String[] line;
+			while ((line = csvParser.getLine()) != null) {
+				if (line.length == headerArr.length) {
+					score++;
+				}
+			}
+		} catch (IOException ex) {
+			// The sample is not valid for that CSV Strategy (unclosed quote, etc).
+			// Keep the lines parsed so far.
+		}
+		return score;
+	}
+
+	private static Map<String, Integer> parseHeader(String[] headerArr, CSVStrategy csvStrategy) {
+		Map<String, Integer> header = new HashMap<String, Integer>();
+		if (headerArr != null) {
+			for (int i=0; i<headerArr.length; i++) {
+				String label = headerArr[i];
+				if (label != null) {
+					label = label.trim();
+					if (!label.isEmpty()) {
+						// Fix for messed-up CSV file (MS Notepad add invisible chars that confuse the parser)
+						String stringDelimiter = "" + csvStrategy.getEncapsulator();
+						if (label.contains(stringDelimiter)) {
+							String quotedStringDelimiter = Pattern.quote(stringDelimiter);
+							label = label.replaceAll("^.*" + quotedStringDelimiter +"(.+)" + quotedStringDelimiter + ".*$", "$1");
+						}
+						header.put(label, i);
+					}
+				}
+			}
+		}
+		return header;
+	}
 
-		double longitude = Double.parseDouble(longitudeStr);
-		double latitude = Double.parseDouble(latitudeStr);
+	private RowFormat createRowFormat(PropertyInterner propertyInterner, Map<String, Integer> header,
+			String lonColName, String latColName, Rectangle2D queryWindow) throws IOException {
 
-		Point2D.Double point = new Point2D.Double(longitude, latitude);
+		if (!header.containsKey(lonColName) || !header.containsKey(latColName)) {
+			throw new IOException("Invalid CSV file");
+		}
 
-		Map<String, PropertyValue> properties = new HashMap<String, PropertyValue>();;
-		for (Map.Entry<String, Integer> headerEntry : header.entrySet()) {
-			String propertyName = headerEntry.getKey();
-			String valueStr = line[headerEntry.getValue()];
+		// All the points share the same property keys
+		List<String> columnNames = new ArrayList<String>();
+		for (String label : header.keySet()) {
+			if (this.propertyNames == null || this.propertyNames.contains(label)) {
+				columnNames.add(label);
+			}
+		}
+		SchemaPropertyMap.Schema schema = propertyInterner.getSchema(columnNames);
+		int[] propertyColumns = new int[columnNames.size()];
+		for (int i=0; i<propertyColumns.length; i++) {
+			propertyColumns[i] = header.get(columnNames.get(i));
+		}
+		return new RowFormat(schema, propertyColumns, header.get(lonColName), header.get(latColName), queryWindow);
+	}
+
+	/**
+	 * Read each line of the CSV, one by one, after the header.
+	 * The points are added to the group, or to the column block when it's not null.
+	 */
+	private static void parseLines(CSVParser csvParser, PropertyInterner propertyInterner, RowFormat rowFormat,
+			GeoShapeGroup group, CSVColumns columnBlock) throws IOException {
+
+		int lonIndex = rowFormat.lonIndex;
+		int latIndex = rowFormat.latIndex;
+		int[] propertyColumns = rowFormat.propertyColumns;
 
-			PropertyValue propertyValue;
-			if (SldUtils.isNumeric(valueStr)) {
-				propertyValue = new PropertyValue(Double.parseDouble(valueStr));
+		String[] line;
+		while ((line = csvParser.getLine()) != null) {
+			// Ignore commented lines and line that do not have a filename
+			String longitudeStr = line[lonIndex];
+			String latitudeStr = line[latIndex];
+			if (!line[0].startsWith(CSV_COMMENT_PREFIX) &&
+					longitudeStr != null && !longitudeStr.isEmpty() &&
+					latitudeStr != null && !latitudeStr.isEmpty()) {
+
+				double longitude = FastDoubleParser.parseDouble(longitudeStr);
+				double latitude = FastDoubleParser.parseDouble(latitudeStr);
+				if (!rowFormat.isInQueryWindow(longitude, latitude)) {
+					continue;
+				}
+
+				if (columnBlock == null) {
+					PropertyValue[] values = new PropertyValue[propertyColumns.length];
+					for (int i=0; i<propertyColumns.length; i++) {
+						values[i] = CSVShape.parseValue(propertyInterner, line[propertyColumns[i]]);
+					}
+					group.add(new Point2D.Double(longitude, latitude), new SchemaPropertyMap(rowFormat.schema, values));
+				} else {
+					int row = columnBlock.addRow(longitude, latitude);
+					for (int i=0; i<propertyColumns.length; i++) {
+						columnBlock.setValue(row, i, line[propertyColumns[i]]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read each record of the tokenizer.
+	 * The values are parsed directly from the bytes of the file, with the decoder
+	 * of the type of their column; Strings are only created for the values which are not numbers.
+	 * Only the values up to the coordinates are read before the record is checked
+	 * against the query window; the records outside the window are skipped.
+	 * The points are added to the group, or to the column block when it's not null.
+	 */
+	private static void parseRecords(CSVByteTokenizer tokenizer, PropertyInterner propertyInterner, RowFormat rowFormat,
+			GeoShapeGroup group, CSVColumns columnBlock) throws IOException {
+
+		int lonIndex = rowFormat.lonIndex;
+		int latIndex = rowFormat.latIndex;
+		int[] propertyColumns = rowFormat.propertyColumns;
+		ValueDecoder decoder = new ValueDecoder(rowFormat);
+		int coordinateValues = Math.max(lonIndex, latIndex) + 1;
+
+		while (tokenizer.nextRecord(coordinateValues)) {
+			// Ignore commented lines and line that do not have coordinates
+			if (tokenizer.startsWith(0, CSV_COMMENT_PREFIX_BYTE) ||
+					tokenizer.isEmpty(lonIndex) || tokenizer.isEmpty(latIndex)) {
+				continue;
+			}
+
+			double longitude = tokenizer.parseDouble(lonIndex);
+			double latitude = tokenizer.parseDouble(latIndex);
+			if (!rowFormat.isInQueryWindow(longitude, latitude)) {
+				continue;
+			}
+			tokenizer.readRecord();
+
+			if (columnBlock == null) {
+				PropertyValue[] values = new PropertyValue[propertyColumns.length];
+				for (int i=0; i<propertyColumns.length; i++) {
+					values[i] = decoder.decode(tokenizer, i) ?
+							propertyInterner.internValue(decoder.number) :
+							propertyInterner.internValue(decoder.string);
+				}
+				group.add(new Point2D.Double(longitude, latitude), new SchemaPropertyMap(rowFormat.schema, values));
 			} else {
-				propertyValue = new PropertyValue(valueStr);
+				int row = columnBlock.addRow(longitude, latitude);
+				for (int i=0; i<propertyColumns.length; i++) {
+					if (decoder.decode(tokenizer, i)) {
+						columnBlock.setNumber(row, i, decoder.number);
+					} else {
+						columnBlock.setString(row, i, decoder.string);
+					}
+				}
 			}
+		}
+	}
 
-			properties.put(propertyName, propertyValue);
+	/**
+	 * Parse a CSV value into a number, or a string if it's not a number.
+	 */
+	static PropertyValue parseValue(PropertyInterner propertyInterner, String valueStr) {
+		// Most numbers are plain decimal numbers, parsed in a single pass.
+		// Other values are checked with SldUtils.isNumeric, as before.
+		double numericValue = valueStr == null ? Double.NaN : FastDoubleParser.parseDecimal(valueStr);
+		if (!Double.isNaN(numericValue)) {
+			return propertyInterner.internValue(numericValue);
 		}
+		if (SldUtils.isNumeric(valueStr)) {
+			return propertyInterner.internValue(Double.parseDouble(valueStr));
+		}
+		return propertyInterner.internValue(valueStr);
+	}
+
+	/**
+	 * Columns of the CSV file used by the parser.
+	 */
+	private static class RowFormat {
+		private final SchemaPropertyMap.Schema schema;
+		// Index of the CSV column of each schema key
+		private final int[] propertyColumns;
+		private final int lonIndex;
+		private final int latIndex;
+		// Null to load all the points
+		private final Rectangle2D queryWindow;
+		// Type of each schema key, inferred from the first records of the file
+		private CSVColumnType[] columnTypes;
+
+		public RowFormat(SchemaPropertyMap.Schema schema, int[] propertyColumns, int lonIndex, int latIndex,
+				Rectangle2D queryWindow) {
+			this.schema = schema;
+			this.propertyColumns = propertyColumns;
+			this.lonIndex = lonIndex;
+			this.latIndex = latIndex;
+			this.queryWindow = queryWindow;
+			this.columnTypes = new CSVColumnType[propertyColumns.length];
+			Arrays.fill(this.columnTypes, CSVColumnType.MIXED);
+		}
+
+		/**
+		 * Same as GeoJSONShape: the points on the edge of the window are inside.
+		 */
+		public boolean isInQueryWindow(double longitude, double latitude) {
+			Rectangle2D window = this.queryWindow;
+			return window == null || (
+					longitude >= window.getMinX() && longitude <= window.getMaxX() &&
+					latitude >= window.getMinY() && latitude <= window.getMaxY());
+		}
+	}
+
+	/**
+	 * Decode the values of a record, with the decoder of the type of their column.
+	 * Each thread has its own decoder; the column types are promoted when
+	 * a value do not match the type of its column (see CSVColumnType).
+	 */
+	private static class ValueDecoder {
+		private final int[] propertyColumns;
+		private final CSVColumnType[] columnTypes;
 
-		this.add(point, properties);
+		// Decoded value
+		private double number;
+		private String string;
+
+		public ValueDecoder(RowFormat rowFormat) {
+			this.propertyColumns = rowFormat.propertyColumns;
+			this.columnTypes = rowFormat.columnTypes.clone();
+			this.number = Double.NaN;
+			this.string = null;
+		}
+
+		/**
+		 * @param index The index of the value in the schema.
+		 * @return True if the value is a number (see the "number" attribute),
+		 *   false if it's a string (see the "string" attribute).
+		 */
+		public boolean decode(CSVByteTokenizer tokenizer, int index) {
+			int column = this.propertyColumns[index];
+			// Empty or missing value (short line): not a number, whatever the type of the column
+			if (tokenizer.isEmpty(column)) {
+				this.string = tokenizer.getString(column);
+				return false;
+			}
+			switch (this.columnTypes[index]) {
+				case INTEGER:
+					long integerValue = tokenizer.parseInteger(column);
+					if (integerValue != CSVByteTokenizer.NOT_AN_INTEGER) {
+						this.number = integerValue;
+						return true;
+					}
+					this.columnTypes[index] = CSVColumnType.NUMERIC;
+					return this.decodeMixed(tokenizer, column);
+
+				case NUMERIC:
+					this.number = tokenizer.parseDecimal(column);
+					if (!Double.isNaN(this.number)) {
+						return true;
+					}
+					this.columnTypes[index] = CSVColumnType.MIXED;
+					return this.decodeMixed(tokenizer, column);
+
+				case STRING:
+					if (!tokenizer.mayBeNumber(column)) {
+						this.string = tokenizer.getString(column);
+						return false;
+					}
+					return this.decodeMixed(tokenizer, column);
+
+				default:
+					return this.decodeMixed(tokenizer, column);
+			}
+		}
+
+		// Same as CSVShape.parseValue
+		private boolean decodeMixed(CSVByteTokenizer tokenizer, int column) {
+			this.number = tokenizer.parseDecimal(column);
+			if (!Double.isNaN(this.number)) {
+				return true;
+			}
+			this.string = tokenizer.getString(column);
+			if (SldUtils.isNumeric(this.string)) {
+				this.number = Double.parseDouble(this.string);
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Find the end of the CSV records in the bytes of the file.
+	 * A line feed is the end of a record unless it's in a quoted value.
+	 * A quote only starts a quoted value at the beginning of a value;
+	 * elsewhere it's part of the value, like with the CSVParser.
+	 */
+	private static class RecordScanner {
+		private static final int VALUE_START = 0;
+		private static final int UNQUOTED = 1;
+		private static final int QUOTED = 2;
+		// Quote found in a quoted value: end of the value, or escaped quote
+		private static final int QUOTE_IN_QUOTED = 3;
+
+		private final ByteBuffer buffer;
+		private final byte delimiter;
+		private final byte encapsulator;
+		private final boolean ignoreLeadingWhitespaces;
+
+		public RecordScanner(ByteBuffer buffer, CSVStrategy csvStrategy) {
+			this.buffer = buffer;
+			this.delimiter = (byte)csvStrategy.getDelimiter();
+			this.encapsulator = (byte)csvStrategy.getEncapsulator();
+			this.ignoreLeadingWhitespaces = csvStrategy.getIgnoreLeadingWhitespaces();
+		}
+
+		public int skipEmptyLines(int start) {
+			int limit = this.buffer.limit();
+			int pos = start;
+			while (pos < limit && (this.buffer.get(pos) == '\n' || this.buffer.get(pos) == '\r')) {
+				pos++;
+			}
+			return pos;
+		}
+
+		/**
+		 * @param recordStart The position of the beginning of a record.
+		 * @param minEnd The chunk must end after this position.
+		 * @return The position after the line feed of the first record which ends after minEnd,
+		 *   or the end of the file.
+		 */
+		public int findRecordEnd(int recordStart, int minEnd) {
+			int limit = this.buffer.limit();
+			int state = VALUE_START;
+			for (int pos=recordStart; pos<limit; pos++) {
+				byte b = this.buffer.get(pos);
+				switch (state) {
+					case VALUE_START:
+						if (b == this.encapsulator) {
+							state = QUOTED;
+						} else if (b == '\n') {
+							if (pos >= minEnd) {
+								return pos + 1;
+							}
+						} else if (b != this.delimiter &&
+								!(this.ignoreLeadingWhitespaces && (b == ' ' || b == '\t'))) {
+							state = UNQUOTED;
+						}
+						break;
+
+					case UNQUOTED:
+					case QUOTE_IN_QUOTED:
+						if (b == this.delimiter) {
+							state = VALUE_START;
+						} else if (b == '\n') {
+							state = VALUE_START;
+							if (pos >= minEnd) {
+								return pos + 1;
+							}
+						} else if (state == QUOTE_IN_QUOTED && b == this.encapsulator) {
+							// Escaped quote
+							state = QUOTED;
+						} else {
+							state = UNQUOTED;
+						}
+						break;
+
+					case QUOTED:
+						if (b == this.encapsulator) {
+							state = QUOTE_IN_QUOTED;
+						}
+						break;
+				}
+			}
+			return limit;
+		}
+	}
+
+	private static class Chunk {
+		private final int start;
+		private final int end;
+
+		// Result
+		private GeoShapeGroup group;
+		private CSVColumns columnBlock;
+
+		public Chunk(int start, int end) {
+			this.start = start;
+			this.end = end;
+			this.group = null;
+			this.columnBlock = null;
+		}
+	}
+
+	/**
+	 * Split the chunks in 2 until there is only one chunk to parse.
+	 */
+	private static class CSVChunkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final ByteBuffer buffer;
+		private final Charset charset;
+		private final CSVStrategy csvStrategy;
+		private final PropertyInterner propertyInterner;
+		private final RowFormat rowFormat;
+		private final boolean columnarStorage;
+		private final List<Chunk> chunks;
+		private final int from;
+		private final int to;
+
+		public CSVChunkTask(ByteBuffer buffer, Charset charset, CSVStrategy csvStrategy,
+				PropertyInterner propertyInterner, RowFormat rowFormat, boolean columnarStorage,
+				List<Chunk> chunks, int from, int to) {
+			this.buffer = buffer;
+			this.charset = charset;
+			this.csvStrategy = csvStrategy;
+			this.propertyInterner = propertyInterner;
+			this.rowFormat = rowFormat;
+			this.columnarStorage = columnarStorage;
+			this.chunks = chunks;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= 1) {
+				try {
+					this.parseChunks();
+				} catch(IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+				return;
+			}
+
+			int middle = (this.from + this.to) >>> 1;
+			CSVChunkTask left = new CSVChunkTask(this.buffer, this.charset, this.csvStrategy,
+					this.propertyInterner, this.rowFormat, this.columnarStorage, this.chunks, this.from, middle);
+			CSVChunkTask right = new CSVChunkTask(this.buffer, this.charset, this.csvStrategy,
+					this.propertyInterner, this.rowFormat, this.columnarStorage, this.chunks, middle, this.to);
+			ForkJoinTask.invokeAll(left, right);
+		}
+
+		/**
+		 * Parse the chunks of the task, in the current thread.
+		 */
+		public void parseChunks() throws IOException {
+			for (int i=this.from; i<this.to; i++) {
+				Chunk chunk = this.chunks.get(i);
+				// The tokenizer only use absolute positions; the buffer can be shared between the threads
+				CSVByteTokenizer tokenizer = new CSVByteTokenizer(this.buffer, chunk.start, chunk.end, this.charset, this.csvStrategy);
+				if (this.columnarStorage) {
+					chunk.columnBlock = new CSVColumns(this.rowFormat.schema, this.rowFormat.columnTypes, this.propertyInterner);
+					CSVShape.parseRecords(tokenizer, this.propertyInterner, this.rowFormat, null, chunk.columnBlock);
+					chunk.columnBlock.trimToSize();
+				} else {
+					chunk.group = new GeoShapeGroup(null);
+					CSVShape.parseRecords(tokenizer, this.propertyInterner, this.rowFormat, chunk.group, null);
+				}
+			}
+		}
 	}
 }
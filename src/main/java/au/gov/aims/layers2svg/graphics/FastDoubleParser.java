@@ -0,0 +1,476 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Parse decimal numbers (coordinates, property values) directly from
+ * the characters or the bytes of the input, without creating a String.
+ *
+ * The result is always the same as Double.parseDouble (correctly rounded):
+ *   1. Numbers which can be represented exactly using a double (up to 2^53,
+ *      and a power of ten up to 22) are computed with a single multiplication
+ *      or division (Clinger's fast path).
+ *   2. Other numbers with up to 19 digits are computed using the Eisel-Lemire
+ *      algorithm, with a 128 bits approximation of the power of ten.
+ *      The algorithm detects the rare cases where the approximation is not
+ *      precise enough to round the number correctly.
+ *   3. Anything else (more than 19 digits, ambiguous rounding, subnormal numbers,
+ *      hexadecimal, "NaN", "Infinity", white spaces, etc) is delegated
+ *      to Double.parseDouble.
+ *
+ * References:
+ *   Daniel Lemire, "Number Parsing at a Gigabyte per Second", 2021
+ *   https://arxiv.org/abs/2101.11408
+ *   https://github.com/lemire/fast_double_parser
+ */
+final class FastDoubleParser {
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	// Largest integer which can be represented exactly using a double
+	private static final long MAX_EXACT_INTEGER = 1L << 53;
+	// 19 digits always fit in an unsigned long
+	private static final int MAX_DIGITS = 19;
+
+	private static final int SMALLEST_POWER_OF_TEN = -342;
+	private static final int LARGEST_POWER_OF_TEN = 308;
+
+	// 128 bits approximation of 5^q, normalised so the most significant bit is set.
+	// MANTISSA_HIGH contains the 64 most significant bits, MANTISSA_LOW the 64 others.
+	private static final long[] MANTISSA_HIGH;
+	private static final long[] MANTISSA_LOW;
+
+	static {
+		int size = LARGEST_POWER_OF_TEN - SMALLEST_POWER_OF_TEN + 1;
+		MANTISSA_HIGH = new long[size];
+		MANTISSA_LOW = new long[size];
+
+		// Same values as the tables of fast_double_parser:
+		//   Positive powers are truncated; negative powers (reciprocal) are rounded up.
+		BigInteger five = BigInteger.valueOf(5);
+		for (int q=SMALLEST_POWER_OF_TEN; q<=LARGEST_POWER_OF_TEN; q++) {
+			BigInteger mantissa;
+			if (q >= 0) {
+				mantissa = five.pow(q);
+			} else {
+				BigInteger power5 = five.pow(-q);
+				// Smallest z such as 2^z >= 5^-q
+				int z = power5.bitLength();
+				int b = q >= -27 ? z + 127 : 2 * z + 128;
+				mantissa = BigInteger.ONE.shiftLeft(b).divide(power5).add(BigInteger.ONE);
+			}
+			int bitLength = mantissa.bitLength();
+			mantissa = bitLength > 128 ? mantissa.shiftRight(bitLength - 128) : mantissa.shiftLeft(128 - bitLength);
+
+			MANTISSA_HIGH[q - SMALLEST_POWER_OF_TEN] = mantissa.shiftRight(64).longValue();
+			MANTISSA_LOW[q - SMALLEST_POWER_OF_TEN] = mantissa.longValue();
+		}
+	}
+
+	private FastDoubleParser() {}
+
+	/**
+	 * Same as Double.parseDouble(str)
+	 * @throws NumberFormatException if the string is not a number.
+	 */
+	public static double parseDouble(CharSequence str) {
+		double value = parseDecimal(str, 0, str.length());
+		return Double.isNaN(value) ? Double.parseDouble(str.toString()) : value;
+	}
+
+	/**
+	 * Same as Double.parseDouble(new String(chars, offset, length))
+	 * @throws NumberFormatException if the characters are not a number.
+	 */
+	public static double parseDouble(char[] chars, int offset, int length) {
+		double value = parseDecimal(chars, offset, length);
+		return Double.isNaN(value) ? Double.parseDouble(new String(chars, offset, length)) : value;
+	}
+
+	/**
+	 * Parse a number from ASCII bytes (UTF-8 encoded JSON, CSV, etc).
+	 * The position of the buffer is not modified.
+	 * @throws NumberFormatException if the bytes are not a number.
+	 */
+	public static double parseDouble(ByteBuffer buffer, int offset, int length) {
+		double value = parseDecimal(buffer, offset, length);
+		return Double.isNaN(value) ? Double.parseDouble(toString(buffer, offset, length)) : value;
+	}
+
+	/**
+	 * Parse a decimal number: [+-] digits [. digits] [(e|E) [+-] digits]
+	 * @return The number, or NaN if the string is not a decimal number.
+	 */
+	public static double parseDecimal(CharSequence str) {
+		return parseDecimal(str, 0, str.length());
+	}
+
+	// The 3 methods below are identical, except for the type of their input.
+
+	public static double parseDecimal(CharSequence str, int offset, int length) {
+		int end = offset + length;
+		int pos = offset;
+		if (pos >= end) {
+			return Double.NaN;
+		}
+
+		boolean negative = false;
+		char c = str.charAt(pos);
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			pos++;
+		}
+
+		long significand = 0;
+		int digitCount = 0;
+		int exponent = 0;
+		boolean hasDigits = false;
+		boolean truncated = false;
+		boolean fraction = false;
+		for (; pos < end; pos++) {
+			c = str.charAt(pos);
+			if (c >= '0' && c <= '9') {
+				hasDigits = true;
+				int digit = c - '0';
+				if (digitCount < MAX_DIGITS) {
+					if (significand != 0 || digit != 0) {
+						significand = significand * 10 + digit;
+						digitCount++;
+					}
+					if (fraction) {
+						exponent--;
+					}
+				} else {
+					// The digit doesn't fit in the significand
+					truncated |= digit != 0;
+					if (!fraction) {
+						exponent++;
+					}
+				}
+			} else if (c == '.' && !fraction) {
+				fraction = true;
+			} else {
+				break;
+			}
+		}
+		if (!hasDigits) {
+			return Double.NaN;
+		}
+
+		if (pos < end && (str.charAt(pos) == 'e' || str.charAt(pos) == 'E')) {
+			pos++;
+			boolean negativeExponent = false;
+			if (pos < end && (str.charAt(pos) == '-' || str.charAt(pos) == '+')) {
+				negativeExponent = str.charAt(pos) == '-';
+				pos++;
+			}
+			int exponentStart = pos;
+			int exponentValue = 0;
+			for (; pos < end && (c = str.charAt(pos)) >= '0' && c <= '9'; pos++) {
+				// Large exponents are clamped; the number is 0 or infinity
+				if (exponentValue < 100000) {
+					exponentValue = exponentValue * 10 + (c - '0');
+				}
+			}
+			if (pos == exponentStart) {
+				return Double.NaN;
+			}
+			exponent += negativeExponent ? -exponentValue : exponentValue;
+		}
+		if (pos != end) {
+			return Double.NaN;
+		}
+
+		double value = truncated ? Double.NaN : toDouble(negative, significand, exponent);
+		return Double.isNaN(value) ? Double.parseDouble(str.subSequence(offset, end).toString()) : value;
+	}
+
+	public static double parseDecimal(char[] chars, int offset, int length) {
+		int end = offset + length;
+		int pos = offset;
+		if (pos >= end) {
+			return Double.NaN;
+		}
+
+		boolean negative = false;
+		char c = chars[pos];
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			pos++;
+		}
+
+		long significand = 0;
+		int digitCount = 0;
+		int exponent = 0;
+		boolean hasDigits = false;
+		boolean truncated = false;
+		boolean fraction = false;
+		for (; pos < end; pos++) {
+			c = chars[pos];
+			if (c >= '0' && c <= '9') {
+				hasDigits = true;
+				int digit = c - '0';
+				if (digitCount < MAX_DIGITS) {
+					if (significand != 0 || digit != 0) {
+						significand = significand * 10 + digit;
+						digitCount++;
+					}
+					if (fraction) {
+						exponent--;
+					}
+				} else {
+					truncated |= digit != 0;
+					if (!fraction) {
+						exponent++;
+					}
+				}
+			} else if (c == '.' && !fraction) {
+				fraction = true;
+			} else {
+				break;
+			}
+		}
+		if (!hasDigits) {
+			return Double.NaN;
+		}
+
+		if (pos < end && (chars[pos] == 'e' || chars[pos] == 'E')) {
+			pos++;
+			boolean negativeExponent = false;
+			if (pos < end && (chars[pos] == '-' || chars[pos] == '+')) {
+				negativeExponent = chars[pos] == '-';
+				pos++;
+			}
+			int exponentStart = pos;
+			int exponentValue = 0;
+			for (; pos < end && (c = chars[pos]) >= '0' && c <= '9'; pos++) {
+				if (exponentValue < 100000) {
+					exponentValue = exponentValue * 10 + (c - '0');
+				}
+			}
+			if (pos == exponentStart) {
+				return Double.NaN;
+			}
+			exponent += negativeExponent ? -exponentValue : exponentValue;
+		}
+		if (pos != end) {
+			return Double.NaN;
+		}
+
+		double value = truncated ? Double.NaN : toDouble(negative, significand, exponent);
+		return Double.isNaN(value) ? Double.parseDouble(new String(chars, offset, length)) : value;
+	}
+
+	public static double parseDecimal(ByteBuffer buffer, int offset, int length) {
+		int end = offset + length;
+		int pos = offset;
+		if (pos >= end) {
+			return Double.NaN;
+		}
+
+		boolean negative = false;
+		byte b = buffer.get(pos);
+		if (b == '-' || b == '+') {
+			negative = b == '-';
+			pos++;
+		}
+
+		long significand = 0;
+		int digitCount = 0;
+		int exponent = 0;
+		boolean hasDigits = false;
+		boolean truncated = false;
+		boolean fraction = false;
+		for (; pos < end; pos++) {
+			b = buffer.get(pos);
+			if (b >= '0' && b <= '9') {
+				hasDigits = true;
+				int digit = b - '0';
+				if (digitCount < MAX_DIGITS) {
+					if (significand != 0 || digit != 0) {
+						significand = significand * 10 + digit;
+						digitCount++;
+					}
+					if (fraction) {
+						exponent--;
+					}
+				} else {
+					truncated |= digit != 0;
+					if (!fraction) {
+						exponent++;
+					}
+				}
+			} else if (b == '.' && !fraction) {
+				fraction = true;
+			} else {
+				break;
+			}
+		}
+		if (!hasDigits) {
+			return Double.NaN;
+		}
+
+		if (pos < end && (buffer.get(pos) == 'e' || buffer.get(pos) == 'E')) {
+			pos++;
+			boolean negativeExponent = false;
+			if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+				negativeExponent = buffer.get(pos) == '-';
+				pos++;
+			}
+			int exponentStart = pos;
+			int exponentValue = 0;
+			for (; pos < end && (b = buffer.get(pos)) >= '0' && b <= '9'; pos++) {
+				if (exponentValue < 100000) {
+					exponentValue = exponentValue * 10 + (b - '0');
+				}
+			}
+			if (pos == exponentStart) {
+				return Double.NaN;
+			}
+			exponent += negativeExponent ? -exponentValue : exponentValue;
+		}
+		if (pos != end) {
+			return Double.NaN;
+		}
+
+		double value = truncated ? Double.NaN : toDouble(negative, significand, exponent);
+		return Double.isNaN(value) ? Double.parseDouble(toString(buffer, offset, length)) : value;
+	}
+
+	/**
+	 * @return significand * 10^exponent, or NaN if it can't be computed
+	 *   exactly by the fast algorithms.
+	 */
+	private static double toDouble(boolean negative, long significand, int exponent) {
+		if (significand == 0) {
+			return negative ? -0.0 : 0.0;
+		}
+
+		// Clinger's fast path: both numbers are exact, the result of the operation is correctly rounded.
+		// NOTE: The significand is unsigned; 19 digits numbers can be larger than Long.MAX_VALUE.
+		if (exponent >= -22 && exponent <= 22 && significand > 0 && significand <= MAX_EXACT_INTEGER) {
+			double value = significand;
+			value = exponent < 0 ? value / POWERS_OF_TEN[-exponent] : value * POWERS_OF_TEN[exponent];
+			return negative ? -value : value;
+		}
+
+		if (exponent < SMALLEST_POWER_OF_TEN || exponent > LARGEST_POWER_OF_TEN) {
+			return Double.NaN;
+		}
+		return eiselLemire(negative, significand, exponent);
+	}
+
+	/**
+	 * Port of compute_float_64 from fast_double_parser (Apache License 2.0 / Boost).
+	 */
+	private static double eiselLemire(boolean negative, long significand, int power) {
+		long factorMantissa = MANTISSA_HIGH[power - SMALLEST_POWER_OF_TEN];
+
+		// The exponent is 1024 + 63 + power + floor(log(5^power)/log(2)).
+		// (152170 + 65536) / 65536 ~= log(10)/log(2)
+		long exponent = (((152170L + 65536L) * power) >> 16) + 1024 + 63;
+
+		// Normalise the significand so its most significant bit is set
+		int leadingZeros = Long.numberOfLeadingZeros(significand);
+		long i = significand << leadingZeros;
+
+		long upper = unsignedMultiplyHigh(i, factorMantissa);
+		long lower = i * factorMantissa;
+
+		// The 55 most significant bits are exact unless the 9 least significant bits
+		// of "upper" are all set and the error could carry into them.
+		if ((upper & 0x1FF) == 0x1FF && Long.compareUnsigned(lower + i, lower) < 0) {
+			long factorMantissaLow = MANTISSA_LOW[power - SMALLEST_POWER_OF_TEN];
+			long productLow = i * factorMantissaLow;
+			long productMiddle2 = unsignedMultiplyHigh(i, factorMantissaLow);
+			long productMiddle1 = lower;
+			long productHigh = upper;
+			long productMiddle = productMiddle1 + productMiddle2;
+			if (Long.compareUnsigned(productMiddle, productMiddle1) < 0) {
+				// Carry
+				productHigh++;
+			}
+			if (productMiddle + 1 == 0 && (productHigh & 0x1FF) == 0x1FF &&
+					Long.compareUnsigned(productLow + i, productLow) < 0) {
+				// Still not precise enough
+				return Double.NaN;
+			}
+			upper = productHigh;
+			lower = productMiddle;
+		}
+
+		// The final mantissa should be 53 bits with a leading 1.
+		// It's shifted to 54 bits, to round it.
+		long upperBit = upper >>> 63;
+		long mantissa = upper >>> (upperBit + 9);
+		leadingZeros += (int)(1 ^ upperBit);
+
+		// The number may be exactly between two doubles (round to even)
+		if (lower == 0 && (upper & 0x1FF) == 0 && (mantissa & 3) == 1) {
+			return Double.NaN;
+		}
+
+		mantissa += mantissa & 1;
+		mantissa >>>= 1;
+		if (mantissa >= (1L << 53)) {
+			// Rounding overflow
+			mantissa = 1L << 52;
+			leadingZeros--;
+		}
+		mantissa &= ~(1L << 52);
+
+		long realExponent = exponent - leadingZeros;
+		if (realExponent < 1 || realExponent > 2046) {
+			// Subnormal or infinity
+			return Double.NaN;
+		}
+
+		long bits = mantissa | (realExponent << 52) | (negative ? 1L << 63 : 0L);
+		return Double.longBitsToDouble(bits);
+	}
+
+	/**
+	 * The 64 most significant bits of the unsigned 128 bits product of x and y.
+	 * Equivalent to Math.unsignedMultiplyHigh (Java 18).
+	 */
+	private static long unsignedMultiplyHigh(long x, long y) {
+		long x0 = x & 0xFFFFFFFFL, x1 = x >>> 32;
+		long y0 = y & 0xFFFFFFFFL, y1 = y >>> 32;
+
+		long p00 = x0 * y0;
+		long p01 = x0 * y1;
+		long p10 = x1 * y0;
+		long p11 = x1 * y1;
+
+		long middle = p10 + (p00 >>> 32) + (p01 & 0xFFFFFFFFL);
+		return p11 + (middle >>> 32) + (p01 >>> 32);
+	}
+
+	private static String toString(ByteBuffer buffer, int offset, int length) {
+		char[] chars = new char[length];
+		for (int i=0; i<length; i++) {
+			chars[i] = (char)(buffer.get(offset + i) & 0xFF);
+		}
+		return new String(chars);
+	}
+}
@@ -23,25 +23,83 @@ import au.gov.aims.sld.geom.GeoShapeGroup;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.awt.Shape;
 import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
 
 /**
  * This class represent the shapes defined in a GeoJSON file.
  * It's a "GeoShapeGroup" instead of a "Layer" to add the possibility
  * of adding multiple GeoJSON into a single layer.
  *
+ * The GeoJSON can either be parsed from a JSONObject (see parse()),
+ * streamed (see parse(InputStream)) or read from a memory mapped
+ * file (see parse(File)). Streaming and memory mapped files
+ * are recommended for large files since the JSON document
+ * is never loaded in memory.
+ *
+ * The features of a JSONObject or a memory mapped file can be parsed
+ * concurrently (see setForkJoinPool). The shapes are always added to
+ * the group in the order of the features in the file.
+ *
+ * All the parse methods accept an optional query window, to only load the
+ * shapes which are visible on the map. Features outside the window are
+ * detected using their "bbox" when available, or the extent of their
+ * coordinates; the shapes of those features are never created.
+ *
+ * Only the properties used by the style can be loaded (see setPropertyNames).
+ *
+ * Large exports can be provided as GeoJSON text sequences (one feature per
+ * line, see parseSequence), which are parsed one feature at a time.
+ *
+ * Files can also be saved in a binary cache file, which is loaded instead of
+ * the GeoJSON file as long as the GeoJSON file doesn't change (see setCacheEnabled).
+ *
  * GeoJSON Specs:
  *   http://geojson.org/geojson-spec.html
  */
 public class GeoJSONShape extends GeoShapeGroup {
 	private static final Logger LOGGER = Logger.getLogger(GeoJSONShape.class.getSimpleName());
+	private static final String CACHE_PARAMETERS = "GeoJSON";
+	private static final String SEQUENCE_CACHE_PARAMETERS = "GeoJSONSeq";
 
 	private JSONObject geoJson;
+	private ForkJoinPool forkJoinPool;
+	private boolean cacheEnabled;
+	private Set<String> propertyNames;
+	// Share the property keys and values between features, during parse
+	private PropertyInterner propertyInterner;
+	// Shapes outside this window are ignored, during parse. Null to load every shapes.
+	private Rectangle2D queryWindow;
+
+	/**
+	 * Used with parse(File), parse(InputStream) or parse(Reader).
+	 */
+	public GeoJSONShape(String name) {
+		this(null, name);
+	}
 
 	/**
 	 * geoJson = {
@@ -52,9 +110,61 @@ public class GeoJSONShape extends GeoShapeGroup {
 	public GeoJSONShape(JSONObject geoJson, String name) {
 		super(name);
 		this.geoJson = geoJson;
+		this.forkJoinPool = null;
+		this.cacheEnabled = false;
+		this.propertyNames = null;
+	}
+
+	/**
+	 * Parse the features of parse() and parse(File) using the pool.
+	 * Set to null to parse the features sequentially (default).
+	 * Streams (parse(InputStream) and parse(Reader)) are always parsed sequentially.
+	 */
+	public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	public ForkJoinPool getForkJoinPool() {
+		return this.forkJoinPool;
+	}
+
+	/**
+	 * Save the shapes parsed by parse(File) in a binary file next to the GeoJSON file,
+	 * and load that binary file instead of the GeoJSON file, as long as it doesn't change.
+	 * See BinaryShapeCache.
+	 * The cache is not used when a query window is specified.
+	 */
+	public void setCacheEnabled(boolean cacheEnabled) {
+		this.cacheEnabled = cacheEnabled;
+	}
+
+	public boolean isCacheEnabled() {
+		return this.cacheEnabled;
+	}
+
+	/**
+	 * Only load those properties. The other properties are skipped while parsing.
+	 * Set to null to load all the properties (default).
+	 * See Layers2SVGUtils.getSLDPropertyNames
+	 * The cache is not used when the properties are filtered.
+	 */
+	public void setPropertyNames(Set<String> propertyNames) {
+		this.propertyNames = propertyNames;
+	}
+
+	public Set<String> getPropertyNames() {
+		return this.propertyNames;
 	}
 
 	public void parse() {
+		this.parse((Rectangle2D)null);
+	}
+
+	/**
+	 * Only load the features which are inside, or intersect, the query window.
+	 * @param queryWindow Window in GeoJSON coordinates (longitude / latitude), or null to load all the features.
+	 */
+	public void parse(Rectangle2D queryWindow) {
 		if (this.geoJson == null) {
 			LOGGER.log(Level.SEVERE, "GeoJSON is null.");
 		} else {
@@ -68,7 +178,14 @@ public class GeoJSONShape extends GeoShapeGroup {
 					if (featureCollection == null) {
 						LOGGER.log(Level.SEVERE, "GeoJSON contains no feature.");
 					} else {
-						this.parseFeatureCollection(featureCollection);
+						this.propertyInterner = new PropertyInterner();
+						this.queryWindow = queryWindow;
+						try {
+							this.parseFeatureCollection(featureCollection);
+						} finally {
+							this.propertyInterner = null;
+							this.queryWindow = null;
+						}
 					}
 				} else {
 					LOGGER.log(Level.SEVERE, "Unsupported GeoJSON type '" + type + "'.");
@@ -77,6 +194,175 @@ public class GeoJSONShape extends GeoShapeGroup {
 		}
 	}
 
+	/**
+	 * Parse a UTF-8 GeoJSON file from a memory mapped buffer.
+	 * The structure of the document is indexed (see JSONTape), then the coordinates
+	 * are parsed directly from the bytes of the file into the shapes.
+	 * Files larger than 2 GB can not be mapped; they are streamed instead.
+	 */
+	public void parse(File geoJsonFile) throws IOException {
+		this.parse(geoJsonFile, null);
+	}
+
+	public void parse(File geoJsonFile, Rectangle2D queryWindow) throws IOException {
+		if (geoJsonFile == null) {
+			LOGGER.log(Level.SEVERE, "GeoJSON file is null.");
+			return;
+		}
+
+		// The cache can only be used when the group contains nothing but the shapes of the file
+		boolean useCache = this.cacheEnabled && queryWindow == null && this.propertyNames == null && this.isEmpty();
+		if (useCache && BinaryShapeCache.load(geoJsonFile, CACHE_PARAMETERS, this)) {
+			return;
+		}
+		// Taken before parsing, see BinaryShapeCache.write
+		BinaryShapeCache.SourceStamp sourceStamp = useCache ? BinaryShapeCache.SourceStamp.of(geoJsonFile) : null;
+
+		FileInputStream inputStream = new FileInputStream(geoJsonFile);
+		try {
+			FileChannel channel = inputStream.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				this.parse(inputStream, queryWindow);
+			} else {
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				this.parseGeoJSON(new JSONTapeReader(JSONTape.build(buffer)), queryWindow);
+			}
+		} finally {
+			inputStream.close();
+		}
+
+		if (useCache) {
+			try {
+				BinaryShapeCache.write(geoJsonFile, sourceStamp, CACHE_PARAMETERS, this);
+			} catch(IOException ex) {
+				LOGGER.log(Level.WARNING, "Can not write the cache file for " + geoJsonFile, ex);
+			}
+		}
+	}
+
+	/**
+	 * Parse a UTF-8 GeoJSON stream, one token at a time.
+	 * The coordinates are written directly into the shapes; the JSON document is never built in memory.
+	 * NOTE: The stream is not closed.
+	 */
+	public void parse(InputStream inputStream) throws IOException {
+		this.parse(inputStream, null);
+	}
+
+	public void parse(InputStream inputStream, Rectangle2D queryWindow) throws IOException {
+		this.parse(new InputStreamReader(inputStream, StandardCharsets.UTF_8), queryWindow);
+	}
+
+	/**
+	 * Parse a GeoJSON document, one token at a time.
+	 * NOTE: The reader is not closed.
+	 */
+	public void parse(Reader reader) throws IOException {
+		this.parse(reader, null);
+	}
+
+	public void parse(Reader reader, Rectangle2D queryWindow) throws IOException {
+		this.parseGeoJSON(new JSONStreamReader(reader), queryWindow);
+	}
+
+	/**
+	 * Parse a GeoJSON text sequence (RFC 8142) or a newline delimited GeoJSON file,
+	 * which contains one feature per record. The records are parsed one at a time,
+	 * in constant memory. Invalid records are logged and skipped.
+	 * The file can be gzip compressed.
+	 */
+	public void parseSequence(File geoJsonSeqFile) throws IOException {
+		this.parseSequence(geoJsonSeqFile, null);
+	}
+
+	public void parseSequence(File geoJsonSeqFile, Rectangle2D queryWindow) throws IOException {
+		if (geoJsonSeqFile == null) {
+			LOGGER.log(Level.SEVERE, "GeoJSON sequence file is null.");
+			return;
+		}
+
+		boolean useCache = this.cacheEnabled && queryWindow == null && this.propertyNames == null && this.isEmpty();
+		if (useCache && BinaryShapeCache.load(geoJsonSeqFile, SEQUENCE_CACHE_PARAMETERS, this)) {
+			return;
+		}
+		// Taken before parsing, see BinaryShapeCache.write
+		BinaryShapeCache.SourceStamp sourceStamp = useCache ? BinaryShapeCache.SourceStamp.of(geoJsonSeqFile) : null;
+
+		InputStream inputStream = new FileInputStream(geoJsonSeqFile);
+		try {
+			this.parseSequence(inputStream, queryWindow);
+		} finally {
+			inputStream.close();
+		}
+
+		if (useCache) {
+			try {
+				BinaryShapeCache.write(geoJsonSeqFile, sourceStamp, SEQUENCE_CACHE_PARAMETERS, this);
+			} catch(IOException ex) {
+				LOGGER.log(Level.WARNING, "Can not write the cache file for " + geoJsonSeqFile, ex);
+			}
+		}
+	}
+
+	/**
+	 * Parse a UTF-8 GeoJSON sequence. Gzip compressed streams are detected
+	 * and decompressed on the fly.
+	 * NOTE: The stream is not closed.
+	 */
+	public void parseSequence(InputStream inputStream) throws IOException {
+		this.parseSequence(inputStream, null);
+	}
+
+	public void parseSequence(InputStream inputStream, Rectangle2D queryWindow) throws IOException {
+		InputStream in = inputStream.markSupported() ? inputStream : new BufferedInputStream(inputStream);
+		in.mark(2);
+		int magic = in.read() | (in.read() << 8);
+		in.reset();
+		if (magic == GZIPInputStream.GZIP_MAGIC) {
+			in = new GZIPInputStream(in, 65536);
+		}
+		this.parseSequence(new InputStreamReader(in, StandardCharsets.UTF_8), queryWindow);
+	}
+
+	/**
+	 * NOTE: The reader is not closed.
+	 */
+	public void parseSequence(Reader reader) throws IOException {
+		this.parseSequence(reader, null);
+	}
+
+	public void parseSequence(Reader reader, Rectangle2D queryWindow) throws IOException {
+		JSONSequenceReader sequenceReader = new JSONSequenceReader(reader);
+		JSONStreamReader jsonReader = new JSONStreamReader(sequenceReader);
+
+		this.propertyInterner = new PropertyInterner();
+		this.queryWindow = queryWindow;
+		try {
+			while (sequenceReader.nextRecord()) {
+				jsonReader.reset();
+				try {
+					if (jsonReader.peek() == JSONToken.BEGIN_OBJECT) {
+						Feature feature = this.parseFeature(jsonReader);
+						if (jsonReader.peek() != JSONToken.END_DOCUMENT) {
+							throw new IOException("Unexpected content after the feature");
+						}
+						this.addFeature(feature);
+					} else {
+						LOGGER.log(Level.WARNING, "GeoJSON sequence record " + sequenceReader.getRecordNumber() + " is not a JSON object.");
+					}
+				} catch(IOException ex) {
+					// Syntax error; the rest of the record is skipped by nextRecord.
+					// I/O errors are thrown again when reading the next record.
+					LOGGER.log(Level.WARNING, "Invalid GeoJSON sequence record " + sequenceReader.getRecordNumber() + ": " + ex.getMessage());
+				}
+			}
+		} finally {
+			this.propertyInterner = null;
+			this.queryWindow = null;
+		}
+	}
+
 
 	/**
 	 * featureCollection = [
@@ -84,12 +370,28 @@ public class GeoJSONShape extends GeoShapeGroup {
 	 *   { ... }
 	 * ]
 	 */
-	private void parseFeatureCollection(JSONArray featureCollection) {
+	private void parseFeatureCollection(final JSONArray featureCollection) {
 		if (featureCollection != null) {
-			for (int i=0; i<featureCollection.length(); i++) {
-				JSONObject feature = featureCollection.optJSONObject(i);
-				if (feature != null) {
-					this.parseFeature(feature);
+			if (this.forkJoinPool != null) {
+				// JSONArray and JSONObject are only read, they can be shared between threads
+				try {
+					this.parseFeaturesParallel(featureCollection.length(), new FeatureParser() {
+						@Override
+						public Feature parse(int index) {
+							JSONObject feature = featureCollection.optJSONObject(index);
+							return feature == null ? null : GeoJSONShape.this.parseFeature(feature);
+						}
+					});
+				} catch(IOException ex) {
+					// Should not happen, the JSONObject parser do not do any IO
+					LOGGER.log(Level.SEVERE, "Error occurred while parsing the GeoJSON features.", ex);
+				}
+			} else {
+				for (int i=0; i<featureCollection.length(); i++) {
+					JSONObject feature = featureCollection.optJSONObject(i);
+					if (feature != null) {
+						this.addFeature(this.parseFeature(feature));
+					}
 				}
 			}
 		}
@@ -102,13 +404,17 @@ public class GeoJSONShape extends GeoShapeGroup {
 	 *   "geometry": { ... }
 	 * }
 	 */
-	private void parseFeature(JSONObject feature) {
+	private Feature parseFeature(JSONObject feature) {
 		String type = feature.optString("type", null);
 
 		if (type == null) {
 			LOGGER.log(Level.SEVERE, "Feature has no type defined.");
 		} else {
 			if ("Feature".equals(type)) {
+				if (this.queryWindow != null && !this.isInQueryWindow(feature)) {
+					return null;
+				}
+
 				// "properties" contains a list of "Key: Value" pairs (metadata).
 				JSONObject jsonProperties = feature.optJSONObject("properties");
 				Map<String, PropertyValue> properties = this.parseProperties(jsonProperties);
@@ -117,23 +423,43 @@ public class GeoJSONShape extends GeoShapeGroup {
 				if (jsonGeometry == null) {
 					LOGGER.log(Level.SEVERE, "GeoJSON contains empty geometry.");
 				} else {
-					this.parseGeometry(jsonGeometry, properties);
+					List<Object> shapes = new ArrayList<Object>();
+					this.parseGeometry(jsonGeometry, shapes);
+					return new Feature(shapes, properties);
 				}
 			} else {
 				LOGGER.log(Level.SEVERE, "Unsupported feature type '" + type + "'.");
 			}
 		}
+		return null;
 	}
 
 	private Map<String, PropertyValue> parseProperties(JSONObject jsonProperties) {
-		Map<String, PropertyValue> properties = new HashMap<String, PropertyValue>();
-		for (String key : jsonProperties.keySet()) {
-			Object value = jsonProperties.opt(key);
-			if (value != null) {
-				properties.put(key, new PropertyValue(value));
+		List<String> keys = new ArrayList<String>();
+		List<PropertyValue> values = new ArrayList<PropertyValue>();
+		if (jsonProperties != null) {
+			for (String key : jsonProperties.keySet()) {
+				if (!this.isPropertyNeeded(key)) {
+					continue;
+				}
+				Object value = jsonProperties.opt(key);
+				if (value != null) {
+					keys.add(key);
+					values.add(this.propertyInterner.internValue(value));
+				}
 			}
 		}
-		return properties;
+		return this.propertyInterner.createMap(keys, values);
+	}
+
+	private void parseGeometry(JSONObject geometry, List<Object> shapes) {
+		String type = geometry.optString("type", null);
+
+		if (type == null) {
+			LOGGER.log(Level.SEVERE, "Geometry has no type defined.");
+		} else {
+			this.parseCoordinates(type, geometry.optJSONArray("coordinates"), shapes);
+		}
 	}
 
 	/**
@@ -162,66 +488,61 @@ public class GeoJSONShape extends GeoShapeGroup {
 	 *   "coordinates": [ longitude, latitude ]
 	 * }
 	 */
-	private void parseGeometry(JSONObject geometry, Map<String, PropertyValue> properties) {
-		String type = geometry.optString("type", null);
-
-		if (type == null) {
-			LOGGER.log(Level.SEVERE, "Geometry has no type defined.");
-		} else {
-			// "Point", "MultiPoint", "LineString", "MultiLineString", "Polygon", "MultiPolygon", or "GeometryCollection"
-			if ("LineString".equals(type)) {
-				JSONArray coordinates = geometry.optJSONArray("coordinates");
-				if (coordinates == null) {
-					LOGGER.log(Level.SEVERE, "GeoJSON contains empty LineString coordinates.");
-				} else {
-					this.parseLineString(coordinates, properties);
-				}
-			} else if ("MultiLineString".equals(type)) {
-				JSONArray multiLineString = geometry.optJSONArray("coordinates");
-				if (multiLineString == null) {
-					LOGGER.log(Level.SEVERE, "GeoJSON contains empty MultiLineString coordinates.");
-				} else {
-					for (int i=0; i<multiLineString.length(); i++) {
-						JSONArray coordinates = multiLineString.optJSONArray(i);
-						if (coordinates == null) {
-							LOGGER.log(Level.SEVERE, "GeoJSON contains empty MultiLineString coordinates.");
-						} else {
-							this.parseLineString(coordinates, properties);
-						}
+	private void parseCoordinates(String type, JSONArray jsonCoordinates, List<Object> shapes) {
+		// "Point", "MultiPoint", "LineString", "MultiLineString", "Polygon", "MultiPolygon", or "GeometryCollection"
+		if ("LineString".equals(type)) {
+			if (jsonCoordinates == null) {
+				LOGGER.log(Level.SEVERE, "GeoJSON contains empty LineString coordinates.");
+			} else {
+				this.addShape(shapes, this.parseLineString(jsonCoordinates));
+			}
+		} else if ("MultiLineString".equals(type)) {
+			JSONArray multiLineString = jsonCoordinates;
+			if (multiLineString == null) {
+				LOGGER.log(Level.SEVERE, "GeoJSON contains empty MultiLineString coordinates.");
+			} else {
+				for (int i=0; i<multiLineString.length(); i++) {
+					JSONArray coordinates = multiLineString.optJSONArray(i);
+					if (coordinates == null) {
+						LOGGER.log(Level.SEVERE, "GeoJSON contains empty MultiLineString coordinates.");
+					} else {
+						this.addShape(shapes, this.parseLineString(coordinates));
 					}
 				}
-			} else if ("Polygon".equals(type)) {
-				JSONArray coordinates = geometry.optJSONArray("coordinates");
-				if (coordinates == null) {
-					LOGGER.log(Level.SEVERE, "GeoJSON contains empty Polygon coordinates.");
-				} else {
-					this.parsePolygon(coordinates, properties);
-				}
-			} else if ("MultiPolygon".equals(type)) {
-				JSONArray multiPolygon = geometry.optJSONArray("coordinates");
-				if (multiPolygon == null) {
-					LOGGER.log(Level.SEVERE, "GeoJSON contains empty MultiPolygon coordinates.");
-				} else {
-					for (int i=0; i<multiPolygon.length(); i++) {
-						JSONArray coordinates = multiPolygon.optJSONArray(i);
-						if (coordinates == null) {
-							LOGGER.log(Level.SEVERE, "GeoJSON contains empty MultiPolygon coordinates.");
-						} else {
-							this.parsePolygon(coordinates, properties);
-						}
+			}
+		} else if ("Polygon".equals(type)) {
+			if (jsonCoordinates == null) {
+				LOGGER.log(Level.SEVERE, "GeoJSON contains empty Polygon coordinates.");
+			} else {
+				this.addShape(shapes, this.parsePolygon(jsonCoordinates));
+			}
+		} else if ("MultiPolygon".equals(type)) {
+			JSONArray multiPolygon = jsonCoordinates;
+			if (multiPolygon == null) {
+				LOGGER.log(Level.SEVERE, "GeoJSON contains empty MultiPolygon coordinates.");
+			} else {
+				for (int i=0; i<multiPolygon.length(); i++) {
+					JSONArray coordinates = multiPolygon.optJSONArray(i);
+					if (coordinates == null) {
+						LOGGER.log(Level.SEVERE, "GeoJSON contains empty MultiPolygon coordinates.");
+					} else {
+						this.addShape(shapes, this.parsePolygon(coordinates));
 					}
 				}
-			} else if ("Point".equals(type)) {
-				JSONArray point = geometry.optJSONArray("coordinates");
-				if (point == null) {
-					LOGGER.log(Level.SEVERE, "GeoJSON contains empty Point coordinates.");
-				} else {
-					this.parsePoint(point, properties);
-				}
-
+			}
+		} else if ("Point".equals(type)) {
+			JSONArray point = jsonCoordinates;
+			if (point == null) {
+				LOGGER.log(Level.SEVERE, "GeoJSON contains empty Point coordinates.");
 			} else {
-				LOGGER.log(Level.SEVERE, "Unsupported feature type '" + type + "'.");
+				Point2D.Double parsedPoint = this.parsePoint(point);
+				if (parsedPoint != null && this.isInQueryWindow(parsedPoint.getX(), parsedPoint.getY())) {
+					shapes.add(parsedPoint);
+				}
 			}
+
+		} else {
+			LOGGER.log(Level.SEVERE, "Unsupported feature type '" + type + "'.");
 		}
 	}
 
@@ -231,8 +552,8 @@ public class GeoJSONShape extends GeoShapeGroup {
 	 *   ...
 	 * ]
 	 */
-	private void parseLineString(JSONArray jsonCoordinates, Map<String, PropertyValue> properties) {
-		Path2D.Double line = new Path2D.Double();
+	private PackedPath parseLineString(JSONArray jsonCoordinates) {
+		PackedPath.Builder line = new PackedPath.Builder(jsonCoordinates.length());
 
 		/**
 		 * startPoint = [ longitude, latitude ]
@@ -256,7 +577,7 @@ public class GeoJSONShape extends GeoShapeGroup {
 			}
 		}
 
-		this.add(line, properties);
+		return this.buildPath(line, Path2D.WIND_NON_ZERO, false);
 	}
 
 	/**
@@ -268,8 +589,15 @@ public class GeoJSONShape extends GeoShapeGroup {
 	 *   ...
 	 * ]
 	 */
-	private void parsePolygon(JSONArray jsonCoordinates, Map<String, PropertyValue> properties) {
-		Path2D.Double polygon = new Path2D.Double(Path2D.WIND_EVEN_ODD);
+	private PackedPath parsePolygon(JSONArray jsonCoordinates) {
+		int pointCount = 0;
+		for (int polygonIndex = 0; polygonIndex < jsonCoordinates.length(); polygonIndex++) {
+			JSONArray jsonPolygon = jsonCoordinates.optJSONArray(polygonIndex);
+			if (jsonPolygon != null) {
+				pointCount += jsonPolygon.length();
+			}
+		}
+		PackedPath.Builder polygon = new PackedPath.Builder(pointCount);
 		/**
 		 * NOTE:
 		 *   GeoJSON rule: First polygon is a filled shape. Subsequent polygons are holes in the shape.
@@ -306,26 +634,613 @@ public class GeoJSONShape extends GeoShapeGroup {
 							polygon.lineTo(longitude, latitude);
 						}
 					}
-
-					polygon.closePath();
 				}
 			}
 		}
 
-		this.add(polygon, properties);
+		return this.buildPath(polygon, Path2D.WIND_EVEN_ODD, true);
 	}
 
 	/**
 	 * coordinates = [ longitude, latitude ]
 	 */
-	private void parsePoint(JSONArray coordinates, Map<String, PropertyValue> properties) {
+	private Point2D.Double parsePoint(JSONArray coordinates) {
 		if (coordinates != null && coordinates.length() == 2) {
-			Point2D.Double point = new Point2D.Double(
+			return new Point2D.Double(
 				coordinates.optDouble(0),
 				coordinates.optDouble(1)
 			);
+		}
+		return null;
+	}
+
+	/**
+	 * Check the "bbox" of the feature, or its geometry.
+	 * If there is none, compute the extent of the geometry coordinates,
+	 * without creating the shapes.
+	 */
+	private boolean isInQueryWindow(JSONObject feature) {
+		double[] extent = this.parseBBox(feature.optJSONArray("bbox"));
+		JSONObject jsonGeometry = feature.optJSONObject("geometry");
+		if (extent == null && jsonGeometry != null) {
+			extent = this.parseBBox(jsonGeometry.optJSONArray("bbox"));
+			if (extent == null) {
+				JSONArray jsonCoordinates = jsonGeometry.optJSONArray("coordinates");
+				if (jsonCoordinates != null) {
+					extent = new double[] {
+						Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+						Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY
+					};
+					this.updateExtent(jsonCoordinates, extent);
+				}
+			}
+		}
+
+		// Features without coordinates are not filtered, to log the errors
+		return extent == null || this.isInQueryWindow(extent);
+	}
+
+	private void updateExtent(JSONArray jsonCoordinates, double[] extent) {
+		Object longitude = jsonCoordinates.opt(0);
+		if (longitude instanceof Number) {
+			Object latitude = jsonCoordinates.opt(1);
+			if (latitude instanceof Number) {
+				double x = ((Number)longitude).doubleValue();
+				double y = ((Number)latitude).doubleValue();
+				if (x < extent[0]) { extent[0] = x; }
+				if (y < extent[1]) { extent[1] = y; }
+				if (x > extent[2]) { extent[2] = x; }
+				if (y > extent[3]) { extent[3] = y; }
+			}
+		} else {
+			for (int i=0; i<jsonCoordinates.length(); i++) {
+				JSONArray child = jsonCoordinates.optJSONArray(i);
+				if (child != null) {
+					this.updateExtent(child, extent);
+				}
+			}
+		}
+	}
+
+	/**
+	 * bbox = [ west, south, east, north ]
+	 * OR
+	 * bbox = [ west, south, minAltitude, east, north, maxAltitude ]
+	 * @return [ west, south, east, north ] or null if the bbox is missing or invalid.
+	 */
+	private double[] parseBBox(JSONArray bbox) {
+		if (bbox == null || bbox.length() < 4 || bbox.length() % 2 != 0) {
+			return null;
+		}
+		int dimensions = bbox.length() / 2;
+		double[] extent = {
+			bbox.optDouble(0), bbox.optDouble(1),
+			bbox.optDouble(dimensions), bbox.optDouble(dimensions + 1)
+		};
+		return this.isValidBBox(extent) ? extent : null;
+	}
+
+
+	/**
+	 * Streaming parser
+	 *   Same structure as the JSONObject parser above, but the values are read from
+	 *   the reader as they come. GeoJSON do not enforce the order of the attributes,
+	 *   so the shapes of a feature are only added to the group once its properties are known.
+	 */
+
+	private void parseGeoJSON(JSONReader reader, Rectangle2D queryWindow) throws IOException {
+		// Fail rather than returning an empty group; an empty or truncated file
+		// (still being copied, for example) must not replace the shapes of a layer.
+		if (reader.peek() != JSONToken.BEGIN_OBJECT) {
+			throw new IOException("GeoJSON is not a JSON object.");
+		}
+
+		this.propertyInterner = new PropertyInterner();
+		this.queryWindow = queryWindow;
+		try {
+			this.parseGeoJSONObject(reader);
+		} finally {
+			this.propertyInterner = null;
+			this.queryWindow = null;
+		}
+	}
+
+	private void parseGeoJSONObject(JSONReader reader) throws IOException {
+		String type = null;
+		boolean hasFeatures = false;
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String key = reader.nextString();
+			if ("type".equals(key)) {
+				type = this.nextString(reader);
+			} else if ("features".equals(key) &&
+					(type == null || "FeatureCollection".equals(type)) &&
+					reader.peek() == JSONToken.BEGIN_ARRAY) {
+				hasFeatures = true;
+				this.parseFeatureCollection(reader);
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		if (type == null) {
+			LOGGER.log(Level.SEVERE, "GeoJSON has no type defined.");
+		} else if (!"FeatureCollection".equals(type)) {
+			LOGGER.log(Level.SEVERE, "Unsupported GeoJSON type '" + type + "'.");
+		} else if (!hasFeatures) {
+			LOGGER.log(Level.SEVERE, "GeoJSON contains no feature.");
+		}
+	}
+
+	private void parseFeatureCollection(JSONReader reader) throws IOException {
+		if (this.forkJoinPool != null && reader instanceof JSONTapeReader) {
+			this.parseFeatureCollection((JSONTapeReader)reader);
+			return;
+		}
+
+		reader.beginArray();
+		while (reader.hasNext()) {
+			if (reader.peek() == JSONToken.BEGIN_OBJECT) {
+				this.addFeature(this.parseFeature(reader));
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endArray();
+	}
+
+	/**
+	 * The tape already knows where each feature starts and ends.
+	 * The features are located by skipping them, then each one of them is parsed
+	 * by its own reader, which only share the read-only tape.
+	 */
+	private void parseFeatureCollection(JSONTapeReader reader) throws IOException {
+		final JSONTape tape = reader.getTape();
+		int[] featureIndexes = new int[16];
+		int featureCount = 0;
+
+		reader.beginArray();
+		while (reader.hasNext()) {
+			if (reader.peek() == JSONToken.BEGIN_OBJECT) {
+				if (featureCount >= featureIndexes.length) {
+					int[] newFeatureIndexes = new int[featureIndexes.length * 2];
+					System.arraycopy(featureIndexes, 0, newFeatureIndexes, 0, featureCount);
+					featureIndexes = newFeatureIndexes;
+				}
+				featureIndexes[featureCount++] = reader.getIndex();
+			}
+			reader.skipValue();
+		}
+		reader.endArray();
+
+		final int[] indexes = featureIndexes;
+		this.parseFeaturesParallel(featureCount, new FeatureParser() {
+			@Override
+			public Feature parse(int index) throws IOException {
+				return GeoJSONShape.this.parseFeature(new JSONTapeReader(tape, indexes[index]));
+			}
+		});
+	}
+
+	private Feature parseFeature(JSONReader reader) throws IOException {
+		String type = null;
+		Map<String, PropertyValue> properties = null;
+		List<Object> shapes = null;
+		// The bbox of the feature is outside the query window, the rest of the feature is skipped
+		boolean outside = false;
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String key = reader.nextString();
+			if (outside) {
+				reader.skipValue();
+			} else if ("bbox".equals(key) && this.queryWindow != null && reader.peek() == JSONToken.BEGIN_ARRAY) {
+				double[] extent = this.parseBBox(reader);
+				outside = extent != null && !this.isInQueryWindow(extent);
+			} else if ("type".equals(key)) {
+				type = this.nextString(reader);
+			} else if ("properties".equals(key) && reader.peek() == JSONToken.BEGIN_OBJECT) {
+				properties = this.parseProperties(reader);
+			} else if ("geometry".equals(key) && reader.peek() == JSONToken.BEGIN_OBJECT) {
+				shapes = new ArrayList<Object>();
+				this.parseGeometry(reader, shapes);
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		if (outside) {
+			return null;
+		}
+
+		if (type == null) {
+			LOGGER.log(Level.SEVERE, "Feature has no type defined.");
+		} else if (!"Feature".equals(type)) {
+			LOGGER.log(Level.SEVERE, "Unsupported feature type '" + type + "'.");
+		} else if (shapes == null) {
+			LOGGER.log(Level.SEVERE, "GeoJSON contains empty geometry.");
+		} else {
+			if (properties == null) {
+				properties = new HashMap<String, PropertyValue>();
+			}
+			return new Feature(shapes, properties);
+		}
+		return null;
+	}
+
+	private Map<String, PropertyValue> parseProperties(JSONReader reader) throws IOException {
+		List<String> keys = new ArrayList<String>();
+		List<PropertyValue> values = new ArrayList<PropertyValue>();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String key = reader.nextString();
+			if (this.isPropertyNeeded(key)) {
+				keys.add(key);
+				values.add(this.propertyInterner.internValue(reader.nextValue()));
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return this.propertyInterner.createMap(keys, values);
+	}
+
+	private void parseGeometry(JSONReader reader, List<Object> shapes) throws IOException {
+		String type = null;
+		boolean hasCoordinates = false;
+		// Only used when the geometry "type" is defined after its "coordinates"
+		JSONArray jsonCoordinates = null;
+		boolean outside = false;
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String key = reader.nextString();
+			if ("type".equals(key)) {
+				type = this.nextString(reader);
+			} else if ("bbox".equals(key) && this.queryWindow != null && reader.peek() == JSONToken.BEGIN_ARRAY) {
+				double[] extent = this.parseBBox(reader);
+				outside = extent != null && !this.isInQueryWindow(extent);
+			} else if ("coordinates".equals(key) && reader.peek() == JSONToken.BEGIN_ARRAY) {
+				hasCoordinates = true;
+				if (outside) {
+					reader.skipValue();
+				} else if (type == null) {
+					jsonCoordinates = (JSONArray)reader.nextValue();
+				} else {
+					this.parseCoordinates(reader, type, shapes);
+				}
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		if (outside) {
+			// Shapes parsed before the bbox was found are also outside the window
+			shapes.clear();
+		} else if (type == null) {
+			LOGGER.log(Level.SEVERE, "Geometry has no type defined.");
+		} else if (!hasCoordinates || jsonCoordinates != null) {
+			this.parseCoordinates(type, jsonCoordinates, shapes);
+		}
+	}
+
+	private void parseCoordinates(JSONReader reader, String type, List<Object> shapes) throws IOException {
+		// The number of points is unknown until the end of the array is reached.
+		// The points are collected in a builder, reused for every shape of the geometry.
+		PackedPath.Builder builder = new PackedPath.Builder();
+		if ("LineString".equals(type)) {
+			this.addShape(shapes, this.parseLineString(reader, builder));
+		} else if ("MultiLineString".equals(type)) {
+			reader.beginArray();
+			while (reader.hasNext()) {
+				if (reader.peek() == JSONToken.BEGIN_ARRAY) {
+					this.addShape(shapes, this.parseLineString(reader, builder));
+				} else {
+					LOGGER.log(Level.SEVERE, "GeoJSON contains empty MultiLineString coordinates.");
+					reader.skipValue();
+				}
+			}
+			reader.endArray();
+		} else if ("Polygon".equals(type)) {
+			this.addShape(shapes, this.parsePolygon(reader, builder));
+		} else if ("MultiPolygon".equals(type)) {
+			reader.beginArray();
+			while (reader.hasNext()) {
+				if (reader.peek() == JSONToken.BEGIN_ARRAY) {
+					this.addShape(shapes, this.parsePolygon(reader, builder));
+				} else {
+					LOGGER.log(Level.SEVERE, "GeoJSON contains empty MultiPolygon coordinates.");
+					reader.skipValue();
+				}
+			}
+			reader.endArray();
+		} else if ("Point".equals(type)) {
+			double[] point = new double[2];
+			if (this.readPoint(reader, point) && this.isInQueryWindow(point[0], point[1])) {
+				shapes.add(new Point2D.Double(point[0], point[1]));
+			}
+		} else {
+			LOGGER.log(Level.SEVERE, "Unsupported feature type '" + type + "'.");
+			reader.skipValue();
+		}
+	}
+
+	private PackedPath parseLineString(JSONReader reader, PackedPath.Builder line) throws IOException {
+		double[] point = new double[2];
+
+		reader.beginArray();
+		if (reader.hasNext() && this.readPoint(reader, point)) {
+			line.moveTo(point[0], point[1]);
+			while (reader.hasNext()) {
+				if (this.readPoint(reader, point)) {
+					line.lineTo(point[0], point[1]);
+				}
+			}
+		}
+		// Invalid start point: the line is left empty
+		while (reader.hasNext()) {
+			reader.skipValue();
+		}
+		reader.endArray();
+
+		return this.buildPath(line, Path2D.WIND_NON_ZERO, false);
+	}
+
+	private PackedPath parsePolygon(JSONReader reader, PackedPath.Builder polygon) throws IOException {
+		// See NOTE in parsePolygon(JSONArray)
+		double[] point = new double[2];
+
+		reader.beginArray();
+		while (reader.hasNext()) {
+			if (reader.peek() != JSONToken.BEGIN_ARRAY) {
+				reader.skipValue();
+				continue;
+			}
+
+			reader.beginArray();
+			if (reader.hasNext()) {
+				boolean validStartPoint = this.readPoint(reader, point);
+				// Polygons with less than 2 points are ignored
+				if (validStartPoint && reader.hasNext()) {
+					polygon.moveTo(point[0], point[1]);
+					while (reader.hasNext()) {
+						if (this.readPoint(reader, point)) {
+							polygon.lineTo(point[0], point[1]);
+						}
+					}
+				}
+			}
+			while (reader.hasNext()) {
+				reader.skipValue();
+			}
+			reader.endArray();
+		}
+		reader.endArray();
+
+		return this.buildPath(polygon, Path2D.WIND_EVEN_ODD, true);
+	}
+
+	/**
+	 * Read [ longitude, latitude ] into the point array.
+	 * @return true if the point is valid.
+	 */
+	private boolean readPoint(JSONReader reader, double[] point) throws IOException {
+		if (reader.peek() != JSONToken.BEGIN_ARRAY) {
+			reader.skipValue();
+			return false;
+		}
+
+		int length = 0;
+		reader.beginArray();
+		while (reader.hasNext()) {
+			if (length < 2 && reader.peek() == JSONToken.NUMBER) {
+				point[length] = reader.nextDouble();
+			} else {
+				if (length < 2) {
+					point[length] = Double.NaN;
+				}
+				reader.skipValue();
+			}
+			length++;
+		}
+		reader.endArray();
+
+		return length == 2;
+	}
+
+	/**
+	 * Read the bbox array. See parseBBox(JSONArray).
+	 */
+	private double[] parseBBox(JSONReader reader) throws IOException {
+		double[] values = new double[6];
+		int length = 0;
+		boolean valid = true;
+
+		reader.beginArray();
+		while (reader.hasNext()) {
+			if (length < values.length && reader.peek() == JSONToken.NUMBER) {
+				values[length] = reader.nextDouble();
+			} else {
+				valid = false;
+				reader.skipValue();
+			}
+			length++;
+		}
+		reader.endArray();
+
+		if (!valid || length < 4 || length % 2 != 0) {
+			return null;
+		}
+		int dimensions = length / 2;
+		double[] extent = { values[0], values[1], values[dimensions], values[dimensions + 1] };
+		return this.isValidBBox(extent) ? extent : null;
+	}
+
+	private String nextString(JSONReader reader) throws IOException {
+		if (reader.peek() == JSONToken.STRING) {
+			return reader.nextString();
+		}
+		reader.skipValue();
+		return null;
+	}
+
+	/**
+	 * Parse the features using the ForkJoinPool, then add them to the group,
+	 * in the same order as they appear in the GeoJSON.
+	 */
+	private void parseFeaturesParallel(int featureCount, FeatureParser parser) throws IOException {
+		if (featureCount <= 0) {
+			return;
+		}
+
+		// Features can be very different in size (a single polygon of the mainland vs small islands).
+		// Smaller tasks give the pool a chance to balance the load between its threads.
+		int threshold = Math.max(1, featureCount / (this.forkJoinPool.getParallelism() * 8));
+
+		List<Feature> features;
+		try {
+			features = this.forkJoinPool.invoke(new FeatureCollectionTask(parser, 0, featureCount, threshold));
+		} catch(UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+
+		for (Feature feature : features) {
+			this.addFeature(feature);
+		}
+	}
+
+	private void addFeature(Feature feature) {
+		if (feature != null) {
+			this.addShapes(feature.shapes, feature.properties);
+		}
+	}
+
+	/**
+	 * Create the path, unless it's outside the query window.
+	 * @return The path, or null if the path is outside the query window.
+	 */
+	private PackedPath buildPath(PackedPath.Builder builder, int windingRule, boolean closed) {
+		if (this.queryWindow != null && (builder.isEmpty() || !this.isInQueryWindow(builder.getBounds2D()))) {
+			builder.clear();
+			return null;
+		}
+		return builder.build(windingRule, closed);
+	}
+
+	private void addShape(List<Object> shapes, Shape shape) {
+		if (shape != null) {
+			shapes.add(shape);
+		}
+	}
+
+	private boolean isInQueryWindow(double x, double y) {
+		return this.queryWindow == null || this.isInQueryWindow(new double[] { x, y, x, y });
+	}
+
+	private boolean isInQueryWindow(Rectangle2D bounds) {
+		return this.isInQueryWindow(new double[] { bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY() });
+	}
+
+	/**
+	 * Rectangle2D.intersects returns false for empty rectangles (points, horizontal lines, etc).
+	 * The extent is considered as inside when it touches the edge of the window.
+	 * @param extent [ west, south, east, north ]
+	 */
+	private boolean isInQueryWindow(double[] extent) {
+		Rectangle2D window = this.queryWindow;
+		return window == null || (
+				extent[0] <= window.getMaxX() && extent[2] >= window.getMinX() &&
+				extent[1] <= window.getMaxY() && extent[3] >= window.getMinY());
+	}
+
+	/**
+	 * Bbox crossing the antimeridian (west > east) or containing NaN
+	 * can not be used to filter the features.
+	 */
+	private boolean isValidBBox(double[] extent) {
+		return extent[0] <= extent[2] && extent[1] <= extent[3];
+	}
+
+	private boolean isPropertyNeeded(String key) {
+		return this.propertyNames == null || this.propertyNames.contains(key);
+	}
+
+	private void addShapes(List<Object> shapes, Map<String, PropertyValue> properties) {
+		for (Object shape : shapes) {
+			if (shape instanceof Point2D) {
+				this.add((Point2D)shape, properties);
+			} else {
+				this.add((Shape)shape, properties);
+			}
+		}
+	}
+
+	/**
+	 * Shapes and properties of a parsed feature, waiting to be added to the group.
+	 */
+	private static class Feature {
+		private final List<Object> shapes;
+		private final Map<String, PropertyValue> properties;
+
+		public Feature(List<Object> shapes, Map<String, PropertyValue> properties) {
+			this.shapes = shapes;
+			this.properties = properties;
+		}
+	}
+
+	private interface FeatureParser {
+		Feature parse(int index) throws IOException;
+	}
+
+	/**
+	 * Split the features in 2 until there is less than "threshold" features to parse.
+	 * The results are concatenated in the order of the features.
+	 */
+	private static class FeatureCollectionTask extends RecursiveTask<List<Feature>> {
+		private static final long serialVersionUID = 1L;
+
+		private final FeatureParser parser;
+		private final int from;
+		private final int to;
+		private final int threshold;
+
+		public FeatureCollectionTask(FeatureParser parser, int from, int to, int threshold) {
+			this.parser = parser;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected List<Feature> compute() {
+			if (this.to - this.from <= this.threshold) {
+				List<Feature> features = new ArrayList<Feature>(this.to - this.from);
+				for (int i=this.from; i<this.to; i++) {
+					Feature feature;
+					try {
+						feature = this.parser.parse(i);
+					} catch(IOException ex) {
+						throw new UncheckedIOException(ex);
+					}
+					if (feature != null) {
+						features.add(feature);
+					}
+				}
+				return features;
+			}
 
-			this.add(point, properties);
+			int middle = (this.from + this.to) >>> 1;
+			FeatureCollectionTask left = new FeatureCollectionTask(this.parser, this.from, middle, this.threshold);
+			FeatureCollectionTask right = new FeatureCollectionTask(this.parser, middle, this.to, this.threshold);
+			left.fork();
+			List<Feature> rightFeatures = right.compute();
+			List<Feature> features = left.join();
+			features.addAll(rightFeatures);
+			return features;
 		}
 	}
 }
@@ -0,0 +1,126 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Pull parser which reads a JSON document one token at a time,
+ * without building the whole document in memory.
+ *
+ * The readers are lenient: commas and colons are treated as white spaces.
+ * It's up to the caller to know if the next string is a key or a value.
+ *
+ * Example:
+ *   reader.beginObject();
+ *   while (reader.hasNext()) {
+ *     String key = reader.nextString();
+ *     if ("coordinates".equals(key)) {
+ *       ...
+ *     } else {
+ *       reader.skipValue();
+ *     }
+ *   }
+ *   reader.endObject();
+ *
+ * Implementations:
+ *   JSONStreamReader: Reads from a java.io.Reader.
+ *   JSONTapeReader: Reads from a JSONTape, built from the bytes of a memory mapped file.
+ */
+abstract class JSONReader {
+
+	public abstract JSONToken peek() throws IOException;
+
+	public abstract void beginObject() throws IOException;
+	public abstract void endObject() throws IOException;
+	public abstract void beginArray() throws IOException;
+	public abstract void endArray() throws IOException;
+
+	public abstract String nextString() throws IOException;
+	public abstract double nextDouble() throws IOException;
+	public abstract boolean nextBoolean() throws IOException;
+	public abstract void nextNull() throws IOException;
+
+	/**
+	 * Skip the next value, including all its children if it's an object or an array.
+	 * Strings are not decoded and numbers are not parsed.
+	 */
+	public abstract void skipValue() throws IOException;
+
+	/**
+	 * Return the next number as it's written in the document.
+	 */
+	protected abstract String nextNumber() throws IOException;
+
+	public boolean hasNext() throws IOException {
+		JSONToken token = this.peek();
+		return token != JSONToken.END_OBJECT &&
+				token != JSONToken.END_ARRAY &&
+				token != JSONToken.END_DOCUMENT;
+	}
+
+	/**
+	 * Read the next value as an org.json value:
+	 *   String, Integer, Long, Double, Boolean, JSONObject.NULL, JSONObject or JSONArray.
+	 * Numbers are converted the same way as org.json does when it parses a document.
+	 */
+	public Object nextValue() throws IOException {
+		JSONToken token = this.peek();
+		switch (token) {
+			case BEGIN_OBJECT:
+				JSONObject jsonObject = new JSONObject();
+				this.beginObject();
+				while (this.hasNext()) {
+					String key = this.nextString();
+					jsonObject.put(key, this.nextValue());
+				}
+				this.endObject();
+				return jsonObject;
+
+			case BEGIN_ARRAY:
+				JSONArray jsonArray = new JSONArray();
+				this.beginArray();
+				while (this.hasNext()) {
+					jsonArray.put(this.nextValue());
+				}
+				this.endArray();
+				return jsonArray;
+
+			case STRING:
+				return this.nextString();
+
+			case NUMBER:
+				return JSONObject.stringToValue(this.nextNumber());
+
+			case TRUE:
+			case FALSE:
+				return this.nextBoolean();
+
+			case NULL:
+				this.nextNull();
+				return JSONObject.NULL;
+
+			default:
+				throw new IOException("Expected a value but found " + token);
+		}
+	}
+}
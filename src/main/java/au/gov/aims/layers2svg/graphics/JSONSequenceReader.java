@@ -0,0 +1,153 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Split a sequence of JSON texts into records.
+ * The reader returns the characters of the current record only, then
+ * the end of stream; nextRecord() moves to the next record.
+ * Each record can therefore be parsed by a JSONStreamReader, and a
+ * malformed record can not corrupt the records which follow it.
+ *
+ * Supported formats:
+ *   JSON text sequences (RFC 7464, GeoJSON: RFC 8142): each record starts with
+ *     a record separator (0x1E). Records may span multiple lines.
+ *   Newline delimited JSON (ndjson, GeoJSONSeq): one record per line.
+ * The format is detected from the first character of the stream.
+ */
+class JSONSequenceReader extends Reader {
+	private static final int BUFFER_SIZE = 8192;
+	private static final char RECORD_SEPARATOR = '\u001E';
+
+	private Reader reader;
+
+	private char[] buffer;
+	private int pos;
+	private int limit;
+
+	// Null until the first record is found
+	private Boolean recordSeparatorDelimited;
+	private boolean endOfRecord;
+	private long recordNumber;
+
+	public JSONSequenceReader(Reader reader) {
+		this.reader = reader;
+		this.buffer = new char[BUFFER_SIZE];
+		this.pos = 0;
+		this.limit = 0;
+		this.recordSeparatorDelimited = null;
+		// No record until nextRecord is called
+		this.endOfRecord = true;
+		this.recordNumber = 0;
+	}
+
+	/**
+	 * Skip what's left of the current record and move to the next one.
+	 * Empty records are ignored.
+	 * @return False when there is no more record.
+	 */
+	public boolean nextRecord() throws IOException {
+		// Skip the end of the current record
+		while (!this.endOfRecord) {
+			if (this.pos >= this.limit && !this.fill()) {
+				this.endOfRecord = true;
+				return false;
+			}
+			if (this.isSeparator(this.buffer[this.pos++])) {
+				this.endOfRecord = true;
+			}
+		}
+
+		// Skip the separators and white spaces before the next record
+		while (true) {
+			if (this.pos >= this.limit && !this.fill()) {
+				return false;
+			}
+			char c = this.buffer[this.pos];
+			if (this.recordSeparatorDelimited == null) {
+				this.recordSeparatorDelimited = c == RECORD_SEPARATOR;
+			}
+			if (c == RECORD_SEPARATOR || c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+				this.pos++;
+			} else {
+				break;
+			}
+		}
+
+		this.endOfRecord = false;
+		this.recordNumber++;
+		return true;
+	}
+
+	/**
+	 * @return The number of the current record, starting at 1. Used in error messages.
+	 */
+	public long getRecordNumber() {
+		return this.recordNumber;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (this.endOfRecord) {
+			return -1;
+		}
+		if (this.pos >= this.limit && !this.fill()) {
+			this.endOfRecord = true;
+			return -1;
+		}
+
+		int end = Math.min(this.limit, this.pos + len);
+		int count = 0;
+		while (this.pos < end) {
+			char c = this.buffer[this.pos++];
+			if (this.isSeparator(c)) {
+				this.endOfRecord = true;
+				break;
+			}
+			cbuf[off + count++] = c;
+		}
+		return count == 0 && this.endOfRecord ? -1 : count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.reader.close();
+	}
+
+	private boolean isSeparator(char c) {
+		if (Boolean.TRUE.equals(this.recordSeparatorDelimited)) {
+			return c == RECORD_SEPARATOR;
+		}
+		return c == '\n' || c == RECORD_SEPARATOR;
+	}
+
+	private boolean fill() throws IOException {
+		this.pos = 0;
+		this.limit = 0;
+		int read = this.reader.read(this.buffer, 0, this.buffer.length);
+		if (read <= 0) {
+			return false;
+		}
+		this.limit = read;
+		return true;
+	}
+}
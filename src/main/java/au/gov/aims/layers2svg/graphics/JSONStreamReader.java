@@ -0,0 +1,372 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * JSON pull parser which reads the document from a java.io.Reader.
+ * See JSONReader.
+ */
+class JSONStreamReader extends JSONReader {
+	private static final int BUFFER_SIZE = 8192;
+
+	private Reader reader;
+
+	private char[] buffer;
+	private int pos;
+	private int limit;
+	// Number of characters read before the beginning of the buffer, used in error messages
+	private long offset;
+
+	private JSONToken peeked;
+
+	private char[] numberBuffer;
+	private int numberLength;
+	private StringBuilder stringBuilder;
+
+	public JSONStreamReader(Reader reader) {
+		this.reader = reader;
+		this.buffer = new char[BUFFER_SIZE];
+		this.pos = 0;
+		this.limit = 0;
+		this.offset = 0;
+		this.peeked = null;
+
+		this.numberBuffer = new char[32];
+		this.stringBuilder = new StringBuilder();
+	}
+
+	/**
+	 * Forget the current state, to read the next document from the reader.
+	 * Used to parse sequences of JSON documents (see JSONSequenceReader).
+	 */
+	public void reset() {
+		this.pos = 0;
+		this.limit = 0;
+		this.offset = 0;
+		this.peeked = null;
+	}
+
+	@Override
+	public JSONToken peek() throws IOException {
+		if (this.peeked == null) {
+			this.peeked = this.readToken();
+		}
+		return this.peeked;
+	}
+
+	@Override
+	public void beginObject() throws IOException {
+		this.consume(JSONToken.BEGIN_OBJECT);
+	}
+
+	@Override
+	public void endObject() throws IOException {
+		this.consume(JSONToken.END_OBJECT);
+	}
+
+	@Override
+	public void beginArray() throws IOException {
+		this.consume(JSONToken.BEGIN_ARRAY);
+	}
+
+	@Override
+	public void endArray() throws IOException {
+		this.consume(JSONToken.END_ARRAY);
+	}
+
+	@Override
+	public String nextString() throws IOException {
+		this.expect(JSONToken.STRING);
+		this.peeked = null;
+		return this.readString(true);
+	}
+
+	@Override
+	public double nextDouble() throws IOException {
+		this.expect(JSONToken.NUMBER);
+		this.peeked = null;
+		this.readNumber();
+		try {
+			return FastDoubleParser.parseDouble(this.numberBuffer, 0, this.numberLength);
+		} catch(NumberFormatException ex) {
+			throw this.syntaxError("Invalid number '" + new String(this.numberBuffer, 0, this.numberLength) + "'");
+		}
+	}
+
+	@Override
+	public boolean nextBoolean() throws IOException {
+		JSONToken token = this.peek();
+		if (token == JSONToken.TRUE) {
+			this.peeked = null;
+			this.readLiteral("true");
+			return true;
+		}
+		if (token == JSONToken.FALSE) {
+			this.peeked = null;
+			this.readLiteral("false");
+			return false;
+		}
+		throw this.syntaxError("Expected a boolean but found " + token);
+	}
+
+	@Override
+	public void nextNull() throws IOException {
+		this.expect(JSONToken.NULL);
+		this.peeked = null;
+		this.readLiteral("null");
+	}
+
+	@Override
+	protected String nextNumber() throws IOException {
+		this.expect(JSONToken.NUMBER);
+		this.peeked = null;
+		this.readNumber();
+		return new String(this.numberBuffer, 0, this.numberLength);
+	}
+
+	@Override
+	public void skipValue() throws IOException {
+		int depth = 0;
+		do {
+			JSONToken token = this.peek();
+			switch (token) {
+				case BEGIN_OBJECT:
+				case BEGIN_ARRAY:
+					this.peeked = null;
+					depth++;
+					break;
+
+				case END_OBJECT:
+				case END_ARRAY:
+					if (depth <= 0) {
+						throw this.syntaxError("Expected a value but found " + token);
+					}
+					this.peeked = null;
+					depth--;
+					break;
+
+				case STRING:
+					this.peeked = null;
+					this.readString(false);
+					break;
+
+				case NUMBER:
+					this.peeked = null;
+					this.readNumber();
+					break;
+
+				case TRUE:
+				case FALSE:
+					this.nextBoolean();
+					break;
+
+				case NULL:
+					this.nextNull();
+					break;
+
+				default:
+					throw this.syntaxError("Unexpected end of document");
+			}
+		} while (depth > 0);
+	}
+
+	private void expect(JSONToken expected) throws IOException {
+		JSONToken token = this.peek();
+		if (token != expected) {
+			throw this.syntaxError("Expected " + expected + " but found " + token);
+		}
+	}
+
+	private void consume(JSONToken expected) throws IOException {
+		this.expect(expected);
+		this.peeked = null;
+	}
+
+	/**
+	 * Find the next token. Structural tokens ({ } [ ]) are consumed,
+	 * values are left in the buffer until they are read.
+	 */
+	private JSONToken readToken() throws IOException {
+		while (true) {
+			if (this.pos >= this.limit && !this.fill()) {
+				return JSONToken.END_DOCUMENT;
+			}
+
+			char c = this.buffer[this.pos];
+			switch (c) {
+				case ' ':
+				case '\t':
+				case '\n':
+				case '\r':
+				case ',':
+				case ':':
+					this.pos++;
+					break;
+
+				case '{':
+					this.pos++;
+					return JSONToken.BEGIN_OBJECT;
+				case '}':
+					this.pos++;
+					return JSONToken.END_OBJECT;
+				case '[':
+					this.pos++;
+					return JSONToken.BEGIN_ARRAY;
+				case ']':
+					this.pos++;
+					return JSONToken.END_ARRAY;
+
+				case '"':
+					return JSONToken.STRING;
+				case 't':
+					return JSONToken.TRUE;
+				case 'f':
+					return JSONToken.FALSE;
+				case 'n':
+					return JSONToken.NULL;
+
+				default:
+					if (c == '-' || (c >= '0' && c <= '9')) {
+						return JSONToken.NUMBER;
+					}
+					throw this.syntaxError("Unexpected character '" + c + "'");
+			}
+		}
+	}
+
+	private boolean fill() throws IOException {
+		this.offset += this.limit;
+		this.pos = 0;
+		this.limit = 0;
+		int read = this.reader.read(this.buffer, 0, this.buffer.length);
+		if (read <= 0) {
+			return false;
+		}
+		this.limit = read;
+		return true;
+	}
+
+	private int readChar() throws IOException {
+		if (this.pos >= this.limit && !this.fill()) {
+			return -1;
+		}
+		return this.buffer[this.pos++];
+	}
+
+	/**
+	 * Copy the characters of the number into the number buffer.
+	 * The number may be split across 2 buffer loads.
+	 */
+	private void readNumber() throws IOException {
+		this.numberLength = 0;
+		while (this.pos < this.limit || this.fill()) {
+			char c = this.buffer[this.pos];
+			if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+				if (this.numberLength >= this.numberBuffer.length) {
+					char[] newNumberBuffer = new char[this.numberBuffer.length * 2];
+					System.arraycopy(this.numberBuffer, 0, newNumberBuffer, 0, this.numberLength);
+					this.numberBuffer = newNumberBuffer;
+				}
+				this.numberBuffer[this.numberLength++] = c;
+				this.pos++;
+			} else {
+				break;
+			}
+		}
+	}
+
+	private void readLiteral(String literal) throws IOException {
+		for (int i=0; i<literal.length(); i++) {
+			if (this.readChar() != literal.charAt(i)) {
+				throw this.syntaxError("Invalid literal, expected '" + literal + "'");
+			}
+		}
+	}
+
+	/**
+	 * Read the string at the current position (starting with a double quote).
+	 * @param decode False to skip the string without creating it.
+	 */
+	private String readString(boolean decode) throws IOException {
+		// Skip the opening quote
+		this.pos++;
+
+		// Fast path: the whole string is in the buffer and it has no escape sequence.
+		for (int i=this.pos; i<this.limit; i++) {
+			char c = this.buffer[i];
+			if (c == '"') {
+				String str = decode ? new String(this.buffer, this.pos, i - this.pos) : null;
+				this.pos = i + 1;
+				return str;
+			}
+			if (c == '\\') {
+				break;
+			}
+		}
+
+		StringBuilder sb = this.stringBuilder;
+		sb.setLength(0);
+		while (true) {
+			int c = this.readChar();
+			if (c == -1) {
+				throw this.syntaxError("Unterminated string");
+			}
+			if (c == '"') {
+				return decode ? sb.toString() : null;
+			}
+			if (c == '\\') {
+				c = this.readChar();
+				switch (c) {
+					case 'b': c = '\b'; break;
+					case 't': c = '\t'; break;
+					case 'n': c = '\n'; break;
+					case 'f': c = '\f'; break;
+					case 'r': c = '\r'; break;
+					case 'u':
+						int unicode = 0;
+						for (int i=0; i<4; i++) {
+							int digit = Character.digit(this.readChar(), 16);
+							if (digit < 0) {
+								throw this.syntaxError("Invalid unicode escape sequence");
+							}
+							unicode = (unicode << 4) | digit;
+						}
+						c = unicode;
+						break;
+					case '"':
+					case '\\':
+					case '/':
+						break;
+					default:
+						throw this.syntaxError("Invalid escape sequence");
+				}
+			}
+			if (decode) {
+				sb.append((char)c);
+			}
+		}
+	}
+
+	private IOException syntaxError(String message) {
+		return new IOException(message + " at character " + (this.offset + this.pos));
+	}
+}
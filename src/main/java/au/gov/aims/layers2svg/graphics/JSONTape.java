@@ -0,0 +1,260 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Flat index of the structure of a JSON document, inspired from simdjson's "tape".
+ *
+ * The document bytes are scanned once. Each token is recorded as a single long
+ * containing its type and the position of its value in the buffer.
+ * Nothing is decoded: strings and numbers stay in the buffer until they are read
+ * (see JSONTapeReader), so a memory mapped file can be parsed without copying it.
+ *
+ * Objects and arrays store the index of their matching end entry,
+ * which allows to skip unwanted values in constant time.
+ *
+ * Like the other JSON readers, commas and colons are treated as white spaces.
+ * The buffer is limited to 2 GB (maximum size of a memory mapped buffer).
+ */
+class JSONTape {
+	/**
+	 * Entry layout:
+	 *   bits 57-63: Token type (JSONToken ordinal)
+	 *   bit 56:     The string contains escape sequences
+	 *   bits 32-55: Length of the value in bytes (strings, numbers, literals)
+	 *   bits 0-31:  Offset of the value in the buffer (strings, numbers, literals)
+	 *               OR index of the matching entry (objects and arrays)
+	 */
+	private static final int TYPE_SHIFT = 57;
+	private static final long ESCAPE_FLAG = 1L << 56;
+	private static final int LENGTH_SHIFT = 32;
+	private static final long LENGTH_MASK = 0xFFFFFFL;
+	private static final long OFFSET_MASK = 0xFFFFFFFFL;
+
+	private static final JSONToken[] TOKENS = JSONToken.values();
+
+	private ByteBuffer buffer;
+	private long[] entries;
+	private int size;
+
+	private JSONTape(ByteBuffer buffer) {
+		this.buffer = buffer;
+		// Start small and let add() grow the array. GeoJSON has about 1 token every 6 bytes;
+		// allocating that upfront would cost more heap than the size of the mapped file.
+		this.entries = new long[Math.max(1024, buffer.limit() / 64)];
+		this.size = 0;
+	}
+
+	/**
+	 * Index the JSON document contained in the buffer,
+	 * from index 0 to the buffer limit.
+	 */
+	public static JSONTape build(ByteBuffer buffer) throws IOException {
+		JSONTape tape = new JSONTape(buffer);
+		tape.scan();
+		return tape;
+	}
+
+	public ByteBuffer getBuffer() {
+		return this.buffer;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public JSONToken getToken(int index) {
+		return TOKENS[(int)(this.entries[index] >>> TYPE_SHIFT)];
+	}
+
+	public int getOffset(int index) {
+		return (int)(this.entries[index] & OFFSET_MASK);
+	}
+
+	public int getLength(int index) {
+		return (int)((this.entries[index] >>> LENGTH_SHIFT) & LENGTH_MASK);
+	}
+
+	public boolean hasEscapeSequence(int index) {
+		return (this.entries[index] & ESCAPE_FLAG) != 0;
+	}
+
+	/**
+	 * Index of the entry which close the object / array, or which open it.
+	 */
+	public int getMatchingIndex(int index) {
+		return this.getOffset(index);
+	}
+
+	private void scan() throws IOException {
+		ByteBuffer buffer = this.buffer;
+		int limit = buffer.limit();
+		int pos = 0;
+
+		// Skip the UTF-8 byte order mark
+		if (limit >= 3 && buffer.get(0) == (byte)0xEF && buffer.get(1) == (byte)0xBB && buffer.get(2) == (byte)0xBF) {
+			pos = 3;
+		}
+
+		int[] stack = new int[32];
+		int depth = 0;
+
+		while (pos < limit) {
+			byte b = buffer.get(pos);
+			switch (b) {
+				case ' ':
+				case '\t':
+				case '\n':
+				case '\r':
+				case ',':
+				case ':':
+					pos++;
+					break;
+
+				case '{':
+				case '[':
+					if (depth >= stack.length) {
+						int[] newStack = new int[stack.length * 2];
+						System.arraycopy(stack, 0, newStack, 0, depth);
+						stack = newStack;
+					}
+					stack[depth++] = this.size;
+					this.add(b == '{' ? JSONToken.BEGIN_OBJECT : JSONToken.BEGIN_ARRAY, 0);
+					pos++;
+					break;
+
+				case '}':
+				case ']':
+					JSONToken beginToken = b == '}' ? JSONToken.BEGIN_OBJECT : JSONToken.BEGIN_ARRAY;
+					if (depth <= 0 || this.getToken(stack[depth-1]) != beginToken) {
+						throw syntaxError("Unexpected character '" + (char)b + "'", pos);
+					}
+					int beginIndex = stack[--depth];
+					this.entries[beginIndex] |= this.size;
+					this.add(b == '}' ? JSONToken.END_OBJECT : JSONToken.END_ARRAY, beginIndex);
+					pos++;
+					break;
+
+				case '"':
+					pos = this.scanString(pos + 1, limit);
+					break;
+
+				case 't':
+					pos = this.scanLiteral(JSONToken.TRUE, "true", pos, limit);
+					break;
+				case 'f':
+					pos = this.scanLiteral(JSONToken.FALSE, "false", pos, limit);
+					break;
+				case 'n':
+					pos = this.scanLiteral(JSONToken.NULL, "null", pos, limit);
+					break;
+
+				default:
+					if (b == '-' || (b >= '0' && b <= '9')) {
+						pos = this.scanNumber(pos, limit);
+					} else {
+						throw syntaxError("Unexpected character '" + (char)b + "'", pos);
+					}
+			}
+		}
+
+		if (depth > 0) {
+			throw syntaxError("Unexpected end of document", limit);
+		}
+	}
+
+	/**
+	 * @param start Position of the first character of the string, after the opening quote.
+	 * @return The position after the closing quote.
+	 */
+	private int scanString(int start, int limit) throws IOException {
+		ByteBuffer buffer = this.buffer;
+		boolean escaped = false;
+		int pos = start;
+		while (pos < limit) {
+			byte b = buffer.get(pos);
+			if (b == '"') {
+				this.addValue(JSONToken.STRING, start, pos - start, escaped);
+				return pos + 1;
+			}
+			if (b == '\\') {
+				escaped = true;
+				pos++;
+			}
+			pos++;
+		}
+		throw syntaxError("Unterminated string", start);
+	}
+
+	private int scanNumber(int start, int limit) throws IOException {
+		ByteBuffer buffer = this.buffer;
+		int pos = start;
+		while (pos < limit) {
+			byte b = buffer.get(pos);
+			if ((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E') {
+				pos++;
+			} else {
+				break;
+			}
+		}
+		this.addValue(JSONToken.NUMBER, start, pos - start, false);
+		return pos;
+	}
+
+	private int scanLiteral(JSONToken token, String literal, int start, int limit) throws IOException {
+		int length = literal.length();
+		if (start + length > limit) {
+			throw syntaxError("Invalid literal, expected '" + literal + "'", start);
+		}
+		for (int i=0; i<length; i++) {
+			if (this.buffer.get(start + i) != literal.charAt(i)) {
+				throw syntaxError("Invalid literal, expected '" + literal + "'", start);
+			}
+		}
+		this.addValue(token, start, length, false);
+		return start + length;
+	}
+
+	private void addValue(JSONToken token, int offset, int length, boolean escaped) throws IOException {
+		if (length > LENGTH_MASK) {
+			throw syntaxError("Value is too long", offset);
+		}
+		long entry = ((long)length << LENGTH_SHIFT) | offset;
+		if (escaped) {
+			entry |= ESCAPE_FLAG;
+		}
+		this.add(token, entry);
+	}
+
+	private void add(JSONToken token, long payload) {
+		if (this.size >= this.entries.length) {
+			long[] newEntries = new long[this.entries.length + (this.entries.length >> 1)];
+			System.arraycopy(this.entries, 0, newEntries, 0, this.size);
+			this.entries = newEntries;
+		}
+		this.entries[this.size++] = ((long)token.ordinal() << TYPE_SHIFT) | payload;
+	}
+
+	private static IOException syntaxError(String message, int pos) {
+		return new IOException(message + " at byte " + pos);
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JSON pull parser which walks through a JSONTape.
+ * Numbers are parsed directly from the bytes of the buffer.
+ * Objects and arrays are skipped without reading their content.
+ * See JSONReader.
+ */
+class JSONTapeReader extends JSONReader {
+	private JSONTape tape;
+	// Each reader has its own view of the buffer, to be able to set its position
+	private ByteBuffer buffer;
+	private int index;
+
+	private byte[] bytes;
+
+	public JSONTapeReader(JSONTape tape) {
+		this(tape, 0);
+	}
+
+	/**
+	 * Start reading from the given tape entry.
+	 * The tape can be shared between multiple readers, used in different threads.
+	 */
+	public JSONTapeReader(JSONTape tape, int index) {
+		this.tape = tape;
+		this.buffer = tape.getBuffer().duplicate();
+		this.index = index;
+		this.bytes = new byte[64];
+	}
+
+	public JSONTape getTape() {
+		return this.tape;
+	}
+
+	/**
+	 * Index of the tape entry of the next token.
+	 */
+	public int getIndex() {
+		return this.index;
+	}
+
+	@Override
+	public JSONToken peek() {
+		return this.index < this.tape.size() ? this.tape.getToken(this.index) : JSONToken.END_DOCUMENT;
+	}
+
+	@Override
+	public void beginObject() throws IOException {
+		this.consume(JSONToken.BEGIN_OBJECT);
+	}
+
+	@Override
+	public void endObject() throws IOException {
+		this.consume(JSONToken.END_OBJECT);
+	}
+
+	@Override
+	public void beginArray() throws IOException {
+		this.consume(JSONToken.BEGIN_ARRAY);
+	}
+
+	@Override
+	public void endArray() throws IOException {
+		this.consume(JSONToken.END_ARRAY);
+	}
+
+	@Override
+	public String nextString() throws IOException {
+		this.expect(JSONToken.STRING);
+		int length = this.tape.getLength(this.index);
+		byte[] bytes = this.readBytes(this.tape.getOffset(this.index), length);
+		String str = new String(bytes, 0, length, StandardCharsets.UTF_8);
+		if (this.tape.hasEscapeSequence(this.index)) {
+			str = this.unescape(str);
+		}
+		this.index++;
+		return str;
+	}
+
+	/**
+	 * Parse the number directly from the bytes of the buffer (see FastDoubleParser).
+	 */
+	@Override
+	public double nextDouble() throws IOException {
+		this.expect(JSONToken.NUMBER);
+		int offset = this.tape.getOffset(this.index);
+		int length = this.tape.getLength(this.index);
+
+		double value;
+		try {
+			value = FastDoubleParser.parseDouble(this.buffer, offset, length);
+		} catch(NumberFormatException ex) {
+			throw this.syntaxError("Invalid number '" + this.readASCII(offset, length) + "'");
+		}
+
+		this.index++;
+		return value;
+	}
+
+	@Override
+	public boolean nextBoolean() throws IOException {
+		JSONToken token = this.peek();
+		if (token == JSONToken.TRUE || token == JSONToken.FALSE) {
+			this.index++;
+			return token == JSONToken.TRUE;
+		}
+		throw this.syntaxError("Expected a boolean but found " + token);
+	}
+
+	@Override
+	public void nextNull() throws IOException {
+		this.consume(JSONToken.NULL);
+	}
+
+	@Override
+	protected String nextNumber() throws IOException {
+		this.expect(JSONToken.NUMBER);
+		String number = this.readASCII(this.tape.getOffset(this.index), this.tape.getLength(this.index));
+		this.index++;
+		return number;
+	}
+
+	@Override
+	public void skipValue() throws IOException {
+		JSONToken token = this.peek();
+		switch (token) {
+			case BEGIN_OBJECT:
+			case BEGIN_ARRAY:
+				this.index = this.tape.getMatchingIndex(this.index) + 1;
+				break;
+
+			case END_OBJECT:
+			case END_ARRAY:
+			case END_DOCUMENT:
+				throw this.syntaxError("Expected a value but found " + token);
+
+			default:
+				this.index++;
+		}
+	}
+
+	private void expect(JSONToken expected) throws IOException {
+		JSONToken token = this.peek();
+		if (token != expected) {
+			throw this.syntaxError("Expected " + expected + " but found " + token);
+		}
+	}
+
+	private void consume(JSONToken expected) throws IOException {
+		this.expect(expected);
+		this.index++;
+	}
+
+	private byte[] readBytes(int offset, int length) {
+		if (length > this.bytes.length) {
+			this.bytes = new byte[Math.max(length, this.bytes.length * 2)];
+		}
+		this.buffer.position(offset);
+		this.buffer.get(this.bytes, 0, length);
+		return this.bytes;
+	}
+
+	private String readASCII(int offset, int length) {
+		return new String(this.readBytes(offset, length), 0, length, StandardCharsets.ISO_8859_1);
+	}
+
+	private String unescape(String str) throws IOException {
+		StringBuilder sb = new StringBuilder(str.length());
+		int length = str.length();
+		for (int i=0; i<length; i++) {
+			char c = str.charAt(i);
+			if (c == '\\' && i+1 < length) {
+				c = str.charAt(++i);
+				switch (c) {
+					case 'b': c = '\b'; break;
+					case 't': c = '\t'; break;
+					case 'n': c = '\n'; break;
+					case 'f': c = '\f'; break;
+					case 'r': c = '\r'; break;
+					case 'u':
+						if (i+4 >= length) {
+							throw this.syntaxError("Invalid unicode escape sequence");
+						}
+						try {
+							c = (char)Integer.parseInt(str.substring(i+1, i+5), 16);
+						} catch(NumberFormatException ex) {
+							throw this.syntaxError("Invalid unicode escape sequence");
+						}
+						i += 4;
+						break;
+					case '"':
+					case '\\':
+					case '/':
+						break;
+					default:
+						throw this.syntaxError("Invalid escape sequence");
+				}
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	private IOException syntaxError(String message) {
+		int pos = this.index < this.tape.size() ? this.tape.getOffset(this.index) : this.buffer.limit();
+		return new IOException(message + " at byte " + pos);
+	}
+}
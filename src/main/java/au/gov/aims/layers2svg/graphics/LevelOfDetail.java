@@ -0,0 +1,131 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import au.gov.aims.sld.geom.GeoShapeGroup;
+
+import java.awt.geom.AffineTransform;
+import java.util.Arrays;
+
+/**
+ * Generalised versions of a GeoShapeGroup (GeoJSONShape, CSVShape, etc),
+ * computed once when the layer is loaded.
+ *
+ * Each level is simplified with a tolerance expressed in map units (degrees
+ * for most of our layers). When rendering, the coarsest level which tolerance
+ * is smaller than a device pixel is used; the difference is not visible.
+ * It replaces the hand-made low resolution copies of the layers
+ * (Mainland_50m, Mainland_300m, etc).
+ *
+ * Example:
+ *   LevelOfDetail mainlandLOD = new LevelOfDetail(mainland, ShapeSimplifier.Algorithm.DOUGLAS_PEUCKER,
+ *       0.001, 0.004, 0.016, 0.064);
+ *   Layer mainlandLayer = new Layer("Mainland");
+ *   mainlandLayer.add(mainlandLOD.getGroup(transform));
+ */
+public class LevelOfDetail {
+	// Size of a pixel, in metres, defined by OGC to calculate scale denominators.
+	// See: OpenGIS Symbology Encoding Implementation Specification, "standardized rendering pixel size"
+	public static final double STANDARD_PIXEL_SIZE = 0.00028;
+
+	// Length of a degree of longitude at the equator, in metres (WGS84)
+	public static final double METRES_PER_DEGREE = 6378137 * 2 * Math.PI / 360;
+
+	private final GeoShapeGroup original;
+	private final double[] tolerances;
+	private final GeoShapeGroup[] levels;
+
+	/**
+	 * @param group The full resolution shapes.
+	 * @param algorithm The simplification algorithm.
+	 * @param tolerances The tolerance of each level, in map units.
+	 */
+	public LevelOfDetail(GeoShapeGroup group, ShapeSimplifier.Algorithm algorithm, double ... tolerances) {
+		if (group == null) {
+			throw new IllegalArgumentException("Group can not be null");
+		}
+		this.original = group;
+		this.tolerances = tolerances.clone();
+		Arrays.sort(this.tolerances);
+
+		// Each level is simplified from the original shapes, to avoid accumulating errors
+		this.levels = new GeoShapeGroup[this.tolerances.length];
+		for (int i=0; i<this.tolerances.length; i++) {
+			this.levels[i] = new ShapeSimplifier(algorithm, this.tolerances[i]).simplify(group);
+		}
+	}
+
+	public GeoShapeGroup getOriginal() {
+		return this.original;
+	}
+
+	public int getLevelCount() {
+		return this.levels.length;
+	}
+
+	/**
+	 * @param level The level, from 0 (most detailed) to getLevelCount()-1 (coarsest).
+	 */
+	public GeoShapeGroup getLevel(int level) {
+		return this.levels[level];
+	}
+
+	public double getTolerance(int level) {
+		return this.tolerances[level];
+	}
+
+	/**
+	 * @param transform The transform from map units to device pixels.
+	 * @return The coarsest shapes which look the same as the original, at the transform scale.
+	 */
+	public GeoShapeGroup getGroup(AffineTransform transform) {
+		double scale = Math.sqrt(Math.abs(transform.getDeterminant()));
+		if (!(scale > 0) || Double.isInfinite(scale)) {
+			return this.original;
+		}
+		return this.getGroupForPixelSize(1 / scale);
+	}
+
+	/**
+	 * @param scaleDenominator The map scale denominator, as used in SLD (example: 3000000 for 1:3,000,000).
+	 * @param metresPerMapUnit The size of a map unit in metres (example: METRES_PER_DEGREE).
+	 * @return The coarsest shapes which look the same as the original, at the map scale.
+	 */
+	public GeoShapeGroup getGroup(double scaleDenominator, double metresPerMapUnit) {
+		if (!(scaleDenominator > 0) || !(metresPerMapUnit > 0)) {
+			return this.original;
+		}
+		return this.getGroupForPixelSize(scaleDenominator * STANDARD_PIXEL_SIZE / metresPerMapUnit);
+	}
+
+	/**
+	 * @param pixelSize The size of a device pixel, in map units.
+	 */
+	private GeoShapeGroup getGroupForPixelSize(double pixelSize) {
+		GeoShapeGroup group = this.original;
+		for (int i=0; i<this.tolerances.length; i++) {
+			if (this.tolerances[i] < pixelSize) {
+				group = this.levels[i];
+			} else {
+				break;
+			}
+		}
+		return group;
+	}
+}
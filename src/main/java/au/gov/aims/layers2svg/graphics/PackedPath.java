@@ -0,0 +1,400 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only shape made of straight lines, used to store parsed geometries.
+ *
+ * Path2D.Double grows its arrays as points are added and stores the type
+ * of every segment. This shape only contains the coordinates, in a single
+ * array of the exact size [ x0, y0, x1, y1, ... ], and the index of the
+ * first point of each ring. Each ring starts with a "moveTo", followed by
+ * "lineTo" to the following points. When the path is closed, each ring
+ * ends with a "closePath".
+ *
+ * The path iterator returns the same segments as the equivalent Path2D.
+ */
+public class PackedPath implements Shape {
+	private final double[] coordinates;
+	private final int[] ringOffsets;
+	private final int pointCount;
+	private final int windingRule;
+	private final boolean closed;
+	// Calculated in the constructor; the paths are shared between render threads
+	private final Rectangle2D bounds;
+
+	// Lazy loaded. ShapeMetadata only has final fields, it's safe to publish without synchronization.
+	private ShapeMetadata metadata;
+
+	/**
+	 * NOTE: The arrays are not copied, they must not be modified after the path is created.
+	 * @param coordinates Points of all the rings [ x0, y0, x1, y1, ... ]
+	 * @param ringOffsets Index of the first point of each ring, in increasing order.
+	 * @param windingRule Path2D.WIND_EVEN_ODD or Path2D.WIND_NON_ZERO
+	 * @param closed True to close every ring.
+	 */
+	public PackedPath(double[] coordinates, int[] ringOffsets, int windingRule, boolean closed) {
+		this(coordinates, ringOffsets, windingRule, closed, null);
+	}
+
+	private PackedPath(double[] coordinates, int[] ringOffsets, int windingRule, boolean closed, Rectangle2D bounds) {
+		if (coordinates.length % 2 != 0) {
+			throw new IllegalArgumentException("Invalid coordinates, the array contains an odd number of values.");
+		}
+		if (windingRule != Path2D.WIND_EVEN_ODD && windingRule != Path2D.WIND_NON_ZERO) {
+			throw new IllegalArgumentException("Invalid winding rule " + windingRule);
+		}
+		this.coordinates = coordinates;
+		this.ringOffsets = ringOffsets;
+		this.pointCount = coordinates.length / 2;
+		this.windingRule = windingRule;
+		this.closed = closed;
+		this.bounds = bounds == null ? PackedPath.calculateBounds(coordinates) : bounds;
+	}
+
+	private static Rectangle2D calculateBounds(double[] coordinates) {
+		if (coordinates.length == 0) {
+			return new Rectangle2D.Double();
+		}
+		double minX = coordinates[0], maxX = minX;
+		double minY = coordinates[1], maxY = minY;
+		for (int i=2; i<coordinates.length; i+=2) {
+			double x = coordinates[i];
+			double y = coordinates[i+1];
+			if (x < minX) { minX = x; }
+			if (x > maxX) { maxX = x; }
+			if (y < minY) { minY = y; }
+			if (y > maxY) { maxY = y; }
+		}
+		return new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+	}
+
+	public int getPointCount() {
+		return this.pointCount;
+	}
+
+	public int getRingCount() {
+		return this.ringOffsets.length;
+	}
+
+	/**
+	 * Index of the first point of the ring.
+	 */
+	public int getRingStart(int ring) {
+		return this.ringOffsets[ring];
+	}
+
+	/**
+	 * Index following the last point of the ring.
+	 */
+	public int getRingEnd(int ring) {
+		return ring + 1 < this.ringOffsets.length ? this.ringOffsets[ring + 1] : this.pointCount;
+	}
+
+	public double getX(int point) {
+		return this.coordinates[point * 2];
+	}
+
+	public double getY(int point) {
+		return this.coordinates[point * 2 + 1];
+	}
+
+	public int getWindingRule() {
+		return this.windingRule;
+	}
+
+	public boolean isClosed() {
+		return this.closed;
+	}
+
+	/**
+	 * Calculated from the arrays, without iterating the path. See ShapeMetadata.of
+	 */
+	public ShapeMetadata getMetadata() {
+		if (this.metadata == null) {
+			this.metadata = ShapeMetadata.of(this, this.getBounds2D());
+		}
+		return this.metadata;
+	}
+
+	@Override
+	public Rectangle getBounds() {
+		return this.getBounds2D().getBounds();
+	}
+
+	@Override
+	public Rectangle2D getBounds2D() {
+		return (Rectangle2D)this.bounds.clone();
+	}
+
+	@Override
+	public boolean contains(double x, double y) {
+		return Path2D.contains(this.getPathIterator(null), x, y);
+	}
+
+	@Override
+	public boolean contains(Point2D point) {
+		return Path2D.contains(this.getPathIterator(null), point);
+	}
+
+	@Override
+	public boolean intersects(double x, double y, double w, double h) {
+		return Path2D.intersects(this.getPathIterator(null), x, y, w, h);
+	}
+
+	@Override
+	public boolean intersects(Rectangle2D rectangle) {
+		return Path2D.intersects(this.getPathIterator(null), rectangle);
+	}
+
+	@Override
+	public boolean contains(double x, double y, double w, double h) {
+		return Path2D.contains(this.getPathIterator(null), x, y, w, h);
+	}
+
+	@Override
+	public boolean contains(Rectangle2D rectangle) {
+		return Path2D.contains(this.getPathIterator(null), rectangle);
+	}
+
+	@Override
+	public PathIterator getPathIterator(AffineTransform transform) {
+		return new PackedPathIterator(this, transform);
+	}
+
+	/**
+	 * The path only contains straight lines, it's already flat.
+	 */
+	@Override
+	public PathIterator getPathIterator(AffineTransform transform, double flatness) {
+		return new PackedPathIterator(this, transform);
+	}
+
+	private static class PackedPathIterator implements PathIterator {
+		private final PackedPath path;
+		private final AffineTransform transform;
+
+		private int ring;
+		private int point;
+		// True when the iterator is on the "closePath" segment of the ring
+		private boolean closing;
+
+		public PackedPathIterator(PackedPath path, AffineTransform transform) {
+			this.path = path;
+			this.transform = transform;
+			this.ring = 0;
+			this.point = path.getRingCount() > 0 ? path.getRingStart(0) : 0;
+			this.closing = false;
+			this.skipEmptyRings();
+		}
+
+		@Override
+		public int getWindingRule() {
+			return this.path.windingRule;
+		}
+
+		@Override
+		public boolean isDone() {
+			return this.ring >= this.path.getRingCount();
+		}
+
+		@Override
+		public void next() {
+			if (this.closing) {
+				this.closing = false;
+				this.nextRing();
+			} else {
+				this.point++;
+				if (this.point >= this.path.getRingEnd(this.ring)) {
+					if (this.path.closed) {
+						this.closing = true;
+					} else {
+						this.nextRing();
+					}
+				}
+			}
+		}
+
+		private void nextRing() {
+			this.ring++;
+			if (this.ring < this.path.getRingCount()) {
+				this.point = this.path.getRingStart(this.ring);
+			}
+			this.skipEmptyRings();
+		}
+
+		private void skipEmptyRings() {
+			while (this.ring < this.path.getRingCount() && this.point >= this.path.getRingEnd(this.ring)) {
+				this.ring++;
+				if (this.ring < this.path.getRingCount()) {
+					this.point = this.path.getRingStart(this.ring);
+				}
+			}
+		}
+
+		@Override
+		public int currentSegment(float[] coords) {
+			if (this.isDone()) {
+				throw new NoSuchElementException("Path iterator out of bounds");
+			}
+			if (this.closing) {
+				return SEG_CLOSE;
+			}
+			coords[0] = (float)this.path.coordinates[this.point * 2];
+			coords[1] = (float)this.path.coordinates[this.point * 2 + 1];
+			if (this.transform != null) {
+				this.transform.transform(coords, 0, coords, 0, 1);
+			}
+			return this.point == this.path.getRingStart(this.ring) ? SEG_MOVETO : SEG_LINETO;
+		}
+
+		@Override
+		public int currentSegment(double[] coords) {
+			if (this.isDone()) {
+				throw new NoSuchElementException("Path iterator out of bounds");
+			}
+			if (this.closing) {
+				return SEG_CLOSE;
+			}
+			coords[0] = this.path.coordinates[this.point * 2];
+			coords[1] = this.path.coordinates[this.point * 2 + 1];
+			if (this.transform != null) {
+				this.transform.transform(coords, 0, coords, 0, 1);
+			}
+			return this.point == this.path.getRingStart(this.ring) ? SEG_MOVETO : SEG_LINETO;
+		}
+	}
+
+	/**
+	 * Collect the points of a path, then create a PackedPath of the exact size.
+	 * The builder can be reused after calling build().
+	 */
+	public static class Builder {
+		private double[] coordinates;
+		private int coordinateCount;
+		private int[] ringOffsets;
+		private int ringCount;
+
+		// Bounds of the points added so far
+		private double minX, minY, maxX, maxY;
+
+		public Builder() {
+			this(64);
+		}
+
+		/**
+		 * @param pointCapacity Expected number of points. If it's exact,
+		 *   the coordinate array is not copied when the path is built.
+		 */
+		public Builder(int pointCapacity) {
+			this.coordinates = new double[Math.max(1, pointCapacity) * 2];
+			this.coordinateCount = 0;
+			this.ringOffsets = new int[1];
+			this.ringCount = 0;
+		}
+
+		/**
+		 * Start a new ring.
+		 */
+		public void moveTo(double x, double y) {
+			if (this.ringCount >= this.ringOffsets.length) {
+				this.ringOffsets = Arrays.copyOf(this.ringOffsets, this.ringOffsets.length * 2);
+			}
+			this.ringOffsets[this.ringCount++] = this.coordinateCount / 2;
+			this.addPoint(x, y);
+		}
+
+		public void lineTo(double x, double y) {
+			if (this.ringCount == 0) {
+				throw new IllegalStateException("lineTo called before moveTo");
+			}
+			this.addPoint(x, y);
+		}
+
+		public boolean isEmpty() {
+			return this.ringCount == 0;
+		}
+
+		/**
+		 * Bounds of the points added since the last build.
+		 * Used to discard the path without building it.
+		 */
+		public Rectangle2D getBounds2D() {
+			if (this.coordinateCount == 0) {
+				return new Rectangle2D.Double();
+			}
+			return new Rectangle2D.Double(this.minX, this.minY, this.maxX - this.minX, this.maxY - this.minY);
+		}
+
+		/**
+		 * Discard the points, to reuse the builder.
+		 */
+		public void clear() {
+			this.coordinateCount = 0;
+			this.ringCount = 0;
+		}
+
+		/**
+		 * Create the path and clear the builder.
+		 */
+		public PackedPath build(int windingRule, boolean closed) {
+			double[] pathCoordinates = this.coordinateCount == this.coordinates.length ?
+					this.coordinates :
+					Arrays.copyOf(this.coordinates, this.coordinateCount);
+			int[] pathRingOffsets = Arrays.copyOf(this.ringOffsets, this.ringCount);
+
+			Rectangle2D bounds = this.getBounds2D();
+
+			if (pathCoordinates == this.coordinates) {
+				// The array now belongs to the path
+				this.coordinates = new double[0];
+			}
+			this.clear();
+
+			return new PackedPath(pathCoordinates, pathRingOffsets, windingRule, closed, bounds);
+		}
+
+		private void addPoint(double x, double y) {
+			if (this.coordinateCount + 2 > this.coordinates.length) {
+				this.coordinates = Arrays.copyOf(this.coordinates, Math.max(32, this.coordinates.length * 2));
+			}
+			if (this.coordinateCount == 0) {
+				this.minX = this.maxX = x;
+				this.minY = this.maxY = y;
+			} else {
+				if (x < this.minX) { this.minX = x; }
+				if (x > this.maxX) { this.maxX = x; }
+				if (y < this.minY) { this.minY = y; }
+				if (y > this.maxY) { this.maxY = y; }
+			}
+			this.coordinates[this.coordinateCount++] = x;
+			this.coordinates[this.coordinateCount++] = y;
+		}
+	}
+}
@@ -0,0 +1,277 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import au.gov.aims.sld.PropertyValue;
+import au.gov.aims.sld.SldUtils;
+import au.gov.aims.sld.geom.GeoShape;
+import au.gov.aims.sld.geom.GeoShapeGroup;
+import au.gov.aims.sld.geom.Layer;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reduce the number of points of dense point layers (CSVShape, GeoJSONShape, etc)
+ * before drawing them. Thousands of overlapping point symbols look the same as
+ * one symbol per few pixels, but they are much slower to draw and produce
+ * SVG files which are too large for the browsers.
+ *
+ * The points are binned into a grid of "cellSize" device pixels, at the
+ * transform of the map. For each cell:
+ *   THIN: Keep one point, with the highest priority (see setPriority).
+ *   CLUSTER: Replace the points with one point at their centre, with the properties
+ *     of the point with the highest priority and the number of points (see setCountProperty).
+ * When there is no priority property, or when points have the same priority,
+ * the first point of the cell is kept. The points are returned in the order
+ * of the kept points in the original group, so the result is always the same.
+ * Shapes which are not points (lines, polygons, etc) are not aggregated;
+ * they are added after the points.
+ *
+ * Example:
+ *   PointAggregator aggregator = new PointAggregator(PointAggregator.Mode.THIN, 8);
+ *   // The most important cities have the lowest SCALERANK
+ *   aggregator.setPriority("SCALERANK", true);
+ *   Layer citiesLayer = new Layer("Cities");
+ *   citiesLayer.add(aggregator.aggregate(cities, transform));
+ */
+public class PointAggregator {
+	public enum Mode {
+		THIN, CLUSTER
+	}
+
+	public static final String DEFAULT_COUNT_PROPERTY = "COUNT";
+
+	private final Mode mode;
+	private final double cellSize;
+	private String priorityProperty;
+	private boolean lowestFirst;
+	private String countProperty;
+
+	/**
+	 * @param mode The aggregation mode.
+	 * @param cellSize The size of the grid cells, in device pixels.
+	 */
+	public PointAggregator(Mode mode, double cellSize) {
+		if (mode == null) {
+			throw new IllegalArgumentException("Aggregation mode can not be null");
+		}
+		if (!(cellSize > 0) || Double.isInfinite(cellSize)) {
+			throw new IllegalArgumentException("Invalid cell size: " + cellSize);
+		}
+		this.mode = mode;
+		this.cellSize = cellSize;
+		this.priorityProperty = null;
+		this.lowestFirst = false;
+		this.countProperty = DEFAULT_COUNT_PROPERTY;
+	}
+
+	public Mode getMode() {
+		return this.mode;
+	}
+
+	public double getCellSize() {
+		return this.cellSize;
+	}
+
+	/**
+	 * Numeric property used to choose the point kept in each cell.
+	 * Points without a numeric value for that property have the lowest priority.
+	 * @param priorityProperty The property name, or null to keep the first point of each cell (default).
+	 * @param lowestFirst True if the lowest values have the highest priority (example: SCALERANK),
+	 *   false if the highest values have the highest priority (example: POP_MAX).
+	 */
+	public void setPriority(String priorityProperty, boolean lowestFirst) {
+		this.priorityProperty = priorityProperty;
+		this.lowestFirst = lowestFirst;
+	}
+
+	public String getPriorityProperty() {
+		return this.priorityProperty;
+	}
+
+	public boolean isLowestFirst() {
+		return this.lowestFirst;
+	}
+
+	/**
+	 * Property which contains the number of points of the cluster, with the CLUSTER mode.
+	 * Default: DEFAULT_COUNT_PROPERTY
+	 */
+	public void setCountProperty(String countProperty) {
+		if (countProperty == null) {
+			throw new IllegalArgumentException("Count property can not be null");
+		}
+		this.countProperty = countProperty;
+	}
+
+	public String getCountProperty() {
+		return this.countProperty;
+	}
+
+	/**
+	 * Aggregate the points of each group of the layer.
+	 * @param transform The transform from the layer coordinates to device pixels.
+	 */
+	public Layer aggregate(Layer layer, AffineTransform transform) {
+		Layer aggregatedLayer = new Layer(layer.getName());
+		for (GeoShapeGroup group : layer.getShapeGroups()) {
+			aggregatedLayer.add(this.aggregate(group, transform));
+		}
+		return aggregatedLayer;
+	}
+
+	/**
+	 * Aggregate the points of the group. The points of the sub groups are aggregated
+	 * separately, since they may not be drawn with the same style.
+	 * The points kept by the THIN mode are shared with the original group.
+	 * @param transform The transform from the group coordinates to device pixels.
+	 */
+	public GeoShapeGroup aggregate(GeoShapeGroup group, AffineTransform transform) {
+		GeoShapeGroup aggregatedGroup = new GeoShapeGroup(group.getName());
+		for (GeoShapeGroup subGroup : group.getGeoShapeGroups()) {
+			aggregatedGroup.add(this.aggregate(subGroup, transform));
+		}
+
+		List<GeoShape> geoShapes = group.getGeoShapes();
+		Map<Long, Cell> cellMap = new HashMap<Long, Cell>();
+		List<Cell> cells = new ArrayList<Cell>();
+		List<GeoShape> otherShapes = new ArrayList<GeoShape>();
+		Point2D devicePoint = new Point2D.Double();
+
+		int index = 0;
+		for (GeoShape geoShape : geoShapes) {
+			Object rawShape = geoShape.getShape();
+			if (!(rawShape instanceof Point2D)) {
+				otherShapes.add(geoShape);
+				continue;
+			}
+			Point2D point = (Point2D)rawShape;
+			transform.transform(point, devicePoint);
+			double x = devicePoint.getX();
+			double y = devicePoint.getY();
+			if (Double.isNaN(x) || Double.isNaN(y)) {
+				otherShapes.add(geoShape);
+				continue;
+			}
+
+			// The cell index is clamped to the int range; those cells are far outside the image
+			int cellX = (int)Math.floor(x / this.cellSize);
+			int cellY = (int)Math.floor(y / this.cellSize);
+			Long cellKey = ((long)cellX << 32) | (cellY & 0xFFFFFFFFL);
+
+			double priority = this.getPriority(geoShape);
+			Cell cell = cellMap.get(cellKey);
+			if (cell == null) {
+				cell = new Cell(index, geoShape, priority);
+				cellMap.put(cellKey, cell);
+				cells.add(cell);
+			} else if (priority > cell.priority) {
+				cell.index = index;
+				cell.geoShape = geoShape;
+				cell.priority = priority;
+			}
+			cell.count++;
+			cell.sumX += point.getX();
+			cell.sumY += point.getY();
+			index++;
+		}
+
+		Collections.sort(cells, new Comparator<Cell>() {
+			@Override
+			public int compare(Cell cell1, Cell cell2) {
+				return Integer.compare(cell1.index, cell2.index);
+			}
+		});
+		for (Cell cell : cells) {
+			if (this.mode == Mode.THIN) {
+				aggregatedGroup.add(cell.geoShape);
+			} else {
+				Map<String, PropertyValue> properties = new HashMap<String, PropertyValue>();
+				Map<String, PropertyValue> cellProperties = cell.geoShape.getProperties();
+				if (cellProperties != null) {
+					properties.putAll(cellProperties);
+				}
+				properties.put(this.countProperty, new PropertyValue(Integer.valueOf(cell.count)));
+				aggregatedGroup.add(new Point2D.Double(cell.sumX / cell.count, cell.sumY / cell.count), properties);
+			}
+		}
+		for (GeoShape otherShape : otherShapes) {
+			aggregatedGroup.add(otherShape);
+		}
+
+		return aggregatedGroup;
+	}
+
+	/**
+	 * @return The priority of the point; the highest value wins.
+	 *   Negative infinity when there is no priority property or no numeric value.
+	 */
+	private double getPriority(GeoShape geoShape) {
+		if (this.priorityProperty == null) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		Map<String, PropertyValue> properties = geoShape.getProperties();
+		PropertyValue propertyValue = properties == null ? null : properties.get(this.priorityProperty);
+		Object value = propertyValue == null ? null : propertyValue.getValue();
+
+		double priority;
+		if (value instanceof Number) {
+			priority = ((Number)value).doubleValue();
+		} else if (value != null && SldUtils.isNumeric(value.toString())) {
+			priority = Double.parseDouble(value.toString());
+		} else {
+			return Double.NEGATIVE_INFINITY;
+		}
+		if (Double.isNaN(priority)) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		return this.lowestFirst ? -priority : priority;
+	}
+
+	/**
+	 * Points of a grid cell.
+	 */
+	private static class Cell {
+		// Index of the kept point, in the points of the group
+		private int index;
+		private GeoShape geoShape;
+		private double priority;
+
+		private int count;
+		// Sum of the coordinates, used to calculate the centre of the cluster
+		private double sumX;
+		private double sumY;
+
+		public Cell(int index, GeoShape geoShape, double priority) {
+			this.index = index;
+			this.geoShape = geoShape;
+			this.priority = priority;
+			this.count = 0;
+			this.sumX = 0;
+			this.sumY = 0;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import au.gov.aims.sld.PropertyValue;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Share identical property keys, values and key sets (see SchemaPropertyMap)
+ * between the features of a layer.
+ *
+ * A new interner is created for each file, so the tables are released
+ * once the file is loaded. The interner is thread safe, to be used by
+ * the parallel parsers.
+ *
+ * Only small values are shared (numbers, booleans, short strings); the tables
+ * stop growing once they are full, to limit the cost of layers with unique
+ * values (IDs, descriptions, etc).
+ *
+ * NOTE: The shared PropertyValue instances must not be modified.
+ */
+class PropertyInterner {
+	private static final int MAX_STRING_LENGTH = 64;
+	private static final int MAX_VALUES = 16384;
+	private static final int MAX_SCHEMAS = 256;
+
+	private final ConcurrentHashMap<String, String> keys;
+	private final ConcurrentHashMap<Object, PropertyValue> values;
+	private final ConcurrentHashMap<List<String>, SchemaPropertyMap.Schema> schemas;
+
+	public PropertyInterner() {
+		this.keys = new ConcurrentHashMap<String, String>();
+		this.values = new ConcurrentHashMap<Object, PropertyValue>();
+		this.schemas = new ConcurrentHashMap<List<String>, SchemaPropertyMap.Schema>();
+	}
+
+	public String internKey(String key) {
+		if (key == null) {
+			return null;
+		}
+		String internedKey = this.keys.putIfAbsent(key, key);
+		return internedKey == null ? key : internedKey;
+	}
+
+	/**
+	 * Value parsed from a JSON document: String, Number, Boolean or JSONObject.NULL.
+	 * Other values (JSONObject, JSONArray) are not shared.
+	 */
+	public PropertyValue internValue(Object value) {
+		if (!this.isInternable(value)) {
+			return new PropertyValue(value);
+		}
+		PropertyValue propertyValue = this.values.get(value);
+		if (propertyValue == null) {
+			propertyValue = this.putValue(value, new PropertyValue(value));
+		}
+		return propertyValue;
+	}
+
+	public PropertyValue internValue(String value) {
+		if (!this.isInternable(value)) {
+			return new PropertyValue(value);
+		}
+		PropertyValue propertyValue = this.values.get(value);
+		if (propertyValue == null) {
+			propertyValue = this.putValue(value, new PropertyValue(value));
+		}
+		return propertyValue;
+	}
+
+	public PropertyValue internValue(double value) {
+		Double key = value;
+		PropertyValue propertyValue = this.values.get(key);
+		if (propertyValue == null) {
+			propertyValue = this.putValue(key, new PropertyValue(value));
+		}
+		return propertyValue;
+	}
+
+	/**
+	 * Create a map of properties. Features with the same keys, in the same order,
+	 * share the same schema.
+	 * NOTE: The lists are not kept by the map.
+	 */
+	public Map<String, PropertyValue> createMap(List<String> keys, List<PropertyValue> values) {
+		SchemaPropertyMap.Schema schema = this.getSchema(keys);
+		if (schema == null) {
+			// Duplicate keys; the last value wins, like with a HashMap
+			Map<String, PropertyValue> properties = new HashMap<String, PropertyValue>();
+			for (int i=0; i<keys.size(); i++) {
+				properties.put(keys.get(i), values.get(i));
+			}
+			return properties;
+		}
+		return new SchemaPropertyMap(schema, values.toArray(new PropertyValue[values.size()]));
+	}
+
+	/**
+	 * @return The shared schema, or null if the keys contains duplicates.
+	 */
+	public SchemaPropertyMap.Schema getSchema(List<String> keys) {
+		SchemaPropertyMap.Schema schema = this.schemas.get(keys);
+		if (schema == null) {
+			String[] schemaKeys = new String[keys.size()];
+			for (int i=0; i<schemaKeys.length; i++) {
+				schemaKeys[i] = this.internKey(keys.get(i));
+			}
+			try {
+				schema = new SchemaPropertyMap.Schema(schemaKeys);
+			} catch(IllegalArgumentException ex) {
+				return null;
+			}
+			if (this.schemas.size() < MAX_SCHEMAS) {
+				SchemaPropertyMap.Schema existingSchema = this.schemas.putIfAbsent(Arrays.asList(schemaKeys), schema);
+				if (existingSchema != null) {
+					schema = existingSchema;
+				}
+			}
+		}
+		return schema;
+	}
+
+	private boolean isInternable(Object value) {
+		if (value instanceof String) {
+			return ((String)value).length() <= MAX_STRING_LENGTH;
+		}
+		return value instanceof Number || value instanceof Boolean || value == JSONObject.NULL;
+	}
+
+	private PropertyValue putValue(Object key, PropertyValue propertyValue) {
+		if (this.values.size() >= MAX_VALUES) {
+			return propertyValue;
+		}
+		PropertyValue existingValue = this.values.putIfAbsent(key, propertyValue);
+		return existingValue == null ? propertyValue : existingValue;
+	}
+}
@@ -0,0 +1,313 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import au.gov.aims.sld.PropertyValue;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Map of feature properties, sharing its keys with the other features of the layer.
+ *
+ * Features of a layer usually all have the same properties. The keys and their
+ * index are stored once, in a Schema shared by all the maps. Each map only
+ * contains an array of values, in the same order as the schema keys.
+ * Keys which are not in the schema can still be added; they are stored in
+ * an "overflow" HashMap.
+ *
+ * A null value in the array means the property is not set.
+ * The map is not thread safe, like HashMap.
+ */
+class SchemaPropertyMap extends AbstractMap<String, PropertyValue> {
+	private final Schema schema;
+	private final PropertyValue[] values;
+	// Lazy created
+	private Map<String, PropertyValue> overflow;
+
+	/**
+	 * NOTE: The values array is not copied.
+	 */
+	public SchemaPropertyMap(Schema schema, PropertyValue[] values) {
+		if (values.length != schema.size()) {
+			throw new IllegalArgumentException("Expected " + schema.size() + " values, found " + values.length);
+		}
+		this.schema = schema;
+		this.values = values;
+		this.overflow = null;
+	}
+
+	public Schema getSchema() {
+		return this.schema;
+	}
+
+	@Override
+	public int size() {
+		int size = this.overflow == null ? 0 : this.overflow.size();
+		for (PropertyValue value : this.values) {
+			if (value != null) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		int index = this.schema.indexOf(key);
+		if (index >= 0) {
+			return this.values[index] != null;
+		}
+		return this.overflow != null && this.overflow.containsKey(key);
+	}
+
+	@Override
+	public PropertyValue get(Object key) {
+		int index = this.schema.indexOf(key);
+		if (index >= 0) {
+			return this.values[index];
+		}
+		return this.overflow == null ? null : this.overflow.get(key);
+	}
+
+	@Override
+	public PropertyValue put(String key, PropertyValue value) {
+		int index = this.schema.indexOf(key);
+		if (index >= 0 && value != null) {
+			PropertyValue oldValue = this.values[index];
+			this.values[index] = value;
+			return oldValue;
+		}
+
+		// Null values can not be stored in the array
+		PropertyValue oldValue = null;
+		if (index >= 0) {
+			oldValue = this.values[index];
+			this.values[index] = null;
+		}
+		if (this.overflow == null) {
+			this.overflow = new HashMap<String, PropertyValue>();
+		}
+		PropertyValue oldOverflowValue = this.overflow.put(key, value);
+		return oldValue != null ? oldValue : oldOverflowValue;
+	}
+
+	@Override
+	public PropertyValue remove(Object key) {
+		int index = this.schema.indexOf(key);
+		PropertyValue oldValue = null;
+		if (index >= 0) {
+			oldValue = this.values[index];
+			this.values[index] = null;
+		}
+		if (this.overflow != null && this.overflow.containsKey(key)) {
+			oldValue = this.overflow.remove(key);
+		}
+		return oldValue;
+	}
+
+	@Override
+	public void clear() {
+		for (int i=0; i<this.values.length; i++) {
+			this.values[i] = null;
+		}
+		this.overflow = null;
+	}
+
+	@Override
+	public Set<Map.Entry<String, PropertyValue>> entrySet() {
+		return new AbstractSet<Map.Entry<String, PropertyValue>>() {
+			@Override
+			public Iterator<Map.Entry<String, PropertyValue>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return SchemaPropertyMap.this.size();
+			}
+		};
+	}
+
+	/**
+	 * Iterate through the schema values, then through the overflow map.
+	 */
+	private class EntryIterator implements Iterator<Map.Entry<String, PropertyValue>> {
+		private int nextIndex;
+		private int lastIndex;
+		private Iterator<Map.Entry<String, PropertyValue>> overflowIterator;
+		private boolean lastFromOverflow;
+
+		public EntryIterator() {
+			this.nextIndex = this.findNext(0);
+			this.lastIndex = -1;
+			this.overflowIterator = null;
+			this.lastFromOverflow = false;
+		}
+
+		private int findNext(int from) {
+			PropertyValue[] values = SchemaPropertyMap.this.values;
+			int index = from;
+			while (index < values.length && values[index] == null) {
+				index++;
+			}
+			return index;
+		}
+
+		private Iterator<Map.Entry<String, PropertyValue>> getOverflowIterator() {
+			if (this.overflowIterator == null && SchemaPropertyMap.this.overflow != null) {
+				this.overflowIterator = SchemaPropertyMap.this.overflow.entrySet().iterator();
+			}
+			return this.overflowIterator;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (this.nextIndex < SchemaPropertyMap.this.values.length) {
+				return true;
+			}
+			Iterator<Map.Entry<String, PropertyValue>> iterator = this.getOverflowIterator();
+			return iterator != null && iterator.hasNext();
+		}
+
+		@Override
+		public Map.Entry<String, PropertyValue> next() {
+			if (this.nextIndex < SchemaPropertyMap.this.values.length) {
+				final int index = this.nextIndex;
+				this.lastIndex = index;
+				this.lastFromOverflow = false;
+				this.nextIndex = this.findNext(index + 1);
+				return new Entry(index);
+			}
+
+			Iterator<Map.Entry<String, PropertyValue>> iterator = this.getOverflowIterator();
+			if (iterator == null) {
+				throw new NoSuchElementException();
+			}
+			Map.Entry<String, PropertyValue> entry = iterator.next();
+			this.lastFromOverflow = true;
+			return entry;
+		}
+
+		@Override
+		public void remove() {
+			if (this.lastFromOverflow) {
+				this.overflowIterator.remove();
+				this.lastFromOverflow = false;
+			} else if (this.lastIndex >= 0) {
+				SchemaPropertyMap.this.values[this.lastIndex] = null;
+				this.lastIndex = -1;
+			} else {
+				throw new IllegalStateException();
+			}
+		}
+	}
+
+	private class Entry implements Map.Entry<String, PropertyValue> {
+		private final int index;
+
+		public Entry(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public String getKey() {
+			return SchemaPropertyMap.this.schema.getKey(this.index);
+		}
+
+		@Override
+		public PropertyValue getValue() {
+			return SchemaPropertyMap.this.values[this.index];
+		}
+
+		@Override
+		public PropertyValue setValue(PropertyValue value) {
+			if (value == null) {
+				throw new NullPointerException("Property value can not be null");
+			}
+			PropertyValue oldValue = SchemaPropertyMap.this.values[this.index];
+			SchemaPropertyMap.this.values[this.index] = value;
+			return oldValue;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>)obj;
+			return this.getKey().equals(entry.getKey()) &&
+					(this.getValue() == null ? entry.getValue() == null : this.getValue().equals(entry.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			PropertyValue value = this.getValue();
+			return this.getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return this.getKey() + "=" + this.getValue();
+		}
+	}
+
+	/**
+	 * Ordered list of property keys, shared between maps.
+	 * Immutable, it can be shared between threads.
+	 */
+	public static class Schema {
+		private final String[] keys;
+		private final Map<String, Integer> indexes;
+
+		/**
+		 * @throws IllegalArgumentException if the keys contains duplicates or null.
+		 */
+		public Schema(String[] keys) {
+			this.keys = keys;
+			this.indexes = new HashMap<String, Integer>();
+			for (int i=0; i<keys.length; i++) {
+				if (keys[i] == null) {
+					throw new IllegalArgumentException("Schema key can not be null");
+				}
+				if (this.indexes.put(keys[i], i) != null) {
+					throw new IllegalArgumentException("Duplicate schema key '" + keys[i] + "'");
+				}
+			}
+		}
+
+		public int size() {
+			return this.keys.length;
+		}
+
+		public String getKey(int index) {
+			return this.keys[index];
+		}
+
+		public int indexOf(Object key) {
+			Integer index = this.indexes.get(key);
+			return index == null ? -1 : index;
+		}
+	}
+}
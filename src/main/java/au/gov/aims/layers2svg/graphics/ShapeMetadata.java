@@ -0,0 +1,206 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Geometry information about a shape, calculated in a single pass of its PathIterator:
+ * bounds, closed, number of vertices and number of rings.
+ *
+ * The crop and render methods of VectorRasterGraphics2D need those information for
+ * every shape drawn. Calculating them separately (isClosed, getBounds, etc)
+ * walks the same path many times, for every rendered image.
+ *
+ * The metadata is cached in the PackedPath itself, which is the shape of the parsed
+ * layers, kept between renders. The other shapes (Path2D, Area, Rectangle2D, etc) are
+ * usually created for a single render; their metadata is calculated on every call,
+ * without any shared cache to lock.
+ */
+public class ShapeMetadata {
+	private final double minX;
+	private final double minY;
+	private final double maxX;
+	private final double maxY;
+	private final boolean closed;
+	private final boolean curved;
+	private final int vertexCount;
+	private final int ringCount;
+
+	private ShapeMetadata(double minX, double minY, double maxX, double maxY,
+			boolean closed, boolean curved, int vertexCount, int ringCount) {
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.closed = closed;
+		this.curved = curved;
+		this.vertexCount = vertexCount;
+		this.ringCount = ringCount;
+	}
+
+	/**
+	 * @return The metadata of the shape, cached in the shape when it's a PackedPath.
+	 */
+	public static ShapeMetadata of(Shape shape) {
+		if (shape instanceof PackedPath) {
+			return ((PackedPath)shape).getMetadata();
+		}
+		return ShapeMetadata.calculate(shape.getPathIterator(null));
+	}
+
+	/**
+	 * Metadata of a PackedPath, calculated from its arrays. See PackedPath.getMetadata.
+	 */
+	static ShapeMetadata of(PackedPath path, Rectangle2D bounds) {
+		return new ShapeMetadata(bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY(),
+				path.isClosed() && path.getRingCount() > 0, false, path.getPointCount(), path.getRingCount());
+	}
+
+	/**
+	 * Walk the path once. The only allocation is the coordinates array, shared by all the segments.
+	 * The bounds include the control points of the curves, like Path2D.getBounds2D.
+	 */
+	public static ShapeMetadata calculate(PathIterator iterator) {
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		boolean closed = false;
+		boolean curved = false;
+		int vertexCount = 0;
+		int ringCount = 0;
+
+		double[] coords = new double[6];
+		while (!iterator.isDone()) {
+			int type = iterator.currentSegment(coords);
+			int pointCount;
+			switch (type) {
+				case PathIterator.SEG_MOVETO:
+					ringCount++;
+					pointCount = 1;
+					break;
+				case PathIterator.SEG_LINETO:
+					pointCount = 1;
+					break;
+				case PathIterator.SEG_QUADTO:
+					curved = true;
+					pointCount = 2;
+					break;
+				case PathIterator.SEG_CUBICTO:
+					curved = true;
+					pointCount = 3;
+					break;
+				case PathIterator.SEG_CLOSE:
+					closed = true;
+					pointCount = 0;
+					break;
+				default:
+					pointCount = 0;
+					break;
+			}
+
+			if (pointCount > 0) {
+				// The vertex is the end point of the segment; the other points are control points
+				vertexCount++;
+				for (int i=0; i<pointCount*2; i+=2) {
+					double x = coords[i];
+					double y = coords[i+1];
+					if (x < minX) { minX = x; }
+					if (x > maxX) { maxX = x; }
+					if (y < minY) { minY = y; }
+					if (y > maxY) { maxY = y; }
+				}
+			}
+			iterator.next();
+		}
+
+		if (vertexCount == 0) {
+			return new ShapeMetadata(0, 0, 0, 0, closed, curved, 0, ringCount);
+		}
+		return new ShapeMetadata(minX, minY, maxX, maxY, closed, curved, vertexCount, ringCount);
+	}
+
+	public double getMinX() {
+		return this.minX;
+	}
+
+	public double getMinY() {
+		return this.minY;
+	}
+
+	public double getMaxX() {
+		return this.maxX;
+	}
+
+	public double getMaxY() {
+		return this.maxY;
+	}
+
+	public Rectangle2D getBounds2D() {
+		return new Rectangle2D.Double(this.minX, this.minY, this.maxX - this.minX, this.maxY - this.minY);
+	}
+
+	/**
+	 * @return True if at least one of the rings is closed (same as Layers2SVGUtils.isClosed).
+	 */
+	public boolean isClosed() {
+		return this.closed;
+	}
+
+	/**
+	 * @return True if the shape contains quadratic or cubic curves.
+	 */
+	public boolean isCurved() {
+		return this.curved;
+	}
+
+	/**
+	 * @return The number of segment end points ("moveTo", "lineTo" and curves).
+	 */
+	public int getVertexCount() {
+		return this.vertexCount;
+	}
+
+	/**
+	 * @return The number of "moveTo".
+	 */
+	public int getRingCount() {
+		return this.ringCount;
+	}
+
+	/**
+	 * @return True if the bounds are completely inside the rectangle.
+	 */
+	public boolean isInside(Rectangle2D rectangle) {
+		return this.minX >= rectangle.getMinX() && this.maxX <= rectangle.getMaxX() &&
+				this.minY >= rectangle.getMinY() && this.maxY <= rectangle.getMaxY();
+	}
+
+	/**
+	 * Unlike Rectangle2D.intersects, the bounds of horizontal / vertical lines
+	 * and points (empty rectangles) intersect the rectangle when they touch it.
+	 * @return False if the bounds are completely outside the rectangle.
+	 */
+	public boolean boundsIntersect(Rectangle2D rectangle) {
+		return this.vertexCount > 0 &&
+				this.minX <= rectangle.getMaxX() && this.maxX >= rectangle.getMinX() &&
+				this.minY <= rectangle.getMaxY() && this.maxY >= rectangle.getMinY();
+	}
+}
@@ -0,0 +1,496 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import au.gov.aims.sld.geom.GeoShape;
+import au.gov.aims.sld.geom.GeoShapeGroup;
+import au.gov.aims.sld.geom.Layer;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Remove the vertices which are not visible at the output resolution.
+ *
+ * The tolerance is expressed in device pixels. The simplification is meant to
+ * be applied on shapes which are already in device coordinates (after
+ * Layer.createTransformedLayer), before drawing them:
+ *   Layer scaled = layer.createTransformedLayer(transform);
+ *   Layer simplified = new ShapeSimplifier(Algorithm.DOUGLAS_PEUCKER, 0.5).simplify(scaled);
+ *   List<Layer> styled = styleSheet.generateStyledLayers(simplified, scale);
+ * It can also be set on the VectorRasterGraphics2D, to simplify the
+ * shapes just before they are drawn (see VectorRasterGraphics2D.setSimplifier).
+ *
+ * Closed rings stay closed and keep at least 3 vertices. Shapes containing curves,
+ * or a mix of closed and open rings, are returned unchanged.
+ *
+ * Algorithms:
+ *   DOUGLAS_PEUCKER: Remove the vertices which are less than "tolerance" pixels
+ *     away from the simplified line.
+ *   VISVALINGAM_WHYATT: Remove the vertices which form a triangle, with their neighbours,
+ *     smaller than "tolerance" square pixels. It gives smoother results on natural
+ *     features such as coastlines.
+ */
+public class ShapeSimplifier {
+	public enum Algorithm {
+		DOUGLAS_PEUCKER, VISVALINGAM_WHYATT
+	}
+
+	private final Algorithm algorithm;
+	private final double tolerance;
+
+	/**
+	 * @param algorithm The simplification algorithm.
+	 * @param tolerance The tolerance, in device pixels.
+	 */
+	public ShapeSimplifier(Algorithm algorithm, double tolerance) {
+		if (algorithm == null) {
+			throw new IllegalArgumentException("Simplification algorithm can not be null");
+		}
+		if (!(tolerance >= 0)) {
+			throw new IllegalArgumentException("Invalid simplification tolerance: " + tolerance);
+		}
+		this.algorithm = algorithm;
+		this.tolerance = tolerance;
+	}
+
+	public Algorithm getAlgorithm() {
+		return this.algorithm;
+	}
+
+	public double getTolerance() {
+		return this.tolerance;
+	}
+
+	/**
+	 * Simplify the shapes of a layer which is already in device coordinates.
+	 * NOTE: The shapes styles are not copied; the layer should be simplified
+	 *   before the style is applied.
+	 */
+	public Layer simplify(Layer layer) {
+		Layer simplifiedLayer = new Layer(layer.getName());
+		for (GeoShapeGroup group : layer.getShapeGroups()) {
+			simplifiedLayer.add(this.simplify(group));
+		}
+		return simplifiedLayer;
+	}
+
+	/**
+	 * Simplify the shapes of a group which is already in device coordinates.
+	 * The points are not modified; they are shared with the original group.
+	 */
+	public GeoShapeGroup simplify(GeoShapeGroup group) {
+		GeoShapeGroup simplifiedGroup = new GeoShapeGroup(group.getName());
+		for (GeoShapeGroup subGroup : group.getGeoShapeGroups()) {
+			simplifiedGroup.add(this.simplify(subGroup));
+		}
+		for (GeoShape geoShape : group.getGeoShapes()) {
+			Object rawShape = geoShape.getShape();
+			if (rawShape instanceof Shape) {
+				simplifiedGroup.add(this.simplify((Shape)rawShape), geoShape.getProperties());
+			} else {
+				simplifiedGroup.add(geoShape);
+			}
+		}
+		return simplifiedGroup;
+	}
+
+	/**
+	 * Simplify a shape which is already in device coordinates.
+	 */
+	public Shape simplify(Shape shape) {
+		return this.simplify(shape, null);
+	}
+
+	/**
+	 * Simplify a shape which will be drawn using the given transform.
+	 * The tolerance is converted to the shape coordinates using the transform scale.
+	 * @param transform The transform from the shape coordinates to device pixels, or null for identity.
+	 * @return A simplified PackedPath, or the original shape if it can't be simplified
+	 *   or if no vertex was removed.
+	 */
+	public Shape simplify(Shape shape, AffineTransform transform) {
+		if (shape == null || this.tolerance <= 0) {
+			return shape;
+		}
+
+		double shapeTolerance = this.tolerance;
+		if (transform != null) {
+			double scale = Math.sqrt(Math.abs(transform.getDeterminant()));
+			if (scale <= 0 || Double.isNaN(scale) || Double.isInfinite(scale)) {
+				return shape;
+			}
+			shapeTolerance /= scale;
+		}
+
+		return this.simplifyPath(shape, shapeTolerance);
+	}
+
+	/**
+	 * Add a point at the end of the ring, growing the array if needed.
+	 * @param ringLength The number of coordinates in the ring.
+	 * @return The ring array, or a larger copy of it.
+	 */
+	private static double[] appendPoint(double[] ring, int ringLength, double x, double y) {
+		if (ringLength + 2 > ring.length) {
+			ring = Arrays.copyOf(ring, ring.length * 2);
+		}
+		ring[ringLength] = x;
+		ring[ringLength + 1] = y;
+		return ring;
+	}
+
+	private Shape simplifyPath(Shape shape, double shapeTolerance) {
+		PathIterator iterator = shape.getPathIterator(null);
+		int windingRule = iterator.getWindingRule();
+
+		List<double[]> rings = new ArrayList<double[]>();
+		boolean hasClosedRing = false;
+		boolean hasOpenRing = false;
+
+		double[] coords = new double[6];
+		double[] ring = new double[64];
+		int ringLength = 0;
+		boolean ringClosed = false;
+		double startX = 0, startY = 0;
+
+		while (!iterator.isDone()) {
+			int type = iterator.currentSegment(coords);
+			switch (type) {
+				case PathIterator.SEG_MOVETO:
+					if (ringLength > 0) {
+						rings.add(Arrays.copyOf(ring, ringLength));
+						hasOpenRing = true;
+					}
+					ringLength = 0;
+					ringClosed = false;
+					startX = coords[0];
+					startY = coords[1];
+					ring = ShapeSimplifier.appendPoint(ring, ringLength, coords[0], coords[1]);
+					ringLength += 2;
+					break;
+
+				case PathIterator.SEG_LINETO:
+					if (ringClosed) {
+						// Line after a close; it starts from the beginning of the previous ring
+						ringClosed = false;
+						ring = ShapeSimplifier.appendPoint(ring, ringLength, startX, startY);
+						ringLength += 2;
+					}
+					ring = ShapeSimplifier.appendPoint(ring, ringLength, coords[0], coords[1]);
+					ringLength += 2;
+					break;
+
+				case PathIterator.SEG_CLOSE:
+					if (ringLength > 0) {
+						// The closing point is implicit
+						if (ringLength > 2 && ring[ringLength-2] == ring[0] && ring[ringLength-1] == ring[1]) {
+							ringLength -= 2;
+						}
+						rings.add(Arrays.copyOf(ring, ringLength));
+						hasClosedRing = true;
+						ringLength = 0;
+					}
+					ringClosed = true;
+					break;
+
+				default:
+					// Curves (SEG_QUADTO, SEG_CUBICTO) are not simplified
+					return shape;
+			}
+			iterator.next();
+		}
+		if (ringLength > 0) {
+			rings.add(Arrays.copyOf(ring, ringLength));
+			hasOpenRing = true;
+		}
+
+		if (hasClosedRing && hasOpenRing) {
+			// PackedPath can't represent this shape
+			return shape;
+		}
+
+		int pointCount = 0;
+		boolean changed = false;
+		for (int i=0; i<rings.size(); i++) {
+			double[] originalRing = rings.get(i);
+			double[] simplifiedRing = this.algorithm == Algorithm.VISVALINGAM_WHYATT ?
+					visvalingamWhyatt(originalRing, hasClosedRing, shapeTolerance * shapeTolerance) :
+					douglasPeucker(originalRing, hasClosedRing, shapeTolerance * shapeTolerance);
+			if (simplifiedRing != originalRing) {
+				rings.set(i, simplifiedRing);
+				changed = true;
+			}
+			pointCount += simplifiedRing.length / 2;
+		}
+		if (!changed) {
+			return shape;
+		}
+
+		PackedPath.Builder builder = new PackedPath.Builder(pointCount);
+		for (double[] simplifiedRing : rings) {
+			builder.moveTo(simplifiedRing[0], simplifiedRing[1]);
+			for (int i=2; i<simplifiedRing.length; i+=2) {
+				builder.lineTo(simplifiedRing[i], simplifiedRing[i+1]);
+			}
+		}
+		return builder.build(windingRule, hasClosedRing);
+	}
+
+	/**
+	 * Douglas-Peucker, using a stack instead of recursion to support very long lines.
+	 * Closed rings are processed as a line which ends where it starts.
+	 * @param ring The ring coordinates [ x0, y0, x1, y1, ... ]
+	 * @param toleranceSq The tolerance, squared.
+	 */
+	private static double[] douglasPeucker(double[] ring, boolean closed, double toleranceSq) {
+		int pointCount = ring.length / 2;
+		if (pointCount < (closed ? 4 : 3)) {
+			return ring;
+		}
+
+		// Index "pointCount" is the first point, for closed rings
+		int lastIndex = closed ? pointCount : pointCount - 1;
+		boolean[] keep = new boolean[lastIndex + 1];
+		keep[0] = true;
+		keep[lastIndex] = true;
+
+		int[] stack = new int[64];
+		int stackSize = 0;
+		stack[stackSize++] = 0;
+		stack[stackSize++] = lastIndex;
+		while (stackSize > 0) {
+			int last = stack[--stackSize];
+			int first = stack[--stackSize];
+
+			double firstX = ring[first * 2], firstY = ring[first * 2 + 1];
+			double lastX = ring[(last % pointCount) * 2], lastY = ring[(last % pointCount) * 2 + 1];
+
+			double maxDistanceSq = -1;
+			int maxIndex = -1;
+			for (int i=first+1; i<last; i++) {
+				double distanceSq = segmentDistanceSq(ring[i * 2], ring[i * 2 + 1], firstX, firstY, lastX, lastY);
+				if (distanceSq > maxDistanceSq) {
+					maxDistanceSq = distanceSq;
+					maxIndex = i;
+				}
+			}
+
+			if (maxIndex >= 0 && maxDistanceSq > toleranceSq) {
+				keep[maxIndex] = true;
+				if (stackSize + 4 > stack.length) {
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				}
+				stack[stackSize++] = first;
+				stack[stackSize++] = maxIndex;
+				stack[stackSize++] = maxIndex;
+				stack[stackSize++] = last;
+			}
+		}
+
+		int keptCount = 0;
+		for (int i=0; i<pointCount; i++) {
+			if (keep[i]) {
+				keptCount++;
+			}
+		}
+		if (closed && keptCount < 3) {
+			keepTriangle(ring, keep);
+		}
+
+		return filter(ring, keep, pointCount);
+	}
+
+	/**
+	 * Keep the first point, the point the furthest from it, and the
+	 * point the furthest from the line between them.
+	 */
+	private static void keepTriangle(double[] ring, boolean[] keep) {
+		int pointCount = ring.length / 2;
+		double firstX = ring[0], firstY = ring[1];
+
+		int secondIndex = 1;
+		double maxDistanceSq = -1;
+		for (int i=1; i<pointCount; i++) {
+			double dx = ring[i * 2] - firstX, dy = ring[i * 2 + 1] - firstY;
+			double distanceSq = dx*dx + dy*dy;
+			if (distanceSq > maxDistanceSq) {
+				maxDistanceSq = distanceSq;
+				secondIndex = i;
+			}
+		}
+
+		int thirdIndex = secondIndex == 1 ? 2 : 1;
+		maxDistanceSq = -1;
+		for (int i=1; i<pointCount; i++) {
+			if (i != secondIndex) {
+				double distanceSq = segmentDistanceSq(ring[i * 2], ring[i * 2 + 1],
+						firstX, firstY, ring[secondIndex * 2], ring[secondIndex * 2 + 1]);
+				if (distanceSq > maxDistanceSq) {
+					maxDistanceSq = distanceSq;
+					thirdIndex = i;
+				}
+			}
+		}
+
+		keep[0] = true;
+		keep[secondIndex] = true;
+		keep[thirdIndex] = true;
+	}
+
+	/**
+	 * Visvalingam-Whyatt. The points are removed in order of their "effective area",
+	 * the area of the triangle they form with their neighbours, until all the
+	 * remaining areas are larger than the tolerance.
+	 * The end points of open lines are never removed.
+	 * @param ring The ring coordinates [ x0, y0, x1, y1, ... ]
+	 * @param areaTolerance The minimum area, in square units.
+	 */
+	private static double[] visvalingamWhyatt(double[] ring, boolean closed, double areaTolerance) {
+		int pointCount = ring.length / 2;
+		int minPointCount = closed ? 3 : 2;
+		if (pointCount <= minPointCount) {
+			return ring;
+		}
+
+		int[] previous = new int[pointCount];
+		int[] next = new int[pointCount];
+		double[] areas = new double[pointCount];
+		for (int i=0; i<pointCount; i++) {
+			previous[i] = i == 0 ? (closed ? pointCount - 1 : -1) : i - 1;
+			next[i] = i == pointCount - 1 ? (closed ? 0 : -1) : i + 1;
+		}
+
+		PriorityQueue<Vertex> queue = new PriorityQueue<Vertex>(pointCount);
+		for (int i=0; i<pointCount; i++) {
+			if (previous[i] >= 0 && next[i] >= 0) {
+				areas[i] = triangleArea(ring, previous[i], i, next[i]);
+				queue.add(new Vertex(i, areas[i]));
+			}
+		}
+
+		boolean[] keep = new boolean[pointCount];
+		Arrays.fill(keep, true);
+		int remaining = pointCount;
+		double maxArea = 0;
+		while (remaining > minPointCount && !queue.isEmpty()) {
+			Vertex vertex = queue.poll();
+			int index = vertex.index;
+			if (!keep[index] || vertex.area != areas[index]) {
+				// Outdated entry
+				continue;
+			}
+			if (vertex.area >= areaTolerance) {
+				break;
+			}
+
+			// The area of the neighbours can not be smaller than the area of the removed point,
+			// otherwise they would be removed before points which are less significant.
+			maxArea = Math.max(maxArea, vertex.area);
+
+			keep[index] = false;
+			remaining--;
+			int previousIndex = previous[index];
+			int nextIndex = next[index];
+			next[previousIndex] = nextIndex;
+			previous[nextIndex] = previousIndex;
+
+			if (previous[previousIndex] >= 0) {
+				areas[previousIndex] = Math.max(maxArea, triangleArea(ring, previous[previousIndex], previousIndex, nextIndex));
+				queue.add(new Vertex(previousIndex, areas[previousIndex]));
+			}
+			if (next[nextIndex] >= 0) {
+				areas[nextIndex] = Math.max(maxArea, triangleArea(ring, previousIndex, nextIndex, next[nextIndex]));
+				queue.add(new Vertex(nextIndex, areas[nextIndex]));
+			}
+		}
+
+		return filter(ring, keep, pointCount);
+	}
+
+	private static double[] filter(double[] ring, boolean[] keep, int pointCount) {
+		int keptCount = 0;
+		for (int i=0; i<pointCount; i++) {
+			if (keep[i]) {
+				keptCount++;
+			}
+		}
+		if (keptCount == pointCount) {
+			return ring;
+		}
+
+		double[] simplifiedRing = new double[keptCount * 2];
+		int length = 0;
+		for (int i=0; i<pointCount; i++) {
+			if (keep[i]) {
+				simplifiedRing[length++] = ring[i * 2];
+				simplifiedRing[length++] = ring[i * 2 + 1];
+			}
+		}
+		return simplifiedRing;
+	}
+
+	private static double triangleArea(double[] ring, int a, int b, int c) {
+		double ax = ring[a * 2], ay = ring[a * 2 + 1];
+		double bx = ring[b * 2], by = ring[b * 2 + 1];
+		double cx = ring[c * 2], cy = ring[c * 2 + 1];
+		return Math.abs((bx - ax) * (cy - ay) - (cx - ax) * (by - ay)) / 2;
+	}
+
+	/**
+	 * Squared distance between the point (px, py) and the segment [ (ax, ay), (bx, by) ].
+	 */
+	private static double segmentDistanceSq(double px, double py, double ax, double ay, double bx, double by) {
+		double dx = bx - ax, dy = by - ay;
+		double lengthSq = dx*dx + dy*dy;
+		double t = 0;
+		if (lengthSq > 0) {
+			t = ((px - ax) * dx + (py - ay) * dy) / lengthSq;
+			if (t < 0) {
+				t = 0;
+			} else if (t > 1) {
+				t = 1;
+			}
+		}
+		double x = ax + t * dx - px;
+		double y = ay + t * dy - py;
+		return x*x + y*y;
+	}
+
+	private static class Vertex implements Comparable<Vertex> {
+		private final int index;
+		private final double area;
+
+		public Vertex(int index, double area) {
+			this.index = index;
+			this.area = area;
+		}
+
+		@Override
+		public int compareTo(Vertex other) {
+			int cmp = Double.compare(this.area, other.area);
+			return cmp != 0 ? cmp : Integer.compare(this.index, other.index);
+		}
+	}
+}
@@ -0,0 +1,435 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import au.gov.aims.sld.PropertyValue;
+import au.gov.aims.sld.geom.GeoShapeGroup;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class represent the shapes defined in a TopoJSON file.
+ * Like GeoJSONShape, it's a "GeoShapeGroup" instead of a "Layer" to add
+ * the possibility of adding multiple TopoJSON into a single layer.
+ *
+ * TopoJSON stores the lines shared by multiple geometries (borders) once, as "arcs".
+ * Geometries reference the arcs they are made of, by index. A negative index (~index)
+ * means the arc is used in reverse order. The arcs can be quantized (integer positions)
+ * and delta encoded (each position is relative to the previous one); the "transform"
+ * of the topology is used to get the coordinates back.
+ *
+ * The arcs are decoded once, then the rings are rebuilt by joining the arcs.
+ *
+ * TopoJSON Specs:
+ *   https://github.com/topojson/topojson-specification
+ */
+public class TopoJSONShape extends GeoShapeGroup {
+	private static final Logger LOGGER = Logger.getLogger(TopoJSONShape.class.getSimpleName());
+
+	private JSONObject topoJson;
+
+	// Used during parse
+	private PropertyInterner propertyInterner;
+	private double[][] arcs;
+	private double[] scale;
+	private double[] translate;
+
+	/**
+	 * topoJson = {
+	 *   "type": "Topology",
+	 *   "transform": { ... },
+	 *   "objects": { "name": { ... }, ... },
+	 *   "arcs": [ ... ]
+	 * }
+	 */
+	public TopoJSONShape(JSONObject topoJson, String name) {
+		super(name);
+		this.topoJson = topoJson;
+	}
+
+	/**
+	 * Parse all the objects of the topology, ordered by name.
+	 */
+	public void parse() {
+		this.parse(null);
+	}
+
+	/**
+	 * Parse a single object of the topology.
+	 * @param objectName The name of the object, or null to parse all the objects.
+	 */
+	public void parse(String objectName) {
+		if (this.topoJson == null) {
+			LOGGER.log(Level.SEVERE, "TopoJSON is null.");
+			return;
+		}
+
+		String type = this.topoJson.optString("type", null);
+		if (type == null) {
+			LOGGER.log(Level.SEVERE, "TopoJSON has no type defined.");
+			return;
+		}
+		if (!"Topology".equals(type)) {
+			LOGGER.log(Level.SEVERE, "Unsupported TopoJSON type '" + type + "'.");
+			return;
+		}
+
+		JSONObject objects = this.topoJson.optJSONObject("objects");
+		if (objects == null) {
+			LOGGER.log(Level.SEVERE, "TopoJSON contains no object.");
+			return;
+		}
+
+		this.propertyInterner = new PropertyInterner();
+		try {
+			this.parseTransform(this.topoJson.optJSONObject("transform"));
+			this.arcs = this.parseArcs(this.topoJson.optJSONArray("arcs"));
+
+			if (objectName == null) {
+				// JSONObject keys are not ordered; sort them to render the objects in a predictable order
+				for (String name : new TreeSet<String>(objects.keySet())) {
+					this.parseObject(objects.optJSONObject(name));
+				}
+			} else {
+				JSONObject object = objects.optJSONObject(objectName);
+				if (object == null) {
+					LOGGER.log(Level.SEVERE, "TopoJSON object '" + objectName + "' not found.");
+				} else {
+					this.parseObject(object);
+				}
+			}
+		} finally {
+			this.propertyInterner = null;
+			this.arcs = null;
+			this.scale = null;
+			this.translate = null;
+		}
+	}
+
+	/**
+	 * transform = {
+	 *   "scale": [ scaleX, scaleY ],
+	 *   "translate": [ translateX, translateY ]
+	 * }
+	 */
+	private void parseTransform(JSONObject transform) {
+		this.scale = null;
+		this.translate = null;
+		if (transform != null) {
+			JSONArray jsonScale = transform.optJSONArray("scale");
+			JSONArray jsonTranslate = transform.optJSONArray("translate");
+			if (jsonScale == null || jsonScale.length() < 2 || jsonTranslate == null || jsonTranslate.length() < 2) {
+				LOGGER.log(Level.SEVERE, "Invalid TopoJSON transform.");
+			} else {
+				this.scale = new double[] { jsonScale.optDouble(0), jsonScale.optDouble(1) };
+				this.translate = new double[] { jsonTranslate.optDouble(0), jsonTranslate.optDouble(1) };
+			}
+		}
+	}
+
+	/**
+	 * arcs = [
+	 *   [ [ x, y ], [ x, y ], ... ],
+	 *   ...
+	 * ]
+	 * When the topology is quantized, positions are delta encoded:
+	 *   [ [ x0, y0 ], [ x1 - x0, y1 - y0 ], ... ]
+	 *
+	 * @return The coordinates of each arcs [ x0, y0, x1, y1, ... ]
+	 */
+	private double[][] parseArcs(JSONArray jsonArcs) {
+		if (jsonArcs == null) {
+			return new double[0][];
+		}
+
+		double[][] arcs = new double[jsonArcs.length()][];
+		for (int arcIndex=0; arcIndex<jsonArcs.length(); arcIndex++) {
+			JSONArray jsonArc = jsonArcs.optJSONArray(arcIndex);
+			if (jsonArc == null) {
+				LOGGER.log(Level.SEVERE, "TopoJSON contains an invalid arc.");
+				arcs[arcIndex] = new double[0];
+				continue;
+			}
+
+			double[] arc = new double[jsonArc.length() * 2];
+			int length = 0;
+			double x = 0, y = 0;
+			for (int pointIndex=0; pointIndex<jsonArc.length(); pointIndex++) {
+				JSONArray position = jsonArc.optJSONArray(pointIndex);
+				if (position != null && position.length() >= 2) {
+					if (this.scale == null) {
+						x = position.optDouble(0);
+						y = position.optDouble(1);
+						arc[length++] = x;
+						arc[length++] = y;
+					} else {
+						x += position.optDouble(0);
+						y += position.optDouble(1);
+						arc[length++] = x * this.scale[0] + this.translate[0];
+						arc[length++] = y * this.scale[1] + this.translate[1];
+					}
+				}
+			}
+			arcs[arcIndex] = length == arc.length ? arc : Arrays.copyOf(arc, length);
+		}
+		return arcs;
+	}
+
+	/**
+	 * object = {
+	 *   "type": "GeometryCollection",
+	 *   "geometries": [ ... ]
+	 * }
+	 * OR a single geometry
+	 */
+	private void parseObject(JSONObject object) {
+		if (object == null) {
+			LOGGER.log(Level.SEVERE, "TopoJSON contains an invalid object.");
+			return;
+		}
+
+		String type = object.optString("type", null);
+		if ("GeometryCollection".equals(type)) {
+			JSONArray geometries = object.optJSONArray("geometries");
+			if (geometries == null) {
+				LOGGER.log(Level.SEVERE, "TopoJSON GeometryCollection contains no geometry.");
+			} else {
+				for (int i=0; i<geometries.length(); i++) {
+					this.parseObject(geometries.optJSONObject(i));
+				}
+			}
+		} else {
+			this.parseGeometry(object);
+		}
+	}
+
+	/**
+	 * geometry = {
+	 *   "type": "Polygon",
+	 *   "properties": { ... },
+	 *   "arcs": [ [ 0, 1, ~2 ], ... ]
+	 * }
+	 */
+	private void parseGeometry(JSONObject geometry) {
+		String type = geometry.optString("type", null);
+		if (type == null) {
+			// Null geometry; the specs allow it, there is nothing to draw
+			return;
+		}
+
+		List<Object> shapes = new ArrayList<Object>();
+		if ("Point".equals(type)) {
+			Point2D.Double point = this.parsePoint(geometry.optJSONArray("coordinates"));
+			if (point != null) {
+				shapes.add(point);
+			}
+		} else if ("MultiPoint".equals(type)) {
+			JSONArray points = geometry.optJSONArray("coordinates");
+			if (points == null) {
+				LOGGER.log(Level.SEVERE, "TopoJSON contains empty MultiPoint coordinates.");
+			} else {
+				for (int i=0; i<points.length(); i++) {
+					Point2D.Double point = this.parsePoint(points.optJSONArray(i));
+					if (point != null) {
+						shapes.add(point);
+					}
+				}
+			}
+		} else {
+			JSONArray jsonArcs = geometry.optJSONArray("arcs");
+			if (jsonArcs == null) {
+				LOGGER.log(Level.SEVERE, "TopoJSON contains empty " + type + " arcs.");
+				return;
+			}
+
+			if ("LineString".equals(type)) {
+				shapes.add(this.parseLineString(jsonArcs));
+			} else if ("MultiLineString".equals(type)) {
+				for (int i=0; i<jsonArcs.length(); i++) {
+					JSONArray lineArcs = jsonArcs.optJSONArray(i);
+					if (lineArcs != null) {
+						shapes.add(this.parseLineString(lineArcs));
+					}
+				}
+			} else if ("Polygon".equals(type)) {
+				shapes.add(this.parsePolygon(jsonArcs));
+			} else if ("MultiPolygon".equals(type)) {
+				for (int i=0; i<jsonArcs.length(); i++) {
+					JSONArray polygonArcs = jsonArcs.optJSONArray(i);
+					if (polygonArcs != null) {
+						shapes.add(this.parsePolygon(polygonArcs));
+					}
+				}
+			} else {
+				LOGGER.log(Level.SEVERE, "Unsupported TopoJSON geometry type '" + type + "'.");
+				return;
+			}
+		}
+
+		Map<String, PropertyValue> properties = this.parseProperties(geometry.optJSONObject("properties"));
+		for (Object shape : shapes) {
+			if (shape instanceof Point2D) {
+				this.add((Point2D)shape, properties);
+			} else {
+				this.add((Shape)shape, properties);
+			}
+		}
+	}
+
+	private Map<String, PropertyValue> parseProperties(JSONObject jsonProperties) {
+		List<String> keys = new ArrayList<String>();
+		List<PropertyValue> values = new ArrayList<PropertyValue>();
+		if (jsonProperties != null) {
+			for (String key : jsonProperties.keySet()) {
+				Object value = jsonProperties.opt(key);
+				if (value != null) {
+					keys.add(key);
+					values.add(this.propertyInterner.internValue(value));
+				}
+			}
+		}
+		return this.propertyInterner.createMap(keys, values);
+	}
+
+	/**
+	 * arcs = [ 0, 1, ~2 ]
+	 */
+	private PackedPath parseLineString(JSONArray jsonArcs) {
+		PackedPath.Builder line = new PackedPath.Builder(this.countPoints(jsonArcs));
+		this.addRing(line, jsonArcs);
+		return line.build(Path2D.WIND_NON_ZERO, false);
+	}
+
+	/**
+	 * arcs = [
+	 *   [ 0, 1, ~2 ],
+	 *   ...
+	 * ]
+	 * See NOTE in GeoJSONShape.parsePolygon
+	 */
+	private PackedPath parsePolygon(JSONArray jsonArcs) {
+		int pointCount = 0;
+		for (int i=0; i<jsonArcs.length(); i++) {
+			JSONArray ringArcs = jsonArcs.optJSONArray(i);
+			if (ringArcs != null) {
+				pointCount += this.countPoints(ringArcs);
+			}
+		}
+
+		PackedPath.Builder polygon = new PackedPath.Builder(pointCount);
+		for (int i=0; i<jsonArcs.length(); i++) {
+			JSONArray ringArcs = jsonArcs.optJSONArray(i);
+			if (ringArcs != null) {
+				this.addRing(polygon, ringArcs);
+			}
+		}
+		return polygon.build(Path2D.WIND_EVEN_ODD, true);
+	}
+
+	/**
+	 * Join the arcs into a ring. The first point of an arc is the same
+	 * as the last point of the previous arc; it's only added once.
+	 * Like GeoJSON, rings with less than 2 points are ignored.
+	 */
+	private void addRing(PackedPath.Builder builder, JSONArray ringArcs) {
+		if (this.countPoints(ringArcs) < 2) {
+			return;
+		}
+
+		boolean first = true;
+		for (int i=0; i<ringArcs.length(); i++) {
+			double[] arc = this.getArc(ringArcs, i);
+			if (arc == null) {
+				continue;
+			}
+			boolean reversed = ringArcs.optInt(i) < 0;
+			int arcPointCount = arc.length / 2;
+			for (int j=(first ? 0 : 1); j<arcPointCount; j++) {
+				int pointIndex = reversed ? arcPointCount - 1 - j : j;
+				double x = arc[pointIndex * 2];
+				double y = arc[pointIndex * 2 + 1];
+				if (first) {
+					builder.moveTo(x, y);
+					first = false;
+				} else {
+					builder.lineTo(x, y);
+				}
+			}
+		}
+	}
+
+	private int countPoints(JSONArray ringArcs) {
+		int pointCount = 0;
+		for (int i=0; i<ringArcs.length(); i++) {
+			double[] arc = this.getArc(ringArcs, i);
+			if (arc != null && arc.length > 0) {
+				pointCount += arc.length / 2 - (pointCount == 0 ? 0 : 1);
+			}
+		}
+		return pointCount;
+	}
+
+	/**
+	 * @return The coordinates of the arc referenced in the array, or null if the index is invalid.
+	 */
+	private double[] getArc(JSONArray ringArcs, int i) {
+		Object jsonIndex = ringArcs.opt(i);
+		if (!(jsonIndex instanceof Number)) {
+			LOGGER.log(Level.SEVERE, "TopoJSON contains an invalid arc index '" + jsonIndex + "'.");
+			return null;
+		}
+		int index = ((Number)jsonIndex).intValue();
+		// ~index = -index - 1
+		int arcIndex = index < 0 ? ~index : index;
+		if (arcIndex >= this.arcs.length) {
+			LOGGER.log(Level.SEVERE, "TopoJSON contains an invalid arc index '" + index + "'.");
+			return null;
+		}
+		return this.arcs[arcIndex];
+	}
+
+	/**
+	 * coordinates = [ x, y ]
+	 * Quantized points are not delta encoded.
+	 */
+	private Point2D.Double parsePoint(JSONArray coordinates) {
+		if (coordinates == null || coordinates.length() < 2) {
+			LOGGER.log(Level.SEVERE, "TopoJSON contains empty Point coordinates.");
+			return null;
+		}
+		double x = coordinates.optDouble(0);
+		double y = coordinates.optDouble(1);
+		if (this.scale != null) {
+			x = x * this.scale[0] + this.translate[0];
+			y = y * this.scale[1] + this.translate[1];
+		}
+		return new Point2D.Double(x, y);
+	}
+}
@@ -94,6 +94,7 @@ public class VectorRasterGraphics2D extends Graphics2D {
 	private Rectangle2D drawingArea;
 
 	private boolean crop;
+	private ShapeSimplifier simplifier;
 
 	private String currentLayerName = null;
 	private int layerCounter = 0;
@@ -125,6 +126,7 @@ public class VectorRasterGraphics2D extends Graphics2D {
 
 	private VectorRasterGraphics2D(VectorRasterGraphics2D parent) {
 		this.crop = parent.crop;
+		this.simplifier = parent.simplifier;
 
 		if (parent.g2d != null) {
 			this.g2d = (Graphics2D)parent.g2d.create();
@@ -202,6 +204,26 @@ public class VectorRasterGraphics2D extends Graphics2D {
 		return this.crop;
 	}
 
+	/**
+	 * Simplify the shapes before drawing them, to remove the details
+	 * which are smaller than the simplifier tolerance (in device pixels).
+	 * Set to null to disable the simplification (default).
+	 */
+	public void setSimplifier(ShapeSimplifier simplifier) {
+		this.simplifier = simplifier;
+	}
+
+	public ShapeSimplifier getSimplifier() {
+		return this.simplifier;
+	}
+
+	private Shape simplifyShape(Shape shape) {
+		if (this.simplifier == null) {
+			return shape;
+		}
+		return this.simplifier.simplify(shape, this.getTransform());
+	}
+
 	/**
 	 * Crop shape to drawing area, if it's too large.
 	 *
@@ -213,26 +235,30 @@ public class VectorRasterGraphics2D extends Graphics2D {
 			return shape;
 		}
 
-		Shape croppedShape = null;
+		// Bounds, closed, etc. calculated once per shape instance
+		ShapeMetadata metadata = ShapeMetadata.of(shape);
 
 		// Shape is completely outside the drawing area - do not render
-		if (shape.intersects(this.drawingArea)) {
-			boolean isOpenPath = (shape instanceof Path2D) && !Layers2SVGUtils.isClosed(shape);
-
-			// Check if the shape goes outside the drawing area.
-			// If it does, crop it.
-			if (!this.drawingArea.contains(shape.getBounds())) {
-				if (isOpenPath) {
-					croppedShape = Layers2SVGUtils.cropOpenShape(shape, this.drawingArea);
-				} else {
-					croppedShape = new Area(shape);
-					((Area)croppedShape).intersect(new Area(this.drawingArea));
-				}
-			} else {
-				croppedShape = shape;
-			}
+		if (!metadata.boundsIntersect(this.drawingArea)) {
+			return null;
+		}
+
+		// Shape is completely inside the drawing area - no need to crop it
+		if (metadata.isInside(this.drawingArea)) {
+			return shape;
 		}
 
+		// The shape goes outside the drawing area: crop it, unless it's completely outside
+		if (!shape.intersects(this.drawingArea)) {
+			return null;
+		}
+
+		boolean isOpenPath = (shape instanceof PackedPath || shape instanceof Path2D) && !metadata.isClosed();
+		if (isOpenPath) {
+			return Layers2SVGUtils.cropOpenShape(shape, this.drawingArea);
+		}
+		Area croppedShape = new Area(shape);
+		croppedShape.intersect(new Area(this.drawingArea));
 		return croppedShape;
 	}
 
@@ -297,7 +323,7 @@ public class VectorRasterGraphics2D extends Graphics2D {
 	 * Inspired from org.jfree.graphics2d.svg.SVGGraphics2D
 	 */
 	public void fillAndStroke(Shape shape, Paint strokePaint) {
-		shape = this.cropShape(shape);
+		shape = this.cropShape(this.simplifyShape(shape));
 		if (shape != null) {
 			this.checkLayer();
 			if (this.g2d != null) {
@@ -549,7 +575,7 @@ public class VectorRasterGraphics2D extends Graphics2D {
 	@Override
 	public void draw(Shape shape) {
 		this.checkLayer();
-		shape = this.cropShape(shape);
+		shape = this.cropShape(this.simplifyShape(shape));
 		if (shape != null) {
 			if (this.g2d != null) {
 				this.g2d.draw(shape);
@@ -852,7 +878,7 @@ public class VectorRasterGraphics2D extends Graphics2D {
 	@Override
 	public void fill(Shape shape) {
 		this.checkLayer();
-		shape = this.cropShape(shape);
+		shape = this.cropShape(this.simplifyShape(shape));
 		if (shape != null) {
 			if (this.g2d != null) {
 				this.g2d.fill(shape);
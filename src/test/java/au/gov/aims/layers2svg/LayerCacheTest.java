@@ -0,0 +1,156 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg;
+
+import au.gov.aims.sld.geom.GeoShapeGroup;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class LayerCacheTest {
+	private static final String TMP_FOLDER = "/tmp/layerCache/";
+	private static final String MAINLAND_LAYER = "layers/GBR_GBRMPA_GBR-features_Mainland_300m.geojson";
+	private static final String BOUNDS_LAYER = "layers/GBR_e-Atlas-GBRMPA_GBRMP-bounds_Ocean-bounds.geojson";
+	private static final String CSV_LAYER = "layers/World_NE_10m-cities_V3_Ranked.csv";
+
+	@BeforeClass
+	public static void init() throws IOException {
+		TestUtils.copyResourceToDisk(MAINLAND_LAYER, new File(TMP_FOLDER + MAINLAND_LAYER));
+		TestUtils.copyResourceToDisk(BOUNDS_LAYER, new File(TMP_FOLDER + BOUNDS_LAYER));
+		TestUtils.copyResourceToDisk(CSV_LAYER, new File(TMP_FOLDER + CSV_LAYER));
+	}
+
+	@AfterClass
+	public static void cleanup() throws IOException {
+		new File(TMP_FOLDER + MAINLAND_LAYER).delete();
+		new File(TMP_FOLDER + BOUNDS_LAYER).delete();
+		new File(TMP_FOLDER + CSV_LAYER).delete();
+	}
+
+	@Test
+	public void testCacheHit() throws Exception {
+		LayerCache cache = new LayerCache(LayerCache.DEFAULT_MAX_WEIGHT);
+
+		GeoShapeGroup mainland = cache.get(LayerSource.geoJson(new File(TMP_FOLDER + MAINLAND_LAYER), "Mainland"));
+		GeoShapeGroup cities = cache.get(LayerSource.csv(new File(TMP_FOLDER + CSV_LAYER), "Cities", "LONGITUDE", "LATITUDE"));
+
+		Assert.assertEquals("Wrong number of cached layers", 2, cache.size());
+		Assert.assertEquals("Wrong cache weight",
+				LayerCache.estimateWeight(mainland) + LayerCache.estimateWeight(cities), cache.getWeight());
+
+		Assert.assertSame("The mainland layer was parsed again",
+				mainland, cache.get(LayerSource.geoJson(new File(TMP_FOLDER + MAINLAND_LAYER), "Mainland")));
+		Assert.assertSame("The cities layer was parsed again",
+				cities, cache.get(LayerSource.csv(new File(TMP_FOLDER + CSV_LAYER), "Cities", "LONGITUDE", "LATITUDE")));
+
+		// Different parse options
+		Assert.assertNotSame("The layer was not parsed with its own name",
+				mainland, cache.get(LayerSource.geoJson(new File(TMP_FOLDER + MAINLAND_LAYER), "Other name")));
+
+		// Both layers of the file are cached
+		Assert.assertEquals("Wrong number of cached layers", 3, cache.size());
+		Assert.assertSame("The mainland layer was removed by the layer with other options",
+				mainland, cache.get(LayerSource.geoJson(new File(TMP_FOLDER + MAINLAND_LAYER), "Mainland")));
+	}
+
+	@Test
+	public void testModifiedFile() throws Exception {
+		LayerCache cache = new LayerCache(LayerCache.DEFAULT_MAX_WEIGHT);
+		File boundsFile = new File(TMP_FOLDER + BOUNDS_LAYER);
+
+		GeoShapeGroup bounds = cache.get(LayerSource.geoJson(boundsFile, "Bounds"));
+
+		Assert.assertTrue("Can not change the file last modified date",
+				boundsFile.setLastModified(boundsFile.lastModified() - 60000));
+
+		GeoShapeGroup modifiedBounds = cache.get(LayerSource.geoJson(boundsFile, "Bounds"));
+		Assert.assertNotSame("The modified file was not parsed again", bounds, modifiedBounds);
+		Assert.assertEquals("The previous version of the file is still in the cache", 1, cache.size());
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		File mainlandFile = new File(TMP_FOLDER + MAINLAND_LAYER);
+		File boundsFile = new File(TMP_FOLDER + BOUNDS_LAYER);
+
+		long mainlandWeight = LayerCache.estimateWeight(LayerSource.geoJson(mainlandFile, "Mainland").parse());
+		long boundsWeight = LayerCache.estimateWeight(LayerSource.geoJson(boundsFile, "Bounds").parse());
+
+		// Room for one layer only
+		LayerCache cache = new LayerCache(Math.max(mainlandWeight, boundsWeight));
+
+		GeoShapeGroup mainland = cache.get(LayerSource.geoJson(mainlandFile, "Mainland"));
+		GeoShapeGroup bounds = cache.get(LayerSource.geoJson(boundsFile, "Bounds"));
+		Assert.assertEquals("Wrong number of cached layers", 1, cache.size());
+		Assert.assertEquals("Wrong cache weight", boundsWeight, cache.getWeight());
+
+		Assert.assertSame("The most recent layer was evicted",
+				bounds, cache.get(LayerSource.geoJson(boundsFile, "Bounds")));
+		Assert.assertNotSame("The least recently used layer was not evicted",
+				mainland, cache.get(LayerSource.geoJson(mainlandFile, "Mainland")));
+
+		cache.setMaxWeight(0);
+		Assert.assertEquals("The cache is not empty", 0, cache.size());
+		Assert.assertEquals("The cache weight is not 0", 0, cache.getWeight());
+	}
+
+	@Test
+	public void testOversizedLayer() throws Exception {
+		File mainlandFile = new File(TMP_FOLDER + MAINLAND_LAYER);
+		File boundsFile = new File(TMP_FOLDER + BOUNDS_LAYER);
+
+		long mainlandWeight = LayerCache.estimateWeight(LayerSource.geoJson(mainlandFile, "Mainland").parse());
+		long boundsWeight = LayerCache.estimateWeight(LayerSource.geoJson(boundsFile, "Bounds").parse());
+		Assert.assertTrue("The test needs layers of different sizes", mainlandWeight != boundsWeight);
+
+		// Room for the smallest layer only
+		File smallFile = mainlandWeight < boundsWeight ? mainlandFile : boundsFile;
+		File largeFile = mainlandWeight < boundsWeight ? boundsFile : mainlandFile;
+		LayerCache cache = new LayerCache(Math.min(mainlandWeight, boundsWeight));
+
+		GeoShapeGroup small = cache.get(LayerSource.geoJson(smallFile, "Small"));
+		GeoShapeGroup large = cache.get(LayerSource.geoJson(largeFile, "Large"));
+		Assert.assertNotNull("The large layer was not returned", large);
+		Assert.assertFalse("The large layer was not parsed", large.getGeoShapes().isEmpty());
+
+		Assert.assertEquals("Wrong number of cached layers", 1, cache.size());
+		Assert.assertEquals("Wrong cache weight", Math.min(mainlandWeight, boundsWeight), cache.getWeight());
+		Assert.assertSame("The small layer was evicted by a layer too large for the cache",
+				small, cache.get(LayerSource.geoJson(smallFile, "Small")));
+	}
+
+	@Test
+	public void testSoftReferences() throws Exception {
+		File boundsFile = new File(TMP_FOLDER + BOUNDS_LAYER);
+
+		LayerCache cache = new LayerCache(0);
+		cache.setSoftReferencesEnabled(true);
+
+		GeoShapeGroup bounds = cache.get(LayerSource.geoJson(boundsFile, "Bounds"));
+		Assert.assertEquals("The layer is over budget but was kept in the cache", 0, cache.size());
+
+		// The strong reference held by the test prevents the garbage collector from reclaiming the layer
+		Assert.assertSame("The evicted layer was not kept as a soft reference",
+				bounds, cache.get(LayerSource.geoJson(boundsFile, "Bounds")));
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg;
+
+import au.gov.aims.sld.geom.GeoShapeGroup;
+import au.gov.aims.sld.geom.Layer;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LayerLoaderTest {
+	private static final String TMP_FOLDER = "/tmp/layerLoader/";
+
+	private static final String[] GEOJSON_LAYERS = {
+		"layers/GBR_GBRMPA_GBR-features_Mainland_300m.geojson",
+		"layers/AU_GA_River-basins-1997_GBR-catchments.geojson",
+		"layers/GBR_e-Atlas-GBRMPA_GBRMP-bounds_Ocean-bounds.geojson",
+		"layers/GBR_NERP-TE-13-1_eAtlas-NE_10m-GBR-cities.geojson"
+	};
+	private static final String CSV_LAYER = "layers/World_NE_10m-cities_V3_Ranked.csv";
+
+	@BeforeClass
+	public static void init() throws IOException {
+		for (String layer : GEOJSON_LAYERS) {
+			TestUtils.copyResourceToDisk(layer, new File(TMP_FOLDER + layer));
+		}
+		TestUtils.copyResourceToDisk(CSV_LAYER, new File(TMP_FOLDER + CSV_LAYER));
+	}
+
+	@AfterClass
+	public static void cleanup() throws IOException {
+		for (String layer : GEOJSON_LAYERS) {
+			new File(TMP_FOLDER + layer).delete();
+		}
+		new File(TMP_FOLDER + CSV_LAYER).delete();
+	}
+
+	@Test
+	public void testLoad() throws Exception {
+		List<LayerSource> sources = new ArrayList<LayerSource>();
+		for (int i=0; i<GEOJSON_LAYERS.length; i++) {
+			sources.add(LayerSource.geoJson(new File(TMP_FOLDER + GEOJSON_LAYERS[i]), "Layer " + i));
+		}
+		sources.add(LayerSource.csv(new File(TMP_FOLDER + CSV_LAYER), "Cities", "LONGITUDE", "LATITUDE"));
+
+		LayerLoader loader = new LayerLoader(3);
+		List<Layer> layers;
+		try {
+			layers = loader.load(sources);
+		} finally {
+			loader.shutdown();
+		}
+
+		Assert.assertEquals("Wrong number of layers", sources.size(), layers.size());
+		for (int i=0; i<sources.size(); i++) {
+			LayerSource source = sources.get(i);
+			Layer layer = layers.get(i);
+			Assert.assertEquals("Layers are not in the same order as the sources", source.getName(), layer.getName());
+
+			// Compare with the layer parsed in the current thread
+			GeoShapeGroup expected = source.parse();
+			List<GeoShapeGroup> groups = layer.getShapeGroups();
+			Assert.assertEquals("Wrong number of shape group in layer " + source.getName(), 1, groups.size());
+			GeoShapeGroup actual = groups.get(0);
+			Assert.assertEquals("Wrong number of shapes in layer " + source.getName(),
+					expected.getGeoShapes().size(), actual.getGeoShapes().size());
+			Assert.assertEquals("Wrong number of sub groups in layer " + source.getName(),
+					expected.getGeoShapeGroups().size(), actual.getGeoShapeGroups().size());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testLoadMissingFile() throws Exception {
+		List<LayerSource> sources = new ArrayList<LayerSource>();
+		sources.add(LayerSource.geoJson(new File(TMP_FOLDER + GEOJSON_LAYERS[0]), "Mainland"));
+		sources.add(LayerSource.geoJson(new File(TMP_FOLDER + "missing.geojson"), "Missing"));
+
+		LayerLoader loader = new LayerLoader(2);
+		try {
+			loader.load(sources);
+		} finally {
+			loader.shutdown();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg;
+
+import au.gov.aims.sld.geom.GeoShapeGroup;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+public class LayerWatcherTest {
+	private static final String TMP_FOLDER = "/tmp/layerWatcher/";
+	private static final String BOUNDS_LAYER = "layers/GBR_e-Atlas-GBRMPA_GBRMP-bounds_Ocean-bounds.geojson";
+	private static final String POLY_HOLE_LAYER = "layers/polyHole.geojson";
+
+	private static final long TIMEOUT = 30000;
+
+	@Test
+	public void testReload() throws Exception {
+		File layerFile = new File(TMP_FOLDER + "layer.geojson");
+		TestUtils.copyResourceToDisk(BOUNDS_LAYER, layerFile);
+
+		LayerWatcher watcher = new LayerWatcher(layerFile.getParentFile());
+		try {
+			watcher.setDebounceDelay(100);
+			LayerWatcher.WatchedLayer watchedLayer = watcher.watch(LayerSource.geoJson(layerFile, "Layer"));
+			watcher.start();
+
+			GeoShapeGroup bounds = watchedLayer.getGroup();
+			File polyHoleFile = new File(TMP_FOLDER + POLY_HOLE_LAYER);
+			TestUtils.copyResourceToDisk(POLY_HOLE_LAYER, polyHoleFile);
+			GeoShapeGroup expectedPolyHole = LayerSource.geoJson(polyHoleFile, "Layer").parse();
+
+			// Invalid file: the last loaded shapes are kept
+			this.writeFile(layerFile, "{ \"type\": \"FeatureCollection\", \"features\": [");
+			this.waitForReloadAttempts(watchedLayer, 1, TIMEOUT);
+			Assert.assertTrue("The invalid file was not reloaded", watchedLayer.getReloadAttempts() >= 1);
+			Assert.assertEquals("The layer was reloaded from an invalid file", 0, watchedLayer.getVersion());
+			Assert.assertSame("The shapes were replaced by an invalid file", bounds, watchedLayer.getGroup());
+
+			// Replace the file
+			TestUtils.copyResourceToDisk(POLY_HOLE_LAYER, layerFile);
+			this.waitForVersion(watchedLayer, 1, TIMEOUT);
+			Assert.assertEquals("The layer was not reloaded", 1, watchedLayer.getVersion());
+
+			GeoShapeGroup polyHole = watchedLayer.getGroup();
+			Assert.assertNotSame("The shapes were not replaced", bounds, polyHole);
+			Assert.assertEquals("Wrong number of reloaded shapes",
+					expectedPolyHole.getGeoShapes().size(), polyHole.getGeoShapes().size());
+			Assert.assertEquals("Wrong layer name", "Layer", watchedLayer.getLayer().getName());
+		} finally {
+			watcher.close();
+			layerFile.delete();
+		}
+	}
+
+	@Test
+	public void testTruncatedFile() throws Exception {
+		File layerFile = new File(TMP_FOLDER + "truncated.geojson");
+		TestUtils.copyResourceToDisk(POLY_HOLE_LAYER, layerFile);
+
+		LayerWatcher watcher = new LayerWatcher(layerFile.getParentFile());
+		try {
+			watcher.setDebounceDelay(100);
+			LayerWatcher.WatchedLayer watchedLayer = watcher.watch(LayerSource.geoJson(layerFile, "Layer"));
+			watcher.start();
+
+			GeoShapeGroup polyHole = watchedLayer.getGroup();
+			Assert.assertFalse("The layer has no shapes", polyHole.getGeoShapes().isEmpty());
+
+			// Empty file, as when it's about to be copied again: the last loaded shapes are kept
+			this.writeFile(layerFile, "");
+			this.waitForReloadAttempts(watchedLayer, 1, TIMEOUT);
+			Assert.assertTrue("The empty file was not reloaded", watchedLayer.getReloadAttempts() >= 1);
+			Assert.assertEquals("The layer was reloaded from an empty file", 0, watchedLayer.getVersion());
+			Assert.assertSame("The shapes were replaced by an empty file", polyHole, watchedLayer.getGroup());
+		} finally {
+			watcher.close();
+			layerFile.delete();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testFileOutsideDirectory() throws Exception {
+		File directory = new File(TMP_FOLDER + "layers");
+		directory.mkdirs();
+		LayerWatcher watcher = new LayerWatcher(directory);
+		try {
+			watcher.watch(LayerSource.geoJson(new File(TMP_FOLDER + "layer.geojson"), "Layer"));
+		} finally {
+			watcher.close();
+		}
+	}
+
+	private void waitForVersion(LayerWatcher.WatchedLayer watchedLayer, long version, long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (watchedLayer.getVersion() < version && System.currentTimeMillis() < end) {
+			Thread.sleep(50);
+		}
+	}
+
+	private void waitForReloadAttempts(LayerWatcher.WatchedLayer watchedLayer, long reloadAttempts, long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (watchedLayer.getReloadAttempts() < reloadAttempts && System.currentTimeMillis() < end) {
+			Thread.sleep(50);
+		}
+	}
+
+	private void writeFile(File file, String content) throws IOException {
+		OutputStream outputStream = new FileOutputStream(file);
+		try {
+			outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+		} finally {
+			outputStream.close();
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class Layers2SVGUtilsTest {
+	private static final double EPSILON = 0.000000001;
+
+	private static final Rectangle2D CROPPING_AREA = new Rectangle2D.Double(0, 0, 100, 50);
+
+	@Test
+	public void testCropOpenShapeCrossing() {
+		Path2D.Double line = new Path2D.Double();
+		line.moveTo(-50, 25);
+		line.lineTo(150, 25);
+
+		this.assertSegments(Layers2SVGUtils.cropOpenShape(line, CROPPING_AREA),
+				new double[][] { { 0, 25, 100, 25 } });
+	}
+
+	@Test
+	public void testCropOpenShapeVisibleRuns() {
+		// Zigzag, going in and out of the cropping area
+		Path2D.Double line = new Path2D.Double();
+		line.moveTo(10, 10);
+		line.lineTo(30, 10);
+		line.lineTo(30, 70);
+		line.lineTo(60, 70);
+		line.lineTo(60, 40);
+		line.lineTo(80, 40);
+		// Second line, only touching a corner
+		line.moveTo(90, 60);
+		line.lineTo(110, 40);
+
+		this.assertSegments(Layers2SVGUtils.cropOpenShape(line, CROPPING_AREA),
+				new double[][] {
+					{ 10, 10, 30, 10, 30, 50 },
+					{ 60, 50, 60, 40, 80, 40 }
+				});
+	}
+
+	@Test
+	public void testCropOpenShapeOutside() {
+		Path2D.Double line = new Path2D.Double();
+		line.moveTo(-10, -10);
+		line.lineTo(200, -10);
+		line.lineTo(200, 200);
+
+		Assert.assertNull("The line is outside the cropping area", Layers2SVGUtils.cropOpenShape(line, CROPPING_AREA));
+	}
+
+	@Test
+	public void testCropOpenShapeCurve() {
+		Path2D.Double curve = new Path2D.Double();
+		curve.moveTo(-20, 40);
+		curve.quadTo(50, -60, 120, 40);
+
+		Shape croppedCurve = Layers2SVGUtils.cropOpenShape(curve, CROPPING_AREA);
+		Assert.assertNotNull("The curve crosses the cropping area", croppedCurve);
+		List<double[]> lines = this.getLines(croppedCurve);
+		Assert.assertEquals("Wrong number of lines", 2, lines.size());
+		for (double[] points : lines) {
+			Assert.assertTrue("Line too short", points.length >= 4);
+			for (int i=0; i<points.length; i+=2) {
+				Assert.assertTrue("Point outside the cropping area",
+						points[i] >= 0 && points[i] <= 100 && points[i+1] >= 0 && points[i+1] <= 50);
+			}
+		}
+	}
+
+	@Test
+	public void testSLDPropertyNames() throws Exception {
+		String sld = "<StyledLayerDescriptor xmlns=\"http://www.opengis.net/sld\" xmlns:ogc=\"http://www.opengis.net/ogc\">" +
+				"<ogc:PropertyName>NAME</ogc:PropertyName><ogc:PropertyName> RANK </ogc:PropertyName></StyledLayerDescriptor>";
+		Set<String> propertyNames = Layers2SVGUtils.getSLDPropertyNames(new ByteArrayInputStream(sld.getBytes(StandardCharsets.UTF_8)));
+		Assert.assertEquals("Wrong property names", new HashSet<String>(Arrays.asList("NAME", "RANK")), propertyNames);
+	}
+
+	@Test(expected = IOException.class)
+	public void testSLDPropertyNamesExternalEntity() throws Exception {
+		File secretFile = File.createTempFile("secret", ".txt");
+		try {
+			String sld = "<?xml version=\"1.0\"?>" +
+					"<!DOCTYPE StyledLayerDescriptor [<!ENTITY secret SYSTEM \"" + secretFile.toURI() + "\">]>" +
+					"<StyledLayerDescriptor xmlns:ogc=\"http://www.opengis.net/ogc\">" +
+					"<ogc:PropertyName>&secret;</ogc:PropertyName></StyledLayerDescriptor>";
+			Layers2SVGUtils.getSLDPropertyNames(new ByteArrayInputStream(sld.getBytes(StandardCharsets.UTF_8)));
+		} finally {
+			secretFile.delete();
+		}
+	}
+
+	private void assertSegments(Shape shape, double[][] expectedLines) {
+		Assert.assertNotNull("The shape is outside the cropping area", shape);
+		List<double[]> lines = this.getLines(shape);
+		Assert.assertEquals("Wrong number of lines", expectedLines.length, lines.size());
+		for (int i=0; i<expectedLines.length; i++) {
+			Assert.assertArrayEquals("Wrong line " + i, expectedLines[i], lines.get(i), EPSILON);
+		}
+	}
+
+	private List<double[]> getLines(Shape shape) {
+		List<double[]> lines = new ArrayList<double[]>();
+		List<Double> points = null;
+		double[] coords = new double[6];
+		PathIterator iterator = shape.getPathIterator(null);
+		while (!iterator.isDone()) {
+			int type = iterator.currentSegment(coords);
+			Assert.assertTrue("Unexpected segment type " + type,
+					type == PathIterator.SEG_MOVETO || type == PathIterator.SEG_LINETO);
+			if (type == PathIterator.SEG_MOVETO) {
+				if (points != null) {
+					lines.add(this.toArray(points));
+				}
+				points = new ArrayList<Double>();
+			}
+			points.add(coords[0]);
+			points.add(coords[1]);
+			iterator.next();
+		}
+		if (points != null) {
+			lines.add(this.toArray(points));
+		}
+		return lines;
+	}
+
+	private double[] toArray(List<Double> values) {
+		double[] array = new double[values.size()];
+		for (int i=0; i<array.length; i++) {
+			array[i] = values.get(i);
+		}
+		return array;
+	}
+}
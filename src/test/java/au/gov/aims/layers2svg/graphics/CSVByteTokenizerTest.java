@@ -0,0 +1,134 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVStrategy;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CSVByteTokenizerTest {
+
+	@Test
+	public void testTokenizer() throws Exception {
+		String csv = "NAME,LONGITUDE,LATITUDE,DESCRIPTION\r\n" +
+				"Cairns, 145.77 ,-16.92,\"Tropical \"\"north\"\"\"\r\n" +
+				"\r\n" +
+				"  \"Port Douglas\"  ,145.46,-16.48,\"Multi\nline, with comma\"\n" +
+				"Short,145.25\n" +
+				"Pétionville,-72.28,18.51,\n" +
+				"Last,1,2,end";
+
+		CSVStrategy[] csvStrategies = {
+			CSVStrategy.DEFAULT_STRATEGY,
+			CSVStrategy.EXCEL_STRATEGY
+		};
+		for (CSVStrategy csvStrategy : csvStrategies) {
+			List<String[]> expected = new ArrayList<String[]>();
+			CSVParser csvParser = new CSVParser(new StringReader(csv), csvStrategy);
+			String[] line;
+			while ((line = csvParser.getLine()) != null) {
+				expected.add(line);
+			}
+
+			List<String[]> actual = this.tokenize(csv, csvStrategy);
+			Assert.assertEquals("Wrong number of records", expected.size(), actual.size());
+			for (int i=0; i<expected.size(); i++) {
+				Assert.assertArrayEquals("Wrong record " + i, expected.get(i), actual.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testNumbers() throws Exception {
+		byte[] bytes = "1.5,\"-2.25\",abc,,1e3".getBytes(StandardCharsets.UTF_8);
+		CSVByteTokenizer tokenizer = new CSVByteTokenizer(ByteBuffer.wrap(bytes), 0, bytes.length,
+				StandardCharsets.UTF_8, CSVStrategy.DEFAULT_STRATEGY);
+
+		Assert.assertTrue("Record not found", tokenizer.nextRecord());
+		Assert.assertEquals("Wrong number of values", 5, tokenizer.getValueCount());
+		Assert.assertEquals("Wrong number", 1.5, tokenizer.parseDouble(0), 0);
+		Assert.assertEquals("Wrong quoted number", -2.25, tokenizer.parseDecimal(1), 0);
+		Assert.assertTrue("A string was parsed as a number", Double.isNaN(tokenizer.parseDecimal(2)));
+		Assert.assertTrue("Empty value", tokenizer.isEmpty(3));
+		Assert.assertEquals("Wrong number with exponent", 1000, tokenizer.parseDouble(4), 0);
+		Assert.assertTrue("Missing value", tokenizer.isEmpty(5));
+		Assert.assertNull("Missing value", tokenizer.getString(5));
+		Assert.assertFalse("Unexpected record", tokenizer.nextRecord());
+	}
+
+	@Test
+	public void testPartialRecords() throws Exception {
+		byte[] bytes = ("Cairns,145.77,-16.92,\"Multi\nline, with comma\"\n" +
+				"Mareeba,145.42,-17.0,Tablelands\n" +
+				"Short\n" +
+				"Cooktown,145.25,-15.47,end").getBytes(StandardCharsets.UTF_8);
+		CSVByteTokenizer tokenizer = new CSVByteTokenizer(ByteBuffer.wrap(bytes), 0, bytes.length,
+				StandardCharsets.UTF_8, CSVStrategy.DEFAULT_STRATEGY);
+
+		// The end of the record is skipped, including the quoted line feed
+		Assert.assertTrue("Record not found", tokenizer.nextRecord(2));
+		Assert.assertEquals("Wrong number of values", 2, tokenizer.getValueCount());
+		Assert.assertEquals("Wrong longitude", 145.77, tokenizer.parseDouble(1), 0);
+		Assert.assertTrue("Value read too early", tokenizer.isEmpty(2));
+
+		Assert.assertTrue("Record not found", tokenizer.nextRecord(2));
+		Assert.assertEquals("Wrong name", "Mareeba", tokenizer.getString(0));
+		tokenizer.readRecord();
+		Assert.assertEquals("Wrong number of values", 4, tokenizer.getValueCount());
+		Assert.assertEquals("Wrong description", "Tablelands", tokenizer.getString(3));
+
+		Assert.assertTrue("Record not found", tokenizer.nextRecord(2));
+		Assert.assertEquals("Wrong number of values", 1, tokenizer.getValueCount());
+		tokenizer.readRecord();
+		Assert.assertEquals("Wrong number of values", 1, tokenizer.getValueCount());
+
+		Assert.assertTrue("Record not found", tokenizer.nextRecord(2));
+		Assert.assertEquals("Wrong name", "Cooktown", tokenizer.getString(0));
+		Assert.assertFalse("Unexpected record", tokenizer.nextRecord(2));
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnclosedQuote() throws Exception {
+		this.tokenize("NAME,DESCRIPTION\nCairns,\"Unclosed\n", CSVStrategy.DEFAULT_STRATEGY);
+	}
+
+	private List<String[]> tokenize(String csv, CSVStrategy csvStrategy) throws IOException {
+		byte[] bytes = csv.getBytes(StandardCharsets.UTF_8);
+		CSVByteTokenizer tokenizer = new CSVByteTokenizer(ByteBuffer.wrap(bytes), 0, bytes.length,
+				StandardCharsets.UTF_8, csvStrategy);
+
+		List<String[]> records = new ArrayList<String[]>();
+		while (tokenizer.nextRecord()) {
+			String[] record = new String[tokenizer.getValueCount()];
+			for (int i=0; i<record.length; i++) {
+				record[i] = tokenizer.getString(i);
+			}
+			records.add(record);
+		}
+		return records;
+	}
+}
@@ -18,20 +18,32 @@
  */
 package au.gov.aims.layers2svg.graphics;
 
+import au.gov.aims.layers2svg.Layers2SVGUtils;
 import au.gov.aims.layers2svg.TestUtils;
 import au.gov.aims.sld.PropertyValue;
 import au.gov.aims.sld.geom.GeoShape;
 import au.gov.aims.sld.geom.GeoShapeGroup;
+import org.apache.commons.csv.CSVStrategy;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
 
 public class CSVShapeTest {
@@ -153,6 +165,469 @@ public class CSVShapeTest {
 		}
 	}
 
+	@Test
+	public void testCSVParserPropertyNames() throws Exception {
+		File csvFile = new File("/tmp/" + LAYER_CSV_FILE);
+		CSVShape csvShape = new CSVShape(csvFile, "Cities", "LONGITUDE", "LATITUDE");
+		csvShape.setPropertyNames(new HashSet<String>(Arrays.asList("NAME", "SCALERANK", "UNKNOWN")));
+		csvShape.parse();
+
+		List<GeoShape> shapes = csvShape.getGeoShapes();
+		Assert.assertTrue("No shape were found in the CSV Shape.", shapes != null && !shapes.isEmpty());
+		for (GeoShape shape : shapes) {
+			Map<String, PropertyValue> properties = shape.getProperties();
+			Assert.assertEquals("Wrong properties", new HashSet<String>(Arrays.asList("NAME", "SCALERANK")), properties.keySet());
+			if ("Cooktown".equals(properties.get("NAME").getStringValue())) {
+				Assert.assertEquals("Wrong SCALERANK for Cooktown", 10, properties.get("SCALERANK").getDoubleValue().intValue());
+			}
+		}
+	}
+
+	@Test
+	public void testCSVParserCache() throws Exception {
+		File csvFile = new File("/tmp/" + LAYER_CSV_FILE);
+		File cacheFile = BinaryShapeCache.getCacheFile(csvFile, "CSV\nLONGITUDE\nLATITUDE");
+		File swappedCacheFile = BinaryShapeCache.getCacheFile(csvFile, "CSV\nLATITUDE\nLONGITUDE");
+		cacheFile.delete();
+		swappedCacheFile.delete();
+
+		try {
+			CSVShape expected = new CSVShape(csvFile, "Cities", "LONGITUDE", "LATITUDE");
+			expected.setCacheEnabled(true);
+			expected.parse();
+			Assert.assertTrue("The cache file was not created", cacheFile.exists());
+
+			CSVShape cached = new CSVShape(csvFile, "Cities", "LONGITUDE", "LATITUDE");
+			cached.setCacheEnabled(true);
+			cached.parse();
+
+			List<GeoShape> expectedShapes = expected.getGeoShapes();
+			List<GeoShape> cachedShapes = cached.getGeoShapes();
+			Assert.assertEquals("Wrong number of points", expectedShapes.size(), cachedShapes.size());
+			for (int i=0; i<expectedShapes.size(); i++) {
+				Assert.assertEquals("Wrong point", expectedShapes.get(i).getShape(), cachedShapes.get(i).getShape());
+
+				Map<String, PropertyValue> expectedProperties = expectedShapes.get(i).getProperties();
+				Map<String, PropertyValue> cachedProperties = cachedShapes.get(i).getProperties();
+				Assert.assertEquals("Wrong property keys", expectedProperties.keySet(), cachedProperties.keySet());
+				for (Map.Entry<String, PropertyValue> expectedProperty : expectedProperties.entrySet()) {
+					PropertyValue cachedValue = cachedProperties.get(expectedProperty.getKey());
+					Assert.assertEquals("Wrong value for " + expectedProperty.getKey(),
+							expectedProperty.getValue().getStringValue(), cachedValue.getStringValue());
+				}
+			}
+
+			// The cache depends on the coordinate columns
+			CSVShape swapped = new CSVShape(csvFile, "Cities", "LATITUDE", "LONGITUDE");
+			Assert.assertFalse("The cache should be invalid for other columns",
+					BinaryShapeCache.load(csvFile, "CSV\nLATITUDE\nLONGITUDE", swapped));
+
+			// Other columns have their own cache file, which do not replace the first one
+			swapped.setCacheEnabled(true);
+			swapped.parse();
+			Assert.assertTrue("The cache file was not created for other columns", swappedCacheFile.exists());
+			Assert.assertTrue("The cache should still be valid",
+					BinaryShapeCache.load(csvFile, "CSV\nLONGITUDE\nLATITUDE",
+							new CSVShape(csvFile, "Cities", "LONGITUDE", "LATITUDE")));
+		} finally {
+			cacheFile.delete();
+			swappedCacheFile.delete();
+		}
+	}
+
+	@Test
+	public void testCSVParserColumnar() throws Exception {
+		File csvFile = new File("/tmp/" + LAYER_CSV_FILE);
+		CSVShape expected = new CSVShape(csvFile, "Cities", "LONGITUDE", "LATITUDE");
+		expected.parse();
+
+		CSVShape columnar = new CSVShape(csvFile, "Cities", "LONGITUDE", "LATITUDE");
+		columnar.setColumnarStorage(true);
+		columnar.parse();
+		Assert.assertFalse("The columnar CSV Shape is empty", columnar.isEmpty());
+
+		List<GeoShape> expectedShapes = expected.getGeoShapes();
+		List<GeoShape> columnarShapes = columnar.getGeoShapes();
+		this.assertSameShapes(expectedShapes, columnarShapes);
+
+		// Random access
+		int last = expectedShapes.size() - 1;
+		Assert.assertEquals("Wrong last point", expectedShapes.get(last).getShape(), columnarShapes.get(last).getShape());
+	}
+
+	@Test
+	public void testCSVParserParallel() throws Exception {
+		File csvFile = new File("/tmp/" + LAYER_CSV_FILE);
+		CSVShape expected = new CSVShape(csvFile, "Cities", "LONGITUDE", "LATITUDE");
+		expected.parse();
+
+		ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+		try {
+			for (boolean columnar : new boolean[] { false, true }) {
+				CSVShape parallel = new CSVShape(csvFile, "Cities", "LONGITUDE", "LATITUDE");
+				parallel.setForkJoinPool(forkJoinPool);
+				parallel.setColumnarStorage(columnar);
+				parallel.parse();
+				this.assertSameShapes(expected.getGeoShapes(), parallel.getGeoShapes());
+			}
+		} finally {
+			forkJoinPool.shutdown();
+		}
+	}
+
+	@Test
+	public void testCSVParserParallelQuotedLines() throws Exception {
+		File csvFile = new File("/tmp/layers/quotedLines.csv");
+		int rowCount = 30000;
+
+		OutputStream outputStream = new FileOutputStream(csvFile);
+		try {
+			StringBuilder csvContent = new StringBuilder("ID,DESCRIPTION,LONGITUDE,LATITUDE\n");
+			for (int i=0; i<rowCount; i++) {
+				csvContent.append(i).append(",\"Point ").append(i)
+						.append("\nwith \"\"quotes\"\", commas\nand line feeds\",")
+						.append(i * 0.001).append(",").append(-i * 0.0005).append("\n");
+			}
+			outputStream.write(csvContent.toString().getBytes(StandardCharsets.UTF_8));
+		} finally {
+			outputStream.close();
+		}
+
+		ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+		try {
+			CSVShape expected = new CSVShape(csvFile, "Points", "LONGITUDE", "LATITUDE");
+			expected.parse();
+			Assert.assertEquals("Wrong number of points", rowCount, expected.getGeoShapes().size());
+
+			CSVShape parallel = new CSVShape(csvFile, "Points", "LONGITUDE", "LATITUDE");
+			parallel.setForkJoinPool(forkJoinPool);
+			parallel.parse();
+			this.assertSameShapes(expected.getGeoShapes(), parallel.getGeoShapes());
+
+			Assert.assertEquals("Wrong description", "Point 12345\nwith \"quotes\", commas\nand line feeds",
+					parallel.getGeoShapes().get(12345).getProperties().get("DESCRIPTION").getStringValue());
+		} finally {
+			forkJoinPool.shutdown();
+			csvFile.delete();
+		}
+	}
+
+	@Test
+	public void testCSVParserStream() throws Exception {
+		File csvFile = new File("/tmp/" + LAYER_CSV_FILE);
+		CSVShape expected = new CSVShape(csvFile, "Cities", "LONGITUDE", "LATITUDE");
+		expected.setCharset(StandardCharsets.UTF_8);
+		expected.parse();
+
+		// UTF-16 files can not be split at the line feed bytes; they are parsed with the CSVParser
+		File utf16File = new File("/tmp/layers/cities_utf16.csv");
+		try {
+			String csvContent = Layers2SVGUtils.readFile(csvFile);
+			OutputStream outputStream = new FileOutputStream(utf16File);
+			try {
+				outputStream.write(csvContent.getBytes(StandardCharsets.UTF_16));
+			} finally {
+				outputStream.close();
+			}
+
+			CSVShape stream = new CSVShape(utf16File, "Cities", "LONGITUDE", "LATITUDE");
+			stream.setCharset(StandardCharsets.UTF_16);
+			stream.parse();
+			this.assertSameShapes(expected.getGeoShapes(), stream.getGeoShapes());
+		} finally {
+			utf16File.delete();
+		}
+	}
+
+	@Test
+	public void testCSVParserQueryWindow() throws Exception {
+		File csvFile = new File("/tmp/" + LAYER_CSV_FILE);
+		// Great Barrier Reef
+		Rectangle2D queryWindow = new Rectangle2D.Double(142, -25, 11, 15);
+
+		CSVShape all = new CSVShape(csvFile, "Cities", "LONGITUDE", "LATITUDE");
+		all.parse();
+		List<GeoShape> expectedShapes = new ArrayList<GeoShape>();
+		for (GeoShape geoShape : all.getGeoShapes()) {
+			if (queryWindow.contains((Point2D)geoShape.getShape())) {
+				expectedShapes.add(geoShape);
+			}
+		}
+		Assert.assertFalse("No city in the query window", expectedShapes.isEmpty());
+		Assert.assertTrue("All the cities are in the query window", expectedShapes.size() < all.getGeoShapes().size());
+
+		ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+		try {
+			for (boolean columnar : new boolean[] { false, true }) {
+				for (ForkJoinPool pool : new ForkJoinPool[] { null, forkJoinPool }) {
+					CSVShape filtered = new CSVShape(csvFile, "Cities", "LONGITUDE", "LATITUDE");
+					filtered.setColumnarStorage(columnar);
+					filtered.setForkJoinPool(pool);
+					filtered.parse(queryWindow);
+					this.assertSameShapes(expectedShapes, filtered.getGeoShapes());
+				}
+			}
+		} finally {
+			forkJoinPool.shutdown();
+		}
+
+		// Stream parser
+		File utf16File = new File("/tmp/layers/cities_window_utf16.csv");
+		try {
+			OutputStream outputStream = new FileOutputStream(utf16File);
+			try {
+				outputStream.write(Layers2SVGUtils.readFile(csvFile).getBytes(StandardCharsets.UTF_16));
+			} finally {
+				outputStream.close();
+			}
+
+			CSVShape stream = new CSVShape(utf16File, "Cities", "LONGITUDE", "LATITUDE");
+			stream.setCharset(StandardCharsets.UTF_16);
+			stream.parse(queryWindow);
+			this.assertSameShapes(expectedShapes, stream.getGeoShapes());
+		} finally {
+			utf16File.delete();
+		}
+	}
+
+	@Test
+	public void testCSVParserTypedColumns() throws Exception {
+		File csvFile = new File("/tmp/layers/typed.csv");
+		File utf16File = new File("/tmp/layers/typed_utf16.csv");
+		int rowCount = 3000;
+
+		// The column types are inferred from the first records; the last
+		// records contain values which do not fit in the inferred types.
+		StringBuilder csvContent = new StringBuilder("ID,VALUE,NAME,CHANGING,LONGITUDE,LATITUDE\n");
+		for (int i=0; i<rowCount; i++) {
+			String changing = String.valueOf(i);
+			if (i == 2000) {
+				changing = "1.5";
+			} else if (i == 2500) {
+				changing = "n/a";
+			} else if (i == 2600) {
+				changing = "-0";
+			}
+			csvContent.append(i).append(",").append(i * 0.25).append(",")
+					.append(i == 2800 ? "42" : "Point " + i).append(",")
+					.append(changing).append(",")
+					.append(i * 0.001).append(",").append(-i * 0.0005).append("\n");
+		}
+
+		try {
+			OutputStream outputStream = new FileOutputStream(csvFile);
+			try {
+				outputStream.write(csvContent.toString().getBytes(StandardCharsets.UTF_8));
+			} finally {
+				outputStream.close();
+			}
+			outputStream = new FileOutputStream(utf16File);
+			try {
+				outputStream.write(csvContent.toString().getBytes(StandardCharsets.UTF_16));
+			} finally {
+				outputStream.close();
+			}
+
+			// The stream parser checks every value
+			CSVShape expected = new CSVShape(utf16File, "Points", "LONGITUDE", "LATITUDE");
+			expected.setCharset(StandardCharsets.UTF_16);
+			expected.parse();
+
+			for (boolean columnar : new boolean[] { false, true }) {
+				CSVShape typed = new CSVShape(csvFile, "Points", "LONGITUDE", "LATITUDE");
+				typed.setCharset(StandardCharsets.UTF_8);
+				typed.setColumnarStorage(columnar);
+				typed.parse();
+				this.assertSameShapes(expected.getGeoShapes(), typed.getGeoShapes());
+
+				List<GeoShape> shapes = typed.getGeoShapes();
+				Assert.assertEquals("Wrong ID", 1234.0, shapes.get(1234).getProperties().get("ID").getDoubleValue(), 0);
+				Assert.assertEquals("Wrong VALUE", 308.5, shapes.get(1234).getProperties().get("VALUE").getDoubleValue(), 0);
+				Assert.assertEquals("Wrong CHANGING", 1.5, shapes.get(2000).getProperties().get("CHANGING").getDoubleValue(), 0);
+				Assert.assertEquals("Wrong CHANGING", "n/a", shapes.get(2500).getProperties().get("CHANGING").getStringValue());
+				Assert.assertTrue("Wrong NAME type", shapes.get(2800).getProperties().get("NAME").getValue() instanceof Double);
+				Assert.assertEquals("Wrong NAME", "Point 2801", shapes.get(2801).getProperties().get("NAME").getStringValue());
+			}
+		} finally {
+			csvFile.delete();
+			utf16File.delete();
+		}
+	}
+
+	@Test
+	public void testCSVParserSparseColumns() throws Exception {
+		File csvFile = new File("/tmp/layers/sparse.csv");
+		File utf16File = new File("/tmp/layers/sparse_utf16.csv");
+		int rowCount = 3000;
+
+		// Integer and decimal columns with blank values
+		StringBuilder csvContent = new StringBuilder("ID,SPARSE,DECIMAL,LONGITUDE,LATITUDE\n");
+		for (int i=0; i<rowCount; i++) {
+			csvContent.append(i).append(",")
+					.append(i % 3 == 0 ? "" : String.valueOf(i)).append(",")
+					.append(i % 5 == 0 ? "" : String.valueOf(i * 0.5)).append(",")
+					.append(i * 0.001).append(",").append(-i * 0.0005).append("\n");
+		}
+		byte[] bytes = csvContent.toString().getBytes(StandardCharsets.UTF_8);
+
+		try {
+			OutputStream outputStream = new FileOutputStream(csvFile);
+			try {
+				outputStream.write(bytes);
+			} finally {
+				outputStream.close();
+			}
+			outputStream = new FileOutputStream(utf16File);
+			try {
+				outputStream.write(csvContent.toString().getBytes(StandardCharsets.UTF_16));
+			} finally {
+				outputStream.close();
+			}
+
+			// The blank values do not change the inferred types
+			int headerEnd = csvContent.indexOf("\n") + 1;
+			CSVByteTokenizer tokenizer = new CSVByteTokenizer(ByteBuffer.wrap(bytes), headerEnd, bytes.length,
+					StandardCharsets.UTF_8, CSVStrategy.DEFAULT_STRATEGY);
+			Assert.assertArrayEquals("Wrong column types",
+					new CSVColumnType[] { CSVColumnType.INTEGER, CSVColumnType.INTEGER, CSVColumnType.NUMERIC },
+					CSVColumnType.infer(tokenizer, new int[] { 0, 1, 2 }));
+
+			// The stream parser checks every value
+			CSVShape expected = new CSVShape(utf16File, "Points", "LONGITUDE", "LATITUDE");
+			expected.setCharset(StandardCharsets.UTF_16);
+			expected.parse();
+
+			for (boolean columnar : new boolean[] { false, true }) {
+				CSVShape typed = new CSVShape(csvFile, "Points", "LONGITUDE", "LATITUDE");
+				typed.setCharset(StandardCharsets.UTF_8);
+				typed.setColumnarStorage(columnar);
+				typed.parse();
+				this.assertSameShapes(expected.getGeoShapes(), typed.getGeoShapes());
+
+				List<GeoShape> shapes = typed.getGeoShapes();
+				Assert.assertEquals("Wrong SPARSE", "", shapes.get(300).getProperties().get("SPARSE").getValue());
+				Assert.assertEquals("Wrong SPARSE", 301.0, shapes.get(301).getProperties().get("SPARSE").getDoubleValue(), 0);
+				Assert.assertEquals("Wrong DECIMAL", "", shapes.get(300).getProperties().get("DECIMAL").getValue());
+				Assert.assertEquals("Wrong DECIMAL", 150.5, shapes.get(301).getProperties().get("DECIMAL").getDoubleValue(), 0);
+			}
+		} finally {
+			csvFile.delete();
+			utf16File.delete();
+		}
+	}
+
+	@Test
+	public void testCSVParserLongHeader() throws Exception {
+		File csvFile = new File("/tmp/layers/longHeader.csv");
+		File utf16File = new File("/tmp/layers/longHeader_utf16.csv");
+		int columnCount = 2000;
+
+		// Header line longer than the sample used to choose the CSV Strategy
+		StringBuilder csvContent = new StringBuilder();
+		for (int i=0; i<columnCount; i++) {
+			csvContent.append("COLUMN_WITH_A_LONG_NAME_").append(i).append(";");
+		}
+		csvContent.append("LONGITUDE;LATITUDE\n");
+		for (int row=0; row<10; row++) {
+			for (int i=0; i<columnCount; i++) {
+				csvContent.append(row).append(";");
+			}
+			csvContent.append(145 + row * 0.1).append(";").append(-16 - row * 0.1).append("\n");
+		}
+		Assert.assertTrue("The header is not long enough for the test", csvContent.indexOf("\n") > 2 * 16 * 1024);
+
+		try {
+			OutputStream outputStream = new FileOutputStream(csvFile);
+			try {
+				outputStream.write(csvContent.toString().getBytes(StandardCharsets.UTF_8));
+			} finally {
+				outputStream.close();
+			}
+			outputStream = new FileOutputStream(utf16File);
+			try {
+				outputStream.write(csvContent.toString().getBytes(StandardCharsets.UTF_16));
+			} finally {
+				outputStream.close();
+			}
+
+			CSVShape mapped = new CSVShape(csvFile, "Points", "LONGITUDE", "LATITUDE");
+			mapped.setCharset(StandardCharsets.UTF_8);
+			mapped.parse();
+			Assert.assertEquals("Wrong number of points", 10, mapped.getGeoShapes().size());
+			Assert.assertEquals("Wrong property", 3.0,
+					mapped.getGeoShapes().get(3).getProperties().get("COLUMN_WITH_A_LONG_NAME_1999").getDoubleValue(), 0);
+
+			CSVShape stream = new CSVShape(utf16File, "Points", "LONGITUDE", "LATITUDE");
+			stream.setCharset(StandardCharsets.UTF_16);
+			stream.parse();
+			this.assertSameShapes(mapped.getGeoShapes(), stream.getGeoShapes());
+		} finally {
+			csvFile.delete();
+			utf16File.delete();
+		}
+	}
+
+	@Test
+	public void testCSVParserDialect() throws Exception {
+		File csvFile = new File("/tmp/layers/dialect.csv");
+		String[] csvContents = {
+			// LibreOffice, with byte order mark
+			"\uFEFFNAME;LONGITUDE;LATITUDE\n" +
+			"\"Cairns; QLD\";145.77;-16.92\n" +
+			"Mareeba;145.42;-17.0\n" +
+			"Cooktown;145.25;-15.47\n",
+
+			// Tab separated
+			"NAME\tLONGITUDE\tLATITUDE\n" +
+			"Cairns, QLD\t145.77\t-16.92\n" +
+			"Mareeba\t145.42\t-17.0\n" +
+			"Cooktown\t145.25\t-15.47\n"
+		};
+
+		try {
+			for (String csvContent : csvContents) {
+				OutputStream outputStream = new FileOutputStream(csvFile);
+				try {
+					outputStream.write(csvContent.replace("Cooktown", "Pétionville").getBytes(StandardCharsets.UTF_8));
+				} finally {
+					outputStream.close();
+				}
+
+				CSVShape csvShape = new CSVShape(csvFile, "Cities", "LONGITUDE", "LATITUDE");
+				csvShape.setCharset(StandardCharsets.UTF_8);
+				csvShape.parse();
+
+				List<GeoShape> shapes = csvShape.getGeoShapes();
+				Assert.assertEquals("Wrong number of points", 3, shapes.size());
+				Assert.assertEquals("Wrong name", "Cairns" + (csvContent.contains(";") ? "; QLD" : ", QLD"),
+						shapes.get(0).getProperties().get("NAME").getStringValue());
+				Assert.assertEquals("Wrong point", new Point2D.Double(145.77, -16.92), shapes.get(0).getShape());
+				Assert.assertEquals("Wrong name encoding", "Pétionville",
+						shapes.get(2).getProperties().get("NAME").getStringValue());
+			}
+		} finally {
+			csvFile.delete();
+		}
+	}
+
+	private void assertSameShapes(List<GeoShape> expectedShapes, List<GeoShape> actualShapes) {
+		Assert.assertEquals("Wrong number of points", expectedShapes.size(), actualShapes.size());
+		int index = 0;
+		for (GeoShape actualShape : actualShapes) {
+			GeoShape expectedShape = expectedShapes.get(index++);
+			Assert.assertEquals("Wrong point", expectedShape.getShape(), actualShape.getShape());
+
+			Map<String, PropertyValue> expectedProperties = expectedShape.getProperties();
+			Map<String, PropertyValue> actualProperties = actualShape.getProperties();
+			Assert.assertEquals("Wrong property keys", expectedProperties.keySet(), actualProperties.keySet());
+			for (Map.Entry<String, PropertyValue> expectedProperty : expectedProperties.entrySet()) {
+				Assert.assertEquals("Wrong value for " + expectedProperty.getKey(),
+						expectedProperty.getValue().getStringValue(),
+						actualProperties.get(expectedProperty.getKey()).getStringValue());
+			}
+		}
+	}
+
 	private void validateProperties(
 			Map<String, PropertyValue> properties,
 			double expectedLongitude,    // LONGITUDE
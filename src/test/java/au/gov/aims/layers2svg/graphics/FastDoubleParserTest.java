@@ -0,0 +1,114 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public class FastDoubleParserTest {
+
+	@Test
+	public void testEdgeCases() {
+		String[] numbers = {
+			"0", "-0", "0.0", "-0.0", "1", "-1", "+3", ".5", "5.", "146.123456", "-18.2",
+			"1e23", "1E-5", "1e+5", "9007199254740993", "18446744073709551615",
+			"7.3177701707893310e+15", "7.2057594037927933e+16",
+			"2.2250738585072014E-308", "4.9e-324", "1.7976931348623157e308", "1e309", "-1e-400",
+			"1.00000000000000011102230246251565404236316680908203125",
+			"0.000000000000000000000000000000000000000000001", "1000000000000000000000000000000"
+		};
+		for (String number : numbers) {
+			this.assertSameDouble(number);
+		}
+	}
+
+	@Test
+	public void testInvalidNumbers() {
+		String[] invalidNumbers = { "", "-", ".", "1e", "1e+", "1.2.3", "12a", "--1", "e5" };
+		for (String invalidNumber : invalidNumbers) {
+			Assert.assertTrue("Invalid decimal number should return NaN: '" + invalidNumber + "'",
+					Double.isNaN(FastDoubleParser.parseDecimal(invalidNumber)));
+			try {
+				FastDoubleParser.parseDouble(invalidNumber);
+				Assert.fail("Invalid number should throw an exception: '" + invalidNumber + "'");
+			} catch(NumberFormatException ex) {
+				// Expected
+			}
+		}
+
+		// Not decimal numbers, but accepted by Double.parseDouble
+		Assert.assertTrue("NaN is not a decimal number", Double.isNaN(FastDoubleParser.parseDecimal("Infinity")));
+		Assert.assertEquals("Wrong fallback", Double.POSITIVE_INFINITY, FastDoubleParser.parseDouble("Infinity"), 0);
+		Assert.assertEquals("Wrong fallback", 8, FastDoubleParser.parseDouble("0x1p3"), 0);
+		Assert.assertEquals("Wrong fallback", 12.5, FastDoubleParser.parseDouble(" 12.5 "), 0);
+	}
+
+	@Test
+	public void testRandomNumbers() {
+		Random random = new Random(42);
+		for (int i=0; i<200000; i++) {
+			String number;
+			switch (i % 4) {
+				case 0:
+					// Any double, with the shortest representation (up to 17 digits)
+					number = Double.toString(Double.longBitsToDouble(random.nextLong()));
+					if (number.contains("NaN") || number.contains("Infinity")) {
+						continue;
+					}
+					break;
+				case 1:
+					// Coordinates
+					number = String.valueOf(random.nextDouble() * 360 - 180);
+					break;
+				case 2:
+					// Up to 19 digits (larger than Long.MAX_VALUE) and a random exponent
+					number = Long.toUnsignedString(random.nextLong() >>> random.nextInt(64)) + "e" + (random.nextInt(700) - 350);
+					break;
+				default:
+					StringBuilder sb = new StringBuilder();
+					sb.append(random.nextInt(200) - 100).append('.');
+					int digits = random.nextInt(25);
+					for (int j=0; j<digits; j++) {
+						sb.append((char)('0' + random.nextInt(10)));
+					}
+					number = sb.toString();
+			}
+			this.assertSameDouble(number);
+		}
+	}
+
+	private void assertSameDouble(String number) {
+		long expected = Double.doubleToRawLongBits(Double.parseDouble(number));
+
+		Assert.assertEquals("Wrong value for CharSequence '" + number + "'",
+				expected, Double.doubleToRawLongBits(FastDoubleParser.parseDouble(number)));
+
+		char[] chars = ("[" + number + "]").toCharArray();
+		Assert.assertEquals("Wrong value for char[] '" + number + "'",
+				expected, Double.doubleToRawLongBits(FastDoubleParser.parseDouble(chars, 1, number.length())));
+
+		ByteBuffer buffer = ByteBuffer.wrap(("[" + number + "]").getBytes(StandardCharsets.US_ASCII));
+		Assert.assertEquals("Wrong value for ByteBuffer '" + number + "'",
+				expected, Double.doubleToRawLongBits(FastDoubleParser.parseDouble(buffer, 1, number.length())));
+	}
+}
@@ -0,0 +1,600 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import au.gov.aims.layers2svg.Layers2SVGUtils;
+import au.gov.aims.layers2svg.TestUtils;
+import au.gov.aims.sld.PropertyValue;
+import au.gov.aims.sld.geom.GeoShape;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+public class GeoJSONShapeTest {
+	private static final String[] LAYER_GEOJSON_FILES = {
+		"layers/AU_GA_River-basins-1997_GBR-catchments.geojson",
+		"layers/GBR_GBRMPA_GBR-features_Mainland_300m.geojson",
+		"layers/GBR_GBRMPA_GBR-features_Mainland_50m.geojson",
+		"layers/GBR_NERP-TE-13-1_eAtlas-NE_10m-GBR-cities.geojson",
+		"layers/GBR_e-Atlas-GBRMPA_GBRMP-bounds_Ocean-bounds.geojson",
+		"layers/polyHole.geojson"
+	};
+
+	@Test
+	public void testStreamingParser() throws Exception {
+		for (String layerFile : LAYER_GEOJSON_FILES) {
+			GeoJSONShape expected = this.parseJSONObject(layerFile);
+
+			GeoJSONShape streamed = new GeoJSONShape(layerFile);
+			InputStream inputStream = GeoJSONShapeTest.class.getClassLoader().getResourceAsStream(layerFile);
+			try {
+				streamed.parse(inputStream);
+			} finally {
+				inputStream.close();
+			}
+
+			this.assertSameShapes(layerFile, expected, streamed);
+		}
+	}
+
+	@Test
+	public void testMemoryMappedParser() throws Exception {
+		for (String layerFile : LAYER_GEOJSON_FILES) {
+			GeoJSONShape expected = this.parseJSONObject(layerFile);
+
+			File geoJsonFile = new File("/tmp/" + layerFile);
+			TestUtils.copyResourceToDisk(layerFile, geoJsonFile);
+			GeoJSONShape mapped = new GeoJSONShape(layerFile);
+			try {
+				mapped.parse(geoJsonFile);
+			} finally {
+				geoJsonFile.delete();
+			}
+
+			this.assertSameShapes(layerFile, expected, mapped);
+		}
+	}
+
+	@Test
+	public void testParallelParser() throws Exception {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (String layerFile : LAYER_GEOJSON_FILES) {
+				GeoJSONShape expected = this.parseJSONObject(layerFile);
+
+				InputStream inputStream = GeoJSONShapeTest.class.getClassLoader().getResourceAsStream(layerFile);
+				String geoJsonString = Layers2SVGUtils.readFile(inputStream);
+				inputStream.close();
+
+				GeoJSONShape parallel = new GeoJSONShape(new JSONObject(geoJsonString), layerFile);
+				parallel.setForkJoinPool(pool);
+				parallel.parse();
+				this.assertSameShapes(layerFile, expected, parallel);
+
+				File geoJsonFile = new File("/tmp/" + layerFile);
+				TestUtils.copyResourceToDisk(layerFile, geoJsonFile);
+				GeoJSONShape parallelMapped = new GeoJSONShape(layerFile);
+				parallelMapped.setForkJoinPool(pool);
+				try {
+					parallelMapped.parse(geoJsonFile);
+				} finally {
+					geoJsonFile.delete();
+				}
+				this.assertSameShapes(layerFile, expected, parallelMapped);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testBinaryCache() throws Exception {
+		for (String layerFile : LAYER_GEOJSON_FILES) {
+			GeoJSONShape expected = this.parseJSONObject(layerFile);
+
+			File geoJsonFile = new File("/tmp/" + layerFile);
+			File cacheFile = BinaryShapeCache.getCacheFile(geoJsonFile, "GeoJSON");
+			TestUtils.copyResourceToDisk(layerFile, geoJsonFile);
+			cacheFile.delete();
+			try {
+				// Parse the GeoJSON file and save the cache
+				GeoJSONShape parsed = new GeoJSONShape(layerFile);
+				parsed.setCacheEnabled(true);
+				parsed.parse(geoJsonFile);
+				Assert.assertTrue("The cache file was not created for " + layerFile, cacheFile.exists());
+				this.assertSameShapes(layerFile, expected, parsed);
+
+				// Load the cache
+				GeoJSONShape cached = new GeoJSONShape(layerFile);
+				cached.setCacheEnabled(true);
+				cached.parse(geoJsonFile);
+				this.assertSameShapes(layerFile, expected, cached);
+
+				// Same content, different date: the cache is still valid
+				Assert.assertTrue("Can not change the file date", geoJsonFile.setLastModified(geoJsonFile.lastModified() - 60000));
+				Assert.assertTrue("The cache should be valid when only the date changed for " + layerFile,
+						BinaryShapeCache.load(geoJsonFile, "GeoJSON", new GeoJSONShape(layerFile)));
+				Assert.assertEquals("The new date was not saved in the cache file for " + layerFile,
+						geoJsonFile.lastModified(), this.readCacheSourceLastModified(cacheFile));
+			} finally {
+				geoJsonFile.delete();
+				cacheFile.delete();
+			}
+		}
+	}
+
+	@Test
+	public void testBinaryCacheValueTypes() throws Exception {
+		File geoJsonFile = new File("/tmp/layers/valueTypes.geojson");
+		File cacheFile = BinaryShapeCache.getCacheFile(geoJsonFile, "GeoJSON");
+		String geoJson = "{\"type\": \"FeatureCollection\", \"features\": [" +
+				"{\"type\": \"Feature\", \"geometry\": {\"type\": \"Point\", \"coordinates\": [145.77, -16.92]}, " +
+				"\"properties\": {\"CODE\": \"123\", \"FLAG\": \"true\", \"NUMBER\": 123, \"LARGE\": 12345678901, " +
+				"\"DECIMAL\": 1.5, \"BOOLEAN\": false, \"NOTHING\": null, \"NAME\": \"Cairns\"}}]}";
+
+		Writer writer = new OutputStreamWriter(new FileOutputStream(geoJsonFile), StandardCharsets.UTF_8);
+		try {
+			writer.write(geoJson);
+		} finally {
+			writer.close();
+		}
+		cacheFile.delete();
+		try {
+			GeoJSONShape parsed = new GeoJSONShape("valueTypes");
+			parsed.setCacheEnabled(true);
+			parsed.parse(geoJsonFile);
+			Assert.assertTrue("The cache file was not created", cacheFile.exists());
+
+			GeoJSONShape cached = new GeoJSONShape("valueTypes");
+			Assert.assertTrue("The cache should be valid", BinaryShapeCache.load(geoJsonFile, "GeoJSON", cached));
+
+			Map<String, PropertyValue> expectedProperties = parsed.getGeoShapes().get(0).getProperties();
+			Map<String, PropertyValue> cachedProperties = cached.getGeoShapes().get(0).getProperties();
+			Assert.assertEquals("Wrong property keys", expectedProperties.keySet(), cachedProperties.keySet());
+			for (Map.Entry<String, PropertyValue> expectedProperty : expectedProperties.entrySet()) {
+				Assert.assertEquals("Wrong value for " + expectedProperty.getKey(),
+						expectedProperty.getValue().getValue(),
+						cachedProperties.get(expectedProperty.getKey()).getValue());
+			}
+
+			// Numeric and boolean looking strings are still strings
+			Assert.assertEquals("Wrong CODE", "123", cachedProperties.get("CODE").getValue());
+			Assert.assertEquals("Wrong FLAG", "true", cachedProperties.get("FLAG").getValue());
+			Assert.assertEquals("Wrong NUMBER", Integer.valueOf(123), cachedProperties.get("NUMBER").getValue());
+			Assert.assertEquals("Wrong BOOLEAN", Boolean.FALSE, cachedProperties.get("BOOLEAN").getValue());
+			Assert.assertSame("Wrong NOTHING", JSONObject.NULL, cachedProperties.get("NOTHING").getValue());
+		} finally {
+			geoJsonFile.delete();
+			cacheFile.delete();
+		}
+	}
+
+	@Test
+	public void testBinaryCacheSourceModified() throws Exception {
+		String layerFile = "layers/polyHole.geojson";
+		File geoJsonFile = new File("/tmp/" + layerFile);
+		File cacheFile = BinaryShapeCache.getCacheFile(geoJsonFile, "GeoJSON");
+		TestUtils.copyResourceToDisk(layerFile, geoJsonFile);
+		cacheFile.delete();
+		try {
+			BinaryShapeCache.SourceStamp sourceStamp = BinaryShapeCache.SourceStamp.of(geoJsonFile);
+			GeoJSONShape parsed = new GeoJSONShape(layerFile);
+			parsed.parse(geoJsonFile);
+
+			// The file is modified after it was parsed
+			Writer writer = new FileWriter(geoJsonFile, true);
+			try {
+				writer.write("\n");
+			} finally {
+				writer.close();
+			}
+			Assert.assertFalse("The cache should not be written",
+					BinaryShapeCache.write(geoJsonFile, sourceStamp, "GeoJSON", parsed));
+			Assert.assertFalse("The cache file should not exist", cacheFile.exists());
+		} finally {
+			geoJsonFile.delete();
+			cacheFile.delete();
+		}
+	}
+
+	@Test
+	public void testBinaryCacheConcurrentWrites() throws Exception {
+		String layerFile = "layers/GBR_NERP-TE-13-1_eAtlas-NE_10m-GBR-cities.geojson";
+		final File geoJsonFile = new File("/tmp/" + layerFile);
+		File cacheFile = BinaryShapeCache.getCacheFile(geoJsonFile, "GeoJSON");
+		TestUtils.copyResourceToDisk(layerFile, geoJsonFile);
+		cacheFile.delete();
+
+		final GeoJSONShape parsed = new GeoJSONShape(layerFile);
+		parsed.parse(geoJsonFile);
+		final BinaryShapeCache.SourceStamp sourceStamp = BinaryShapeCache.SourceStamp.of(geoJsonFile);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> writes = new ArrayList<Future<Boolean>>();
+			for (int i=0; i<8; i++) {
+				writes.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						return BinaryShapeCache.write(geoJsonFile, sourceStamp, "GeoJSON", parsed);
+					}
+				}));
+			}
+			for (Future<Boolean> write : writes) {
+				Assert.assertTrue("The cache was not written", write.get());
+			}
+
+			GeoJSONShape cached = new GeoJSONShape(layerFile);
+			Assert.assertTrue("The cache should be valid", BinaryShapeCache.load(geoJsonFile, "GeoJSON", cached));
+			this.assertSameShapes(layerFile, parsed, cached);
+
+			// The temporary files are moved or deleted
+			String[] tmpFiles = geoJsonFile.getParentFile().list(new FilenameFilter() {
+				@Override
+				public boolean accept(File dir, String name) {
+					return name.startsWith(geoJsonFile.getName()) && name.endsWith(".tmp");
+				}
+			});
+			Assert.assertEquals("Temporary cache files left behind", 0, tmpFiles.length);
+		} finally {
+			executor.shutdown();
+			geoJsonFile.delete();
+			cacheFile.delete();
+		}
+	}
+
+	@Test
+	public void testBinaryCacheInvalidation() throws Exception {
+		String layerFile = "layers/polyHole.geojson";
+		File geoJsonFile = new File("/tmp/" + layerFile);
+		File cacheFile = BinaryShapeCache.getCacheFile(geoJsonFile, "GeoJSON");
+		TestUtils.copyResourceToDisk(layerFile, geoJsonFile);
+		try {
+			GeoJSONShape parsed = new GeoJSONShape(layerFile);
+			parsed.setCacheEnabled(true);
+			parsed.parse(geoJsonFile);
+			Assert.assertTrue("The cache should be valid",
+					BinaryShapeCache.load(geoJsonFile, "GeoJSON", new GeoJSONShape(layerFile)));
+			Assert.assertFalse("The cache should be invalid for different parameters",
+					BinaryShapeCache.load(geoJsonFile, "CSV", new GeoJSONShape(layerFile)));
+
+			// Change the size of the file
+			Writer writer = new FileWriter(geoJsonFile, true);
+			try {
+				writer.write("\n");
+			} finally {
+				writer.close();
+			}
+			GeoJSONShape invalid = new GeoJSONShape(layerFile);
+			Assert.assertFalse("The cache should be invalid", BinaryShapeCache.load(geoJsonFile, "GeoJSON", invalid));
+			Assert.assertTrue("Shapes were loaded from an invalid cache", invalid.getGeoShapes().isEmpty());
+		} finally {
+			geoJsonFile.delete();
+			cacheFile.delete();
+		}
+	}
+
+	@Test
+	public void testQueryWindow() throws Exception {
+		// Around Townsville
+		Rectangle2D queryWindow = new Rectangle2D.Double(146, -20, 2, 2);
+
+		int totalShapes = 0, windowShapes = 0;
+		for (String layerFile : LAYER_GEOJSON_FILES) {
+			GeoJSONShape all = this.parseJSONObject(layerFile);
+			List<GeoShape> expectedShapes = new ArrayList<GeoShape>();
+			for (GeoShape geoShape : all.getGeoShapes()) {
+				if (this.isInWindow(geoShape.getShape(), queryWindow)) {
+					expectedShapes.add(geoShape);
+				}
+			}
+			totalShapes += all.getGeoShapes().size();
+			windowShapes += expectedShapes.size();
+
+			InputStream inputStream = GeoJSONShapeTest.class.getClassLoader().getResourceAsStream(layerFile);
+			String geoJsonString = Layers2SVGUtils.readFile(inputStream);
+			inputStream.close();
+			GeoJSONShape filtered = new GeoJSONShape(new JSONObject(geoJsonString), layerFile);
+			filtered.parse(queryWindow);
+			this.assertSameShapes(layerFile, expectedShapes, filtered.getGeoShapes());
+
+			GeoJSONShape streamed = new GeoJSONShape(layerFile);
+			streamed.parse(new StringReader(geoJsonString), queryWindow);
+			this.assertSameShapes(layerFile, expectedShapes, streamed.getGeoShapes());
+
+			File geoJsonFile = new File("/tmp/" + layerFile);
+			TestUtils.copyResourceToDisk(layerFile, geoJsonFile);
+			GeoJSONShape mapped = new GeoJSONShape(layerFile);
+			try {
+				mapped.parse(geoJsonFile, queryWindow);
+			} finally {
+				geoJsonFile.delete();
+			}
+			this.assertSameShapes(layerFile, expectedShapes, mapped.getGeoShapes());
+		}
+
+		Assert.assertTrue("No shape found in the query window", windowShapes > 0);
+		Assert.assertTrue("No shape were filtered", windowShapes < totalShapes);
+	}
+
+	@Test
+	public void testQueryWindowBBox() throws Exception {
+		// The bbox of the first feature is outside the window. Its coordinates are invalid, to make sure they are not parsed.
+		String geoJson = "{ \"type\": \"FeatureCollection\", \"features\": [ " +
+				"{ \"type\": \"Feature\", \"bbox\": [ 10, 10, 20, 20 ], \"properties\": { \"NAME\": \"outside\" }, " +
+					"\"geometry\": { \"type\": \"Point\", \"coordinates\": [ 0, 0 ] } }, " +
+				"{ \"type\": \"Feature\", \"properties\": { \"NAME\": \"inside\" }, " +
+					"\"geometry\": { \"type\": \"LineString\", \"bbox\": [ -1, -1, 0, 1, 1, 0 ], \"coordinates\": [ [ -1, -1 ], [ 1, 1 ] ] } } ] }";
+		Rectangle2D queryWindow = new Rectangle2D.Double(-5, -5, 10, 10);
+
+		GeoJSONShape filtered = new GeoJSONShape(new JSONObject(geoJson), "filtered");
+		filtered.parse(queryWindow);
+		Assert.assertEquals("Wrong number of shapes", 1, filtered.getGeoShapes().size());
+		Assert.assertEquals("Wrong shape", "inside", filtered.getGeoShapes().get(0).getProperties().get("NAME").getStringValue());
+
+		GeoJSONShape streamed = new GeoJSONShape("streamed");
+		streamed.parse(new StringReader(geoJson), queryWindow);
+		this.assertSameShapes("bbox", filtered.getGeoShapes(), streamed.getGeoShapes());
+	}
+
+	@Test
+	public void testPropertyNames() throws Exception {
+		String layerFile = "layers/GBR_GBRMPA_GBR-features_Mainland_300m.geojson";
+
+		InputStream sldInputStream = GeoJSONShapeTest.class.getClassLoader().getResourceAsStream("styles/GBR-features.sld");
+		Set<String> propertyNames;
+		try {
+			propertyNames = Layers2SVGUtils.getSLDPropertyNames(sldInputStream);
+		} finally {
+			sldInputStream.close();
+		}
+		Assert.assertTrue("FEAT_NAME not found in the SLD", propertyNames.contains("FEAT_NAME"));
+
+		GeoJSONShape all = this.parseJSONObject(layerFile);
+
+		InputStream inputStream = GeoJSONShapeTest.class.getClassLoader().getResourceAsStream(layerFile);
+		String geoJsonString = Layers2SVGUtils.readFile(inputStream);
+		inputStream.close();
+
+		GeoJSONShape filtered = new GeoJSONShape(new JSONObject(geoJsonString), layerFile);
+		filtered.setPropertyNames(propertyNames);
+		filtered.parse();
+
+		GeoJSONShape streamed = new GeoJSONShape(layerFile);
+		streamed.setPropertyNames(propertyNames);
+		streamed.parse(new StringReader(geoJsonString));
+
+		List<GeoShape> allShapes = all.getGeoShapes();
+		Assert.assertEquals("Wrong number of shapes", allShapes.size(), filtered.getGeoShapes().size());
+		Assert.assertEquals("Wrong number of streamed shapes", allShapes.size(), streamed.getGeoShapes().size());
+		boolean filteredSomething = false;
+		for (int i=0; i<allShapes.size(); i++) {
+			Map<String, PropertyValue> allProperties = allShapes.get(i).getProperties();
+			Map<String, PropertyValue> expectedProperties = new HashMap<String, PropertyValue>();
+			for (Map.Entry<String, PropertyValue> property : allProperties.entrySet()) {
+				if (propertyNames.contains(property.getKey())) {
+					expectedProperties.put(property.getKey(), property.getValue());
+				}
+			}
+			filteredSomething = filteredSomething || expectedProperties.size() < allProperties.size();
+
+			this.assertSameProperties(layerFile, expectedProperties, filtered.getGeoShapes().get(i).getProperties());
+			this.assertSameProperties(layerFile, expectedProperties, streamed.getGeoShapes().get(i).getProperties());
+		}
+		Assert.assertTrue("No property were filtered", filteredSomething);
+	}
+
+	@Test
+	public void testStreamingParserAttributeOrder() throws Exception {
+		// Properties after the geometry and geometry type after the coordinates
+		String geoJson = "{ \"features\": [ " +
+				"{ \"geometry\": { \"coordinates\": [ [ [0, 0], [10, 0], [10, 10], [0, 0] ] ], \"type\": \"Polygon\" }, " +
+				"\"properties\": { \"NAME\": \"Triangle \\\"A\\\"\", \"RANK\": 3, \"AREA\": 5.5, \"VALID\": true, \"NOTE\": null }, " +
+				"\"type\": \"Feature\" } ], " +
+				"\"type\": \"FeatureCollection\" }";
+
+		GeoJSONShape expected = new GeoJSONShape(new JSONObject(geoJson), "expected");
+		expected.parse();
+
+		GeoJSONShape streamed = new GeoJSONShape("streamed");
+		streamed.parse(new StringReader(geoJson));
+
+		this.assertSameShapes("attribute order", expected, streamed);
+		Assert.assertEquals("Wrong escaped string", "Triangle \"A\"",
+				streamed.getGeoShapes().get(0).getProperties().get("NAME").getStringValue());
+	}
+
+	@Test
+	public void testSequenceParser() throws Exception {
+		for (String layerFile : LAYER_GEOJSON_FILES) {
+			GeoJSONShape expected = this.parseJSONObject(layerFile);
+
+			InputStream inputStream = GeoJSONShapeTest.class.getClassLoader().getResourceAsStream(layerFile);
+			JSONArray features = new JSONObject(Layers2SVGUtils.readFile(inputStream)).getJSONArray("features");
+			inputStream.close();
+
+			// Newline delimited
+			StringBuilder lines = new StringBuilder();
+			// Text sequence (RFC 8142), pretty printed on multiple lines
+			StringBuilder records = new StringBuilder();
+			for (int i=0; i<features.length(); i++) {
+				lines.append(features.getJSONObject(i).toString()).append('\n');
+				records.append('\u001E').append(features.getJSONObject(i).toString(2)).append('\n');
+			}
+
+			GeoJSONShape lineDelimited = new GeoJSONShape(layerFile);
+			lineDelimited.parseSequence(new StringReader(lines.toString()));
+			this.assertSameShapes(layerFile, expected, lineDelimited);
+
+			File gzipFile = new File("/tmp/" + layerFile + "seq.gz");
+			gzipFile.getParentFile().mkdirs();
+			Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(gzipFile)), StandardCharsets.UTF_8);
+			try {
+				writer.write(records.toString());
+			} finally {
+				writer.close();
+			}
+
+			GeoJSONShape compressed = new GeoJSONShape(layerFile);
+			try {
+				compressed.parseSequence(gzipFile);
+			} finally {
+				gzipFile.delete();
+			}
+			this.assertSameShapes(layerFile, expected, compressed);
+		}
+	}
+
+	@Test
+	public void testSequenceParserInvalidRecord() throws Exception {
+		String point = "{ \"type\": \"Feature\", \"properties\": { \"NAME\": \"%s\" }, " +
+				"\"geometry\": { \"type\": \"Point\", \"coordinates\": [ 146.5, -18.2 ] } }";
+		String geoJsonSeq =
+				String.format(point, "first") + "\n" +
+				"{ \"type\": \"Feature\", \"geometry\": { \"type\": \"Point\", \"coordinates\": [ 146.5,\n" +
+				"\n" +
+				"[ 1, 2 ]\n" +
+				String.format(point, "second") + " }\n" +
+				String.format(point, "third") + "\r\n";
+
+		GeoJSONShape shapes = new GeoJSONShape("sequence");
+		shapes.parseSequence(new StringReader(geoJsonSeq));
+
+		List<GeoShape> geoShapes = shapes.getGeoShapes();
+		Assert.assertEquals("Wrong number of shapes", 2, geoShapes.size());
+		Assert.assertEquals("Wrong first shape", "first", geoShapes.get(0).getProperties().get("NAME").getStringValue());
+		Assert.assertEquals("Wrong last shape", "third", geoShapes.get(1).getProperties().get("NAME").getStringValue());
+	}
+
+	private GeoJSONShape parseJSONObject(String layerFile) throws Exception {
+		InputStream inputStream = GeoJSONShapeTest.class.getClassLoader().getResourceAsStream(layerFile);
+		String geoJsonString = Layers2SVGUtils.readFile(inputStream);
+		inputStream.close();
+
+		GeoJSONShape geoJsonShape = new GeoJSONShape(new JSONObject(geoJsonString), layerFile);
+		geoJsonShape.parse();
+		return geoJsonShape;
+	}
+
+	private boolean isInWindow(Object shape, Rectangle2D window) {
+		Rectangle2D bounds = (shape instanceof Point2D) ?
+				new Rectangle2D.Double(((Point2D)shape).getX(), ((Point2D)shape).getY(), 0, 0) :
+				((Shape)shape).getBounds2D();
+		return bounds.getMinX() <= window.getMaxX() && bounds.getMaxX() >= window.getMinX() &&
+				bounds.getMinY() <= window.getMaxY() && bounds.getMaxY() >= window.getMinY();
+	}
+
+	// See BinaryShapeCache file format: magic number, version, source file size, source file last modified
+	private long readCacheSourceLastModified(File cacheFile) throws IOException {
+		DataInputStream inputStream = new DataInputStream(new FileInputStream(cacheFile));
+		try {
+			inputStream.skipBytes(16);
+			return inputStream.readLong();
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	private void assertSameShapes(String layerFile, GeoJSONShape expected, GeoJSONShape actual) {
+		Assert.assertFalse("No shape were found in " + layerFile, expected.getGeoShapes().isEmpty());
+		this.assertSameShapes(layerFile, expected.getGeoShapes(), actual.getGeoShapes());
+	}
+
+	private void assertSameShapes(String layerFile, List<GeoShape> expectedShapes, List<GeoShape> actualShapes) {
+		Assert.assertEquals("Wrong number of shapes in " + layerFile, expectedShapes.size(), actualShapes.size());
+
+		for (int i=0; i<expectedShapes.size(); i++) {
+			GeoShape expectedShape = expectedShapes.get(i);
+			GeoShape actualShape = actualShapes.get(i);
+
+			this.assertSameProperties(layerFile, expectedShape.getProperties(), actualShape.getProperties());
+
+			Object expectedRawShape = expectedShape.getShape();
+			Object actualRawShape = actualShape.getShape();
+			if (expectedRawShape instanceof Point2D) {
+				Assert.assertEquals("Wrong point in " + layerFile, expectedRawShape, actualRawShape);
+			} else {
+				this.assertSamePath(layerFile, (Shape)expectedRawShape, (Shape)actualRawShape);
+			}
+		}
+	}
+
+	private void assertSameProperties(String layerFile, Map<String, PropertyValue> expected, Map<String, PropertyValue> actual) {
+		Assert.assertEquals("Wrong property keys in " + layerFile, expected.keySet(), actual.keySet());
+		for (Map.Entry<String, PropertyValue> expectedEntry : expected.entrySet()) {
+			PropertyValue actualValue = actual.get(expectedEntry.getKey());
+			Assert.assertEquals("Wrong property value for " + expectedEntry.getKey() + " in " + layerFile,
+					expectedEntry.getValue().getStringValue(), actualValue.getStringValue());
+		}
+	}
+
+	private void assertSamePath(String layerFile, Shape expected, Shape actual) {
+		PathIterator expectedIterator = expected.getPathIterator(null);
+		PathIterator actualIterator = actual.getPathIterator(null);
+		Assert.assertEquals("Wrong winding rule in " + layerFile, expectedIterator.getWindingRule(), actualIterator.getWindingRule());
+
+		double[] expectedCoords = new double[6];
+		double[] actualCoords = new double[6];
+		while (!expectedIterator.isDone()) {
+			Assert.assertFalse("Path is too short in " + layerFile, actualIterator.isDone());
+
+			int expectedType = expectedIterator.currentSegment(expectedCoords);
+			int actualType = actualIterator.currentSegment(actualCoords);
+			Assert.assertEquals("Wrong segment type in " + layerFile, expectedType, actualType);
+			if (expectedType != PathIterator.SEG_CLOSE) {
+				Assert.assertEquals("Wrong X coordinate in " + layerFile, expectedCoords[0], actualCoords[0], 0);
+				Assert.assertEquals("Wrong Y coordinate in " + layerFile, expectedCoords[1], actualCoords[1], 0);
+			}
+
+			expectedIterator.next();
+			actualIterator.next();
+		}
+		Assert.assertTrue("Path is too long in " + layerFile, actualIterator.isDone());
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import au.gov.aims.sld.geom.GeoShape;
+import au.gov.aims.sld.geom.GeoShapeGroup;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.io.InputStream;
+
+public class LevelOfDetailTest {
+
+	@Test
+	public void testLevels() throws Exception {
+		String layerFile = "layers/GBR_GBRMPA_GBR-features_Mainland_50m.geojson";
+		GeoJSONShape mainland = new GeoJSONShape(layerFile);
+		InputStream inputStream = LevelOfDetailTest.class.getClassLoader().getResourceAsStream(layerFile);
+		try {
+			mainland.parse(inputStream);
+		} finally {
+			inputStream.close();
+		}
+
+		// Levels are sorted
+		LevelOfDetail lod = new LevelOfDetail(mainland, ShapeSimplifier.Algorithm.DOUGLAS_PEUCKER,
+				0.064, 0.001, 0.016, 0.004);
+		Assert.assertEquals("Wrong number of levels", 4, lod.getLevelCount());
+		Assert.assertEquals("Wrong first level tolerance", 0.001, lod.getTolerance(0), 0);
+
+		int previousPointCount = this.countPoints(mainland);
+		for (int i=0; i<lod.getLevelCount(); i++) {
+			GeoShapeGroup level = lod.getLevel(i);
+			Assert.assertEquals("Wrong number of shapes in level " + i, mainland.getGeoShapes().size(), level.getGeoShapes().size());
+			int pointCount = this.countPoints(level);
+			Assert.assertTrue("Level " + i + " should have less points than the previous level", pointCount < previousPointCount);
+			previousPointCount = pointCount;
+		}
+
+		// 30 pixels per degree (RenderTest); a pixel is 0.033 degree
+		Assert.assertSame("Wrong level for overview map", lod.getLevel(2),
+				lod.getGroup(AffineTransform.getScaleInstance(30, -30)));
+		// 100000 pixels per degree; finer than the most detailed level
+		Assert.assertSame("Wrong level for detailed map", mainland,
+				lod.getGroup(AffineTransform.getScaleInstance(100000, -100000)));
+
+		// 1:3,000,000; a pixel is 840m, about 0.0075 degree
+		Assert.assertSame("Wrong level for scale denominator", lod.getLevel(1),
+				lod.getGroup(3000000, LevelOfDetail.METRES_PER_DEGREE));
+	}
+
+	private int countPoints(GeoShapeGroup group) {
+		int points = 0;
+		double[] coords = new double[6];
+		for (GeoShape geoShape : group.getGeoShapes()) {
+			Shape shape = (Shape)geoShape.getShape();
+			for (PathIterator iterator = shape.getPathIterator(null); !iterator.isDone(); iterator.next()) {
+				if (iterator.currentSegment(coords) != PathIterator.SEG_CLOSE) {
+					points++;
+				}
+			}
+		}
+		return points;
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+
+public class PackedPathTest {
+
+	@Test
+	public void testPolygonWithHole() {
+		Path2D.Double expected = new Path2D.Double(Path2D.WIND_EVEN_ODD);
+		PackedPath.Builder builder = new PackedPath.Builder(2);
+
+		// Outer ring
+		expected.moveTo(0, 0); builder.moveTo(0, 0);
+		expected.lineTo(10, 0); builder.lineTo(10, 0);
+		expected.lineTo(10, 10); builder.lineTo(10, 10);
+		expected.lineTo(0, 10); builder.lineTo(0, 10);
+		expected.closePath();
+
+		// Hole
+		expected.moveTo(4, 4); builder.moveTo(4, 4);
+		expected.lineTo(6, 4); builder.lineTo(6, 4);
+		expected.lineTo(6, 6); builder.lineTo(6, 6);
+		expected.closePath();
+
+		PackedPath polygon = builder.build(Path2D.WIND_EVEN_ODD, true);
+		Assert.assertTrue("The builder should be empty after build", builder.isEmpty());
+
+		Assert.assertEquals("Wrong number of points", 7, polygon.getPointCount());
+		Assert.assertEquals("Wrong number of rings", 2, polygon.getRingCount());
+		Assert.assertEquals("Wrong ring end", 4, polygon.getRingEnd(0));
+
+		this.assertSamePath(expected, polygon, null);
+		this.assertSamePath(expected, polygon, AffineTransform.getScaleInstance(2, -3));
+		Assert.assertEquals("Wrong bounds", expected.getBounds2D(), polygon.getBounds2D());
+
+		Assert.assertTrue("Point should be in the polygon", polygon.contains(2, 2));
+		Assert.assertFalse("Point should be in the hole", polygon.contains(5.5, 4.5));
+		Assert.assertFalse("Point should be outside the polygon", polygon.contains(11, 5));
+		Assert.assertTrue("Rectangle should intersect the polygon", polygon.intersects(new Rectangle2D.Double(9, 9, 5, 5)));
+		Assert.assertFalse("Rectangle should not intersect the polygon", polygon.intersects(new Rectangle2D.Double(20, 20, 5, 5)));
+	}
+
+	@Test
+	public void testLineString() {
+		Path2D.Double expected = new Path2D.Double();
+		expected.moveTo(1.5, -2);
+		expected.lineTo(3, 4.25);
+		expected.lineTo(-7, 8);
+
+		PackedPath line = new PackedPath(new double[] { 1.5, -2, 3, 4.25, -7, 8 }, new int[] { 0 }, Path2D.WIND_NON_ZERO, false);
+
+		this.assertSamePath(expected, line, null);
+		Assert.assertEquals("Wrong bounds", expected.getBounds2D(), line.getBounds2D());
+		Assert.assertFalse("Line should be open", line.isClosed());
+	}
+
+	@Test
+	public void testEmptyPath() {
+		PackedPath empty = new PackedPath.Builder().build(Path2D.WIND_NON_ZERO, false);
+
+		Assert.assertTrue("Path iterator should be done", empty.getPathIterator(null).isDone());
+		Assert.assertEquals("Wrong bounds", new Path2D.Double().getBounds2D(), empty.getBounds2D());
+	}
+
+	private void assertSamePath(Shape expected, Shape actual, AffineTransform transform) {
+		PathIterator expectedIterator = expected.getPathIterator(transform);
+		PathIterator actualIterator = actual.getPathIterator(transform);
+		Assert.assertEquals("Wrong winding rule", expectedIterator.getWindingRule(), actualIterator.getWindingRule());
+
+		double[] expectedCoords = new double[6];
+		double[] actualCoords = new double[6];
+		while (!expectedIterator.isDone()) {
+			Assert.assertFalse("Path is too short", actualIterator.isDone());
+
+			int expectedType = expectedIterator.currentSegment(expectedCoords);
+			int actualType = actualIterator.currentSegment(actualCoords);
+			Assert.assertEquals("Wrong segment type", expectedType, actualType);
+			if (expectedType != PathIterator.SEG_CLOSE) {
+				Assert.assertEquals("Wrong X coordinate", expectedCoords[0], actualCoords[0], 0);
+				Assert.assertEquals("Wrong Y coordinate", expectedCoords[1], actualCoords[1], 0);
+			}
+
+			expectedIterator.next();
+			actualIterator.next();
+		}
+		Assert.assertTrue("Path is too long", actualIterator.isDone());
+	}
+}
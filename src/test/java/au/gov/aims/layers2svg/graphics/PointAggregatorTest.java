@@ -0,0 +1,147 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import au.gov.aims.layers2svg.TestUtils;
+import au.gov.aims.sld.PropertyValue;
+import au.gov.aims.sld.geom.GeoShape;
+import au.gov.aims.sld.geom.GeoShapeGroup;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PointAggregatorTest {
+	private static final String LAYER_CSV_FILE = "layers/World_NE_10m-cities_V3_Ranked.csv";
+
+	@Test
+	public void testThin() throws Exception {
+		GeoShapeGroup group = new GeoShapeGroup("Points");
+		group.add(new Point2D.Double(0.1, 0.1), this.createProperties(3));
+		group.add(new Line2D.Double(0, 0, 5, 5), this.createProperties(0));
+		group.add(new Point2D.Double(0.2, 0.2), this.createProperties(1));
+		group.add(new Point2D.Double(5.1, 0.1), null);
+		group.add(new Point2D.Double(0.3, 0.3), this.createProperties(1));
+		group.add(new Point2D.Double(5.2, 0.2), this.createProperties(2));
+		group.add(new Point2D.Double(9.5, 9.5), this.createProperties(5));
+
+		// 1 pixel per unit, cells of 5 pixels
+		PointAggregator aggregator = new PointAggregator(PointAggregator.Mode.THIN, 5);
+		aggregator.setPriority("RANK", true);
+		List<GeoShape> shapes = aggregator.aggregate(group, new AffineTransform()).getGeoShapes();
+
+		Assert.assertEquals("Wrong number of shapes", 4, shapes.size());
+		// The first point with the lowest rank, in the original order
+		Assert.assertSame("Wrong point", group.getGeoShapes().get(2), shapes.get(0));
+		Assert.assertSame("Wrong point", group.getGeoShapes().get(5), shapes.get(1));
+		Assert.assertSame("Wrong point", group.getGeoShapes().get(6), shapes.get(2));
+		// Other shapes are added after the points
+		Assert.assertSame("Wrong line", group.getGeoShapes().get(1), shapes.get(3));
+
+		// Without priority, the first point of each cell is kept
+		aggregator.setPriority(null, false);
+		shapes = aggregator.aggregate(group, new AffineTransform()).getGeoShapes();
+		Assert.assertSame("Wrong point", group.getGeoShapes().get(0), shapes.get(0));
+		Assert.assertSame("Wrong point", group.getGeoShapes().get(3), shapes.get(1));
+	}
+
+	@Test
+	public void testCluster() throws Exception {
+		GeoShapeGroup group = new GeoShapeGroup("Points");
+		group.add(new Point2D.Double(1, 1), this.createProperties(3));
+		group.add(new Point2D.Double(2, 3), this.createProperties(1));
+		group.add(new Point2D.Double(3, 2), this.createProperties(2));
+		group.add(new Point2D.Double(12, 12), this.createProperties(4));
+
+		// 2 pixels per unit, cells of 10 pixels
+		PointAggregator aggregator = new PointAggregator(PointAggregator.Mode.CLUSTER, 10);
+		aggregator.setPriority("RANK", true);
+		List<GeoShape> shapes = aggregator.aggregate(group, AffineTransform.getScaleInstance(2, 2)).getGeoShapes();
+
+		Assert.assertEquals("Wrong number of clusters", 2, shapes.size());
+		Assert.assertEquals("Wrong cluster centre", new Point2D.Double(2, 2), shapes.get(0).getShape());
+		Assert.assertEquals("Wrong cluster count", Integer.valueOf(3), shapes.get(0).getProperties().get("COUNT").getValue());
+		Assert.assertEquals("Wrong cluster properties", 1, shapes.get(0).getProperties().get("RANK").getDoubleValue(), 0);
+		Assert.assertEquals("Wrong cluster count", Integer.valueOf(1), shapes.get(1).getProperties().get("COUNT").getValue());
+	}
+
+	@Test
+	public void testCities() throws Exception {
+		File csvFile = new File("/tmp/" + LAYER_CSV_FILE);
+		TestUtils.copyResourceToDisk(LAYER_CSV_FILE, csvFile);
+		try {
+			CSVShape cities = new CSVShape(csvFile, "Cities", "LONGITUDE", "LATITUDE");
+			cities.parse();
+			int cityCount = cities.getGeoShapes().size();
+
+			// World map, 1000 pixels wide
+			AffineTransform transform = new AffineTransform(1000.0 / 360, 0, 0, -1000.0 / 360, 500, 250);
+			PointAggregator thin = new PointAggregator(PointAggregator.Mode.THIN, 8);
+			thin.setPriority("SCALERANK", true);
+			List<GeoShape> thinShapes = thin.aggregate(cities, transform).getGeoShapes();
+			Assert.assertTrue("No point removed", thinShapes.size() < cityCount);
+
+			// The result do not change
+			Assert.assertEquals("Not deterministic", thinShapes, thin.aggregate(cities, transform).getGeoShapes());
+
+			// No point of the cell has a higher priority than the kept point
+			Map<Long, Double> cellRanks = new HashMap<Long, Double>();
+			for (GeoShape thinShape : thinShapes) {
+				Long cellKey = this.getCellKey((Point2D)thinShape.getShape(), transform, 8);
+				Assert.assertNull("Many points in the same cell", cellRanks.put(cellKey,
+						thinShape.getProperties().get("SCALERANK").getDoubleValue()));
+			}
+			for (GeoShape city : cities.getGeoShapes()) {
+				Long cellKey = this.getCellKey((Point2D)city.getShape(), transform, 8);
+				Assert.assertTrue("Wrong kept point",
+						cellRanks.get(cellKey) <= city.getProperties().get("SCALERANK").getDoubleValue());
+			}
+
+			PointAggregator cluster = new PointAggregator(PointAggregator.Mode.CLUSTER, 8);
+			List<GeoShape> clusterShapes = cluster.aggregate(cities, transform).getGeoShapes();
+			Assert.assertEquals("Wrong number of clusters", thinShapes.size(), clusterShapes.size());
+			int count = 0;
+			for (GeoShape clusterShape : clusterShapes) {
+				count += (Integer)clusterShape.getProperties().get(PointAggregator.DEFAULT_COUNT_PROPERTY).getValue();
+			}
+			Assert.assertEquals("Wrong number of points in the clusters", cityCount, count);
+		} finally {
+			csvFile.delete();
+		}
+	}
+
+	private Long getCellKey(Point2D point, AffineTransform transform, double cellSize) {
+		Point2D devicePoint = transform.transform(point, null);
+		long cellX = (long)Math.floor(devicePoint.getX() / cellSize);
+		long cellY = (long)Math.floor(devicePoint.getY() / cellSize);
+		return (cellX << 32) | (cellY & 0xFFFFFFFFL);
+	}
+
+	private Map<String, PropertyValue> createProperties(double rank) {
+		Map<String, PropertyValue> properties = new HashMap<String, PropertyValue>();
+		properties.put("RANK", new PropertyValue(rank));
+		return properties;
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import au.gov.aims.sld.PropertyValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class SchemaPropertyMapTest {
+
+	@Test
+	public void testMapOperations() {
+		PropertyInterner interner = new PropertyInterner();
+		PropertyValue reef = interner.internValue("Reef");
+		PropertyValue area = interner.internValue(12.5);
+
+		Map<String, PropertyValue> properties = interner.createMap(
+				Arrays.asList("FEAT_NAME", "AREA"), Arrays.asList(reef, area));
+		Map<String, PropertyValue> expected = new HashMap<String, PropertyValue>();
+		expected.put("FEAT_NAME", reef);
+		expected.put("AREA", area);
+
+		Assert.assertTrue("Wrong map type", properties instanceof SchemaPropertyMap);
+		Assert.assertEquals("Wrong map content", expected, properties);
+		Assert.assertEquals("Wrong map size", 2, properties.size());
+
+		// Key which is not in the schema
+		PropertyValue island = interner.internValue("Island");
+		properties.put("TYPE", island);
+		expected.put("TYPE", island);
+		Assert.assertEquals("Wrong map content after put", expected, properties);
+
+		properties.remove("AREA");
+		expected.remove("AREA");
+		Assert.assertEquals("Wrong map content after remove", expected, properties);
+		Assert.assertFalse("Removed key found", properties.containsKey("AREA"));
+		Assert.assertNull("Removed value found", properties.get("AREA"));
+		Assert.assertEquals("Wrong map size after remove", 2, properties.size());
+	}
+
+	@Test
+	public void testDuplicateKeys() {
+		PropertyInterner interner = new PropertyInterner();
+		PropertyValue first = interner.internValue("first");
+		PropertyValue last = interner.internValue("last");
+
+		Map<String, PropertyValue> properties = interner.createMap(
+				Arrays.asList("NAME", "NAME"), Arrays.asList(first, last));
+
+		Assert.assertEquals("Wrong map size", 1, properties.size());
+		Assert.assertSame("The last value should win", last, properties.get("NAME"));
+	}
+
+	@Test
+	public void testSharedProperties() throws Exception {
+		String geoJson = "{ \"type\": \"FeatureCollection\", \"features\": [ " +
+				"{ \"type\": \"Feature\", \"properties\": { \"FEAT_NAME\": \"Reef\", \"RANK\": 3 }, " +
+					"\"geometry\": { \"type\": \"Point\", \"coordinates\": [ 146.5, -18.2 ] } }, " +
+				"{ \"type\": \"Feature\", \"properties\": { \"FEAT_NAME\": \"Reef\", \"RANK\": 3 }, " +
+					"\"geometry\": { \"type\": \"Point\", \"coordinates\": [ 147.5, -19.2 ] } } ] }";
+
+		GeoJSONShape shapes = new GeoJSONShape("shared");
+		shapes.parse(new StringReader(geoJson));
+
+		Map<String, PropertyValue> first = shapes.getGeoShapes().get(0).getProperties();
+		Map<String, PropertyValue> second = shapes.getGeoShapes().get(1).getProperties();
+
+		Assert.assertSame("The schema should be shared",
+				((SchemaPropertyMap)first).getSchema(), ((SchemaPropertyMap)second).getSchema());
+		Assert.assertSame("String value should be shared", first.get("FEAT_NAME"), second.get("FEAT_NAME"));
+		Assert.assertSame("Number value should be shared", first.get("RANK"), second.get("RANK"));
+	}
+}
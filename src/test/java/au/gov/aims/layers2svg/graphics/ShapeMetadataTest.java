@@ -0,0 +1,87 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import au.gov.aims.layers2svg.Layers2SVGUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+
+public class ShapeMetadataTest {
+
+	@Test
+	public void testPath() {
+		Path2D.Double path = new Path2D.Double();
+		// Closed ring
+		path.moveTo(0, 0);
+		path.lineTo(10, 0);
+		path.lineTo(10, 10);
+		path.closePath();
+		// Open ring, with a curve
+		path.moveTo(20, 5);
+		path.quadTo(25, 2, 30, 5);
+		path.lineTo(30, 8);
+
+		ShapeMetadata metadata = ShapeMetadata.of(path);
+		Assert.assertEquals("Wrong bounds", path.getBounds2D(), metadata.getBounds2D());
+		Assert.assertEquals("Wrong closed", Layers2SVGUtils.isClosed(path), metadata.isClosed());
+		Assert.assertTrue("Wrong curved", metadata.isCurved());
+		Assert.assertEquals("Wrong number of vertices", 6, metadata.getVertexCount());
+		Assert.assertEquals("Wrong number of rings", 2, metadata.getRingCount());
+
+		// Calculated again for a copy of the path
+		ShapeMetadata copyMetadata = ShapeMetadata.of(new Path2D.Double(path));
+		Assert.assertEquals("Wrong bounds of the copy", metadata.getBounds2D(), copyMetadata.getBounds2D());
+		Assert.assertEquals("Wrong number of vertices of the copy", metadata.getVertexCount(), copyMetadata.getVertexCount());
+
+		Assert.assertTrue("Bounds should intersect", metadata.boundsIntersect(new Rectangle2D.Double(25, 5, 10, 10)));
+		Assert.assertFalse("Bounds should not intersect", metadata.boundsIntersect(new Rectangle2D.Double(31, 5, 10, 10)));
+		Assert.assertTrue("Bounds should be inside", metadata.isInside(new Rectangle2D.Double(0, -5, 30, 15)));
+		Assert.assertFalse("Bounds should not be inside", metadata.isInside(new Rectangle2D.Double(0, 0, 29, 15)));
+	}
+
+	@Test
+	public void testPackedPath() {
+		PackedPath polygon = new PackedPath(new double[] { 0, 0, 10, 0, 10, 10, 4, 4, 6, 4, 6, 6 },
+				new int[] { 0, 3 }, Path2D.WIND_EVEN_ODD, true);
+
+		ShapeMetadata metadata = ShapeMetadata.of(polygon);
+		ShapeMetadata iteratorMetadata = ShapeMetadata.calculate(polygon.getPathIterator(null));
+		Assert.assertSame("Metadata not cached", metadata, polygon.getMetadata());
+		Assert.assertEquals("Wrong bounds", iteratorMetadata.getBounds2D(), metadata.getBounds2D());
+		Assert.assertTrue("Wrong closed", metadata.isClosed());
+		Assert.assertEquals("Wrong number of vertices", iteratorMetadata.getVertexCount(), metadata.getVertexCount());
+		Assert.assertEquals("Wrong number of rings", 2, metadata.getRingCount());
+	}
+
+	@Test
+	public void testHorizontalLine() {
+		// Rectangle2D.intersects returns false for empty rectangles
+		ShapeMetadata metadata = ShapeMetadata.of(new Line2D.Double(0, 5, 10, 5));
+		Assert.assertFalse("Line should be open", metadata.isClosed());
+		Assert.assertTrue("Bounds should intersect", metadata.boundsIntersect(new Rectangle2D.Double(2, 0, 5, 10)));
+
+		ShapeMetadata empty = ShapeMetadata.of(new Path2D.Double());
+		Assert.assertEquals("Wrong number of vertices", 0, empty.getVertexCount());
+		Assert.assertFalse("Empty bounds should not intersect", empty.boundsIntersect(new Rectangle2D.Double(-1, -1, 2, 2)));
+	}
+}
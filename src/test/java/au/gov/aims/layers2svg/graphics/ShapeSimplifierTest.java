@@ -0,0 +1,171 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import au.gov.aims.sld.geom.GeoShape;
+import au.gov.aims.sld.geom.GeoShapeGroup;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.io.InputStream;
+
+public class ShapeSimplifierTest {
+
+	@Test
+	public void testLineString() {
+		Path2D.Double line = new Path2D.Double();
+		line.moveTo(0, 0);
+		for (int i=1; i<100; i++) {
+			// Noise smaller than the tolerance
+			line.lineTo(i, (i % 2) * 0.001);
+		}
+		line.lineTo(100, 0);
+
+		for (ShapeSimplifier.Algorithm algorithm : ShapeSimplifier.Algorithm.values()) {
+			PackedPath simplified = (PackedPath)new ShapeSimplifier(algorithm, 0.5).simplify(line);
+
+			Assert.assertFalse("Line should stay open with " + algorithm, simplified.isClosed());
+			Assert.assertEquals("Wrong number of points with " + algorithm, 2, simplified.getPointCount());
+			Assert.assertEquals("Wrong first point with " + algorithm, 0, simplified.getX(0), 0);
+			Assert.assertEquals("Wrong last point with " + algorithm, 100, simplified.getX(1), 0);
+		}
+	}
+
+	@Test
+	public void testPolygon() {
+		// Square with extra vertices along its edges, and a hole
+		Path2D.Double polygon = new Path2D.Double(Path2D.WIND_EVEN_ODD);
+		polygon.moveTo(0, 0);
+		polygon.lineTo(5, 0.02);
+		polygon.lineTo(10, 0);
+		polygon.lineTo(9.98, 5);
+		polygon.lineTo(10, 10);
+		polygon.lineTo(0, 10);
+		polygon.lineTo(0, 0);
+		polygon.closePath();
+		polygon.moveTo(4, 4);
+		polygon.lineTo(6, 4);
+		polygon.lineTo(6, 6);
+		polygon.lineTo(4, 6);
+		polygon.closePath();
+
+		for (ShapeSimplifier.Algorithm algorithm : ShapeSimplifier.Algorithm.values()) {
+			PackedPath simplified = (PackedPath)new ShapeSimplifier(algorithm, 0.5).simplify(polygon);
+
+			Assert.assertTrue("Polygon should stay closed with " + algorithm, simplified.isClosed());
+			Assert.assertEquals("Wrong winding rule with " + algorithm, Path2D.WIND_EVEN_ODD, simplified.getWindingRule());
+			Assert.assertEquals("Wrong number of rings with " + algorithm, 2, simplified.getRingCount());
+			Assert.assertEquals("Wrong number of points in outer ring with " + algorithm, 4, simplified.getRingEnd(0));
+			Assert.assertEquals("Wrong number of points in hole with " + algorithm, 4,
+					simplified.getRingEnd(1) - simplified.getRingStart(1));
+			Assert.assertFalse("Point should be in the hole with " + algorithm, simplified.contains(5, 5));
+		}
+	}
+
+	@Test
+	public void testSmallPolygon() {
+		// Polygon smaller than the tolerance
+		Path2D.Double polygon = new Path2D.Double();
+		polygon.moveTo(0, 0);
+		polygon.lineTo(0.1, 0);
+		polygon.lineTo(0.2, 0.05);
+		polygon.lineTo(0.1, 0.1);
+		polygon.lineTo(0, 0.1);
+		polygon.closePath();
+
+		for (ShapeSimplifier.Algorithm algorithm : ShapeSimplifier.Algorithm.values()) {
+			PackedPath simplified = (PackedPath)new ShapeSimplifier(algorithm, 1).simplify(polygon);
+
+			Assert.assertTrue("Polygon should stay closed with " + algorithm, simplified.isClosed());
+			Assert.assertEquals("Polygon should keep 3 vertices with " + algorithm, 3, simplified.getPointCount());
+		}
+	}
+
+	@Test
+	public void testUnchangedShape() {
+		Path2D.Double triangle = new Path2D.Double();
+		triangle.moveTo(0, 0);
+		triangle.lineTo(10, 0);
+		triangle.lineTo(0, 10);
+		triangle.closePath();
+
+		ShapeSimplifier simplifier = new ShapeSimplifier(ShapeSimplifier.Algorithm.DOUGLAS_PEUCKER, 0.5);
+		Assert.assertSame("Shape should not be copied", triangle, simplifier.simplify(triangle));
+	}
+
+	@Test
+	public void testMainland() throws Exception {
+		String layerFile = "layers/GBR_GBRMPA_GBR-features_Mainland_50m.geojson";
+		GeoJSONShape mainland = new GeoJSONShape(layerFile);
+		InputStream inputStream = ShapeSimplifierTest.class.getClassLoader().getResourceAsStream(layerFile);
+		try {
+			mainland.parse(inputStream);
+		} finally {
+			inputStream.close();
+		}
+
+		// Same scale as the RenderTest
+		AffineTransform transform = AffineTransform.getScaleInstance(30, -30);
+
+		for (ShapeSimplifier.Algorithm algorithm : ShapeSimplifier.Algorithm.values()) {
+			ShapeSimplifier simplifier = new ShapeSimplifier(algorithm, 0.5);
+			int originalPointCount = 0, simplifiedPointCount = 0;
+			for (GeoShape geoShape : mainland.getGeoShapes()) {
+				Shape shape = (Shape)geoShape.getShape();
+				Shape simplified = simplifier.simplify(shape, transform);
+
+				Assert.assertEquals("Wrong number of rings with " + algorithm, this.countRings(shape), this.countRings(simplified));
+				originalPointCount += this.countPoints(shape);
+				simplifiedPointCount += this.countPoints(simplified);
+			}
+			Assert.assertTrue("The layer should be simplified with " + algorithm + ": " +
+					simplifiedPointCount + " / " + originalPointCount, simplifiedPointCount < originalPointCount / 2);
+		}
+
+		// Device coordinates
+		GeoShapeGroup simplifiedGroup = new ShapeSimplifier(ShapeSimplifier.Algorithm.DOUGLAS_PEUCKER, 0.5).simplify(mainland);
+		Assert.assertEquals("Wrong number of shapes", mainland.getGeoShapes().size(), simplifiedGroup.getGeoShapes().size());
+	}
+
+	private int countRings(Shape shape) {
+		int rings = 0;
+		double[] coords = new double[6];
+		for (PathIterator iterator = shape.getPathIterator(null); !iterator.isDone(); iterator.next()) {
+			if (iterator.currentSegment(coords) == PathIterator.SEG_MOVETO) {
+				rings++;
+			}
+		}
+		return rings;
+	}
+
+	private int countPoints(Shape shape) {
+		int points = 0;
+		double[] coords = new double[6];
+		for (PathIterator iterator = shape.getPathIterator(null); !iterator.isDone(); iterator.next()) {
+			if (iterator.currentSegment(coords) != PathIterator.SEG_CLOSE) {
+				points++;
+			}
+		}
+		return points;
+	}
+}
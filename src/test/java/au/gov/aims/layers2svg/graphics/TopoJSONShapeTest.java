@@ -0,0 +1,150 @@
+/*
+ *  Copyright (C) 2016 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.org.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.layers2svg.graphics;
+
+import au.gov.aims.sld.PropertyValue;
+import au.gov.aims.sld.geom.GeoShape;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+
+public class TopoJSONShapeTest {
+
+	/**
+	 * Two squares sharing a border. The border is stored once (arc 1)
+	 * and used in reverse by the second square.
+	 */
+	@Test
+	public void testSharedArcs() throws Exception {
+		String topoJson = "{ \"type\": \"Topology\", " +
+				"\"objects\": { \"squares\": { \"type\": \"GeometryCollection\", \"geometries\": [ " +
+					"{ \"type\": \"Polygon\", \"properties\": { \"NAME\": \"west\" }, \"arcs\": [ [ 0, 1 ] ] }, " +
+					"{ \"type\": \"Polygon\", \"properties\": { \"NAME\": \"east\" }, \"arcs\": [ [ 2, -2 ] ] }, " +
+					"{ \"type\": \"LineString\", \"properties\": { \"NAME\": \"border\" }, \"arcs\": [ 1 ] } ] } }, " +
+				"\"arcs\": [ " +
+					"[ [ 1, 1 ], [ 0, 1 ], [ 0, 0 ], [ 1, 0 ] ], " +
+					"[ [ 1, 0 ], [ 1, 1 ] ], " +
+					"[ [ 1, 0 ], [ 2, 0 ], [ 2, 1 ], [ 1, 1 ] ] ] }";
+
+		String geoJson = "{ \"type\": \"FeatureCollection\", \"features\": [ " +
+				"{ \"type\": \"Feature\", \"properties\": { \"NAME\": \"west\" }, \"geometry\": { \"type\": \"Polygon\", " +
+					"\"coordinates\": [ [ [ 1, 1 ], [ 0, 1 ], [ 0, 0 ], [ 1, 0 ], [ 1, 1 ] ] ] } }, " +
+				"{ \"type\": \"Feature\", \"properties\": { \"NAME\": \"east\" }, \"geometry\": { \"type\": \"Polygon\", " +
+					"\"coordinates\": [ [ [ 1, 0 ], [ 2, 0 ], [ 2, 1 ], [ 1, 1 ], [ 1, 0 ] ] ] } }, " +
+				"{ \"type\": \"Feature\", \"properties\": { \"NAME\": \"border\" }, \"geometry\": { \"type\": \"LineString\", " +
+					"\"coordinates\": [ [ 1, 0 ], [ 1, 1 ] ] } } ] }";
+
+		this.assertSameShapes(geoJson, topoJson, 0);
+	}
+
+	/**
+	 * Example from the TopoJSON specification: quantized, delta encoded arcs.
+	 */
+	@Test
+	public void testQuantizedArcs() throws Exception {
+		String topoJson = "{ \"type\": \"Topology\", " +
+				"\"transform\": { \"scale\": [ 0.0005000500050005, 0.00010001000100010001 ], \"translate\": [ 100, 0 ] }, " +
+				"\"objects\": { \"example\": { \"type\": \"GeometryCollection\", \"geometries\": [ " +
+					"{ \"type\": \"Point\", \"properties\": { \"prop0\": \"value0\" }, \"coordinates\": [ 4000, 5000 ] }, " +
+					"{ \"type\": \"LineString\", \"properties\": { \"prop0\": \"value0\", \"prop1\": 0 }, \"arcs\": [ 0 ] }, " +
+					"{ \"type\": \"Polygon\", \"properties\": { \"prop0\": \"value0\" }, \"arcs\": [ [ 1 ] ] } ] } }, " +
+				"\"arcs\": [ " +
+					"[ [ 4000, 0 ], [ 1999, 9999 ], [ 2000, -9999 ], [ 2000, 9999 ] ], " +
+					"[ [ 0, 0 ], [ 0, 9999 ], [ 2000, 0 ], [ 0, -9999 ], [ -2000, 0 ] ] ] }";
+
+		String geoJson = "{ \"type\": \"FeatureCollection\", \"features\": [ " +
+				"{ \"type\": \"Feature\", \"properties\": { \"prop0\": \"value0\" }, \"geometry\": { \"type\": \"Point\", " +
+					"\"coordinates\": [ 102, 0.5 ] } }, " +
+				"{ \"type\": \"Feature\", \"properties\": { \"prop0\": \"value0\", \"prop1\": 0 }, \"geometry\": { \"type\": \"LineString\", " +
+					"\"coordinates\": [ [ 102, 0 ], [ 103, 1 ], [ 104, 0 ], [ 105, 1 ] ] } }, " +
+				"{ \"type\": \"Feature\", \"properties\": { \"prop0\": \"value0\" }, \"geometry\": { \"type\": \"Polygon\", " +
+					"\"coordinates\": [ [ [ 100, 0 ], [ 100, 1 ], [ 101, 1 ], [ 101, 0 ], [ 100, 0 ] ] ] } } ] }";
+
+		this.assertSameShapes(geoJson, topoJson, 0.001);
+	}
+
+	private void assertSameShapes(String geoJson, String topoJson, double delta) throws Exception {
+		GeoJSONShape expected = new GeoJSONShape("expected");
+		expected.parse(new StringReader(geoJson));
+
+		TopoJSONShape actual = new TopoJSONShape(new JSONObject(topoJson), "actual");
+		actual.parse();
+
+		List<GeoShape> expectedShapes = expected.getGeoShapes();
+		List<GeoShape> actualShapes = actual.getGeoShapes();
+		Assert.assertEquals("Wrong number of shapes", expectedShapes.size(), actualShapes.size());
+		for (int i=0; i<expectedShapes.size(); i++) {
+			GeoShape expectedShape = expectedShapes.get(i);
+			GeoShape actualShape = actualShapes.get(i);
+			this.assertSameProperties(expectedShape.getProperties(), actualShape.getProperties());
+
+			Object expectedRawShape = expectedShape.getShape();
+			Object actualRawShape = actualShape.getShape();
+			if (expectedRawShape instanceof Point2D) {
+				Assert.assertTrue("Shape " + i + " should be a point", actualRawShape instanceof Point2D);
+				Point2D expectedPoint = (Point2D)expectedRawShape;
+				Point2D actualPoint = (Point2D)actualRawShape;
+				Assert.assertEquals("Wrong X coordinate", expectedPoint.getX(), actualPoint.getX(), delta);
+				Assert.assertEquals("Wrong Y coordinate", expectedPoint.getY(), actualPoint.getY(), delta);
+			} else {
+				this.assertSamePath((Shape)expectedRawShape, (Shape)actualRawShape, delta);
+			}
+		}
+	}
+
+	private void assertSameProperties(Map<String, PropertyValue> expected, Map<String, PropertyValue> actual) {
+		Assert.assertEquals("Wrong property keys", expected.keySet(), actual.keySet());
+		for (Map.Entry<String, PropertyValue> expectedEntry : expected.entrySet()) {
+			PropertyValue actualValue = actual.get(expectedEntry.getKey());
+			Assert.assertEquals("Wrong property value for " + expectedEntry.getKey(),
+					expectedEntry.getValue().getStringValue(), actualValue.getStringValue());
+		}
+	}
+
+	private void assertSamePath(Shape expected, Shape actual, double delta) {
+		PathIterator expectedIterator = expected.getPathIterator(null);
+		PathIterator actualIterator = actual.getPathIterator(null);
+		Assert.assertEquals("Wrong winding rule", expectedIterator.getWindingRule(), actualIterator.getWindingRule());
+
+		double[] expectedCoords = new double[6];
+		double[] actualCoords = new double[6];
+		while (!expectedIterator.isDone()) {
+			Assert.assertFalse("Path is too short", actualIterator.isDone());
+
+			int expectedType = expectedIterator.currentSegment(expectedCoords);
+			int actualType = actualIterator.currentSegment(actualCoords);
+			Assert.assertEquals("Wrong segment type", expectedType, actualType);
+			if (expectedType != PathIterator.SEG_CLOSE) {
+				Assert.assertEquals("Wrong X coordinate", expectedCoords[0], actualCoords[0], delta);
+				Assert.assertEquals("Wrong Y coordinate", expectedCoords[1], actualCoords[1], delta);
+			}
+
+			expectedIterator.next();
+			actualIterator.next();
+		}
+		Assert.assertTrue("Path is too long", actualIterator.isDone());
+	}
+}